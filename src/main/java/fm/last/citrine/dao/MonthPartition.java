@@ -0,0 +1,121 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.dao;
+
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * A partition of a table range partitioned by month, named pYYYYMM after the month it holds (e.g. p201003 holds rows
+ * from March 2010). Each partition holds the rows with a date before the start of the following month, so the oldest
+ * partition also holds any rows from earlier months.
+ */
+public class MonthPartition implements Comparable<MonthPartition> {
+
+  /**
+   * Name of the partition holding all rows dated after the last month partition.
+   */
+  public static final String MAX_PARTITION_NAME = "pmax";
+
+  private static final DateTimeFormatter NAME_FORMAT = DateTimeFormat.forPattern("'p'yyyyMM");
+
+  private static final DateTimeFormatter DATE_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd");
+
+  private final DateTime start;
+
+  private MonthPartition(DateTime start) {
+    this.start = start;
+  }
+
+  /**
+   * @param date A date.
+   * @return The partition for the month containing the passed date.
+   */
+  public static MonthPartition forDate(DateTime date) {
+    return new MonthPartition(date.withDayOfMonth(1).withTimeAtStartOfDay());
+  }
+
+  /**
+   * @param name Partition name.
+   * @return The partition with the passed name, or null if it isn't the name of a month partition.
+   */
+  public static MonthPartition forName(String name) {
+    if (name == null || !name.matches("p\\d{6}")) {
+      return null;
+    }
+    return forDate(NAME_FORMAT.parseDateTime(name));
+  }
+
+  public String getName() {
+    return NAME_FORMAT.print(start);
+  }
+
+  /**
+   * @return The start of the month this partition is for.
+   */
+  public DateTime getStart() {
+    return start;
+  }
+
+  /**
+   * @return The start of the following month, all rows in this partition are dated before this.
+   */
+  public DateTime getEnd() {
+    return start.plusMonths(1);
+  }
+
+  /**
+   * @return The partition for the following month.
+   */
+  public MonthPartition next() {
+    return new MonthPartition(getEnd());
+  }
+
+  /**
+   * @return The definition of this partition for use in "alter table" statements.
+   */
+  public String getDefinition() {
+    return "partition " + getName() + " values less than (to_days('" + DATE_FORMAT.print(getEnd()) + "'))";
+  }
+
+  @Override
+  public int compareTo(MonthPartition other) {
+    return start.compareTo(other.start);
+  }
+
+  @Override
+  public int hashCode() {
+    return start.hashCode();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof MonthPartition)) {
+      return false;
+    }
+    return start.equals(((MonthPartition) obj).start);
+  }
+
+  @Override
+  public String toString() {
+    return getName();
+  }
+
+}
@@ -22,6 +22,7 @@ import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
 import org.hibernate.Criteria;
+import org.hibernate.Hibernate;
 import org.hibernate.Session;
 import org.hibernate.criterion.Expression;
 import org.springframework.orm.hibernate3.HibernateCallback;
@@ -56,6 +57,32 @@ public class TaskDAO extends HibernateDaoSupport {
     return (Task) getHibernateTemplate().get(Task.class, id);
   }
 
+  /**
+   * Retrieves a Task along with its parents and children, and their children and parents in turn, for when the
+   * relationships between Tasks are going to be changed. The parents and children are loaded lazily, in batches.
+   * 
+   * @param id Task id.
+   * @return Task identified by the passed id.
+   */
+  public Task getWithParentsAndChildren(final long id) {
+    return (Task) getHibernateTemplate().execute(new HibernateCallback() {
+
+      public Object doInHibernate(Session session) {
+        Task task = (Task) session.get(Task.class, id);
+        if (task != null) {
+          for (Task parent : task.getParentTasks()) {
+            Hibernate.initialize(parent.getChildTasks());
+          }
+          for (Task child : task.getChildTasks()) {
+            Hibernate.initialize(child.getParentTasks());
+          }
+        }
+        return task;
+      }
+
+    });
+  }
+
   /**
    * Retrieves all Tasks in storage.
    * 
@@ -65,6 +92,16 @@ public class TaskDAO extends HibernateDaoSupport {
     return getHibernateTemplate().find("from Task order by name asc");
   }
 
+  /**
+   * Retrieves all Tasks in storage along with their children, using a single query. Their parents aren't loaded.
+   * 
+   * @return List of all Tasks in storage.
+   */
+  public List<Task> getTasksWithChildTasks() {
+    return getHibernateTemplate().find(
+        "select distinct t from Task t left join fetch t.childTasks order by t.name asc");
+  }
+
   /**
    * Retrieves all Tasks belonging to the same group.
    * 
@@ -93,12 +130,14 @@ public class TaskDAO extends HibernateDaoSupport {
    * @return Set of candidate child Tasks.
    */
   public Set<Task> findCandidateChildren(final Task task) {
-    final Set<Long> parentTasklds = task.getParentTaskIds(true);
-    final Set<Long> childTaskIds = task.getChildTaskIds(false);
-
     List<Task> taskList = (List<Task>) this.getHibernateTemplate().execute(new HibernateCallback() {
 
       public Object doInHibernate(Session session) {
+        // walk the parents of the copy of the task in this session, as they are loaded lazily
+        Task attached = (Task) session.get(Task.class, task.getId());
+        Set<Long> parentTasklds = (attached == null ? task : attached).getParentTaskIds(true);
+        Set<Long> childTaskIds = (attached == null ? task : attached).getChildTaskIds(false);
+
         Criteria criteria = session.createCriteria(Task.class);
         criteria.add(Expression.eq("groupName", task.getGroupName()));
         criteria.add(Expression.not(Expression.eq("id", task.getId())));
@@ -122,26 +161,32 @@ public class TaskDAO extends HibernateDaoSupport {
    * 
    * @param task Task to delete;
    */
-  public void delete(Task task) {
-    // need to remove this Task as parent from all children
-    Set<Task> childTasks = task.getChildTasks();
-    if (childTasks != null) {
-      for (Task child : childTasks) {
-        child.removeParentTask(task);
-        save(child);
-      }
-    }
-
-    // need to remove this Task as a child of its parent
-    Set<Task> parentTasks = task.getParentTasks();
-    if (parentTasks != null) {
-      for (Task parent : parentTasks) {
-        parent.removeChildTask(task);
-        save(parent);
+  public void delete(final Task task) {
+    getHibernateTemplate().execute(new HibernateCallback() {
+
+      public Object doInHibernate(Session session) {
+        // the passed task may not have its parents and children loaded, so work on the copy of it in this session
+        Task attached = (Task) session.get(Task.class, task.getId());
+        if (attached == null) {
+          return null;
+        }
+
+        // need to remove this Task as parent from all children
+        for (Task child : attached.getChildTasks()) {
+          child.removeParentTask(attached);
+        }
+
+        // need to remove this Task as a child of its parent
+        for (Task parent : attached.getParentTasks()) {
+          parent.removeChildTask(attached);
+        }
+
+        session.delete(attached);
+        session.flush();
+        return null;
       }
-    }
 
-    getHibernateTemplate().delete(task);
+    });
   }
 
 }
@@ -15,20 +15,36 @@
  */
 package fm.last.citrine.dao;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
+import org.hibernate.Hibernate;
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
+import org.hibernate.SQLQuery;
 import org.hibernate.Session;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.SessionImplementor;
 import org.joda.time.DateTime;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.orm.hibernate3.HibernateCallback;
 import org.springframework.orm.hibernate3.support.HibernateDaoSupport;
 
 import fm.last.citrine.model.Status;
+import fm.last.citrine.model.TableConstants;
 import fm.last.citrine.model.TaskRun;
+import fm.last.citrine.model.TaskRunOutput;
+import fm.last.citrine.model.TaskRunSummary;
 
 /**
  * Data Access Object for managing storage of TaskRuns.
@@ -43,12 +59,95 @@ public class TaskRunDAO extends HibernateDaoSupport {
   private int maxTaskRunResults = 0;
 
   /**
-   * Creates a or updates a TaskRun object in storage.
+   * Creates a or updates a TaskRun object in storage. If the TaskRun has any sysout, syserr or stack trace set these
+   * are saved as its TaskRunOutput, otherwise any previously saved output is left as it is.
    * 
    * @param taskRun TaskRun to save.
    */
   public void save(TaskRun taskRun) {
     getHibernateTemplate().saveOrUpdate(taskRun);
+    TaskRunOutput output = TaskRunOutput.of(taskRun);
+    if (output != null) {
+      getHibernateTemplate().merge(output);
+    }
+  }
+
+  /**
+   * Allocates an id for a new TaskRun without saving it, so it can be used before the TaskRun is written by saveAll().
+   * Ids are reserved in blocks of TaskRun.ID_BLOCK_SIZE, so this only goes to the database once per block.
+   * 
+   * @return A TaskRun id which hasn't been used before.
+   */
+  public long allocateId() {
+    return (Long) getHibernateTemplate().execute(new HibernateCallback() {
+      @Override
+      public Object doInHibernate(Session session) throws HibernateException, SQLException {
+        SessionFactoryImplementor factory = (SessionFactoryImplementor) session.getSessionFactory();
+        return factory.getIdentifierGenerator(TaskRun.class.getName()).generate((SessionImplementor) session, null);
+      }
+    });
+  }
+
+  /**
+   * Creates or updates the state (status, dates and any output) of TaskRuns using JDBC batches, which is much quicker
+   * than saving them one at a time. Each TaskRun must already have an id, either from being saved by save() or from
+   * allocateId(). Updating a TaskRun increments its version in the database the same way save() does, so a TaskRun
+   * loaded after this can still be saved by save(), and save() fails for TaskRuns which are older than that.
+   * 
+   * @param taskRuns TaskRuns to save.
+   */
+  public void saveAll(final Collection<TaskRun> taskRuns) {
+    getHibernateTemplate().execute(new HibernateCallback() {
+      @Override
+      public Object doInHibernate(Session session) throws HibernateException, SQLException {
+        Connection connection = ((SessionImplementor) session).connection();
+        List<TaskRun> withOutput = new ArrayList<TaskRun>(taskRuns.size());
+        PreparedStatement statement = connection.prepareStatement("insert into " + TableConstants.TABLE_TASK_RUNS
+            + " (id, version, taskId, status, startDate, endDate) values (?, ?, ?, ?, ?, ?) on duplicate key update"
+            + " version = version + 1, status = values(status), startDate = values(startDate),"
+            + " endDate = values(endDate)");
+        try {
+          for (TaskRun taskRun : taskRuns) {
+            statement.setLong(1, taskRun.getId());
+            statement.setInt(2, taskRun.getVersion());
+            statement.setLong(3, taskRun.getTaskId());
+            statement.setString(4, taskRun.getStatus() == null ? null : taskRun.getStatus().name());
+            statement.setTimestamp(5, toTimestamp(taskRun.getStartDate()));
+            statement.setTimestamp(6, toTimestamp(taskRun.getEndDate()));
+            statement.addBatch();
+            if (TaskRunOutput.of(taskRun) != null) {
+              withOutput.add(taskRun);
+            }
+          }
+          statement.executeBatch();
+        } finally {
+          statement.close();
+        }
+        if (withOutput.isEmpty()) {
+          return null;
+        }
+        statement = connection.prepareStatement("insert into " + TableConstants.TABLE_TASK_RUN_OUTPUTS
+            + " (taskRunId, sysOut, sysErr, stackTrace) values (?, ?, ?, ?) on duplicate key update"
+            + " sysOut = values(sysOut), sysErr = values(sysErr), stackTrace = values(stackTrace)");
+        try {
+          for (TaskRun taskRun : withOutput) {
+            statement.setLong(1, taskRun.getId());
+            statement.setString(2, taskRun.getSysOut());
+            statement.setString(3, taskRun.getSysErr());
+            statement.setString(4, taskRun.getStackTrace());
+            statement.addBatch();
+          }
+          statement.executeBatch();
+        } finally {
+          statement.close();
+        }
+        return null;
+      }
+    });
+  }
+
+  private static Timestamp toTimestamp(Date date) {
+    return date == null ? null : new Timestamp(date.getTime());
   }
 
   /**
@@ -61,6 +160,16 @@ public class TaskRunDAO extends HibernateDaoSupport {
     return (TaskRun) getHibernateTemplate().get(TaskRun.class, id);
   }
 
+  /**
+   * Retrieves the output of a TaskRun.
+   * 
+   * @param taskRunId TaskRun id.
+   * @return The output of the TaskRun identified by the passed id, or null if it has none.
+   */
+  public TaskRunOutput getOutput(long taskRunId) {
+    return (TaskRunOutput) getHibernateTemplate().get(TaskRunOutput.class, taskRunId);
+  }
+
   /**
    * Finds TaskRuns that belong to a certain Task. Returned List is ordered by TaskRun creation (most recent TaskRun
    * first).
@@ -85,6 +194,76 @@ public class TaskRunDAO extends HibernateDaoSupport {
     });
   }
 
+  /**
+   * Finds summaries of the TaskRuns that belong to a certain Task which were created before the TaskRun with the passed
+   * id. Pages of TaskRuns are selected by id rather than by position so the (taskId, id) index can be used to go
+   * straight to the start of the page, however many TaskRuns come before it. Returned List is ordered by TaskRun
+   * creation (most recent TaskRun first).
+   * 
+   * @param taskId The Task ID.
+   * @param beforeId Only TaskRuns with a lower id than this are returned, Long.MAX_VALUE to start from the most recent.
+   * @param maxResults The maximum number of results.
+   * @return List of matching TaskRun summaries.
+   */
+  public List<TaskRunSummary> findSummariesBefore(long taskId, long beforeId, int maxResults) {
+    return findSummaries(taskId, "tr.id < :id order by tr.id desc", beforeId, maxResults);
+  }
+
+  /**
+   * Finds summaries of the TaskRuns that belong to a certain Task which were created after the TaskRun with the passed
+   * id, i.e. the page of TaskRuns preceding it. Returned List is ordered by TaskRun creation (most recent TaskRun
+   * first).
+   * 
+   * @param taskId The Task ID.
+   * @param afterId Only the TaskRuns created directly after the one with this id are returned.
+   * @param maxResults The maximum number of results.
+   * @return List of matching TaskRun summaries.
+   */
+  public List<TaskRunSummary> findSummariesAfter(long taskId, long afterId, int maxResults) {
+    List<TaskRunSummary> summaries = findSummaries(taskId, "tr.id > :id order by tr.id asc", afterId, maxResults);
+    Collections.reverse(summaries);
+    return summaries;
+  }
+
+  /**
+   * Runs a query for TaskRun summaries, which only reads the columns needed from the task runs table and checks for
+   * output using the primary key of the outputs table, without loading any entities into the session.
+   */
+  private List<TaskRunSummary> findSummaries(final long taskId, final String condition, final long id,
+      final int maxResults) {
+    List<Object[]> rows = getHibernateTemplate().executeFind(new HibernateCallback() {
+      @Override
+      public Object doInHibernate(Session session) throws HibernateException, SQLException {
+        SQLQuery query = session.createSQLQuery("select tr.id, tr.taskId, tr.status, tr.startDate, tr.endDate,"
+            + " case when o.sysOut <> '' then 1 else 0 end as hasSysOut,"
+            + " case when o.sysErr <> '' then 1 else 0 end as hasSysErr,"
+            + " case when o.stackTrace <> '' then 1 else 0 end as hasStackTrace from "
+            + TableConstants.TABLE_TASK_RUNS + " tr left outer join " + TableConstants.TABLE_TASK_RUN_OUTPUTS
+            + " o on o.taskRunId = tr.id where tr.taskId = :taskId and " + condition);
+        query.addScalar("id", Hibernate.LONG);
+        query.addScalar("taskId", Hibernate.LONG);
+        query.addScalar("status", Hibernate.STRING);
+        query.addScalar("startDate", Hibernate.TIMESTAMP);
+        query.addScalar("endDate", Hibernate.TIMESTAMP);
+        query.addScalar("hasSysOut", Hibernate.INTEGER);
+        query.addScalar("hasSysErr", Hibernate.INTEGER);
+        query.addScalar("hasStackTrace", Hibernate.INTEGER);
+        query.setLong("taskId", taskId);
+        query.setLong("id", id);
+        query.setMaxResults(maxResults);
+        return query.list();
+      }
+    });
+
+    List<TaskRunSummary> summaries = new ArrayList<TaskRunSummary>(rows.size());
+    for (Object[] row : rows) {
+      Status status = row[2] == null ? null : Status.valueOf((String) row[2]);
+      summaries.add(new TaskRunSummary((Long) row[0], (Long) row[1], status, (Date) row[3], (Date) row[4],
+          ((Integer) row[5]) == 1, ((Integer) row[6]) == 1, ((Integer) row[7]) == 1));
+    }
+    return summaries;
+  }
+
   /**
    * Finds TaskRuns that belong to a certain Task. Returned List is ordered by TaskRun creation (most recent TaskRun
    * first).
@@ -102,6 +281,7 @@ public class TaskRunDAO extends HibernateDaoSupport {
    * @param taskRunId ID of the TaskRun to delete.
    */
   public void delete(long taskRunId) {
+    getHibernateTemplate().bulkUpdate("delete from TaskRunOutput where taskRunId=?", taskRunId);
     getHibernateTemplate().bulkUpdate("delete from TaskRun where id=?", taskRunId);
   }
 
@@ -111,6 +291,8 @@ public class TaskRunDAO extends HibernateDaoSupport {
    * @param taskId Task ID.
    */
   public void deleteByTaskId(long taskId) {
+    getHibernateTemplate().bulkUpdate(
+        "delete from TaskRunOutput where taskRunId in (select id from TaskRun where taskId=?)", taskId);
     getHibernateTemplate().bulkUpdate("delete from TaskRun where taskId=?", taskId);
   }
 
@@ -120,23 +302,176 @@ public class TaskRunDAO extends HibernateDaoSupport {
    * @param before DateTime to delete TaskRuns before (inclusive).
    */
   public void deleteBefore(DateTime before) {
+    getHibernateTemplate().bulkUpdate(
+        "delete from TaskRunOutput where taskRunId in (select id from TaskRun where endDate<=?)", before.toDate());
     getHibernateTemplate().bulkUpdate("delete from TaskRun where endDate<=?", before.toDate());
   }
 
   /**
-   * Determines whether there are any open (running or initialising) TaskRuns for the Task identified by the passed ID.
+   * Deletes the TaskRuns with the oldest end dates on or before the passed date, up to the passed maximum number. Only
+   * the TaskRuns being deleted are locked, so large numbers of old TaskRuns can be deleted by calling this repeatedly
+   * without holding up the creation of new ones. The TaskRuns to delete are found using the i_task_runs_endDate index.
+   * 
+   * @param before DateTime to delete TaskRuns before (inclusive).
+   * @param maxTaskRuns The maximum number of TaskRuns to delete.
+   * @return The ids of the TaskRuns which were deleted, in ascending order.
+   */
+  public List<Long> deleteBefore(final DateTime before, final int maxTaskRuns) {
+    List<Long> taskRunIds = getHibernateTemplate().executeFind(new HibernateCallback() {
+      @Override
+      public Object doInHibernate(Session session) throws HibernateException, SQLException {
+        Query query = session.createQuery("select id from TaskRun where endDate<=:before order by endDate");
+        query.setTimestamp("before", before.toDate());
+        query.setMaxResults(maxTaskRuns);
+        return query.list();
+      }
+    });
+    if (taskRunIds.isEmpty()) {
+      return taskRunIds;
+    }
+    Collections.sort(taskRunIds); // delete in primary key order
+    deleteByIds(taskRunIds);
+    return taskRunIds;
+  }
+
+  private void deleteByIds(final List<Long> taskRunIds) {
+    getHibernateTemplate().execute(new HibernateCallback() {
+      @Override
+      public Object doInHibernate(Session session) throws HibernateException, SQLException {
+        Query query = session.createQuery("delete from TaskRunOutput where taskRunId in (:ids)");
+        query.setParameterList("ids", taskRunIds);
+        query.executeUpdate();
+        query = session.createQuery("delete from TaskRun where id in (:ids)");
+        query.setParameterList("ids", taskRunIds);
+        return query.executeUpdate();
+      }
+    });
+  }
+
+  /**
+   * Gets the month partitions of the task runs table, which is only partitioned if this has been set up manually (see
+   * citrine-partition-task-runs-mysql.sql).
+   * 
+   * @return The month partitions of the task runs table, oldest first, empty if the table isn't partitioned by month.
+   */
+  public List<MonthPartition> getPartitions() {
+    List<String> names = getHibernateTemplate().executeFind(new HibernateCallback() {
+      @Override
+      public Object doInHibernate(Session session) throws HibernateException, SQLException {
+        SQLQuery query = session.createSQLQuery("select partition_name from information_schema.partitions"
+            + " where table_schema = database() and table_name = :tableName and partition_name is not null"
+            + " order by partition_ordinal_position");
+        query.setString("tableName", TableConstants.TABLE_TASK_RUNS);
+        return query.list();
+      }
+    });
+    List<MonthPartition> partitions = new ArrayList<MonthPartition>();
+    for (String name : names) {
+      MonthPartition partition = MonthPartition.forName(name);
+      if (partition != null) {
+        partitions.add(partition);
+      }
+    }
+    return partitions;
+  }
+
+  /**
+   * Drops the month partitions of the task runs table which only hold TaskRuns that ended on or before the passed
+   * date, which removes them in one go rather than row by row. The oldest partitions are dropped first, stopping at
+   * the first one holding a TaskRun which is still running or ended after the passed date (this can happen if a
+   * TaskRun started before the end of the partition's month but finished after it). The most recent partition is
+   * never dropped.
+   * 
+   * @param before DateTime to delete TaskRuns before (inclusive).
+   * @return The number of partitions dropped.
+   */
+  public int dropPartitionsBefore(final DateTime before) {
+    List<MonthPartition> partitions = getPartitions();
+    int dropped = 0;
+    for (int i = 0; i < partitions.size() - 1; i++) {
+      final MonthPartition partition = partitions.get(i);
+      if (partition.getEnd().isAfter(before) || !isEnded(partition.getEnd(), before)) {
+        break;
+      }
+      getHibernateTemplate().execute(new HibernateCallback() {
+        @Override
+        public Object doInHibernate(Session session) throws HibernateException, SQLException {
+          return session.createSQLQuery("alter table " + TableConstants.TABLE_TASK_RUNS + " drop partition "
+              + partition.getName()).executeUpdate();
+        }
+      });
+      log.info("Dropped task runs partition " + partition);
+      dropped++;
+    }
+    return dropped;
+  }
+
+  /**
+   * Determines whether all TaskRuns started before the passed date ended on or before the other passed date. Only the
+   * partitions holding TaskRuns started before the passed date are read.
+   */
+  private boolean isEnded(DateTime startedBefore, DateTime endedBefore) {
+    int count = DataAccessUtils.intResult(getHibernateTemplate().find(
+        "select count(*) from TaskRun where startDate < ? and (endDate is null or endDate > ?)",
+        new Object[] { startedBefore.toDate(), endedBefore.toDate() }));
+    return count == 0;
+  }
+
+  /**
+   * Adds month partitions to the task runs table so there is one for every month up to and including the month of the
+   * passed date, by splitting them off the catch all "pmax" partition. This does nothing if the table isn't
+   * partitioned.
    * 
-   * @param taskId The task ID.
-   * @return True if there are running tasks, false otherwise.
+   * @param until Date to add partitions up to.
+   * @return The number of partitions added.
    */
-  public boolean isRunning(long taskId) {
-    int count = DataAccessUtils.intResult(getHibernateTemplate().findByNamedParam(
-        "select count(*) from TaskRun where taskId = :taskId AND (status = 'RUNNING' OR status = 'INITIALISING')",
-        "taskId", taskId));
-    if (count > 0) {
-      return true;
+  public int addPartitionsUntil(DateTime until) {
+    List<MonthPartition> partitions = getPartitions();
+    if (partitions.isEmpty()) {
+      return 0;
+    }
+    MonthPartition last = MonthPartition.forDate(until);
+    final StringBuilder definitions = new StringBuilder();
+    int added = 0;
+    MonthPartition partition = partitions.get(partitions.size() - 1).next();
+    while (partition.compareTo(last) <= 0) {
+      definitions.append(partition.getDefinition()).append(", ");
+      partition = partition.next();
+      added++;
     }
-    return false;
+    if (added > 0) {
+      getHibernateTemplate().execute(new HibernateCallback() {
+        @Override
+        public Object doInHibernate(Session session) throws HibernateException, SQLException {
+          return session.createSQLQuery("alter table " + TableConstants.TABLE_TASK_RUNS + " reorganize partition "
+              + MonthPartition.MAX_PARTITION_NAME + " into (" + definitions + "partition "
+              + MonthPartition.MAX_PARTITION_NAME + " values less than maxvalue)").executeUpdate();
+        }
+      });
+      log.info("Added " + added + " task runs partitions up to " + last);
+    }
+    return added;
+  }
+
+  /**
+   * Deletes the output of TaskRuns with ids lower than any remaining TaskRun, which is left behind when partitions of
+   * the task runs table are dropped.
+   * 
+   * @param maxOutputs The maximum number of outputs to delete.
+   * @return The number of outputs deleted, if this is less than maxOutputs there are none left.
+   */
+  public int deleteOrphanedOutputs(final int maxOutputs) {
+    return (Integer) getHibernateTemplate().execute(new HibernateCallback() {
+      @Override
+      public Object doInHibernate(Session session) throws HibernateException, SQLException {
+        Number minId = (Number) session.createSQLQuery("select min(id) from " + TableConstants.TABLE_TASK_RUNS)
+            .uniqueResult();
+        SQLQuery query = session.createSQLQuery("delete from " + TableConstants.TABLE_TASK_RUN_OUTPUTS
+            + " where taskRunId < :minId order by taskRunId limit " + maxOutputs);
+        query.setLong("minId", minId == null ? Long.MAX_VALUE : minId.longValue());
+        return query.executeUpdate();
+      }
+    });
   }
 
   /**
@@ -164,6 +499,64 @@ public class TaskRunDAO extends HibernateDaoSupport {
     }
   }
 
+  /**
+   * Gets the most recent TaskRun (i.e. with the latest StartDate) for each of the passed tasks using a single query.
+   * 
+   * @param taskIds Ids of the tasks.
+   * @return Map where the key is the task id and the value is its most recent TaskRun. Tasks which have no TaskRuns
+   *         will not have an entry in the map.
+   */
+  public Map<Long, TaskRun> getMostRecentTaskRuns(final Collection<Long> taskIds) {
+    if (taskIds == null || taskIds.isEmpty()) {
+      return new HashMap<Long, TaskRun>();
+    }
+    return findMostRecentTaskRuns(taskIds);
+  }
+
+  /**
+   * Gets the most recent TaskRun (i.e. with the latest StartDate) for every task that has at least one TaskRun.
+   * 
+   * @return Map where the key is the task id and the value is its most recent TaskRun.
+   */
+  public Map<Long, TaskRun> getMostRecentTaskRuns() {
+    return findMostRecentTaskRuns(null);
+  }
+
+  /**
+   * Runs the groupwise-max query which finds the most recent TaskRun per task.
+   * 
+   * @param taskIds Ids of the tasks to restrict the query to, or null for all tasks.
+   * @return Map of task id to most recent TaskRun.
+   */
+  private Map<Long, TaskRun> findMostRecentTaskRuns(final Collection<Long> taskIds) {
+    List<TaskRun> taskRuns = getHibernateTemplate().executeFind(new HibernateCallback() {
+      @Override
+      public Object doInHibernate(Session session) throws HibernateException, SQLException {
+        // groupwise max, the derived table is resolved using the i_task_runs_taskId_startDate index
+        String where = taskIds == null ? "" : " where taskId in (:taskIds)";
+        SQLQuery query = session.createSQLQuery("select {tr.*} from " + TableConstants.TABLE_TASK_RUNS
+            + " tr inner join (select taskId, max(startDate) as maxStartDate from " + TableConstants.TABLE_TASK_RUNS
+            + where + " group by taskId) latest"
+            + " on tr.taskId = latest.taskId and tr.startDate = latest.maxStartDate");
+        query.addEntity("tr", TaskRun.class);
+        if (taskIds != null) {
+          query.setParameterList("taskIds", taskIds);
+        }
+        return query.list();
+      }
+    });
+
+    Map<Long, TaskRun> mostRecent = new HashMap<Long, TaskRun>();
+    for (TaskRun taskRun : taskRuns) {
+      TaskRun existing = mostRecent.get(taskRun.getTaskId());
+      // more than one run can share the same start date, in which case the last one created wins
+      if (existing == null || existing.getId() < taskRun.getId()) {
+        mostRecent.put(taskRun.getTaskId(), taskRun);
+      }
+    }
+    return mostRecent;
+  }
+
   /**
    * Updates the status of any tasks not considered complete as interrupted. This is typically used to mark tasks which
    * never finished when the server restarts.
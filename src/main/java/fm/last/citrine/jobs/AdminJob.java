@@ -41,9 +41,15 @@ public class AdminJob implements Job {
 
   public static final String COMMAND_CLEAR_TASK_RUNS = "clear_task_runs";
   public static final String COMMAND_CLEAR_LOG_FILES = "clear_log_files";
+  public static final String COMMAND_COMPRESS_LOG_FILES = "compress_log_files";
+
+  public static final int DEFAULT_PURGE_CHUNK_SIZE = 1000;
+  public static final long DEFAULT_PURGE_PAUSE_MILLIS = 100;
 
   private TaskRunManager taskRunManager;
   private LogFileManager logFileManager;
+  private int purgeChunkSize = DEFAULT_PURGE_CHUNK_SIZE;
+  private long purgePauseMillis = DEFAULT_PURGE_PAUSE_MILLIS;
 
   @Override
   public void execute(JobExecutionContext context) throws JobExecutionException {
@@ -61,8 +67,21 @@ public class AdminJob implements Job {
     if (COMMAND_CLEAR_TASK_RUNS.equals(commandType)) {
       int days = Integer.parseInt(argument);
       DateTime deleteBefore = new DateTime().minusDays(days);
-      taskRunManager.deleteBefore(deleteBefore);
-      jobDataMap.put(SYS_OUT, "Deleted task runs on and before " + deleteBefore);
+      // if the task runs table is partitioned whole months of task runs can be dropped before deleting the rest
+      int partitions = taskRunManager.dropPartitionsBefore(deleteBefore);
+      String dropped = partitions > 0 ? "Dropped " + partitions + " partitions, " : "";
+      if (purgeChunkSize > 0) {
+        if (partitions > 0) {
+          deleteOrphanedOutputs();
+        }
+        deleteTaskRuns(deleteBefore, dropped, jobDataMap);
+      } else {
+        if (partitions > 0) {
+          taskRunManager.deleteOrphanedOutputs(Integer.MAX_VALUE);
+        }
+        taskRunManager.deleteBefore(deleteBefore);
+        jobDataMap.put(SYS_OUT, dropped + "Deleted task runs on and before " + deleteBefore);
+      }
     } else if (COMMAND_CLEAR_LOG_FILES.equals(commandType)) {
       int days = Integer.parseInt(argument);
       DateTime deleteBefore = new DateTime().minusDays(days);
@@ -73,11 +92,80 @@ public class AdminJob implements Job {
         log.error("Error deleting log files", e);
         jobDataMap.put(SYS_ERR, "Error deleting log files " + e.getMessage());
       }
+    } else if (COMMAND_COMPRESS_LOG_FILES.equals(commandType)) {
+      int days = Integer.parseInt(argument);
+      DateTime compressBefore = new DateTime().minusDays(days);
+      try {
+        int compressed = logFileManager.compressBefore(compressBefore);
+        jobDataMap.put(SYS_OUT, "Compressed " + compressed + " log files older than " + compressBefore);
+      } catch (IOException e) {
+        log.error("Error compressing log files", e);
+        jobDataMap.put(SYS_ERR, "Error compressing log files " + e.getMessage());
+      }
     } else {
       throw new JobExecutionException("Invalid command type '" + commandType + "'");
     }
   }
 
+  /**
+   * Deletes TaskRuns in chunks of purgeChunkSize, pausing between each chunk so that other TaskRuns can be saved while
+   * the delete is in progress. The number of TaskRuns deleted so far is kept up to date in the job's SYS_OUT so that
+   * it is recorded even if the job is stopped part way through.
+   * 
+   * @param deleteBefore DateTime to delete TaskRuns before (inclusive).
+   * @param dropped Description of any partitions which have already been dropped, to start SYS_OUT with.
+   * @param jobDataMap The job's data map.
+   * @throws JobExecutionException If the job is interrupted while pausing.
+   */
+  private void deleteTaskRuns(DateTime deleteBefore, String dropped, JobDataMap jobDataMap)
+    throws JobExecutionException {
+    int total = 0;
+    int chunks = 0;
+    int deleted;
+    do {
+      deleted = taskRunManager.deleteBefore(deleteBefore, purgeChunkSize);
+      total += deleted;
+      chunks++;
+      String progress = dropped + "Deleted " + total + " task runs on and before " + deleteBefore + " in " + chunks
+          + " chunks";
+      jobDataMap.put(SYS_OUT, progress);
+      log.debug(progress);
+      if (deleted == purgeChunkSize) {
+        pause("Interrupted after deleting " + total + " task runs");
+      }
+    } while (deleted == purgeChunkSize);
+    log.info(dropped + "Deleted " + total + " task runs on and before " + deleteBefore);
+  }
+
+  /**
+   * Deletes the output left behind by dropping partitions, in chunks of purgeChunkSize.
+   * 
+   * @throws JobExecutionException If the job is interrupted while pausing.
+   */
+  private void deleteOrphanedOutputs() throws JobExecutionException {
+    int total = 0;
+    int deleted;
+    do {
+      deleted = taskRunManager.deleteOrphanedOutputs(purgeChunkSize);
+      total += deleted;
+      if (deleted == purgeChunkSize) {
+        pause("Interrupted after deleting the output of " + total + " dropped task runs");
+      }
+    } while (deleted == purgeChunkSize);
+    log.info("Deleted the output of " + total + " dropped task runs");
+  }
+
+  private void pause(String interruptedMessage) throws JobExecutionException {
+    if (purgePauseMillis > 0) {
+      try {
+        Thread.sleep(purgePauseMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new JobExecutionException(interruptedMessage, e);
+      }
+    }
+  }
+
   /**
    * @param taskRunManager the taskRunManager to set
    */
@@ -91,5 +179,20 @@ public class AdminJob implements Job {
   public void setLogFileManager(LogFileManager logFileManager) {
     this.logFileManager = logFileManager;
   }
+
+  /**
+   * @param purgeChunkSize Maximum number of TaskRuns deleted at a time by the clear task runs command, 0 to delete them
+   *          all at once.
+   */
+  public void setPurgeChunkSize(int purgeChunkSize) {
+    this.purgeChunkSize = purgeChunkSize;
+  }
+
+  /**
+   * @param purgePauseMillis Milliseconds to wait between each chunk of TaskRuns deleted by the clear task runs command.
+   */
+  public void setPurgePauseMillis(long purgePauseMillis) {
+    this.purgePauseMillis = purgePauseMillis;
+  }
   
 }
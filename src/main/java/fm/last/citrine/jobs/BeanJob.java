@@ -16,6 +16,7 @@
 package fm.last.citrine.jobs;
 
 import static fm.last.citrine.scheduler.SchedulerConstants.BEAN_FACTORY;
+import static fm.last.citrine.scheduler.SchedulerConstants.EXECUTION_PLAN;
 import static fm.last.citrine.scheduler.SchedulerConstants.TASK_BEAN_NAME;
 
 import org.apache.log4j.Logger;
@@ -27,6 +28,8 @@ import org.quartz.JobExecutionException;
 import org.quartz.UnableToInterruptJobException;
 import org.springframework.beans.factory.BeanFactory;
 
+import fm.last.citrine.scheduler.ExecutionPlan;
+
 /**
  * Simple Job wrapper that retrieves the name of the job to run and runs it using values stored in the job context.
  */
@@ -40,8 +43,13 @@ public class BeanJob implements InterruptableJob {
     JobDataMap jobDataMap = context.getJobDetail().getJobDataMap();
     try {
       String jobBeanName = jobDataMap.getString(TASK_BEAN_NAME);
-      BeanFactory beanFactory = (BeanFactory) jobDataMap.get(BEAN_FACTORY);
-      jobBean = (Job) beanFactory.getBean(jobBeanName);
+      ExecutionPlan plan = (ExecutionPlan) jobDataMap.get(EXECUTION_PLAN);
+      if (plan != null) {
+        jobBean = plan.createJob();
+      } else {
+        BeanFactory beanFactory = (BeanFactory) jobDataMap.get(BEAN_FACTORY);
+        jobBean = (Job) beanFactory.getBean(jobBeanName);
+      }
       log.debug("Executing job bean with name: " + jobBeanName);
       jobBean.execute(context);
     } catch (Exception e) {
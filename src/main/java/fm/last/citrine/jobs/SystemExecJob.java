@@ -15,6 +15,7 @@
  */
 package fm.last.citrine.jobs;
 
+import static fm.last.citrine.scheduler.SchedulerConstants.EXECUTION_PLAN;
 import static fm.last.citrine.scheduler.SchedulerConstants.SYS_ERR;
 import static fm.last.citrine.scheduler.SchedulerConstants.SYS_OUT;
 import static fm.last.citrine.scheduler.SchedulerConstants.TASK_COMMAND;
@@ -29,10 +30,10 @@ import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
 import org.quartz.UnableToInterruptJobException;
 
-import fm.last.citrine.jobs.syscommand.RollingFileExecutorObserver;
+import fm.last.citrine.jobs.syscommand.TaskRunExecutorObserver;
+import fm.last.citrine.scheduler.ExecutionPlan;
 import fm.last.syscommand.SysCommandExecutor;
 import fm.last.syscommand.SysCommandUtils;
-import fm.last.syscommand.SysExecutorObserver;
 
 /**
  * Citrine job that runs "System Exec" commands (i.e. using a command shell).
@@ -43,7 +44,7 @@ public class SystemExecJob implements InterruptableJob {
 
   private SysCommandExecutor executor;
 
-  private RollingFileExecutorObserver observer;
+  private TaskRunExecutorObserver observer;
 
   private String commandOutput;
 
@@ -58,8 +59,13 @@ public class SystemExecJob implements InterruptableJob {
   public void execute(JobExecutionContext context) throws JobExecutionException {
     JobDataMap jobDataMap = context.getJobDetail().getJobDataMap();
     this.taskRunId = jobDataMap.getLong(TASK_RUN_ID);
+    ExecutionPlan plan = (ExecutionPlan) jobDataMap.get(EXECUTION_PLAN);
     try {
-      execute(jobDataMap.getString(TASK_COMMAND));
+      if (plan != null && plan.getCommandLine() != null) { // command already parsed when the task was scheduled
+        execute(plan.getCommandLine());
+      } else {
+        execute(jobDataMap.getString(TASK_COMMAND));
+      }
     } catch (Exception e) {
       throw new JobExecutionException("Exception occurred running command", e);
     } finally {
@@ -81,12 +87,21 @@ public class SystemExecJob implements InterruptableJob {
    * @throws Exception If an error occurs running the command.
    */
   public void execute(String commandString) throws Exception {
+    execute(SysCommandUtils.convertCommand(commandString));
+  }
+
+  /**
+   * Executes the passed command.
+   * 
+   * @param command Command to execute, split into arguments.
+   * @throws Exception If an error occurs running the command.
+   */
+  public void execute(List<String> command) throws Exception {
     if (observer != null) {
       observer.setJobRunId(taskRunId);
-      executor.setSysErrObserver((SysExecutorObserver) observer);
-      executor.setSysOutObserver((SysExecutorObserver) observer);
+      executor.setSysErrObserver(observer);
+      executor.setSysOutObserver(observer);
     }
-    List<String> command = SysCommandUtils.convertCommand(commandString);
     log.info("Running " + command);
     executor.start(command);
     int exitStatus = executor.waitForProcess();
@@ -109,11 +124,11 @@ public class SystemExecJob implements InterruptableJob {
     this.executor = executor;
   }
 
-  public RollingFileExecutorObserver getObserver() {
+  public TaskRunExecutorObserver getObserver() {
     return observer;
   }
 
-  public void setObserver(RollingFileExecutorObserver observer) {
+  public void setObserver(TaskRunExecutorObserver observer) {
     this.observer = observer;
   }
 
@@ -0,0 +1,438 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.jobs.syscommand;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import fm.last.citrine.service.LogFileLayout;
+import fm.last.syscommand.ByteSysExecutorObserver;
+import fm.last.syscommand.TailBuffer;
+
+/**
+ * SysExecutorObserver implementation that writes the SysOut and SysErr output straight to a buffered log file, without
+ * going through log4j. Output is received as raw bytes and, if timestamps are enabled, each line is prefixed with the
+ * time it was received (in the same format as log4j's %d{ISO8601}). The buffer is flushed to the file periodically so
+ * the output of running tasks can be viewed, and when the observer is closed. The last tailBytes of System.out and
+ * System.err are kept in separate in memory buffers and returned by getSysOut() and getSysErr(). Output received as
+ * Strings is encoded as UTF-8, the charset log files are read with. Only whole lines are written, the unfinished last
+ * line of each stream is held back until it is complete (or bufferSize long) so lines from System.out and System.err
+ * are never mixed up, and is written when the observer is closed.
+ */
+public class DirectFileExecutorObserver implements TaskRunExecutorObserver, ByteSysExecutorObserver {
+
+  private static Logger log = Logger.getLogger(DirectFileExecutorObserver.class);
+
+  private static final String FILE_SEPARATOR = System.getProperty("file.separator");
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final byte[] NEW_LINE = { '\n' };
+
+  /**
+   * Single thread shared by all instances which flushes their buffers, only running while there are open instances
+   * which use it.
+   */
+  private static ScheduledExecutorService flusher;
+
+  /**
+   * Number of open instances using the flusher.
+   */
+  private static int flusherUsers = 0;
+
+  /**
+   * The id of the JobRun (used to determine the name of the log file).
+   */
+  private long jobRunId;
+
+  /**
+   * The base folder under which log files will be created.
+   */
+  private String baseLogPath = System.getProperty("java.io.tmpdir");
+
+  /**
+   * Determines where under the base folder the log file is created.
+   */
+  private LogFileLayout logFileLayout = new LogFileLayout();
+
+  /**
+   * Whether each line written should be prefixed with a timestamp.
+   */
+  private boolean timestamps = true;
+
+  /**
+   * Size of the buffer used when writing to the log file.
+   */
+  private int bufferSize = 8192;
+
+  /**
+   * Maximum time in milliseconds that output is held in the buffer before being written to the log file, if 0 or less
+   * output is written to the file as soon as it is received.
+   */
+  private long flushInterval = 1000;
+
+  /**
+   * The number of bytes of output to "tail" when the job is finished and the results of Sysout and Syserr are
+   * retrieved.
+   */
+  private int tailBytes = 0;
+
+  /**
+   * The last tailBytes of output sent to System.out and System.err, created when the first output is received.
+   */
+  private TailBuffer outTail;
+  private TailBuffer errTail;
+
+  private File logFile;
+
+  private OutputStream outputStream;
+
+  private ScheduledFuture<?> flushTask;
+
+  private boolean errLogged = false;
+
+  private boolean outLogged = false;
+
+  /**
+   * The unfinished last line received on System.out and System.err.
+   */
+  private final PartialLine outLine = new PartialLine();
+  private final PartialLine errLine = new PartialLine();
+
+  /**
+   * Second for which the cached timestamp prefix was created.
+   */
+  private long cachedSecond = -1;
+
+  /**
+   * Cached timestamp prefix, the date and time up to and including the seconds are only formatted once per second,
+   * the milliseconds are filled in for each line.
+   */
+  private final byte[] timestamp = new byte["yyyy-MM-dd HH:mm:ss,SSS ".length()];
+
+  private final SimpleDateFormat secondFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,");
+
+  /**
+   * Performs any necessary initialisation.
+   */
+  private void init() throws IOException {
+    if (outputStream == null) {
+      logFile = logFileLayout.getFile(new File(baseLogPath), LogFileLayout.getLogFileName(jobRunId));
+      if (logFileLayout.isSharded()) {
+        logFile.getParentFile().mkdirs();
+      }
+      log.info("Log file for this run will be located at: " + logFile);
+      outputStream = new BufferedOutputStream(new FileOutputStream(logFile, true), bufferSize);
+      if (flushInterval > 0) {
+        flushTask = scheduleFlush(new Runnable() {
+          @Override
+          public void run() {
+            flush();
+          }
+        }, flushInterval);
+      }
+    }
+  }
+
+  /**
+   * Schedules a flush task on the shared flusher, starting it if necessary.
+   */
+  private static synchronized ScheduledFuture<?> scheduleFlush(Runnable flushTask, long flushInterval) {
+    if (flusher == null) {
+      flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "DirectFileExecutorObserver-flusher");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    flusherUsers++;
+    return flusher.scheduleWithFixedDelay(flushTask, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Cancels a flush task scheduled by scheduleFlush(), stopping the shared flusher if no other instance is using it.
+   */
+  private static synchronized void cancelFlush(ScheduledFuture<?> flushTask) {
+    flushTask.cancel(false);
+    if (--flusherUsers == 0) {
+      flusher.shutdown();
+      flusher = null;
+    }
+  }
+
+  /**
+   * @return Whether the shared flusher is running.
+   */
+  static synchronized boolean isFlusherRunning() {
+    return flusher != null;
+  }
+
+  /**
+   * Writes the complete lines in the passed output of a stream to the log file, holding back any unfinished last line
+   * until the rest of it is received.
+   */
+  private synchronized void write(PartialLine partialLine, byte[] bytes, int offset, int length) {
+    try {
+      init();
+      int end = offset + length;
+      int start = offset;
+      for (int i = offset; i < end; i++) {
+        if (bytes[i] == '\n') {
+          writeLine(partialLine, bytes, start, i + 1 - start);
+          start = i + 1;
+        }
+      }
+      partialLine.append(bytes, start, end - start);
+      if (partialLine.length >= bufferSize) { // don't hold back overly long lines forever
+        writeLine(partialLine, NEW_LINE, 0, 1);
+      }
+      if (flushInterval <= 0) {
+        outputStream.flush();
+      }
+    } catch (IOException e) {
+      log.error("Error writing to " + logFile, e);
+    }
+  }
+
+  /**
+   * Writes a line made up of the held back start of the line and the passed rest of it, prefixed with a timestamp if
+   * required.
+   */
+  private void writeLine(PartialLine partialLine, byte[] bytes, int offset, int length) throws IOException {
+    if (timestamps) {
+      writeTimestamp();
+    }
+    outputStream.write(partialLine.bytes, 0, partialLine.length);
+    partialLine.length = 0;
+    outputStream.write(bytes, offset, length);
+  }
+
+  private void writeTimestamp() throws IOException {
+    long now = System.currentTimeMillis();
+    long second = now / 1000;
+    if (second != cachedSecond) {
+      byte[] formatted = secondFormat.format(new Date(second * 1000)).getBytes(UTF8);
+      System.arraycopy(formatted, 0, timestamp, 0, formatted.length);
+      timestamp[timestamp.length - 1] = ' ';
+      cachedSecond = second;
+    }
+    int millis = (int) (now % 1000);
+    timestamp[timestamp.length - 4] = (byte) ('0' + millis / 100);
+    timestamp[timestamp.length - 3] = (byte) ('0' + (millis / 10) % 10);
+    timestamp[timestamp.length - 2] = (byte) ('0' + millis % 10);
+    outputStream.write(timestamp);
+  }
+
+  /**
+   * Writes any buffered output to the log file.
+   */
+  private synchronized void flush() {
+    if (outputStream != null) {
+      try {
+        outputStream.flush();
+      } catch (IOException e) {
+        log.error("Error flushing " + logFile, e);
+      }
+    }
+  }
+
+  /**
+   * Returns the output of a run, the location of the log file followed by the last "n" bytes sent to either System.out
+   * or System.err, which are held in memory so the log file doesn't need to be read.
+   */
+  private String getOutput(TailBuffer tail) {
+    String returnValue = logFile.getAbsolutePath();
+    if (tail != null) {
+      returnValue += ":\n" + tail.toString();
+    }
+    return returnValue;
+  }
+
+  private synchronized TailBuffer getOutTail() {
+    if (outTail == null && tailBytes > 0) {
+      outTail = new TailBuffer(tailBytes);
+    }
+    return outTail;
+  }
+
+  private synchronized TailBuffer getErrTail() {
+    if (errTail == null && tailBytes > 0) {
+      errTail = new TailBuffer(tailBytes);
+    }
+    return errTail;
+  }
+
+  @Override
+  public synchronized void sysOut(byte[] bytes, int offset, int length) {
+    write(outLine, bytes, offset, length);
+    TailBuffer tail = getOutTail();
+    if (tail != null) {
+      tail.append(bytes, offset, length);
+    }
+    outLogged = true;
+  }
+
+  @Override
+  public synchronized void sysErr(byte[] bytes, int offset, int length) {
+    write(errLine, bytes, offset, length);
+    TailBuffer tail = getErrTail();
+    if (tail != null) {
+      tail.append(bytes, offset, length);
+    }
+    errLogged = true;
+  }
+
+  @Override
+  public void sysOut(String sysOut) {
+    byte[] bytes = (sysOut + "\n").getBytes(UTF8);
+    sysOut(bytes, 0, bytes.length);
+  }
+
+  @Override
+  public void sysErr(String sysErr) {
+    byte[] bytes = (sysErr + "\n").getBytes(UTF8);
+    sysErr(bytes, 0, bytes.length);
+  }
+
+  @Override
+  public synchronized String getSysOut() {
+    if (outLogged) {
+      return getOutput(outTail);
+    }
+    return null;
+  }
+
+  @Override
+  public synchronized String getSysErr() {
+    if (errLogged) {
+      return getOutput(errTail);
+    }
+    return null;
+  }
+
+  @Override
+  public synchronized void close() {
+    try {
+      if (outLine.length > 0) {
+        writeLine(outLine, NEW_LINE, 0, 1);
+      }
+      if (errLine.length > 0) {
+        writeLine(errLine, NEW_LINE, 0, 1);
+      }
+    } catch (IOException e) {
+      log.error("Error writing to " + logFile, e);
+    }
+    if (flushTask != null) {
+      cancelFlush(flushTask);
+      flushTask = null;
+    }
+    IOUtils.closeQuietly(outputStream);
+  }
+
+  @Override
+  public void setJobRunId(long jobRunId) {
+    this.jobRunId = jobRunId;
+  }
+
+  public String getBaseLogPath() {
+    return baseLogPath;
+  }
+
+  public void setBaseLogPath(String baseLogPath) {
+    if (!baseLogPath.endsWith(FILE_SEPARATOR)) {
+      baseLogPath += FILE_SEPARATOR;
+    }
+    this.baseLogPath = baseLogPath;
+  }
+
+  public LogFileLayout getLogFileLayout() {
+    return logFileLayout;
+  }
+
+  public void setLogFileLayout(LogFileLayout logFileLayout) {
+    this.logFileLayout = logFileLayout;
+  }
+
+  public boolean isTimestamps() {
+    return timestamps;
+  }
+
+  public void setTimestamps(boolean timestamps) {
+    this.timestamps = timestamps;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public void setBufferSize(int bufferSize) {
+    this.bufferSize = bufferSize;
+  }
+
+  public long getFlushInterval() {
+    return flushInterval;
+  }
+
+  public void setFlushInterval(long flushInterval) {
+    this.flushInterval = flushInterval;
+  }
+
+  public int getTailBytes() {
+    return tailBytes;
+  }
+
+  public void setTailBytes(int tailBytes) {
+    this.tailBytes = tailBytes;
+  }
+
+  /**
+   * The unfinished last line received on a stream.
+   */
+  private static class PartialLine {
+
+    private byte[] bytes = new byte[128];
+
+    private int length = 0;
+
+    private void append(byte[] bytes, int offset, int length) {
+      if (this.length + length > this.bytes.length) {
+        this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, this.length + length));
+      }
+      System.arraycopy(bytes, offset, this.bytes, this.length, length);
+      this.length += length;
+    }
+
+  }
+
+}
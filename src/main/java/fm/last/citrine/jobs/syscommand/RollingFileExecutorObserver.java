@@ -25,13 +25,13 @@ import org.apache.log4j.PatternLayout;
 import org.apache.log4j.RollingFileAppender;
 import org.apache.log4j.spi.RootLogger;
 
-import fm.last.commons.io.LastFileUtils;
-import fm.last.syscommand.SysExecutorObserver;
+import fm.last.citrine.service.LogFileLayout;
+import fm.last.syscommand.TailBuffer;
 
 /**
  * SysExecutorObserver implementation that appends the SysOut and SysErr strings to a log file.
  */
-public class RollingFileExecutorObserver implements SysExecutorObserver {
+public class RollingFileExecutorObserver implements TaskRunExecutorObserver {
 
   /**
    * This logs standard application messages as setup in main log4j config ONLY.
@@ -65,6 +65,11 @@ public class RollingFileExecutorObserver implements SysExecutorObserver {
    */
   private String baseLogPath = System.getProperty("java.io.tmpdir");
 
+  /**
+   * Determines where under the base folder the log file is created.
+   */
+  private LogFileLayout logFileLayout = new LogFileLayout();
+
   /**
    * Set to true if at least one message from System.err was logged.
    */
@@ -82,13 +87,21 @@ public class RollingFileExecutorObserver implements SysExecutorObserver {
   private int maxBackupIndex = 100;
 
   /**
-   * The number of bytes in the file to "tail" when the job is finished and the results of Sysout and Syserr are
+   * The number of bytes of output to "tail" when the job is finished and the results of Sysout and Syserr are
    * retrieved.
    */
   private int tailBytes = 0;
 
+  /**
+   * The last tailBytes of output sent to System.out and System.err, created when the first message is received.
+   */
+  private TailBuffer outTail;
+  private TailBuffer errTail;
+
   private static final String FILE_SEPARATOR = System.getProperty("file.separator");
 
+  private static final String UTF8 = "UTF-8";
+
   public RollingFileExecutorObserver() {
   }
 
@@ -102,8 +115,13 @@ public class RollingFileExecutorObserver implements SysExecutorObserver {
       PatternLayout layout = new PatternLayout();
       layout.setConversionPattern(conversionPattern);
       try {
-        appender = new RollingFileAppender(layout, baseLogPath + jobRunId + ".log");
+        File logFile = logFileLayout.getFile(new File(baseLogPath), LogFileLayout.getLogFileName(jobRunId));
+        appender = new RollingFileAppender();
+        appender.setLayout(layout);
+        appender.setEncoding(UTF8); // same as the tails and the charset log files are read with
         appender.setMaxBackupIndex(maxBackupIndex);
+        // creates the sub-folder if necessary
+        appender.setFile(logFile.getPath(), true, false, appender.getBufferSize());
         log.info("Log file for this run will be located at: " + appender.getFile());
         observerLogger.addAppender(appender);
       } catch (IOException e) {
@@ -113,19 +131,16 @@ public class RollingFileExecutorObserver implements SysExecutorObserver {
   }
 
   /**
-   * This appender does not log out and err to different files, so for now this returns output of a run by retrieving
-   * the last "n" bytes from the log file.
+   * Returns the output of a run, the location of the log file followed by the last "n" bytes sent to either System.out
+   * or System.err, which are held in memory so the log file doesn't need to be read.
    * 
-   * @return
+   * @param tail The output to return.
+   * @return The output.
    */
-  private String getOutput() {
+  private String getOutput(TailBuffer tail) {
     String returnValue = appender.getFile();
-    if (tailBytes > 0) {
-      try {
-        returnValue += ":\n" + LastFileUtils.tail(new File(appender.getFile()), tailBytes);
-      } catch (IOException e) {
-        log.error("Error getting output", e);
-      }
+    if (tail != null) {
+      returnValue += ":\n" + tail.toString();
     }
     return returnValue;
   }
@@ -133,7 +148,7 @@ public class RollingFileExecutorObserver implements SysExecutorObserver {
   @Override
   public String getSysErr() {
     if (errLogged) {
-      return getOutput();
+      return getOutput(errTail);
     }
     return null;
   }
@@ -141,22 +156,34 @@ public class RollingFileExecutorObserver implements SysExecutorObserver {
   @Override
   public String getSysOut() {
     if (outLogged) {
-      return getOutput();
+      return getOutput(outTail);
     }
     return null;
   }
 
   @Override
-  public void sysErr(String sysErr) {
+  public synchronized void sysErr(String sysErr) {
     init();
     observerLogger.error(sysErr);
+    if (tailBytes > 0) {
+      if (errTail == null) {
+        errTail = new TailBuffer(tailBytes);
+      }
+      errTail.appendLine(sysErr);
+    }
     errLogged = true;
   }
 
   @Override
-  public void sysOut(String sysOut) {
+  public synchronized void sysOut(String sysOut) {
     init();
     observerLogger.info(sysOut);
+    if (tailBytes > 0) {
+      if (outTail == null) {
+        outTail = new TailBuffer(tailBytes);
+      }
+      outTail.appendLine(sysOut);
+    }
     outLogged = true;
   }
 
@@ -167,6 +194,7 @@ public class RollingFileExecutorObserver implements SysExecutorObserver {
     }
   }
 
+  @Override
   public void setJobRunId(long jobRunId) {
     this.jobRunId = jobRunId;
   }
@@ -190,6 +218,14 @@ public class RollingFileExecutorObserver implements SysExecutorObserver {
     this.baseLogPath = baseLogPath;
   }
 
+  public LogFileLayout getLogFileLayout() {
+    return logFileLayout;
+  }
+
+  public void setLogFileLayout(LogFileLayout logFileLayout) {
+    this.logFileLayout = logFileLayout;
+  }
+
   public int getMaxBackupIndex() {
     return maxBackupIndex;
   }
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.jobs.syscommand;
+
+import fm.last.syscommand.SysExecutorObserver;
+
+/**
+ * SysExecutorObserver which stores the output of a single TaskRun, typically in a log file named after the TaskRun.
+ */
+public interface TaskRunExecutorObserver extends SysExecutorObserver {
+
+  /**
+   * Sets the id of the TaskRun whose output this observer will receive, must be called before any output is received.
+   *
+   * @param jobRunId TaskRun id.
+   */
+  public void setJobRunId(long jobRunId);
+
+}
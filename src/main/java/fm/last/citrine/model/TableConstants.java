@@ -22,6 +22,8 @@ public interface TableConstants {
 
   public static final String TABLE_TASKS = "tasks";
   public static final String TABLE_TASK_RUNS = "task_runs";
+  public static final String TABLE_TASK_RUN_OUTPUTS = "task_run_outputs";
   public static final String TABLE_TASK_CHILD_TASK = "task_child_task";
+  public static final String TABLE_ID_BLOCKS = "id_blocks";
 
 }
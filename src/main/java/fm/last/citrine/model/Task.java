@@ -35,6 +35,7 @@ import javax.persistence.Version;
 
 import org.apache.log4j.Logger;
 import org.hibernate.annotations.AccessType;
+import org.hibernate.annotations.BatchSize;
 
 /**
  * Class that represents a Task. It contains values that are used to trigger Quartz Jobs at a certain time as well as
@@ -50,6 +51,11 @@ public class Task {
   private static final boolean DEFAULT_ERROR_IF_RUNNING = true;
   private static final boolean DEFAULT_ENABLED = true;
 
+  /**
+   * Parents and children are loaded lazily, this is how many Tasks have them loaded at once when one Task needs them.
+   */
+  private static final int BATCH_SIZE = 50;
+
   private long id;
   private int version;
   private String name;
@@ -96,25 +102,38 @@ public class Task {
   @Transient
   public Set<Long> getParentTaskIds(boolean recursive) {
     Set<Long> parentIds = new HashSet<Long>();
-    for (Task parent : this.getParentTasks()) {
-      parentIds.add(parent.getId());
-      if (recursive) {
-        parentIds.addAll(parent.getParentTaskIds(recursive));
+    addParentTaskIds(this, parentIds, recursive);
+    return parentIds;
+  }
+
+  /**
+   * Adds the ids of the passed Task's parents to the passed Set. Parents which are already in it aren't visited again,
+   * so each Task is only visited once however many paths there are to it.
+   */
+  private static void addParentTaskIds(Task task, Set<Long> parentIds, boolean recursive) {
+    for (Task parent : task.getParentTasks()) {
+      if (parentIds.add(parent.getId()) && recursive) {
+        addParentTaskIds(parent, parentIds, recursive);
       }
     }
-    return parentIds;
   }
 
   @Transient
   public Set<Long> getChildTaskIds(boolean recursive) {
     Set<Long> childIds = new HashSet<Long>();
-    for (Task child : this.getChildTasks()) {
-      childIds.add(child.getId());
-      if (recursive) {
-        childIds.addAll(child.getChildTaskIds(recursive));
+    addChildTaskIds(this, childIds, recursive);
+    return childIds;
+  }
+
+  /**
+   * Adds the ids of the passed Task's children to the passed Set, visiting each Task only once.
+   */
+  private static void addChildTaskIds(Task task, Set<Long> childIds, boolean recursive) {
+    for (Task child : task.getChildTasks()) {
+      if (childIds.add(child.getId()) && recursive) {
+        addChildTaskIds(child, childIds, recursive);
       }
     }
-    return childIds;
   }
 
   @Id
@@ -248,7 +267,8 @@ public class Task {
     this.beanName = beanName;
   }
 
-  @ManyToMany(fetch = FetchType.EAGER, cascade = { CascadeType.PERSIST, CascadeType.MERGE }, mappedBy = "childTasks", targetEntity = fm.last.citrine.model.Task.class)
+  @ManyToMany(fetch = FetchType.LAZY, cascade = { CascadeType.PERSIST, CascadeType.MERGE }, mappedBy = "childTasks", targetEntity = fm.last.citrine.model.Task.class)
+  @BatchSize(size = BATCH_SIZE)
   public Set<Task> getParentTasks() {
     return parentTasks;
   }
@@ -258,7 +278,8 @@ public class Task {
   }
 
   @AccessType("field")
-  @ManyToMany(fetch = FetchType.EAGER, cascade = { CascadeType.PERSIST, CascadeType.MERGE }, targetEntity = fm.last.citrine.model.Task.class)
+  @ManyToMany(fetch = FetchType.LAZY, cascade = { CascadeType.PERSIST, CascadeType.MERGE }, targetEntity = fm.last.citrine.model.Task.class)
+  @BatchSize(size = BATCH_SIZE)
   @JoinTable(name = TableConstants.TABLE_TASK_CHILD_TASK, joinColumns = { @JoinColumn(name = "task_id") }, inverseJoinColumns = { @JoinColumn(name = "child_task_id") })
   public Set<Task> getChildTasks() {
     return childTasks;
@@ -26,19 +26,36 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Table;
+import javax.persistence.TableGenerator;
+import javax.persistence.Transient;
 import javax.persistence.Version;
 
 import org.hibernate.annotations.Index;
 
 /**
- * Class representing a run of a particular Task.
+ * Class representing a run of a particular Task. The sysout, syserr and stack trace of the run are not stored in the
+ * task runs table but in a separate TaskRunOutput, so they are only set on TaskRuns which have just finished (for use
+ * in notifications and when saving) and not on ones loaded from storage.
  */
 @Entity
 @Table(name = TableConstants.TABLE_TASK_RUNS)
-@org.hibernate.annotations.Table(appliesTo = TableConstants.TABLE_TASK_RUNS, indexes = { @Index(name = "i_task_runs_taskId_startDate", columnNames = {
-    "taskId", "startDate" }) })
+@org.hibernate.annotations.Table(appliesTo = TableConstants.TABLE_TASK_RUNS, indexes = {
+    @Index(name = "i_task_runs_taskId_startDate", columnNames = { "taskId", "startDate" }),
+    @Index(name = "i_task_runs_taskId_id", columnNames = { "taskId", "id" }),
+    @Index(name = "i_task_runs_endDate", columnNames = { "endDate" }) })
 public class TaskRun {
 
+  /**
+   * Name of the generator which allocates ids to new TaskRuns.
+   */
+  public static final String ID_GENERATOR = "taskRunIds";
+
+  /**
+   * Number of TaskRun ids reserved at a time, so that ids can be given to new TaskRuns without going to the database
+   * each time. Reserved ids which aren't used before restarting are skipped.
+   */
+  public static final int ID_BLOCK_SIZE = 100;
+
   private long id;
   private int version;
   private Status status;
@@ -72,8 +89,26 @@ public class TaskRun {
     this.taskId = taskId;
   }
 
+  /**
+   * Creates a copy of the passed TaskRun, for use when its current state is needed by another thread.
+   * 
+   * @param other TaskRun to copy.
+   */
+  public TaskRun(TaskRun other) {
+    this(other.status, copy(other.startDate), copy(other.endDate), other.sysOut, other.sysErr, other.stackTrace,
+        other.taskId);
+    this.id = other.id;
+    this.version = other.version;
+  }
+
+  private static Date copy(Date date) {
+    return date == null ? null : new Date(date.getTime());
+  }
+
   @Id
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @GeneratedValue(strategy = GenerationType.TABLE, generator = ID_GENERATOR)
+  @TableGenerator(name = ID_GENERATOR, table = TableConstants.TABLE_ID_BLOCKS, pkColumnName = "name",
+      valueColumnName = "nextHi", pkColumnValue = TableConstants.TABLE_TASK_RUNS, allocationSize = ID_BLOCK_SIZE)
   public long getId() {
     return id;
   }
@@ -101,6 +136,7 @@ public class TaskRun {
   }
 
   @Basic
+  @Column(nullable = false)
   public Date getStartDate() {
     return startDate;
   }
@@ -118,8 +154,7 @@ public class TaskRun {
     this.endDate = endDate;
   }
 
-  @Basic
-  @Column(length = 4000)
+  @Transient
   public String getSysOut() {
     return sysOut;
   }
@@ -128,8 +163,7 @@ public class TaskRun {
     this.sysOut = sysOut;
   }
 
-  @Basic
-  @Column(length = 4000)
+  @Transient
   public String getSysErr() {
     return sysErr;
   }
@@ -148,8 +182,7 @@ public class TaskRun {
     this.taskId = jobId;
   }
 
-  @Basic
-  @Column(length = 4000)
+  @Transient
   public String getStackTrace() {
     return stackTrace;
   }
@@ -173,11 +206,8 @@ public class TaskRun {
     final int prime = 31;
     int result = 1;
     result = prime * result + ((endDate == null) ? 0 : endDate.hashCode());
-    result = prime * result + ((stackTrace == null) ? 0 : stackTrace.hashCode());
     result = prime * result + ((startDate == null) ? 0 : startDate.hashCode());
     result = prime * result + ((status == null) ? 0 : status.hashCode());
-    result = prime * result + ((sysErr == null) ? 0 : sysErr.hashCode());
-    result = prime * result + ((sysOut == null) ? 0 : sysOut.hashCode());
     result = prime * result + (int) (taskId ^ (taskId >>> 32));
     result = prime * result + version;
     return result;
@@ -207,13 +237,6 @@ public class TaskRun {
       // only check dates to a granularity of a second as saving to db often nukes this
       return false;
     }
-    if (stackTrace == null) {
-      if (other.stackTrace != null) {
-        return false;
-      }
-    } else if (!stackTrace.equals(other.stackTrace)) {
-      return false;
-    }
     if (startDate == null) {
       if (other.startDate != null) {
         return false;
@@ -229,20 +252,6 @@ public class TaskRun {
     } else if (!status.equals(other.status)) {
       return false;
     }
-    if (sysErr == null) {
-      if (other.sysErr != null) {
-        return false;
-      }
-    } else if (!sysErr.equals(other.sysErr)) {
-      return false;
-    }
-    if (sysOut == null) {
-      if (other.sysOut != null) {
-        return false;
-      }
-    } else if (!sysOut.equals(other.sysOut)) {
-      return false;
-    }
     if (taskId != other.taskId) {
       return false;
     }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.model;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * The output (sysout, syserr and stack trace) of a TaskRun. This is stored in its own table, keyed by the TaskRun id,
+ * so that the potentially large text values are only loaded when they are actually displayed and not every time
+ * TaskRuns are listed.
+ */
+@Entity
+@Table(name = TableConstants.TABLE_TASK_RUN_OUTPUTS)
+public class TaskRunOutput {
+
+  private long taskRunId;
+  private String sysOut;
+  private String sysErr;
+  private String stackTrace;
+
+  public TaskRunOutput() {
+  }
+
+  public TaskRunOutput(long taskRunId, String sysOut, String sysErr, String stackTrace) {
+    this.taskRunId = taskRunId;
+    this.sysOut = sysOut;
+    this.sysErr = sysErr;
+    this.stackTrace = stackTrace;
+  }
+
+  /**
+   * Creates the output for the passed TaskRun from the values held on it.
+   * 
+   * @param taskRun A saved TaskRun.
+   * @return The TaskRun's output, or null if it doesn't have any.
+   */
+  public static TaskRunOutput of(TaskRun taskRun) {
+    if (taskRun.getSysOut() == null && taskRun.getSysErr() == null && taskRun.getStackTrace() == null) {
+      return null;
+    }
+    return new TaskRunOutput(taskRun.getId(), taskRun.getSysOut(), taskRun.getSysErr(), taskRun.getStackTrace());
+  }
+
+  @Id
+  public long getTaskRunId() {
+    return taskRunId;
+  }
+
+  public void setTaskRunId(long taskRunId) {
+    this.taskRunId = taskRunId;
+  }
+
+  @Basic
+  @Column(length = 4000)
+  public String getSysOut() {
+    return sysOut;
+  }
+
+  public void setSysOut(String sysOut) {
+    this.sysOut = sysOut;
+  }
+
+  @Basic
+  @Column(length = 4000)
+  public String getSysErr() {
+    return sysErr;
+  }
+
+  public void setSysErr(String sysErr) {
+    this.sysErr = sysErr;
+  }
+
+  @Basic
+  @Column(length = 4000)
+  public String getStackTrace() {
+    return stackTrace;
+  }
+
+  public void setStackTrace(String stackTrace) {
+    this.stackTrace = stackTrace;
+  }
+
+  @Override
+  public String toString() {
+    return "taskRunId=" + taskRunId;
+  }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.model;
+
+import java.util.Date;
+
+/**
+ * Read only summary of a TaskRun holding just the values shown when listing TaskRuns, along with whether the TaskRun
+ * has any sysout, syserr or stack trace so these can be linked to without being loaded.
+ */
+public class TaskRunSummary {
+
+  private final long id;
+  private final long taskId;
+  private final Status status;
+  private final Date startDate;
+  private final Date endDate;
+  private final boolean sysOutAvailable;
+  private final boolean sysErrAvailable;
+  private final boolean stackTraceAvailable;
+
+  public TaskRunSummary(long id, long taskId, Status status, Date startDate, Date endDate, boolean sysOutAvailable,
+      boolean sysErrAvailable, boolean stackTraceAvailable) {
+    this.id = id;
+    this.taskId = taskId;
+    this.status = status;
+    this.startDate = startDate;
+    this.endDate = endDate;
+    this.sysOutAvailable = sysOutAvailable;
+    this.sysErrAvailable = sysErrAvailable;
+    this.stackTraceAvailable = stackTraceAvailable;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public long getTaskId() {
+    return taskId;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  public Date getStartDate() {
+    return startDate;
+  }
+
+  public Date getEndDate() {
+    return endDate;
+  }
+
+  public boolean isSysOutAvailable() {
+    return sysOutAvailable;
+  }
+
+  public boolean isSysErrAvailable() {
+    return sysErrAvailable;
+  }
+
+  public boolean isStackTraceAvailable() {
+    return stackTraceAvailable;
+  }
+
+  @Override
+  public String toString() {
+    return "Id=" + this.id + ", taskId=" + this.taskId + ", status=" + this.status + ", startdate=" + this.startDate
+        + ", enddate=" + this.endDate;
+  }
+
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.notification;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import fm.last.citrine.model.Notification;
+import fm.last.citrine.model.TaskRun;
+
+/**
+ * Notifier which sends notifications using another Notifier from a pool of background threads, so that the thread
+ * finishing a TaskRun doesn't wait for the notification to be delivered (e.g. on a slow mail server). Notifications
+ * which fail are retried up to maxAttempts times, waiting retryDelay milliseconds before the first retry and twice as
+ * long before each one after that. At most queueSize notifications wait to be sent, what happens to notifications sent
+ * when the queue is full is decided by the overflowPolicy.
+ *
+ * The threads are started when the first notification is sent.
+ */
+public class AsyncNotifier implements Notifier {
+
+  private static Logger log = Logger.getLogger(AsyncNotifier.class);
+
+  /**
+   * What to do with a notification when the queue of notifications waiting to be sent is full.
+   */
+  public enum OverflowPolicy {
+    /**
+     * Log and discard the notification.
+     */
+    DROP,
+    /**
+     * Send the notification in the calling thread.
+     */
+    CALLER_RUNS
+  }
+
+  public static final int DEFAULT_THREAD_COUNT = 1;
+
+  public static final int DEFAULT_QUEUE_SIZE = 1000;
+
+  public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+  public static final long DEFAULT_RETRY_DELAY = 1000;
+
+  public static final long DEFAULT_SHUTDOWN_TIMEOUT = 10000;
+
+  private Notifier notifier;
+
+  private int threadCount = DEFAULT_THREAD_COUNT;
+
+  private int queueSize = DEFAULT_QUEUE_SIZE;
+
+  private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+  private long retryDelay = DEFAULT_RETRY_DELAY;
+
+  /**
+   * Time in milliseconds shutdown() waits for queued notifications to be sent.
+   */
+  private long shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+
+  private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+  private ThreadPoolExecutor executor;
+
+  /**
+   * Holds notifications which failed until they are due to be retried.
+   */
+  private ScheduledExecutorService retryScheduler;
+
+  private volatile boolean shutdown = false;
+
+  @Override
+  public void sendNotification(Notification notification, TaskRun taskRun, String taskName) {
+    // copy the TaskRun as the caller carries on changing it
+    dispatch(new Delivery(notification, new TaskRun(taskRun), taskName));
+  }
+
+  private void dispatch(Delivery delivery) {
+    ThreadPoolExecutor executor = start();
+    try {
+      if (executor == null) {
+        throw new RejectedExecutionException();
+      }
+      executor.execute(delivery);
+    } catch (RejectedExecutionException e) {
+      log.error("Notifier shut down, dropping notification for TaskRun " + delivery.taskRun.getId());
+    }
+  }
+
+  /**
+   * @return The executor which sends notifications, started if necessary, or null if this has been shut down.
+   */
+  private synchronized ThreadPoolExecutor start() {
+    if (executor != null || shutdown) {
+      return executor;
+    }
+    RejectedExecutionHandler overflowHandler = new RejectedExecutionHandler() {
+      @Override
+      public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+          throw new RejectedExecutionException();
+        }
+        Delivery delivery = (Delivery) runnable;
+        if (overflowPolicy == OverflowPolicy.CALLER_RUNS) {
+          log.warn("Notification queue full, sending notification for TaskRun " + delivery.taskRun.getId()
+              + " in calling thread");
+          delivery.run();
+        } else {
+          log.error("Notification queue full, dropping notification for TaskRun " + delivery.taskRun.getId());
+        }
+      }
+    };
+    executor = new ThreadPoolExecutor(threadCount, threadCount, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(queueSize), new NamedThreadFactory("AsyncNotifier-"), overflowHandler);
+    retryScheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("AsyncNotifier-retry-"));
+    log.info("Started " + threadCount + " notification threads");
+    return executor;
+  }
+
+  /**
+   * Stops accepting notifications and waits up to shutdownTimeout milliseconds for queued notifications to be sent.
+   * Notifications waiting to be retried are dropped.
+   */
+  public void shutdown() {
+    ThreadPoolExecutor executor;
+    synchronized (this) {
+      shutdown = true;
+      executor = this.executor;
+      if (executor == null) {
+        return;
+      }
+      retryScheduler.shutdownNow();
+      executor.shutdown();
+    }
+    try {
+      if (!executor.awaitTermination(shutdownTimeout, TimeUnit.MILLISECONDS)) {
+        log.warn(executor.getQueue().size() + " notifications not sent before shutdown");
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * @return The number of notifications waiting to be sent, not including any waiting to be retried.
+   */
+  public int getQueuedCount() {
+    ThreadPoolExecutor executor = this.executor;
+    return executor == null ? 0 : executor.getQueue().size();
+  }
+
+  public Notifier getNotifier() {
+    return notifier;
+  }
+
+  /**
+   * @param notifier Notifier used to send the notifications.
+   */
+  public void setNotifier(Notifier notifier) {
+    this.notifier = notifier;
+  }
+
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  public void setThreadCount(int threadCount) {
+    this.threadCount = threadCount;
+  }
+
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  /**
+   * @param queueSize Maximum number of notifications waiting to be sent.
+   */
+  public void setQueueSize(int queueSize) {
+    this.queueSize = queueSize;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * @param maxAttempts Number of times a notification is tried before giving up on it.
+   */
+  public void setMaxAttempts(int maxAttempts) {
+    this.maxAttempts = maxAttempts;
+  }
+
+  public long getRetryDelay() {
+    return retryDelay;
+  }
+
+  /**
+   * @param retryDelay Time in milliseconds before a failed notification is first retried.
+   */
+  public void setRetryDelay(long retryDelay) {
+    this.retryDelay = retryDelay;
+  }
+
+  public long getShutdownTimeout() {
+    return shutdownTimeout;
+  }
+
+  public void setShutdownTimeout(long shutdownTimeout) {
+    this.shutdownTimeout = shutdownTimeout;
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * A notification to be sent, and the number of times sending it has been tried.
+   */
+  private class Delivery implements Runnable {
+
+    private final Notification notification;
+    private final TaskRun taskRun;
+    private final String taskName;
+    private int attempts = 0;
+
+    private Delivery(Notification notification, TaskRun taskRun, String taskName) {
+      this.notification = notification;
+      this.taskRun = taskRun;
+      this.taskName = taskName;
+    }
+
+    @Override
+    public void run() {
+      attempts++;
+      try {
+        notifier.sendNotification(notification, taskRun, taskName);
+      } catch (RuntimeException e) {
+        if (attempts >= maxAttempts || shutdown) {
+          log.error("Error sending notification for TaskRun " + taskRun.getId() + ", giving up after " + attempts
+              + " attempts", e);
+          return;
+        }
+        long delay = retryDelay << (attempts - 1);
+        log.warn("Error sending notification for TaskRun " + taskRun.getId() + ", retrying in " + delay + "ms", e);
+        try {
+          retryScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+              dispatch(Delivery.this);
+            }
+          }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException shutDown) {
+          log.error("Notifier shut down, dropping notification for TaskRun " + taskRun.getId());
+        }
+      }
+    }
+
+  }
+
+  /**
+   * Creates numbered daemon threads.
+   */
+  private static class NamedThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    private NamedThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, prefix + count.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    }
+
+  }
+
+}
@@ -35,15 +35,16 @@ public class EMailNotifier extends BaseNotifier {
 
   private SimpleMailMessage templateMessage;
 
+  /**
+   * Sends the notification e-mail.
+   * 
+   * @throws MailException If the e-mail could not be sent, so that it can be retried (e.g. by an AsyncNotifier).
+   */
   @Override
   public void notify(Notification notification, TaskRun taskRun, String taskName) {
     SimpleMailMessage message = createMessage(notification.getRecipients(), taskRun, taskName);
     log.debug("Sending notification for TaskRun " + taskRun.getId());
-    try {
-      this.mailSender.send(message);
-    } catch (MailException e) {
-      log.error("Error sending e-mail notification", e);
-    }
+    this.mailSender.send(message);
   }
 
   /**
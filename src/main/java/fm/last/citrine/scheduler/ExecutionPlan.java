@@ -0,0 +1,149 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.scheduler;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.quartz.Job;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+
+import fm.last.citrine.model.Notification;
+import fm.last.citrine.model.Task;
+import fm.last.syscommand.SysCommandUtils;
+
+/**
+ * Everything needed to run a Task, worked out once when the Task is scheduled rather than on every run: the parsed
+ * command line, the job bean, and the settings needed when the run finishes. Immutable, so it is shared by all runs of
+ * the Task until the Task is saved again.
+ */
+public class ExecutionPlan {
+
+  private static Logger log = Logger.getLogger(ExecutionPlan.class);
+
+  private final long taskId;
+  private final int taskVersion;
+  private final String taskName;
+  private final String command;
+  private final List<String> commandLine;
+  private final String beanName;
+  private final BeanFactory beanFactory;
+  private final Job jobBean;
+  private final Notification notification;
+  private final boolean stopOnError;
+  private final boolean errorIfRunning;
+
+  /**
+   * Creates a plan for running the passed Task.
+   *
+   * @param task Task to run.
+   * @param beanFactory Factory to get the Task's job bean from.
+   */
+  public ExecutionPlan(Task task, BeanFactory beanFactory) {
+    taskId = task.getId();
+    taskVersion = task.getVersion();
+    taskName = task.getName();
+    command = task.getCommand();
+    commandLine = command == null ? null : Collections.unmodifiableList(SysCommandUtils.convertCommand(command));
+    beanName = task.getBeanName();
+    this.beanFactory = beanFactory;
+    jobBean = getSingletonJobBean(beanName, beanFactory);
+    Notification taskNotification = task.getNotification();
+    notification = taskNotification == null ? null : new Notification(taskNotification.getRecipients(),
+        taskNotification.isNotifyOnSuccess(), taskNotification.isNotifyOnFailure());
+    stopOnError = task.isStopOnError();
+    errorIfRunning = task.isErrorIfRunning();
+  }
+
+  /**
+   * @return The job bean if it is a singleton and so can be shared by every run, otherwise null.
+   */
+  private static Job getSingletonJobBean(String beanName, BeanFactory beanFactory) {
+    if (beanName == null || beanFactory == null) {
+      return null;
+    }
+    try {
+      if (beanFactory.isSingleton(beanName)) {
+        return (Job) beanFactory.getBean(beanName);
+      }
+    } catch (BeansException e) {
+      // leave it to each run to fail, so the error is recorded against the run
+      log.warn("Could not get job bean " + beanName + ": " + e.getMessage());
+    }
+    return null;
+  }
+
+  /**
+   * Gets the job to run. Singleton job beans are looked up once when the plan is created, prototype ones hold state
+   * for a single run so a new one is created each time.
+   *
+   * @return Job to run.
+   */
+  public Job createJob() {
+    if (jobBean != null) {
+      return jobBean;
+    }
+    return (Job) beanFactory.getBean(beanName);
+  }
+
+  public long getTaskId() {
+    return taskId;
+  }
+
+  /**
+   * @return Version of the Task the plan was created from.
+   */
+  public int getTaskVersion() {
+    return taskVersion;
+  }
+
+  public String getTaskName() {
+    return taskName;
+  }
+
+  public String getCommand() {
+    return command;
+  }
+
+  /**
+   * @return The command split into arguments for SysCommandExecutor, null if there is no command.
+   */
+  public List<String> getCommandLine() {
+    return commandLine;
+  }
+
+  public String getBeanName() {
+    return beanName;
+  }
+
+  /**
+   * @return Copy of the Task's notification settings.
+   */
+  public Notification getNotification() {
+    return notification;
+  }
+
+  public boolean isStopOnError() {
+    return stopOnError;
+  }
+
+  public boolean isErrorIfRunning() {
+    return errorIfRunning;
+  }
+
+}
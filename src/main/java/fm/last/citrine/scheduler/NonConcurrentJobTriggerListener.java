@@ -15,6 +15,7 @@
  */
 package fm.last.citrine.scheduler;
 
+import static fm.last.citrine.scheduler.SchedulerConstants.EXECUTION_PLAN;
 import static fm.last.citrine.scheduler.SchedulerConstants.TASK_ID;
 
 import java.util.Date;
@@ -26,14 +27,15 @@ import org.quartz.Trigger;
 import org.quartz.TriggerListener;
 
 import fm.last.citrine.model.Status;
-import fm.last.citrine.model.Task;
 import fm.last.citrine.model.TaskRun;
 import fm.last.citrine.service.TaskManager;
 import fm.last.citrine.service.TaskRunManager;
+import fm.last.citrine.service.TaskRunRegistry;
 
 /**
  * A TriggerListener implementation that prevents Quartz Jobs belonging to the same Job in the database from running at
- * the same time.
+ * the same time. A Job which isn't vetoed is marked as running in the TaskRunRegistry in the same atomic step as
+ * checking it isn't already running, so two triggers firing at once can't both run it.
  */
 public class NonConcurrentJobTriggerListener implements TriggerListener {
 
@@ -41,6 +43,7 @@ public class NonConcurrentJobTriggerListener implements TriggerListener {
 
   private TaskRunManager taskRunManager;
   private TaskManager taskManager;
+  private TaskRunRegistry taskRunRegistry;
 
   @Override
   public String getName() {
@@ -66,13 +69,14 @@ public class NonConcurrentJobTriggerListener implements TriggerListener {
   public boolean vetoJobExecution(Trigger trigger, JobExecutionContext context) {
     JobDataMap jobDataMap = context.getJobDetail().getJobDataMap();
     long taskId = jobDataMap.getLong(TASK_ID);
-    if (taskRunManager.isRunning(taskId)) { // task is already running, veto this run
+    if (!taskRunRegistry.tryStart(taskId, context)) { // task is already running, veto this run
       log.warn("Task " + taskId + " is already running, vetoing TaskRun");
-      Task task = taskManager.get(taskId);
-      if (task.isErrorIfRunning()) { // only create aborted run and set status if error if running
+      ExecutionPlan plan = (ExecutionPlan) jobDataMap.get(EXECUTION_PLAN);
+      boolean errorIfRunning = plan != null ? plan.isErrorIfRunning() : taskManager.get(taskId).isErrorIfRunning();
+      if (errorIfRunning) { // only create aborted run and set status if error if running
         TaskRun taskRun = new TaskRun(Status.ABORTED, new Date(), new Date(), null, null, null, taskId);
         taskRunManager.save(taskRun); // save it first so we get an id
-        taskRunManager.setStatus(taskRun, Status.ABORTED); // now send notification of status change
+        taskRunManager.setStatus(taskRun, Status.ABORTED, plan); // now send notification of status change
       }
       return true;
     }
@@ -86,6 +90,13 @@ public class NonConcurrentJobTriggerListener implements TriggerListener {
     this.taskRunManager = taskRunManager;
   }
 
+  /**
+   * @param taskRunRegistry Registry of running tasks, shared with the TaskRunManager.
+   */
+  public void setTaskRunRegistry(TaskRunRegistry taskRunRegistry) {
+    this.taskRunRegistry = taskRunRegistry;
+  }
+
   /**
    * @param taskManager the taskManager to set
    */
@@ -23,9 +23,13 @@ public interface SchedulerConstants {
   public final String TASK_ID = "taskid";
   public final String TASK_COMMAND = "command";
   public final String TASK_RUN_ID = "taskrunid";
+  public final String TASK_RUN = "taskrun";
   public final String JOB_BEAN = "jobbean";
   public final String TASK_BEAN_NAME = "taskbeanname";
   public final String BEAN_FACTORY = "beanfactory";
+  public final String TASK_RUN_HANDLE = "taskrunhandle";
+  public final String WORKFLOW_EXECUTION = "workflowexecution";
+  public final String EXECUTION_PLAN = "executionplan";
 
   public final String SYS_OUT = "sysout";
   public final String SYS_ERR = "syserr";
@@ -16,13 +16,18 @@
 package fm.last.citrine.scheduler;
 
 import static fm.last.citrine.scheduler.SchedulerConstants.BEAN_FACTORY;
+import static fm.last.citrine.scheduler.SchedulerConstants.EXECUTION_PLAN;
 import static fm.last.citrine.scheduler.SchedulerConstants.TASK_BEAN_NAME;
 import static fm.last.citrine.scheduler.SchedulerConstants.TASK_COMMAND;
 import static fm.last.citrine.scheduler.SchedulerConstants.TASK_ID;
+import static fm.last.citrine.scheduler.SchedulerConstants.TASK_RUN_HANDLE;
+import static fm.last.citrine.scheduler.SchedulerConstants.WORKFLOW_EXECUTION;
 
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -41,6 +46,7 @@ import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.BeanFactoryAware;
 
 import fm.last.citrine.model.Task;
+import fm.last.citrine.service.WorkflowExecution;
 
 /**
  * Manager class that is responsible for handling scheduling of Tasks.
@@ -56,6 +62,11 @@ public class SchedulerManager implements BeanFactoryAware {
 
   private BeanFactory beanFactory;
 
+  /**
+   * Execution plan for each Task, replaced when a newer version of the Task is seen.
+   */
+  private final ConcurrentMap<Long, ExecutionPlan> executionPlans = new ConcurrentHashMap<Long, ExecutionPlan>();
+
   /**
    * Constructs a new Scheduler that will be responsible for scheduling Jobs of the passed class definition.
    * 
@@ -87,6 +98,7 @@ public class SchedulerManager implements BeanFactoryAware {
     }
     JobDetail jobDetail = new JobDetail(String.valueOf(task.getId()), Scheduler.DEFAULT_GROUP, jobClass);
     JobDataMap jobDataMap = jobDetail.getJobDataMap();
+    jobDataMap.put(EXECUTION_PLAN, getExecutionPlan(task));
     jobDataMap.put(TASK_ID, task.getId());
     jobDataMap.put(TASK_COMMAND, task.getCommand());
     // put the name of the task to run and the factory to use to retrieve it into the map to be used
@@ -96,6 +108,27 @@ public class SchedulerManager implements BeanFactoryAware {
     return jobDetail;
   }
 
+  /**
+   * Gets the execution plan for the passed Task, creating it if there isn't one for this version of the Task yet. An
+   * older version of the Task (e.g. from a cached task graph) gets the plan for the newer one.
+   * 
+   * @param task Task to get execution plan for.
+   * @return Execution plan for the Task.
+   */
+  public ExecutionPlan getExecutionPlan(Task task) {
+    ExecutionPlan plan = executionPlans.get(task.getId());
+    if (plan == null || plan.getTaskVersion() < task.getVersion()) {
+      ExecutionPlan newPlan = new ExecutionPlan(task, beanFactory);
+      if (plan == null ? executionPlans.putIfAbsent(task.getId(), newPlan) == null : executionPlans.replace(
+          task.getId(), plan, newPlan)) {
+        plan = newPlan;
+      } else { // someone else beat us to it
+        return getExecutionPlan(task);
+      }
+    }
+    return plan;
+  }
+
   /**
    * Unschedules the passed Task.
    * 
@@ -104,6 +137,7 @@ public class SchedulerManager implements BeanFactoryAware {
   public void unscheduleTask(Task task) {
     try {
       log.info("Unscheduling task with id " + task.getId());
+      executionPlans.remove(task.getId()); // the task is being changed or deleted
       scheduler.unscheduleJob(String.valueOf(task.getId()), Scheduler.DEFAULT_GROUP);
     } catch (SchedulerException e) {
       throw new ScheduleException("Error unscheduling task with id " + task.getId(), e);
@@ -114,11 +148,29 @@ public class SchedulerManager implements BeanFactoryAware {
    * Runs the passed Task immediately, regardless of any schedule settings.
    * 
    * @param task Task to run.
+   * @return A handle which can be used to wait for the TaskRun to be created.
+   */
+  public TaskRunHandle runTaskNow(Task task) {
+    return runTaskNow(task, null);
+  }
+
+  /**
+   * Runs the passed Task immediately as part of a workflow execution, regardless of any schedule settings.
+   * 
+   * @param task Task to run.
+   * @param workflowExecution Workflow execution the run is part of, made available to the run via its job data, may be
+   *          null.
+   * @return A handle which can be used to wait for the TaskRun to be created.
    */
-  public void runTaskNow(Task task) {
+  public TaskRunHandle runTaskNow(Task task, WorkflowExecution workflowExecution) {
     JobDetail jobDetail = createJobDetail(task);
+    if (workflowExecution != null) {
+      jobDetail.getJobDataMap().put(WORKFLOW_EXECUTION, workflowExecution);
+    }
     // modify group name otherwise this has potential to clash with other scheduled run of this job
     jobDetail.setGroup(jobDetail.getGroup() + SUFFIX_IMMEDIATE);
+    TaskRunHandle handle = new TaskRunHandle(task.getId());
+    jobDetail.getJobDataMap().put(TASK_RUN_HANDLE, handle);
     Trigger trigger = TriggerUtils.makeImmediateTrigger(String.valueOf(task.getId()), 0, 1);
     log.info("Scheduling task with id " + task.getId() + " to run now");
     try {
@@ -126,6 +178,7 @@ public class SchedulerManager implements BeanFactoryAware {
     } catch (SchedulerException e) {
       throw new ScheduleException("Error scheduling task with id " + task.getId(), e);
     }
+    return handle;
   }
 
   /**
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.scheduler;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handle to a Task which has been scheduled to run immediately. Callers can use this to wait until the TaskRun for the
+ * Task has been created (or the run has been vetoed) instead of guessing how long this will take.
+ */
+public class TaskRunHandle {
+
+  /**
+   * Value of the TaskRun id when no TaskRun has been created.
+   */
+  public static final long NO_TASK_RUN = -1;
+
+  private final long taskId;
+
+  private final CountDownLatch resolved = new CountDownLatch(1);
+
+  private volatile long taskRunId = NO_TASK_RUN;
+
+  /**
+   * Constructs a new handle for a run of the passed task.
+   *
+   * @param taskId Id of the Task that will be run.
+   */
+  public TaskRunHandle(long taskId) {
+    this.taskId = taskId;
+  }
+
+  /**
+   * Called once the TaskRun for this run has been created.
+   *
+   * @param taskRunId Id of the created TaskRun.
+   */
+  public void started(long taskRunId) {
+    this.taskRunId = taskRunId;
+    resolved.countDown();
+  }
+
+  /**
+   * Called if this run was prevented from starting.
+   */
+  public void vetoed() {
+    resolved.countDown();
+  }
+
+  /**
+   * Waits until the run has either started or been vetoed.
+   *
+   * @param timeout Maximum time to wait.
+   * @param unit Unit of the timeout.
+   * @return True if the run started or was vetoed, false if the timeout elapsed first.
+   * @throws InterruptedException If the current thread is interrupted while waiting.
+   */
+  public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+    return resolved.await(timeout, unit);
+  }
+
+  /**
+   * @return Whether the run has either started or been vetoed.
+   */
+  public boolean isResolved() {
+    return resolved.getCount() == 0;
+  }
+
+  /**
+   * @return The id of the created TaskRun, or NO_TASK_RUN if the run has not (yet) started.
+   */
+  public long getTaskRunId() {
+    return taskRunId;
+  }
+
+  /**
+   * @return The id of the Task being run.
+   */
+  public long getTaskId() {
+    return taskId;
+  }
+
+}
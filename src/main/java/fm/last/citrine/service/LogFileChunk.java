@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+/**
+ * Part of a log file read from a particular byte offset, used to follow a log file as it is written.
+ */
+public class LogFileChunk {
+
+  private final String contents;
+
+  private final long nextOffset;
+
+  private final boolean more;
+
+  private final boolean replaced;
+
+  /**
+   * Constructs a new chunk.
+   *
+   * @param contents The contents read.
+   * @param nextOffset Byte offset in the log file to read the next chunk from.
+   * @param more Whether there was more data in the file than was read.
+   */
+  public LogFileChunk(String contents, long nextOffset, boolean more) {
+    this(contents, nextOffset, more, false);
+  }
+
+  /**
+   * Constructs a new chunk.
+   *
+   * @param contents The contents read.
+   * @param nextOffset Byte offset in the log file to read the next chunk from.
+   * @param more Whether there was more data in the file than was read.
+   * @param replaced Whether the log file is shorter than the offset it was read from, so has been replaced.
+   */
+  public LogFileChunk(String contents, long nextOffset, boolean more, boolean replaced) {
+    this.contents = contents;
+    this.nextOffset = nextOffset;
+    this.more = more;
+    this.replaced = replaced;
+  }
+
+  /**
+   * @return The contents read, an empty String if nothing has been written since the requested offset.
+   */
+  public String getContents() {
+    return contents;
+  }
+
+  /**
+   * @return Byte offset in the log file to read the next chunk from.
+   */
+  public long getNextOffset() {
+    return nextOffset;
+  }
+
+  /**
+   * @return Whether there was more data in the file than was read.
+   */
+  public boolean isMore() {
+    return more;
+  }
+
+  /**
+   * @return Whether the log file is shorter than the offset it was read from (e.g. because it has been replaced or
+   *         deleted), in which case nothing was read.
+   */
+  public boolean isReplaced() {
+    return replaced;
+  }
+
+}
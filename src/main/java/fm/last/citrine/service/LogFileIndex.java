@@ -0,0 +1,293 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * In-memory index of the task run log files under a folder (and any folders below it), kept up to date using a
+ * WatchService so that listing log files and checking whether they exist doesn't require the file system to be
+ * scanned. Log files are keyed by file name, which starts with the id of the task run, and are held in the same
+ * (reverse) order in which they are listed.
+ */
+public class LogFileIndex {
+
+  private static Logger log = Logger.getLogger(LogFileIndex.class);
+
+  private static final String LOG_FILE_WILDCARD = "*.log*";
+
+  private final File baseFolder;
+
+  private final ConcurrentNavigableMap<String, LogFileInfo> logFiles = new ConcurrentSkipListMap<String, LogFileInfo>(
+      Collections.reverseOrder());
+
+  private final Map<WatchKey, Path> watchedFolders = new ConcurrentHashMap<WatchKey, Path>();
+
+  private WatchService watchService;
+
+  private Thread watcher;
+
+  /**
+   * Constructs a new index, which will be empty until start() is called.
+   *
+   * @param baseFolder Folder containing the log files.
+   */
+  public LogFileIndex(File baseFolder) {
+    this.baseFolder = baseFolder;
+  }
+
+  /**
+   * Starts watching the folder for changes and loads the details of all existing log files into the index.
+   *
+   * @throws IOException If an error occurs watching or reading the folder.
+   */
+  public synchronized void start() throws IOException {
+    if (watchService != null) {
+      return;
+    }
+    watchService = FileSystems.getDefault().newWatchService();
+    // start watching before the initial scan so no changes made during it are missed
+    rescan();
+    watcher = new Thread(new Watcher(), "LogFileIndex-" + baseFolder.getName());
+    watcher.setDaemon(true);
+    watcher.start();
+    log.info("Indexed " + logFiles.size() + " log files under " + baseFolder);
+  }
+
+  /**
+   * Stops watching the folder for changes.
+   */
+  public synchronized void close() {
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        log.warn("Error closing watch service", e);
+      }
+      watchService = null;
+    }
+  }
+
+  /**
+   * Rebuilds the index by walking the folder, used at start up and if the WatchService loses track of events.
+   */
+  private void rescan() throws IOException {
+    if (!baseFolder.isDirectory()) {
+      logFiles.clear();
+      return;
+    }
+    logFiles.keySet().retainAll(scan(baseFolder.toPath()));
+  }
+
+  /**
+   * Watches the passed folder and all folders below it and adds all log files found in them to the index.
+   * 
+   * @return The names of the log files found.
+   */
+  private Set<String> scan(Path folder) throws IOException {
+    final Set<String> found = new HashSet<String>();
+    Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) throws IOException {
+        watch(dir);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+        String name = file.getFileName().toString();
+        if (attributes.isRegularFile() && isLogFile(name)) {
+          long lastModified = attributes.lastModifiedTime().toMillis();
+          logFiles.put(name, new LogFileInfo(file.toFile(), attributes.size(), lastModified));
+          found.add(name);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException e) {
+        return FileVisitResult.CONTINUE; // e.g. deleted while walking
+      }
+    });
+    return found;
+  }
+
+  private void watch(Path folder) throws IOException {
+    WatchService service = watchService;
+    if (service != null) {
+      watchedFolders.put(folder.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), folder);
+    }
+  }
+
+  private boolean isLogFile(String name) {
+    return FilenameUtils.wildcardMatch(name, LOG_FILE_WILDCARD);
+  }
+
+  /**
+   * Updates the index entry for the passed file to match the file system.
+   */
+  private void update(Path path) {
+    File file = path.toFile();
+    String name = file.getName();
+    if (!isLogFile(name)) {
+      return;
+    }
+    if (file.isFile()) {
+      logFiles.put(name, new LogFileInfo(file, file.length(), file.lastModified()));
+    } else {
+      LogFileInfo info = logFiles.get(name);
+      if (info != null && info.getFile().equals(file)) {
+        logFiles.remove(name, info);
+      }
+    }
+  }
+
+  /**
+   * @return The names of all log files, in reverse order.
+   */
+  public List<String> getNames() {
+    return new ArrayList<String>(logFiles.keySet());
+  }
+
+  /**
+   * @param name Log file name.
+   * @return Details of the log file with the passed name, or null if there is no such log file.
+   */
+  public LogFileInfo get(String name) {
+    return logFiles.get(name);
+  }
+
+  /**
+   * @param name Log file name.
+   * @return Whether a log file with the passed name exists.
+   */
+  public boolean contains(String name) {
+    return logFiles.containsKey(name);
+  }
+
+  /**
+   * @param time Time in milliseconds since the epoch.
+   * @return Details of all log files last modified at or before the passed time, the same files an AgeFileFilter for
+   *         the time accepts.
+   */
+  public List<LogFileInfo> findModifiedBefore(long time) {
+    List<LogFileInfo> modifiedBefore = new ArrayList<LogFileInfo>();
+    for (LogFileInfo info : logFiles.values()) {
+      if (info.getLastModified() <= time) {
+        modifiedBefore.add(info);
+      }
+    }
+    return modifiedBefore;
+  }
+
+  /**
+   * Updates the index entry for the passed file to match the file system straight away, for use when it is known to
+   * have been changed instead of waiting for the WatchService to report it.
+   *
+   * @param file The log file.
+   */
+  public void refresh(File file) {
+    update(file.toPath());
+  }
+
+  /**
+   * Removes a log file from the index, for use when it is known to have been deleted.
+   *
+   * @param name Log file name.
+   */
+  public void remove(String name) {
+    logFiles.remove(name);
+  }
+
+  /**
+   * @return The number of log files in the index.
+   */
+  public int size() {
+    return logFiles.size();
+  }
+
+  /**
+   * Processes events from the WatchService until it is closed.
+   */
+  private class Watcher implements Runnable {
+
+    @Override
+    public void run() {
+      while (true) {
+        WatchService service = watchService;
+        if (service == null) {
+          return;
+        }
+        try {
+          WatchKey key = service.take();
+          Path folder = watchedFolders.get(key);
+          for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW || folder == null) {
+              log.debug("Lost track of changes, rescanning " + baseFolder);
+              rescan();
+              continue;
+            }
+            Path path = folder.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+              scan(path); // pick up the new folder and anything already created in it
+            } else {
+              update(path);
+            }
+          }
+          if (!key.reset()) {
+            watchedFolders.remove(key);
+          }
+        } catch (ClosedWatchServiceException e) {
+          return;
+        } catch (InterruptedException e) {
+          return;
+        } catch (Exception e) {
+          log.error("Error updating log file index", e);
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+import java.io.File;
+
+/**
+ * Details of a task run log file held in a LogFileIndex.
+ */
+public class LogFileInfo {
+
+  private final File file;
+
+  private final long size;
+
+  private final long lastModified;
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param file The log file.
+   * @param size The size of the file in bytes.
+   * @param lastModified The time the file was last modified, in milliseconds since the epoch.
+   */
+  public LogFileInfo(File file, long size, long lastModified) {
+    this.file = file;
+    this.size = size;
+    this.lastModified = lastModified;
+  }
+
+  /**
+   * @return The name of the log file.
+   */
+  public String getName() {
+    return file.getName();
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+
+}
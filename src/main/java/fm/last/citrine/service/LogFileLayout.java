@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+import java.io.File;
+
+/**
+ * Determines where under the base log folder the log file for a task run lives. By default all log files are written to
+ * the base log folder itself, if shardSize is set they are instead spread over sub-folders each holding the log files
+ * for a range of shardSize task run ids, e.g. with a shardSize of 1000 the log file for task run 12345 is 12/12345.log.
+ * Log files are still referred to by file name only, the sub-folder is worked out from the task run id the name starts
+ * with.
+ */
+public class LogFileLayout {
+
+  private int shardSize = 0;
+
+  /**
+   * @param taskRunId Task run id.
+   * @return The name of the log file for the task run.
+   */
+  public static String getLogFileName(long taskRunId) {
+    return taskRunId + ".log";
+  }
+
+  /**
+   * Checks that a name passed in (e.g. from a request) is just the name of a log file, so it can't be used to refer to
+   * files outside the log folders.
+   *
+   * @param logFileName Log file name.
+   * @return Whether the name is a log file name, i.e. it matches "*.log*" and has no path separators or "..".
+   */
+  public static boolean isLogFileName(String logFileName) {
+    return logFileName != null && logFileName.contains(".log") && !logFileName.contains("..")
+        && logFileName.indexOf('/') < 0 && logFileName.indexOf('\\') < 0;
+  }
+
+  /**
+   * Gets the task run id a log file name starts with, e.g. 808 for "808.log.1".
+   *
+   * @param logFileName Log file name.
+   * @return The task run id, or -1 if the name doesn't start with one.
+   */
+  public static long getTaskRunId(String logFileName) {
+    int end = 0;
+    while (end < logFileName.length() && end < 18 && Character.isDigit(logFileName.charAt(end))) {
+      end++;
+    }
+    if (end == 0) {
+      return -1;
+    }
+    return Long.parseLong(logFileName.substring(0, end));
+  }
+
+  /**
+   * @param logFileName Log file name.
+   * @return The name of the sub-folder the log file belongs in, or null if it belongs in the base log folder.
+   */
+  public String getShard(String logFileName) {
+    if (!isSharded()) {
+      return null;
+    }
+    long taskRunId = getTaskRunId(logFileName);
+    if (taskRunId < 0) {
+      return null;
+    }
+    return String.valueOf(taskRunId / shardSize);
+  }
+
+  /**
+   * @param logFileName Log file name.
+   * @return Path of the log file relative to the base log folder, using '/' as separator so it can also be used in
+   *         URLs.
+   */
+  public String getRelativePath(String logFileName) {
+    String shard = getShard(logFileName);
+    if (shard == null) {
+      return logFileName;
+    }
+    return shard + "/" + logFileName;
+  }
+
+  /**
+   * @param baseLogFolder The base log folder.
+   * @param logFileName Log file name.
+   * @return The location of the log file.
+   */
+  public File getFile(File baseLogFolder, String logFileName) {
+    String shard = getShard(logFileName);
+    if (shard == null) {
+      return new File(baseLogFolder, logFileName);
+    }
+    return new File(new File(baseLogFolder, shard), logFileName);
+  }
+
+  /**
+   * @return Whether log files are spread over sub-folders.
+   */
+  public boolean isSharded() {
+    return shardSize > 0;
+  }
+
+  public int getShardSize() {
+    return shardSize;
+  }
+
+  /**
+   * @param shardSize Number of task run ids each sub-folder holds the log files for, 0 to keep all log files in the
+   *          base log folder.
+   */
+  public void setShardSize(int shardSize) {
+    this.shardSize = shardSize;
+  }
+
+}
@@ -16,6 +16,7 @@
 package fm.last.citrine.service;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 import org.joda.time.DateTime;
@@ -42,6 +43,56 @@ public interface LogFileManager {
    */
   public String tail(String logFileName, long tailBytes) throws IOException;
 
+  /**
+   * Reads the passed task run log file from the passed byte offset, so a log file which is still being written to can
+   * be followed by repeatedly calling this with the offset returned by the previous call.
+   * 
+   * @param logFileName The name of the task run log file.
+   * @param offset The byte offset to start reading from, if this is past the end of the file (e.g. because it has been
+   *          replaced) nothing is read and the returned chunk is marked as replaced.
+   * @param maxBytes The maximum number of bytes to read.
+   * @return The chunk of the file that was read, with empty contents if nothing has been written since the offset.
+   * @throws IOException If an error occurs reading the file.
+   */
+  public LogFileChunk read(String logFileName, long offset, int maxBytes) throws IOException;
+
+  /**
+   * Determines whether the passed task run log file has been compressed. Compressed log files can still be referred to
+   * by the name they had before they were compressed and are decompressed transparently when read by the other methods.
+   * 
+   * @param logFileName The name of the task run log file.
+   * @return Whether the log file is compressed.
+   */
+  public boolean isCompressed(String logFileName);
+
+  /**
+   * Opens the passed task run log file for reading.
+   * 
+   * @param logFileName The name of the task run log file.
+   * @param decompress Whether to decompress the contents of the log file if it is compressed, if false the contents
+   *          are returned as they are stored.
+   * @return A stream the log file can be read from, which must be closed by the caller.
+   * @throws IOException If an error occurs opening the file.
+   */
+  public InputStream open(String logFileName, boolean decompress) throws IOException;
+
+  /**
+   * Gets the length of the passed task run log file.
+   * 
+   * @param logFileName The name of the task run log file.
+   * @return The (uncompressed) length of the file in bytes, 0 if it does not exist.
+   */
+  public long length(String logFileName);
+
+  /**
+   * Gets the location of the passed task run log file relative to the base log folder, which may be in a sub-folder
+   * depending on the layout of the log files.
+   * 
+   * @param logFileName The name of the task run log file.
+   * @return The relative path, using '/' as separator.
+   */
+  public String getRelativePath(String logFileName);
+
   /**
    * Deletes all log files older than the passed date.
    * 
@@ -50,6 +101,17 @@ public interface LogFileManager {
    */
   public void deleteBefore(DateTime deleteBefore) throws IOException;
 
+  /**
+   * Compresses all log files older than the passed date which haven't already been compressed. The compressed log
+   * files keep the modification time of the originals, so are deleted by deleteBefore() at the same time.
+   * 
+   * @param compressBefore DateTime to compress log files before. Log files of task runs which are still running are
+   *          left alone however long ago they were last written to.
+   * @return The number of log files compressed.
+   * @throws IOException If an error occurs compressing the log files.
+   */
+  public int compressBefore(DateTime compressBefore) throws IOException;
+
   /**
    * Determines whether a log file with the passed name exists.
    * 
@@ -17,14 +17,27 @@ package fm.last.citrine.service;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ClosedInputStream;
 import org.apache.commons.io.filefilter.AgeFileFilter;
 import org.apache.commons.io.filefilter.AndFileFilter;
+import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.io.filefilter.FileFileFilter;
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
@@ -32,17 +45,47 @@ import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
 
 import fm.last.commons.io.LastFileUtils;
+import fm.last.commons.io.SeekableGzipFile;
 
 /**
- * Log file manager implementation which processes files written to disk under a configured folder location.
+ * Log file manager implementation which processes files written to disk under a configured folder location. If indexed
+ * is set, the log files are listed, checked for and found for deletion using a LogFileIndex instead of the folder being
+ * scanned each time. Log files may be spread over sub-folders as determined by the LogFileLayout, log files written to
+ * the base folder before the layout was changed are still found. Log files compressed by compressBefore() are read
+ * transparently using the name they had before they were compressed.
  */
 public class LogFileManagerImpl implements LogFileManager {
 
   private static Logger log = Logger.getLogger(LogFileManagerImpl.class);
 
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final String COMPRESSED_EXTENSION = ".gz";
+
+  /**
+   * Size of the buffers used to compress and decompress log files.
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
   private File baseLogFolder = new File(System.getProperty("java.io.tmpdir"));
   private final IOFileFilter logFileFilter = new AndFileFilter(new WildcardFileFilter("*.log*"), FileFileFilter.FILE);
 
+  private LogFileLayout logFileLayout = new LogFileLayout();
+
+  /**
+   * Number of bytes of a log file compressed as each independently readable block.
+   */
+  private int compressedBlockSize = SeekableGzipFile.DEFAULT_BLOCK_SIZE;
+
+  private boolean indexed = false;
+
+  private LogFileIndex index;
+
+  /**
+   * If set, log files of task runs which are still running are never compressed.
+   */
+  private TaskRunRegistry taskRunRegistry;
+
   /**
    * Creates a new instance which will read log files under the base log path (java tmp dir by default).
    */
@@ -63,34 +106,469 @@ public class LogFileManagerImpl implements LogFileManager {
     this.baseLogFolder = baseLogFolder;
   }
 
+  /**
+   * Gets the index of log files, creating it if necessary.
+   * 
+   * @return The index, or null if the log files aren't indexed.
+   */
+  private synchronized LogFileIndex getIndex() {
+    if (indexed && index == null) {
+      LogFileIndex newIndex = new LogFileIndex(baseLogFolder);
+      try {
+        newIndex.start();
+        index = newIndex;
+      } catch (IOException e) {
+        log.error("Error indexing " + baseLogFolder + ", falling back to scanning it", e);
+        newIndex.close();
+        indexed = false;
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Stops keeping the index of log files (if any) up to date.
+   */
+  public synchronized void close() {
+    if (index != null) {
+      index.close();
+      index = null;
+    }
+  }
+
+  /**
+   * Gets the location of a log file, looking it up in the index if there is one.
+   * 
+   * @param logFileName Log file name.
+   * @return The log file, which may not exist.
+   * @throws IllegalArgumentException If the name isn't a log file name, e.g. it is a path.
+   */
+  private File getLogFile(String logFileName) {
+    if (!LogFileLayout.isLogFileName(logFileName)) {
+      throw new IllegalArgumentException("Invalid log file name " + logFileName);
+    }
+    File logFile = findLogFile(logFileName);
+    if (!logFile.exists() && !logFileName.endsWith(COMPRESSED_EXTENSION)) {
+      File compressedLogFile = findLogFile(logFileName + COMPRESSED_EXTENSION);
+      if (compressedLogFile.exists()) {
+        return compressedLogFile;
+      }
+    }
+    return logFile;
+  }
+
+  private File findLogFile(String logFileName) {
+    LogFileIndex index = getIndex();
+    if (index != null) {
+      LogFileInfo info = index.get(logFileName);
+      if (info != null) {
+        return info.getFile();
+      }
+    }
+    File logFile = logFileLayout.getFile(baseLogFolder, logFileName);
+    if (logFileLayout.isSharded() && !logFile.exists()) {
+      File unshardedLogFile = new File(baseLogFolder, logFileName);
+      if (unshardedLogFile.exists()) {
+        return unshardedLogFile;
+      }
+    }
+    return logFile;
+  }
+
+  /**
+   * @return The sub-folders log files have been spread over, in task run id order, or an empty list if the log files
+   *         aren't sharded.
+   */
+  private List<File> getShards() {
+    List<File> shards = new ArrayList<File>();
+    if (logFileLayout.isSharded()) {
+      File[] folders = baseLogFolder.listFiles((FileFilter) DirectoryFileFilter.DIRECTORY);
+      if (folders != null) {
+        for (File folder : folders) {
+          if (isShard(folder)) {
+            shards.add(folder);
+          }
+        }
+      }
+      Collections.sort(shards, new Comparator<File>() {
+        @Override
+        public int compare(File shard1, File shard2) {
+          return Long.valueOf(shard1.getName()).compareTo(Long.valueOf(shard2.getName()));
+        }
+      });
+    }
+    return shards;
+  }
+
+  private boolean isShard(File folder) {
+    return baseLogFolder.equals(folder.getParentFile()) && folder.getName().matches("\\d{1,18}");
+  }
+
   @Override
   public List<String> findAllLogFiles() {
-    String[] files = baseLogFolder.list(logFileFilter);
+    LogFileIndex index = getIndex();
+    if (index != null) {
+      return index.getNames();
+    }
     List<String> logFiles = new ArrayList<String>();
+    addLogFiles(baseLogFolder, logFiles);
+    for (File shard : getShards()) {
+      addLogFiles(shard, logFiles);
+    }
+    Collections.sort(logFiles, Collections.reverseOrder());
+    return logFiles;
+  }
+
+  private void addLogFiles(File folder, List<String> logFiles) {
+    String[] files = folder.list(logFileFilter);
     if (files != null) {
       for (String logFile : files) {
         logFiles.add(logFile);
       }
     }
-    Collections.sort(logFiles, Collections.reverseOrder());
-    return logFiles;
+  }
+
+  private static boolean isCompressed(File logFile) {
+    return logFile.getName().endsWith(COMPRESSED_EXTENSION);
+  }
+
+  /**
+   * Opens a log file for reading its uncompressed contents.
+   */
+  private InputStream openDecompressed(File logFile) throws IOException {
+    if (!isCompressed(logFile)) {
+      return new FileInputStream(logFile);
+    }
+    if (logFile.length() == 0) { // not even a gzip header, treat as empty
+      return new ClosedInputStream();
+    }
+    InputStream inputStream = new FileInputStream(logFile);
+    try {
+      return new GZIPInputStream(inputStream, BUFFER_SIZE);
+    } catch (IOException e) {
+      IOUtils.closeQuietly(inputStream);
+      throw e;
+    }
+  }
+
+  @Override
+  public boolean isCompressed(String logFileName) {
+    return isCompressed(getLogFile(logFileName));
+  }
+
+  @Override
+  public InputStream open(String logFileName, boolean decompress) throws IOException {
+    File logFile = getLogFile(logFileName);
+    if (decompress) {
+      return openDecompressed(logFile);
+    }
+    return new FileInputStream(logFile);
   }
 
   @Override
   public String tail(String logFileName, long tailBytes) throws IOException {
-    File logFile = new File(baseLogFolder, logFileName);
-    return LastFileUtils.tail(logFile, tailBytes);
+    File logFile = getLogFile(logFileName);
+    if (!isCompressed(logFile)) {
+      return LastFileUtils.tail(logFile, tailBytes);
+    }
+    SeekableGzipFile seekableFile = SeekableGzipFile.open(logFile);
+    InputStream inputStream;
+    if (seekableFile != null) { // only decompress the end, starting one byte before the requested ones as tail does
+      inputStream = seekableFile.read(Math.max(0, seekableFile.length() - tailBytes - 1));
+    } else {
+      inputStream = openDecompressed(logFile);
+    }
+    try {
+      return LastFileUtils.tail(inputStream, tailBytes);
+    } finally {
+      IOUtils.closeQuietly(inputStream);
+    }
+  }
+
+  @Override
+  public LogFileChunk read(String logFileName, long offset, int maxBytes) throws IOException {
+    File logFile = getLogFile(logFileName);
+    if (!logFile.exists()) {
+      return new LogFileChunk("", 0, false, offset > 0);
+    }
+    if (isCompressed(logFile)) {
+      return readCompressed(logFile, offset, maxBytes);
+    }
+    FileInputStream inputStream = new FileInputStream(logFile);
+    try {
+      FileChannel channel = inputStream.getChannel();
+      long length = channel.size();
+      if (offset > length) {
+        return new LogFileChunk("", offset, false, true);
+      }
+      if (offset < 0) {
+        offset = 0;
+      }
+      ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(maxBytes, length - offset));
+      while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) >= 0) {
+        // keep reading until buffer full
+      }
+      byte[] bytes = buffer.array();
+      int end = completeCharacters(bytes, buffer.position());
+      return new LogFileChunk(new String(bytes, 0, end, UTF8), offset + end, offset + end < length);
+    } finally {
+      IOUtils.closeQuietly(inputStream);
+    }
+  }
+
+  /**
+   * Reads part of a compressed log file, starting from the block containing the offset if it is a seekable gzip file,
+   * otherwise decompressing everything before the offset as it goes.
+   */
+  private LogFileChunk readCompressed(File logFile, long offset, int maxBytes) throws IOException {
+    SeekableGzipFile seekableFile = SeekableGzipFile.open(logFile);
+    long length = seekableFile != null ? seekableFile.length() : uncompressedLength(logFile);
+    if (offset > length) {
+      return new LogFileChunk("", offset, false, true);
+    }
+    if (offset < 0) {
+      offset = 0;
+    }
+    InputStream inputStream = seekableFile != null ? seekableFile.read(offset) : openDecompressed(logFile);
+    try {
+      if (seekableFile == null) {
+        IOUtils.skip(inputStream, offset);
+      }
+      byte[] bytes = new byte[maxBytes + 1]; // one extra byte to tell whether there is more
+      int read = IOUtils.read(inputStream, bytes);
+      int end = completeCharacters(bytes, Math.min(read, maxBytes));
+      return new LogFileChunk(new String(bytes, 0, end, UTF8), offset + end, end < read);
+    } finally {
+      IOUtils.closeQuietly(inputStream);
+    }
+  }
+
+  /**
+   * Determines how many of the passed UTF-8 bytes make up complete characters, so that a character which is only
+   * partially written (or read) is left for the next read.
+   * 
+   * @param bytes UTF-8 bytes.
+   * @param length Number of bytes.
+   * @return Number of bytes up to the end of the last complete character.
+   */
+  static int completeCharacters(byte[] bytes, int length) {
+    for (int i = length - 1; i >= 0 && i >= length - 4; i--) {
+      int b = bytes[i] & 0xFF;
+      if (b < 0x80) { // single byte character, everything up to here is complete
+        return length;
+      }
+      if (b >= 0xC0) { // lead byte of a multi byte character
+        int characterLength = b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2;
+        return i + characterLength <= length ? length : i;
+      }
+    }
+    return length;
+  }
+
+  @Override
+  public long length(String logFileName) {
+    File logFile = getLogFile(logFileName);
+    if (isCompressed(logFile)) {
+      return uncompressedLength(logFile);
+    }
+    return logFile.length();
+  }
+
+  /**
+   * Gets the uncompressed length of a compressed log file from the header of a seekable gzip file, or for other gzip
+   * files from the gzip trailer, which holds the length modulo 2^32.
+   */
+  private long uncompressedLength(File logFile) {
+    long length = logFile.length();
+    if (length < 4) {
+      return 0;
+    }
+    RandomAccessFile file = null;
+    try {
+      SeekableGzipFile seekableFile = SeekableGzipFile.open(logFile);
+      if (seekableFile != null) {
+        return seekableFile.length();
+      }
+      file = new RandomAccessFile(logFile, "r");
+      file.seek(length - 4);
+      byte[] trailer = new byte[4];
+      file.readFully(trailer);
+      return (trailer[0] & 0xFFL) | (trailer[1] & 0xFFL) << 8 | (trailer[2] & 0xFFL) << 16 | (trailer[3] & 0xFFL) << 24;
+    } catch (IOException e) {
+      log.error("Error reading length of " + logFile, e);
+      return 0;
+    } finally {
+      IOUtils.closeQuietly(file);
+    }
+  }
+
+  @Override
+  public String getRelativePath(String logFileName) {
+    File logFile = getLogFile(logFileName);
+    if (baseLogFolder.equals(logFile.getParentFile())) {
+      return logFileName;
+    }
+    return logFile.getParentFile().getName() + "/" + logFileName;
   }
 
   public void setBaseLogPath(String baseLogPath) {
     this.baseLogFolder = new File(baseLogPath);
   }
 
+  public LogFileLayout getLogFileLayout() {
+    return logFileLayout;
+  }
+
+  public void setLogFileLayout(LogFileLayout logFileLayout) {
+    this.logFileLayout = logFileLayout;
+  }
+
+  public int getCompressedBlockSize() {
+    return compressedBlockSize;
+  }
+
+  public void setCompressedBlockSize(int compressedBlockSize) {
+    this.compressedBlockSize = compressedBlockSize;
+  }
+
+  public TaskRunRegistry getTaskRunRegistry() {
+    return taskRunRegistry;
+  }
+
+  public void setTaskRunRegistry(TaskRunRegistry taskRunRegistry) {
+    this.taskRunRegistry = taskRunRegistry;
+  }
+
+  public boolean isIndexed() {
+    return indexed;
+  }
+
+  public void setIndexed(boolean indexed) {
+    this.indexed = indexed;
+  }
+
   @Override
   public void deleteBefore(DateTime deleteBefore) throws IOException {
     log.debug("Deleting log files older than " + deleteBefore + " from " + baseLogFolder);
-    File[] filesToDelete = baseLogFolder.listFiles((FileFilter) new AndFileFilter(logFileFilter, new AgeFileFilter(
+    LogFileIndex index = getIndex();
+    if (index != null) {
+      long newestShard = getNewestShard(index.getNames());
+      Set<File> shards = new HashSet<File>();
+      for (LogFileInfo info : index.findModifiedBefore(deleteBefore.getMillis())) {
+        if (log.isDebugEnabled()) {
+          log.debug("Deleting " + info.getFile());
+        }
+        FileUtils.deleteQuietly(info.getFile());
+        index.remove(info.getName());
+        if (isShard(info.getFile().getParentFile())) {
+          shards.add(info.getFile().getParentFile());
+        }
+      }
+      for (File shard : shards) {
+        deleteIfEmpty(shard, newestShard);
+      }
+      return;
+    }
+    deleteBefore(baseLogFolder, deleteBefore);
+    // every shard is checked, a single log file still being written to can keep an old shard from being emptied
+    List<File> shards = getShards();
+    if (!shards.isEmpty()) {
+      long newestShard = Long.parseLong(shards.get(shards.size() - 1).getName());
+      for (File shard : shards) {
+        deleteBefore(shard, deleteBefore);
+        deleteIfEmpty(shard, newestShard);
+      }
+    }
+  }
+
+  @Override
+  public int compressBefore(DateTime compressBefore) throws IOException {
+    log.debug("Compressing log files older than " + compressBefore + " in " + baseLogFolder);
+    // a run which hasn't written anything for a while may still be writing to its log file
+    Set<Long> runningTaskRunIds = taskRunRegistry != null ? taskRunRegistry.getRunningTaskRunIds() : Collections
+        .<Long> emptySet();
+    List<File> filesToCompress = new ArrayList<File>();
+    LogFileIndex index = getIndex();
+    if (index != null) {
+      for (LogFileInfo info : index.findModifiedBefore(compressBefore.getMillis())) {
+        filesToCompress.add(info.getFile());
+      }
+    } else {
+      IOFileFilter filter = new AndFileFilter(logFileFilter, new AgeFileFilter(compressBefore.toDate()));
+      addFiles(baseLogFolder, filter, filesToCompress);
+      for (File shard : getShards()) {
+        addFiles(shard, filter, filesToCompress);
+      }
+    }
+    int compressed = 0;
+    for (File fileToCompress : filesToCompress) {
+      if (runningTaskRunIds.contains(LogFileLayout.getTaskRunId(fileToCompress.getName()))) {
+        log.debug("Not compressing " + fileToCompress + " as its task run is still running");
+        continue;
+      }
+      if (!isCompressed(fileToCompress) && compress(fileToCompress)) {
+        compressed++;
+        if (index != null) {
+          index.refresh(fileToCompress);
+          index.refresh(new File(fileToCompress.getPath() + COMPRESSED_EXTENSION));
+        }
+      }
+    }
+    return compressed;
+  }
+
+  private void addFiles(File folder, FileFilter filter, List<File> files) {
+    File[] found = folder.listFiles(filter);
+    if (found != null) {
+      Collections.addAll(files, found);
+    }
+  }
+
+  /**
+   * Replaces a log file with a seekable gzip compressed copy, which keeps the modification time of the original so it
+   * is deleted at the same time the original would have been.
+   * 
+   * @return Whether the log file was compressed.
+   */
+  private boolean compress(File logFile) throws IOException {
+    File compressedFile = new File(logFile.getPath() + COMPRESSED_EXTENSION);
+    if (compressedFile.exists()) {
+      log.warn("Not compressing " + logFile + " as " + compressedFile + " already exists");
+      return false;
+    }
+    long lastModified = logFile.lastModified();
+    long length = logFile.length();
+    // compress to a temporary file which isn't picked up as a log file, so a partly written one is never read
+    File tempFile = File.createTempFile("compress", ".tmp", logFile.getParentFile());
+    try {
+      SeekableGzipFile.compress(logFile, tempFile, compressedBlockSize);
+      if (logFile.lastModified() != lastModified || logFile.length() != length) {
+        log.warn(logFile + " was written to while being compressed, leaving it uncompressed");
+        return false;
+      }
+      tempFile.setLastModified(lastModified);
+      if (!tempFile.renameTo(compressedFile)) {
+        throw new IOException("Could not rename " + tempFile + " to " + compressedFile);
+      }
+      if (log.isDebugEnabled()) {
+        log.debug("Compressed " + logFile + " from " + length + " to " + compressedFile.length() + " bytes");
+      }
+      FileUtils.forceDelete(logFile);
+      return true;
+    } finally {
+      FileUtils.deleteQuietly(tempFile);
+    }
+  }
+
+  /**
+   * Deletes all log files in the passed folder older than the passed date.
+   */
+  private void deleteBefore(File folder, DateTime deleteBefore) throws IOException {
+    File[] filesToDelete = folder.listFiles((FileFilter) new AndFileFilter(logFileFilter, new AgeFileFilter(
         deleteBefore.toDate())));
+    if (filesToDelete == null) {
+      return;
+    }
     for (File fileToDelete : filesToDelete) {
       if (log.isDebugEnabled()) {
         log.debug("Deleting " + fileToDelete);
@@ -99,10 +577,47 @@ public class LogFileManagerImpl implements LogFileManager {
     }
   }
 
+  /**
+   * Deletes a shard if it no longer contains any files, unless it is the newest one as new log files may be about to be
+   * created in it.
+   * 
+   * @return Whether the shard was deleted.
+   */
+  private boolean deleteIfEmpty(File shard, long newestShard) {
+    if (Long.parseLong(shard.getName()) < newestShard && shard.delete()) { // only deletes empty folders
+      log.debug("Deleted empty log folder " + shard);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return The number of the shard the newest of the passed log files belongs in.
+   */
+  private long getNewestShard(List<String> logFileNames) {
+    long newestTaskRunId = -1;
+    for (String logFileName : logFileNames) {
+      newestTaskRunId = Math.max(newestTaskRunId, LogFileLayout.getTaskRunId(logFileName));
+    }
+    if (!logFileLayout.isSharded()) {
+      return Long.MAX_VALUE; // any shards are left over from before, no new log files will be created in them
+    }
+    if (newestTaskRunId < 0) {
+      return -1; // don't know which is the newest so keep them all
+    }
+    return newestTaskRunId / logFileLayout.getShardSize();
+  }
+
   @Override
   public boolean exists(String logFileName) {
-    File logFile = new File(baseLogFolder, logFileName);
-    return logFile.exists();
+    if (!LogFileLayout.isLogFileName(logFileName)) {
+      return false;
+    }
+    LogFileIndex index = getIndex();
+    if (index != null) {
+      return index.contains(logFileName) || index.contains(logFileName + COMPRESSED_EXTENSION);
+    }
+    return getLogFile(logFileName).exists();
   }
 
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import fm.last.citrine.model.TaskRun;
+
+/**
+ * Thread safe in-memory store of a summary (id, status, start and end dates) of the most recent TaskRun for each Task.
+ * TaskRuns returned by this class are copies, so changing them has no effect on the cached values.
+ */
+public class MostRecentTaskRunCache {
+
+  /**
+   * Map of task id to summary of its most recent TaskRun.
+   */
+  private final ConcurrentMap<Long, TaskRun> mostRecent = new ConcurrentHashMap<Long, TaskRun>();
+
+  /**
+   * Replaces the contents of the cache with the passed TaskRuns.
+   *
+   * @param taskRuns The most recent TaskRun for each Task.
+   */
+  public void load(Collection<TaskRun> taskRuns) {
+    Map<Long, TaskRun> loaded = new HashMap<Long, TaskRun>();
+    for (TaskRun taskRun : taskRuns) {
+      loaded.put(taskRun.getTaskId(), summarise(taskRun));
+    }
+    mostRecent.keySet().retainAll(loaded.keySet());
+    mostRecent.putAll(loaded);
+  }
+
+  /**
+   * Updates the cache with the passed TaskRun, if it is at least as recent as the one currently held for its Task.
+   *
+   * @param taskRun TaskRun that has been created or changed.
+   */
+  public void update(TaskRun taskRun) {
+    if (taskRun == null || taskRun.getStartDate() == null) {
+      return;
+    }
+    TaskRun summary = summarise(taskRun);
+    Long taskId = taskRun.getTaskId();
+    while (true) {
+      TaskRun current = mostRecent.get(taskId);
+      if (current == null) {
+        if (mostRecent.putIfAbsent(taskId, summary) == null) {
+          return;
+        }
+      } else {
+        if (!isAtLeastAsRecent(summary, current)) {
+          return;
+        }
+        if (mostRecent.replace(taskId, current, summary)) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Removes the TaskRun with the passed id from the cache, if it is currently held as the most recent for its Task.
+   *
+   * @param taskRunId Id of the TaskRun to remove.
+   * @return The id of the Task whose entry was removed, or null if the TaskRun was not in the cache.
+   */
+  public Long evict(long taskRunId) {
+    for (Entry<Long, TaskRun> entry : mostRecent.entrySet()) {
+      if (entry.getValue().getId() == taskRunId && mostRecent.remove(entry.getKey(), entry.getValue())) {
+        return entry.getKey();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Removes the TaskRuns with the passed ids from the cache, where they are currently held as the most recent for their
+   * Task.
+   *
+   * @param taskRunIds Ids of the TaskRuns to remove.
+   * @return The ids of the Tasks whose entries were removed.
+   */
+  public Set<Long> evictAll(Collection<Long> taskRunIds) {
+    Set<Long> ids = new HashSet<Long>(taskRunIds);
+    Set<Long> evicted = new HashSet<Long>();
+    for (Entry<Long, TaskRun> entry : mostRecent.entrySet()) {
+      if (ids.contains(entry.getValue().getId()) && mostRecent.remove(entry.getKey(), entry.getValue())) {
+        evicted.add(entry.getKey());
+      }
+    }
+    return evicted;
+  }
+
+  /**
+   * Removes any cached TaskRun for the passed Task.
+   *
+   * @param taskId Task id.
+   */
+  public void remove(long taskId) {
+    mostRecent.remove(taskId);
+  }
+
+  /**
+   * Gets the most recent TaskRun for the passed Task.
+   *
+   * @param taskId Task id.
+   * @return A summary of the most recent TaskRun, or null if the Task has never run.
+   */
+  public TaskRun get(long taskId) {
+    return copy(mostRecent.get(taskId));
+  }
+
+  /**
+   * Gets the most recent TaskRun for each of the passed Tasks.
+   *
+   * @param taskIds Task ids.
+   * @return Map of task id to a summary of its most recent TaskRun, Tasks which have never run have no entry.
+   */
+  public Map<Long, TaskRun> get(Collection<Long> taskIds) {
+    Map<Long, TaskRun> result = new HashMap<Long, TaskRun>(taskIds.size());
+    for (Long taskId : taskIds) {
+      TaskRun taskRun = copy(mostRecent.get(taskId));
+      if (taskRun != null) {
+        result.put(taskId, taskRun);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return The number of Tasks with a cached TaskRun.
+   */
+  public int size() {
+    return mostRecent.size();
+  }
+
+  private boolean isAtLeastAsRecent(TaskRun candidate, TaskRun current) {
+    if (candidate.getId() == current.getId()) { // same run changing state
+      return true;
+    }
+    int comparison = candidate.getStartDate().compareTo(current.getStartDate());
+    if (comparison == 0) { // same start date, last one created wins (as with the database query)
+      return candidate.getId() > current.getId();
+    }
+    return comparison > 0;
+  }
+
+  private static TaskRun summarise(TaskRun taskRun) {
+    TaskRun summary = new TaskRun(taskRun.getStatus(), copy(taskRun.getStartDate()), copy(taskRun.getEndDate()),
+        null, null, null, taskRun.getTaskId());
+    summary.setId(taskRun.getId());
+    summary.setVersion(taskRun.getVersion());
+    return summary;
+  }
+
+  private static TaskRun copy(TaskRun summary) {
+    if (summary == null) {
+      return null;
+    }
+    return summarise(summary);
+  }
+
+  private static Date copy(Date date) {
+    if (date == null) {
+      return null;
+    }
+    return new Date(date.getTime());
+  }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import fm.last.citrine.model.Task;
+
+/**
+ * Immutable snapshot of the Tasks and the dependencies between them, used to decide which child Tasks to run when a
+ * Task finishes without going to the database. A new one is built by the TaskManager whenever Tasks are saved or
+ * deleted. The ancestors and descendants of each Task are worked out the first time they are asked for and remembered
+ * for the life of the graph, so questions like whether adding a child would create a cycle are answered without
+ * walking the graph each time.
+ */
+public class TaskGraph {
+
+  private final Map<Long, Node> nodes;
+
+  private final Map<String, List<Long>> groups;
+
+  private final ConcurrentMap<Long, Set<Long>> ancestorIds = new ConcurrentHashMap<Long, Set<Long>>();
+
+  private final ConcurrentMap<Long, Set<Long>> descendantIds = new ConcurrentHashMap<Long, Set<Long>>();
+
+  /**
+   * Builds a graph of the passed Tasks. Only the child Tasks of each Task are read, the parents are worked out from
+   * them.
+   *
+   * @param tasks All Tasks.
+   */
+  public TaskGraph(Collection<Task> tasks) {
+    Map<Long, List<Long>> childIds = new HashMap<Long, List<Long>>();
+    Map<Long, List<Long>> parentIds = new HashMap<Long, List<Long>>();
+    for (Task task : tasks) {
+      childIds.put(task.getId(), new ArrayList<Long>());
+      parentIds.put(task.getId(), new ArrayList<Long>());
+    }
+    for (Task task : tasks) {
+      for (Task child : task.getChildTasks()) {
+        if (childIds.containsKey(child.getId())) {
+          childIds.get(task.getId()).add(child.getId());
+          parentIds.get(child.getId()).add(task.getId());
+        }
+      }
+    }
+    Map<Long, Node> nodes = new HashMap<Long, Node>();
+    Map<String, List<Long>> groups = new HashMap<String, List<Long>>();
+    for (Task task : tasks) {
+      nodes.put(task.getId(), new Node(task, childIds.get(task.getId()), parentIds.get(task.getId())));
+      List<Long> group = groups.get(task.getGroupName());
+      if (group == null) {
+        group = new ArrayList<Long>();
+        groups.put(task.getGroupName(), group);
+      }
+      group.add(task.getId());
+    }
+    this.nodes = Collections.unmodifiableMap(nodes);
+    this.groups = Collections.unmodifiableMap(groups);
+  }
+
+  /**
+   * @param taskId Task id.
+   * @return The Task as it was when the graph was built, or null if there was no such Task.
+   */
+  public Task getTask(long taskId) {
+    Node node = nodes.get(taskId);
+    return node == null ? null : node.task;
+  }
+
+  /**
+   * @param taskId Task id.
+   * @return Ids of the Task's children, empty if it has none or there is no such Task.
+   */
+  public List<Long> getChildIds(long taskId) {
+    Node node = nodes.get(taskId);
+    return node == null ? Collections.<Long> emptyList() : node.childIds;
+  }
+
+  /**
+   * @param taskId Task id.
+   * @return Ids of the Task's parents, empty if it has none or there is no such Task.
+   */
+  public List<Long> getParentIds(long taskId) {
+    Node node = nodes.get(taskId);
+    return node == null ? Collections.<Long> emptyList() : node.parentIds;
+  }
+
+  /**
+   * @param taskId Task id.
+   * @return Ids of the Task's parents, their parents and so on, empty if it has none or there is no such Task.
+   */
+  public Set<Long> getAncestorIds(long taskId) {
+    Set<Long> ids = ancestorIds.get(taskId);
+    if (ids == null) {
+      ids = closure(taskId, false);
+      ancestorIds.putIfAbsent(taskId, ids);
+    }
+    return ids;
+  }
+
+  /**
+   * @param taskId Task id.
+   * @return Ids of the Task's children, their children and so on, empty if it has none or there is no such Task.
+   */
+  public Set<Long> getDescendantIds(long taskId) {
+    Set<Long> ids = descendantIds.get(taskId);
+    if (ids == null) {
+      ids = closure(taskId, true);
+      descendantIds.putIfAbsent(taskId, ids);
+    }
+    return ids;
+  }
+
+  /**
+   * Finds every Task reachable from the passed one, visiting each Task once.
+   */
+  private Set<Long> closure(long taskId, boolean children) {
+    Set<Long> ids = new HashSet<Long>();
+    LinkedList<Long> toVisit = new LinkedList<Long>(children ? getChildIds(taskId) : getParentIds(taskId));
+    while (!toVisit.isEmpty()) {
+      Long id = toVisit.removeFirst();
+      if (ids.add(id)) {
+        toVisit.addAll(children ? getChildIds(id) : getParentIds(id));
+      }
+    }
+    return Collections.unmodifiableSet(ids);
+  }
+
+  /**
+   * @param childTaskId Id of the Task to be added as a child.
+   * @param parentTaskId Id of the Task it would be added to.
+   * @return Whether adding the child would create a cycle, i.e. it is the parent or one of the parent's ancestors.
+   */
+  public boolean wouldCreateCycle(long childTaskId, long parentTaskId) {
+    return childTaskId == parentTaskId || getAncestorIds(parentTaskId).contains(childTaskId);
+  }
+
+  /**
+   * @param groupName Group name.
+   * @return Ids of the Tasks in the group, empty if there are none.
+   */
+  public List<Long> getTaskIdsInGroup(String groupName) {
+    List<Long> group = groups.get(groupName);
+    return group == null ? Collections.<Long> emptyList() : Collections.unmodifiableList(group);
+  }
+
+  /**
+   * @param taskId Task id.
+   * @return Whether the Task has any children.
+   */
+  public boolean hasChildren(long taskId) {
+    return !getChildIds(taskId).isEmpty();
+  }
+
+  /**
+   * @return Number of Tasks in the graph.
+   */
+  public int size() {
+    return nodes.size();
+  }
+
+  private static final class Node {
+
+    private final Task task;
+    private final List<Long> childIds;
+    private final List<Long> parentIds;
+
+    private Node(Task task, List<Long> childIds, List<Long> parentIds) {
+      this.task = task;
+      this.childIds = Collections.unmodifiableList(childIds);
+      this.parentIds = Collections.unmodifiableList(parentIds);
+    }
+
+  }
+
+}
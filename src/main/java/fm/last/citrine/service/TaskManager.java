@@ -33,6 +33,15 @@ public interface TaskManager {
    */
   public Task get(long id);
 
+  /**
+   * Retrieves a Task by its primary key, with its parent and child Tasks loaded (which {@link #get(long)} doesn't do)
+   * so they can be changed.
+   * 
+   * @param id Task id.
+   * @return Task identified by the passed id.
+   */
+  public Task getWithParentsAndChildren(long id);
+
   /**
    * Creates a or updates a Task object in storage.
    * 
@@ -91,6 +100,14 @@ public interface TaskManager {
    */
   public List<Task> getCurrentlyRunningTasks();
 
+  /**
+   * Gets the dependencies between all Tasks. The graph is cached and only rebuilt after Tasks have been saved or
+   * deleted.
+   * 
+   * @return Graph of all Tasks.
+   */
+  public TaskGraph getTaskGraph();
+
   /**
    * Gets all group names.
    * 
@@ -17,13 +17,17 @@ package fm.last.citrine.service;
 
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.quartz.SchedulerException;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import fm.last.citrine.dao.TaskDAO;
 import fm.last.citrine.dao.TaskRunDAO;
@@ -39,6 +43,16 @@ public class TaskManagerImpl implements TaskManager, BeanFactoryAware {
   private final TaskDAO taskDAO;
   private TaskRunDAO taskRunDAO;
 
+  /**
+   * Cached graph of all Tasks, null if it needs to be rebuilt.
+   */
+  private volatile TaskGraph taskGraph;
+
+  /**
+   * Incremented each time Tasks change, so a graph built from Tasks which have since changed isn't cached.
+   */
+  private final AtomicLong taskGraphVersion = new AtomicLong();
+
   public TaskManagerImpl(TaskDAO taskDAO, SchedulerManager schedulerManager) throws SchedulerException, ParseException {
     this.schedulerManager = schedulerManager;
     this.taskDAO = taskDAO;
@@ -65,6 +79,11 @@ public class TaskManagerImpl implements TaskManager, BeanFactoryAware {
     return taskDAO.get(id);
   }
 
+  @Override
+  public Task getWithParentsAndChildren(long id) {
+    return taskDAO.getWithParentsAndChildren(id);
+  }
+
   /**
    * Creates a or updates a Task object in storage.
    * 
@@ -73,6 +92,7 @@ public class TaskManagerImpl implements TaskManager, BeanFactoryAware {
   @Override
   public void save(Task task) {
     taskDAO.save(task);
+    taskGraphChanged();
     schedulerManager.scheduleTask(task, true);
   }
 
@@ -99,9 +119,24 @@ public class TaskManagerImpl implements TaskManager, BeanFactoryAware {
     return tasks;
   }
 
+  /**
+   * Finds Tasks who are valid candidates to be added as children to the passed Task, using the task graph so this
+   * doesn't need to go to the database or walk the Task's ancestors.
+   * 
+   * @param task Task to find candidate children for.
+   * @return Set of candidate child Tasks.
+   */
   @Override
   public Set<Task> findCandidateChildren(Task task) {
-    return taskDAO.findCandidateChildren(task);
+    TaskGraph graph = getTaskGraph();
+    List<Long> childIds = graph.getChildIds(task.getId());
+    Set<Task> candidates = new HashSet<Task>();
+    for (Long taskId : graph.getTaskIdsInGroup(task.getGroupName())) {
+      if (!graph.wouldCreateCycle(taskId, task.getId()) && !childIds.contains(taskId)) {
+        candidates.add(graph.getTask(taskId));
+      }
+    }
+    return candidates;
   }
 
   @Override
@@ -129,6 +164,45 @@ public class TaskManagerImpl implements TaskManager, BeanFactoryAware {
     schedulerManager.unscheduleTask(task);
     taskRunDAO.deleteByTaskId(task.getId()); // manually manage this association
     taskDAO.delete(task);
+    taskGraphChanged();
+  }
+
+  @Override
+  public TaskGraph getTaskGraph() {
+    TaskGraph graph = taskGraph;
+    if (graph == null) {
+      long version = taskGraphVersion.get();
+      graph = new TaskGraph(taskDAO.getTasksWithChildTasks());
+      synchronized (taskGraphVersion) {
+        if (taskGraphVersion.get() == version) {
+          taskGraph = graph;
+        }
+      }
+    }
+    return graph;
+  }
+
+  /**
+   * Discards the cached task graph. If there is a transaction it is discarded again once the transaction completes, as
+   * a graph could have been built from the Tasks as they were before the transaction in the meantime.
+   */
+  private void taskGraphChanged() {
+    discardTaskGraph();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public void afterCompletion(int status) {
+          discardTaskGraph();
+        }
+      });
+    }
+  }
+
+  private void discardTaskGraph() {
+    synchronized (taskGraphVersion) {
+      taskGraphVersion.incrementAndGet();
+      taskGraph = null;
+    }
   }
 
   public TaskRunDAO getTaskRunDAO() {
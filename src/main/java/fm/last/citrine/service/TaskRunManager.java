@@ -15,13 +15,18 @@
  */
 package fm.last.citrine.service;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.joda.time.DateTime;
 import org.quartz.JobListener;
 
 import fm.last.citrine.model.Status;
 import fm.last.citrine.model.TaskRun;
+import fm.last.citrine.model.TaskRunOutput;
+import fm.last.citrine.model.TaskRunSummary;
+import fm.last.citrine.scheduler.ExecutionPlan;
 
 /**
  * Manages TaskRuns.
@@ -43,6 +48,14 @@ public interface TaskRunManager extends JobListener {
    */
   public TaskRun get(long id);
 
+  /**
+   * Retrieves the sysout, syserr and stack trace of a TaskRun, which are not loaded with the TaskRun itself.
+   * 
+   * @param taskRunId TaskRun id.
+   * @return The output of the TaskRun identified by the passed id, or null if it has none.
+   */
+  public TaskRunOutput getOutput(long taskRunId);
+
   /**
    * Finds TaskRun that belong to a certain Task.
    * 
@@ -62,6 +75,28 @@ public interface TaskRunManager extends JobListener {
    */
   public List<TaskRun> findByTaskId(final long taskId, final int firstResult, final int maxResults);
 
+  /**
+   * Finds summaries of the TaskRuns that belong to a certain Task which were created before the TaskRun with the passed
+   * id. Returned List is ordered by TaskRun creation (most recent TaskRun first).
+   * 
+   * @param taskId The Task ID.
+   * @param beforeId Only TaskRuns with a lower id than this are returned, Long.MAX_VALUE to start from the most recent.
+   * @param maxResults The maximum number of results.
+   * @return List of matching TaskRun summaries.
+   */
+  public List<TaskRunSummary> findSummariesBefore(long taskId, long beforeId, int maxResults);
+
+  /**
+   * Finds summaries of the TaskRuns that belong to a certain Task which were created directly after the TaskRun with
+   * the passed id. Returned List is ordered by TaskRun creation (most recent TaskRun first).
+   * 
+   * @param taskId The Task ID.
+   * @param afterId Only TaskRuns with a higher id than this are returned.
+   * @param maxResults The maximum number of results.
+   * @return List of matching TaskRun summaries.
+   */
+  public List<TaskRunSummary> findSummariesAfter(long taskId, long afterId, int maxResults);
+
   /**
    * Deletes the TaskRun identified by the passed ID.
    * 
@@ -77,6 +112,32 @@ public interface TaskRunManager extends JobListener {
    */
   public void deleteBefore(DateTime before);
 
+  /**
+   * Deletes the TaskRuns with the oldest end dates on or before the passed date, up to the passed maximum number.
+   * 
+   * @param before DateTime to delete TaskRuns before (inclusive).
+   * @param maxTaskRuns The maximum number of TaskRuns to delete.
+   * @return The number of TaskRuns deleted, if this is less than maxTaskRuns there are no more to delete.
+   */
+  public int deleteBefore(DateTime before, int maxTaskRuns);
+
+  /**
+   * If the task runs table is partitioned by month, drops the partitions holding only TaskRuns which ended on or before
+   * the passed date and adds partitions for the coming months.
+   * 
+   * @param before DateTime to delete TaskRuns before (inclusive).
+   * @return The number of partitions dropped, 0 if the table isn't partitioned.
+   */
+  public int dropPartitionsBefore(DateTime before);
+
+  /**
+   * Deletes the output of TaskRuns which has been left behind by dropping partitions.
+   * 
+   * @param maxOutputs The maximum number of outputs to delete.
+   * @return The number of outputs deleted, if this is less than maxOutputs there are none left.
+   */
+  public int deleteOrphanedOutputs(int maxOutputs);
+
   /**
    * Determines whether there is an actively running TaskRun for the passed task.
    * 
@@ -99,13 +160,33 @@ public interface TaskRunManager extends JobListener {
   public void setStatus(TaskRun taskRun, Status status);
 
   /**
-   * Gets the most recent TaskRun (i.e. with the latest StartDate) for the passed task.
+   * Sets the Status of the passed JobRun, taking the notification settings from the passed execution plan rather than
+   * loading the Task.
+   * 
+   * @param taskRun TaskRun to change status.
+   * @param status New status.
+   * @param plan Execution plan of the TaskRun's Task, null to load the Task instead.
+   */
+  public void setStatus(TaskRun taskRun, Status status, ExecutionPlan plan);
+
+  /**
+   * Gets the most recent TaskRun (i.e. with the latest StartDate) for the passed task. This is served from memory and
+   * only contains the TaskRun's id, status and dates, use get() to retrieve the full TaskRun.
    * 
    * @param taskId Id of the Task.
    * @return The most recent TaskRun, or null if none could be found.
    */
   public TaskRun getMostRecent(long taskId);
 
+  /**
+   * Gets the most recent TaskRun (i.e. with the latest StartDate) for each of the passed tasks. As with
+   * getMostRecent(long) the returned TaskRuns only contain their id, status and dates.
+   * 
+   * @param taskIds Ids of the Tasks.
+   * @return Map of task id to most recent TaskRun, Tasks which have never run will not have an entry.
+   */
+  public Map<Long, TaskRun> getMostRecent(Collection<Long> taskIds);
+
   /**
    * Attempts to stop a running TaskRun.
    * 
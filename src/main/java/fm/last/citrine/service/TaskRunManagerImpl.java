@@ -15,18 +15,23 @@
  */
 package fm.last.citrine.service;
 
+import static fm.last.citrine.scheduler.SchedulerConstants.EXECUTION_PLAN;
 import static fm.last.citrine.scheduler.SchedulerConstants.SYS_ERR;
 import static fm.last.citrine.scheduler.SchedulerConstants.SYS_OUT;
 import static fm.last.citrine.scheduler.SchedulerConstants.TASK_ID;
+import static fm.last.citrine.scheduler.SchedulerConstants.TASK_RUN;
+import static fm.last.citrine.scheduler.SchedulerConstants.TASK_RUN_HANDLE;
 import static fm.last.citrine.scheduler.SchedulerConstants.TASK_RUN_ID;
+import static fm.last.citrine.scheduler.SchedulerConstants.WORKFLOW_EXECUTION;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.joda.time.DateTime;
@@ -39,11 +44,16 @@ import org.quartz.UnableToInterruptJobException;
 
 import fm.last.citrine.dao.TaskDAO;
 import fm.last.citrine.dao.TaskRunDAO;
+import fm.last.citrine.model.Notification;
 import fm.last.citrine.model.Status;
 import fm.last.citrine.model.Task;
 import fm.last.citrine.model.TaskRun;
+import fm.last.citrine.model.TaskRunOutput;
+import fm.last.citrine.model.TaskRunSummary;
 import fm.last.citrine.notification.Notifier;
+import fm.last.citrine.scheduler.ExecutionPlan;
 import fm.last.citrine.scheduler.SchedulerManager;
+import fm.last.citrine.scheduler.TaskRunHandle;
 
 /**
  * TaskRunManager implementation.
@@ -52,20 +62,34 @@ public class TaskRunManagerImpl implements TaskRunManager {
 
   private static Logger log = Logger.getLogger(TaskRunManagerImpl.class);
 
+  /**
+   * Number of months ahead for which partitions of the task runs table are created, if it is partitioned.
+   */
+  private static final int PARTITION_MONTHS_AHEAD = 2;
+
   private TaskRunDAO taskRunDAO;
   private TaskDAO taskDAO;
   private Notifier notifier;
 
   /**
-   * Map of running tasks. Key is the task id, value is the JobExecutionContext.
+   * Which tasks are running, and the JobExecutionContext of each run.
    */
-  private Map<Long, JobExecutionContext> runningTasks = Collections
-      .synchronizedMap(new HashMap<Long, JobExecutionContext>());
+  private TaskRunRegistry taskRunRegistry = new TaskRunRegistry();
+
+  /**
+   * Summary of the most recent TaskRun for each task, kept up to date as TaskRuns are saved by this class.
+   */
+  private final MostRecentTaskRunCache mostRecentTaskRuns = new MostRecentTaskRunCache();
 
   private SchedulerManager schedulerManager;
 
   private TaskManager taskManager;
 
+  /**
+   * If set, new TaskRuns and changes to them are written to storage in the background instead of by the calling thread.
+   */
+  private TaskRunWriteBehind writeBehind;
+
   /**
    * Constructs a new TaskRunManager which will use the passed DAO to communicate with the TaskRun storage.
    * 
@@ -74,6 +98,7 @@ public class TaskRunManagerImpl implements TaskRunManager {
   public TaskRunManagerImpl(TaskRunDAO taskRunDAO) {
     this.taskRunDAO = taskRunDAO;
     taskRunDAO.setInterruptedStatus(); // on startup set state for any previously running TaskRuns to interrupted
+    mostRecentTaskRuns.load(taskRunDAO.getMostRecentTaskRuns().values());
   }
 
   // from JobListener interface
@@ -85,7 +110,15 @@ public class TaskRunManagerImpl implements TaskRunManager {
   // from JobListener interface
   @Override
   public void jobExecutionVetoed(JobExecutionContext context) {
-
+    JobDataMap jobDataMap = context.getJobDetail().getJobDataMap();
+    TaskRunHandle handle = (TaskRunHandle) jobDataMap.get(TASK_RUN_HANDLE);
+    if (handle != null) {
+      handle.vetoed();
+    }
+    WorkflowExecution execution = (WorkflowExecution) jobDataMap.get(WORKFLOW_EXECUTION);
+    if (execution != null) { // the rest of the workflow may be waiting on this run
+      runChildTasks(execution, execution.finished(jobDataMap.getLong(TASK_ID), false));
+    }
   }
 
   // from JobListener interface
@@ -106,7 +139,15 @@ public class TaskRunManagerImpl implements TaskRunManager {
    * @param taskRun TaskRun to save.
    */
   public void save(TaskRun taskRun) {
-    taskRunDAO.save(taskRun);
+    if (writeBehind != null) {
+      if (taskRun.getId() <= 0) { // give it an id straight away, the insert is then written in the background
+        taskRun.setId(taskRunDAO.allocateId());
+      }
+      writeBehind.save(taskRun);
+    } else {
+      taskRunDAO.save(taskRun);
+    }
+    mostRecentTaskRuns.update(taskRun);
   }
 
   /**
@@ -116,9 +157,32 @@ public class TaskRunManagerImpl implements TaskRunManager {
    * @return TaskRun identified by the passed id.
    */
   public TaskRun get(long id) {
+    TaskRun taskRun = getPending(id);
+    if (taskRun != null) {
+      return taskRun;
+    }
     return taskRunDAO.get(id);
   }
 
+  @Override
+  public TaskRunOutput getOutput(long taskRunId) {
+    TaskRun taskRun = getPending(taskRunId);
+    if (taskRun != null) {
+      return TaskRunOutput.of(taskRun);
+    }
+    return taskRunDAO.getOutput(taskRunId);
+  }
+
+  /**
+   * @return The TaskRun with the passed id if it has changes which haven't been written to storage yet, otherwise null.
+   */
+  private TaskRun getPending(long taskRunId) {
+    if (writeBehind == null) {
+      return null;
+    }
+    return writeBehind.get(taskRunId);
+  }
+
   /**
    * Finds TaskRuns that belong to a certain Task.
    * 
@@ -134,43 +198,95 @@ public class TaskRunManagerImpl implements TaskRunManager {
     return taskRunDAO.findByTaskId(taskId, firstResult, maxResults);
   }
 
+  @Override
+  public List<TaskRunSummary> findSummariesBefore(long taskId, long beforeId, int maxResults) {
+    return taskRunDAO.findSummariesBefore(taskId, beforeId, maxResults);
+  }
+
+  @Override
+  public List<TaskRunSummary> findSummariesAfter(long taskId, long afterId, int maxResults) {
+    return taskRunDAO.findSummariesAfter(taskId, afterId, maxResults);
+  }
+
   /**
    * Deletes the TaskRun identified by the passed ID.
    * 
    * @param taskRunId ID of the TaskRun to delete.
    */
   public void delete(long taskRunId) {
+    if (writeBehind != null) {
+      writeBehind.remove(taskRunId);
+    }
     taskRunDAO.delete(taskRunId);
+    Long taskId = mostRecentTaskRuns.evict(taskRunId);
+    if (taskId != null) { // deleted the most recent run, so the previous one now takes its place
+      mostRecentTaskRuns.update(taskRunDAO.getMostRecentTaskRun(taskId));
+    }
   }
 
   @Override
   public void deleteBefore(DateTime before) {
     taskRunDAO.deleteBefore(before);
+    mostRecentTaskRuns.load(taskRunDAO.getMostRecentTaskRuns().values());
+  }
+
+  @Override
+  public int deleteBefore(DateTime before, int maxTaskRuns) {
+    List<Long> deleted = taskRunDAO.deleteBefore(before, maxTaskRuns);
+    Set<Long> taskIds = mostRecentTaskRuns.evictAll(deleted);
+    if (!taskIds.isEmpty()) { // deleted the most recent run of these tasks, so previous ones now take their place
+      for (TaskRun taskRun : taskRunDAO.getMostRecentTaskRuns(taskIds).values()) {
+        mostRecentTaskRuns.update(taskRun);
+      }
+    }
+    return deleted.size();
+  }
+
+  @Override
+  public int dropPartitionsBefore(DateTime before) {
+    int dropped = taskRunDAO.dropPartitionsBefore(before);
+    if (dropped > 0) {
+      mostRecentTaskRuns.load(taskRunDAO.getMostRecentTaskRuns().values());
+    }
+    taskRunDAO.addPartitionsUntil(new DateTime().plusMonths(PARTITION_MONTHS_AHEAD));
+    return dropped;
+  }
+
+  @Override
+  public int deleteOrphanedOutputs(int maxOutputs) {
+    return taskRunDAO.deleteOrphanedOutputs(maxOutputs);
   }
 
   @Override
   public boolean isRunning(long taskId) {
-    return runningTasks.containsKey(taskId);
+    return taskRunRegistry.isRunning(taskId);
   }
 
   @Override
   public boolean stop(long taskRunId) {
-    TaskRun taskRun = taskRunDAO.get(taskRunId);
+    TaskRun taskRun = get(taskRunId);
     long taskId = taskRun.getTaskId();
 
-    JobExecutionContext context = runningTasks.get(taskId);
+    JobExecutionContext context = taskRunRegistry.getContext(taskId);
     if (context == null) { // there is no task run
       return false;
     }
+    JobDataMap jobDataMap = context.getJobDetail().getJobDataMap();
+    TaskRun runningTaskRun = (TaskRun) jobDataMap.get(TASK_RUN);
+    if (runningTaskRun != null && runningTaskRun.getId() == taskRunId) {
+      taskRun = runningTaskRun; // so the job sees it is being cancelled when it finishes
+    }
     Job runningJob = context.getJobInstance();
     if (runningJob instanceof InterruptableJob) {
       try {
         log.info("Interrupting TaskRun " + taskRunId + " for Task " + taskId);
-        setStatus(taskRun, Status.CANCELLING);
-        taskRunDAO.save(taskRun);
+        synchronized (taskRun) {
+          setStatus(taskRun, Status.CANCELLING, (ExecutionPlan) jobDataMap.get(EXECUTION_PLAN));
+          save(taskRun);
+        }
 
         ((InterruptableJob) runningJob).interrupt();
-        runningTasks.remove(taskId);
+        taskRunRegistry.stopped(taskId, context);
 
         return true;
       } catch (UnableToInterruptJobException e) {
@@ -182,20 +298,42 @@ public class TaskRunManagerImpl implements TaskRunManager {
 
   @Override
   public void shutdown() {
+    if (writeBehind != null) { // write any outstanding changes before they are overwritten below
+      writeBehind.close();
+    }
     // TODO: replace with calls to actually interrupt TaskRuns in map (and test)
     taskRunDAO.setInterruptedStatus();
+    mostRecentTaskRuns.load(taskRunDAO.getMostRecentTaskRuns().values());
   }
 
   @Override
   public void setStatus(TaskRun taskRun, Status status) {
+    setStatus(taskRun, status, null);
+  }
+
+  @Override
+  public void setStatus(TaskRun taskRun, Status status, ExecutionPlan plan) {
     taskRun.setStatus(status);
     if (status.compareTo(Status.CANCELLED) >= 0 && status.compareTo(Status.SUCCESS) <= 0) {
-      Task task = taskDAO.get(taskRun.getTaskId());
-      if (task == null) {
-        log.fatal("Could not send a notification for task run " + taskRun.getTaskId() + ", no owning task found");
-        return;
+      Notification notification;
+      String taskName;
+      if (plan != null) {
+        notification = plan.getNotification();
+        taskName = plan.getTaskName();
+      } else {
+        Task task = taskDAO.get(taskRun.getTaskId());
+        if (task == null) {
+          log.fatal("Could not send a notification for task run " + taskRun.getTaskId() + ", no owning task found");
+          return;
+        }
+        notification = task.getNotification();
+        taskName = task.getName();
+      }
+      try {
+        notifier.sendNotification(notification, taskRun, taskName);
+      } catch (RuntimeException e) {
+        log.error("Error sending notification for task run " + taskRun.getId(), e);
       }
-      notifier.sendNotification(task.getNotification(), taskRun, task.getName());
     }
   }
 
@@ -207,11 +345,30 @@ public class TaskRunManagerImpl implements TaskRunManager {
   private void startTaskRun(JobExecutionContext context) {
     JobDataMap jobDataMap = context.getJobDetail().getJobDataMap();
     long taskId = jobDataMap.getLong(TASK_ID);
+    if (!taskRunRegistry.tryStart(taskId, context)) { // normally already started by NonConcurrentJobTriggerListener
+      log.warn("Task " + taskId + " is already running, starting another run of it anyway");
+    }
+    TaskRunHandle handle = (TaskRunHandle) jobDataMap.get(TASK_RUN_HANDLE);
     TaskRun taskRun = new TaskRun(new Date(), null, null, null, null, taskId);
-    setStatus(taskRun, Status.RUNNING);
-    save(taskRun); // saving it will get the task run an id
+    try {
+      setStatus(taskRun, Status.RUNNING, (ExecutionPlan) jobDataMap.get(EXECUTION_PLAN));
+      save(taskRun); // saving it will get the task run an id
+    } catch (RuntimeException e) {
+      // Quartz won't call jobWasExecuted, so the task must not be left marked as running
+      log.error("Error starting run of task " + taskId, e);
+      if (taskRunRegistry.finishing(taskId, context)) {
+        taskRunRegistry.finished(taskId, context);
+      }
+      if (handle != null) { // don't leave anyone waiting for a run that won't start
+        handle.vetoed();
+      }
+      throw e;
+    }
     jobDataMap.put(TASK_RUN_ID, taskRun.getId());
-    runningTasks.put(taskId, context);
+    jobDataMap.put(TASK_RUN, taskRun);
+    if (handle != null) { // someone may be waiting for this run to start
+      handle.started(taskRun.getId());
+    }
   }
 
   /**
@@ -223,9 +380,14 @@ public class TaskRunManagerImpl implements TaskRunManager {
   private void finishTaskRun(JobExecutionContext context, JobExecutionException exception) {
     JobDataMap jobDataMap = context.getJobDetail().getJobDataMap();
     if (jobDataMap.get(TASK_RUN_ID) != null) { // it could be null (if vetoed ?)
+      long taskId = jobDataMap.getLong(TASK_ID);
+      // false if the run was stopped, in which case the task may already be running again
+      boolean current = taskRunRegistry.finishing(taskId, context);
       TaskRun finishedRun = saveFinishedTaskRun(jobDataMap, exception);
-      runningTasks.remove(finishedRun.getTaskId());
-      handleFinishedRun(finishedRun); // kick off child jobs if necessary
+      if (current) {
+        taskRunRegistry.finished(taskId, context);
+      }
+      handleFinishedRun(jobDataMap, finishedRun, current); // kick off child jobs if necessary
     }
   }
 
@@ -237,16 +399,29 @@ public class TaskRunManagerImpl implements TaskRunManager {
    * @return The saved TaskRun.
    */
   private TaskRun saveFinishedTaskRun(JobDataMap jobDataMap, JobExecutionException exception) {
-    long taskRunId = jobDataMap.getLong(TASK_RUN_ID);
-    TaskRun taskRun = get(taskRunId);
+    TaskRun taskRun = (TaskRun) jobDataMap.get(TASK_RUN);
+    if (taskRun == null) {
+      taskRun = get(jobDataMap.getLong(TASK_RUN_ID));
+    }
+    synchronized (taskRun) { // stop() may be changing its status
+      saveFinishedTaskRun(taskRun, jobDataMap, exception);
+    }
+    return taskRun;
+  }
+
+  /**
+   * Sets the end date, output and final status of the passed TaskRun and saves it.
+   */
+  private void saveFinishedTaskRun(TaskRun taskRun, JobDataMap jobDataMap, JobExecutionException exception) {
+    ExecutionPlan plan = (ExecutionPlan) jobDataMap.get(EXECUTION_PLAN);
     taskRun.setEndDate(new Date());
     taskRun.setSysOut(jobDataMap.getString(SYS_OUT));
     taskRun.setSysErr(jobDataMap.getString(SYS_ERR));
     if (exception == null) {
       if (Status.CANCELLING.equals(taskRun.getStatus())) {
-        setStatus(taskRun, Status.CANCELLED);
+        setStatus(taskRun, Status.CANCELLED, plan);
       } else {
-        setStatus(taskRun, Status.SUCCESS);
+        setStatus(taskRun, Status.SUCCESS, plan);
       }
     } else {
       log.error(exception);
@@ -255,84 +430,117 @@ public class TaskRunManagerImpl implements TaskRunManager {
       String stackTrace = writer.toString();
       taskRun.setStackTrace(stackTrace);
       if (Status.CANCELLING.equals(taskRun.getStatus())) {
-        setStatus(taskRun, Status.CANCELLED);
+        setStatus(taskRun, Status.CANCELLED, plan);
       } else {
-        setStatus(taskRun, Status.FAILED);
+        setStatus(taskRun, Status.FAILED, plan);
       }
     }
     save(taskRun);
-    return taskRun;
   }
 
   /**
-   * Handle a finished TaskRun by checking if any child TaskRuns should now be triggered.
+   * Handle a finished TaskRun by checking if any child TaskRuns should now be triggered. The dependencies between Tasks
+   * are taken from the TaskManager's cached task graph, so this doesn't go to the database.
    * 
+   * @param jobDataMap Map containing information about the TaskRun.
    * @param finishedRun TaskRun that has just completed.
+   * @param current False if the run was stopped, in which case no children are run.
    */
-  private void handleFinishedRun(TaskRun finishedRun) {
-    Task finishedTask = taskManager.get(finishedRun.getTaskId());
-    if (finishedTask.hasChild()) { // do we need to bother with checking whether to run chilren
-      // run a child if parent ran successfully or it failed but stop on error is false
-      if (Status.SUCCESS.equals(finishedRun.getStatus())
-          || (Status.FAILED.equals(finishedRun.getStatus()) && !finishedTask.isStopOnError())) {
-        runChildTasks(finishedTask, finishedRun);
+  private void handleFinishedRun(JobDataMap jobDataMap, TaskRun finishedRun, boolean current) {
+    long taskId = finishedRun.getTaskId();
+    WorkflowExecution execution = (WorkflowExecution) jobDataMap.get(WORKFLOW_EXECUTION);
+    TaskGraph taskGraph = execution == null ? taskManager.getTaskGraph() : execution.getTaskGraph();
+    Task finishedTask = taskGraph.getTask(taskId);
+    if (finishedTask == null || !taskGraph.hasChildren(taskId)) { // do we need to bother with checking for children
+      return;
+    }
+    // run a child if parent ran successfully or it failed but stop on error is false
+    ExecutionPlan plan = (ExecutionPlan) jobDataMap.get(EXECUTION_PLAN);
+    boolean stopOnError = plan != null ? plan.isStopOnError() : finishedTask.isStopOnError();
+    Status status = finishedRun.getStatus();
+    boolean runChildren = current
+        && (Status.SUCCESS.equals(status) || (Status.FAILED.equals(status) && !stopOnError));
+    if (execution == null) {
+      if (!runChildren) {
+        return;
       }
+      execution = new WorkflowExecution(taskGraph, taskId);
     }
+    runChildTasks(execution, execution.finished(taskId, runChildren));
   }
 
   /**
-   * Runs the Children of a certain Task, if necessary. Child Tasks not enabled are skipped (as will any children of
-   * theirs). Child Tasks that still have running parents will also be skipped, they will be triggered by the same
-   * process when the parent finishes.
+   * Runs child Tasks whose parents in the passed workflow execution have all finished. Child Tasks not enabled have
+   * already been skipped by the execution (as will any children of theirs). Child Tasks that also have a parent outside
+   * the execution which is still running will be skipped too, they will be triggered when that parent completes.
    * 
-   * @param finishedRun
+   * @param execution Workflow execution the children are part of.
+   * @param children Child Tasks which are ready to run.
    */
-  private void runChildTasks(Task finished, TaskRun finishedRun) {
-    for (Task child : finished.getChildTasks()) {
-      if (!child.isEnabled()) {
-        log.debug("Child task " + child.getId() + " not enabled, skipping");
+  private void runChildTasks(WorkflowExecution execution, List<Task> children) {
+    LinkedList<Task> toRun = new LinkedList<Task>(children);
+    while (!toRun.isEmpty()) {
+      Task child = toRun.removeFirst();
+      if (isOtherParentRunning(execution, child.getId())) {
+        log.info("At least one parent of task " + child.getId()
+            + " is still running, task will be run when parent completes");
+        toRun.addAll(execution.finished(child.getId(), false));
+      } else if (isRunning(child.getId())) { // could be that child is still running from a previous run
+        log.warn("Child still/already running, aborting run for task " + child.getId());
+        TaskRun taskRun = new TaskRun(new Date(), null, null, null, null, child.getId());
+        setStatus(taskRun, Status.ABORTED, schedulerManager.getExecutionPlan(child));
+        save(taskRun);
+        toRun.addAll(execution.finished(child.getId(), false));
       } else {
+        log.info("Running child task " + child.getId());
+        schedulerManager.runTaskNow(child, execution);
+      }
+    }
+  }
 
-        boolean runningParent = false;
-        for (Task parent : child.getParentTasks()) {
-          if (isRunning(parent.getId())) {
-            runningParent = true;
-            break;
-          }
-        }
-
-        if (!runningParent) {
-          // NOTE: there is a potential synchronisation issue for tasks which run very quickly
-          // for example, if a task has 2 parents and 1 of them finishes and we get into the start of this method and
-          // then 2nd parent finishes, above code will find no running parents and will continue below
-          // and we will run children. While this is happening, handleFinishedRun() for 2nd parent will be
-          // triggered which will also try run children, the check on TaskRun start times should prevent
-          // children from being run in this case
-          TaskRun lastChildRun = getMostRecent(child.getId());
-          if (lastChildRun != null && lastChildRun.getStartDate().compareTo(finishedRun.getEndDate()) >= 0) {
-            log.error("Task " + child.getId() + " appears to have run already, ignoring");
-          } else {
-            if (isRunning(child.getId())) { // could be that child is still running from a previous run
-              log.warn("Child still/already running, aborting run for task " + child.getId());
-              TaskRun taskRun = new TaskRun(new Date(), null, null, null, null, child.getId());
-              setStatus(taskRun, Status.ABORTED);
-              save(taskRun);
-            } else {
-              log.info("Running child task " + child.getId());
-              schedulerManager.runTaskNow(child);
-            }
-          }
-        } else {
-          log.info("At least one parent of task " + finished.getId()
-              + " was still running, task will be run when parent completes");
-        }
+  /**
+   * @return Whether a parent of the Task which is not part of the passed execution is running.
+   */
+  private boolean isOtherParentRunning(WorkflowExecution execution, long taskId) {
+    for (Long parentId : execution.getTaskGraph().getParentIds(taskId)) {
+      if (!execution.contains(parentId) && taskRunRegistry.isRunning(parentId)) {
+        return true;
       }
     }
+    return false;
   }
 
   @Override
   public TaskRun getMostRecent(long taskId) {
-    return taskRunDAO.getMostRecentTaskRun(taskId);
+    return mostRecentTaskRuns.get(taskId);
+  }
+
+  @Override
+  public Map<Long, TaskRun> getMostRecent(Collection<Long> taskIds) {
+    return mostRecentTaskRuns.get(taskIds);
+  }
+
+  public TaskRunRegistry getTaskRunRegistry() {
+    return taskRunRegistry;
+  }
+
+  /**
+   * @param taskRunRegistry Registry of running tasks, shared with NonConcurrentJobTriggerListener.
+   */
+  public void setTaskRunRegistry(TaskRunRegistry taskRunRegistry) {
+    this.taskRunRegistry = taskRunRegistry;
+  }
+
+  public TaskRunWriteBehind getWriteBehind() {
+    return writeBehind;
+  }
+
+  /**
+   * @param writeBehind Used to write new TaskRuns and changes to them in the background, if null they are written
+   *          straight away.
+   */
+  public void setWriteBehind(TaskRunWriteBehind writeBehind) {
+    this.writeBehind = writeBehind;
   }
 
   /**
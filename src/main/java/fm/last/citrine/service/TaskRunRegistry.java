@@ -0,0 +1,180 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+import static fm.last.citrine.scheduler.SchedulerConstants.TASK_RUN_ID;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.quartz.JobExecutionContext;
+
+/**
+ * Keeps track of which tasks are running, so that decisions about whether a task can run don't need any locks or
+ * database queries. Each task moves from IDLE to RUNNING when a run of it starts, to FINISHING while the result of the
+ * run is being saved and back to IDLE once it has been. Every transition is made using compare-and-set and only
+ * succeeds for the run (identified by its JobExecutionContext) which is expected to be in the state being left, so two
+ * runs of the same task can never both start, and a run which was stopped can't affect a later run of the same task.
+ */
+public class TaskRunRegistry {
+
+  /**
+   * State of a task.
+   */
+  public enum State {
+    IDLE, RUNNING, FINISHING
+  }
+
+  private static final Run IDLE = new Run(State.IDLE, null);
+
+  private final ConcurrentMap<Long, AtomicReference<Run>> runs = new ConcurrentHashMap<Long, AtomicReference<Run>>();
+
+  private AtomicReference<Run> getRun(long taskId) {
+    AtomicReference<Run> run = runs.get(taskId);
+    if (run == null) {
+      AtomicReference<Run> newRun = new AtomicReference<Run>(IDLE);
+      run = runs.putIfAbsent(taskId, newRun);
+      if (run == null) {
+        run = newRun;
+      }
+    }
+    return run;
+  }
+
+  /**
+   * Marks a task as running if it is idle.
+   *
+   * @param taskId Task id.
+   * @param context Execution context of the run.
+   * @return True if the task is now running for the passed context, false if another run of it is running or
+   *         finishing.
+   */
+  public boolean tryStart(long taskId, JobExecutionContext context) {
+    AtomicReference<Run> run = getRun(taskId);
+    Run running = new Run(State.RUNNING, context);
+    while (true) {
+      Run current = run.get();
+      if (current.state != State.IDLE) {
+        return current.state == State.RUNNING && current.context == context; // already started by this run
+      }
+      if (run.compareAndSet(current, running)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Moves a task from running to finishing.
+   *
+   * @param taskId Task id.
+   * @param context Execution context of the run.
+   * @return False if the task is no longer running for the passed context, e.g. because the run was stopped.
+   */
+  public boolean finishing(long taskId, JobExecutionContext context) {
+    AtomicReference<Run> run = getRun(taskId);
+    Run current = run.get();
+    return current.state == State.RUNNING && current.context == context
+        && run.compareAndSet(current, new Run(State.FINISHING, context));
+  }
+
+  /**
+   * Moves a task from finishing back to idle.
+   *
+   * @param taskId Task id.
+   * @param context Execution context of the run.
+   * @return False if the task was not finishing for the passed context.
+   */
+  public boolean finished(long taskId, JobExecutionContext context) {
+    AtomicReference<Run> run = getRun(taskId);
+    Run current = run.get();
+    return current.state == State.FINISHING && current.context == context && run.compareAndSet(current, IDLE);
+  }
+
+  /**
+   * Moves a task from running back to idle, for use when the run is being stopped.
+   *
+   * @param taskId Task id.
+   * @param context Execution context of the run.
+   * @return False if the task was not running for the passed context (e.g. it is already finishing).
+   */
+  public boolean stopped(long taskId, JobExecutionContext context) {
+    AtomicReference<Run> run = getRun(taskId);
+    Run current = run.get();
+    return current.state == State.RUNNING && current.context == context && run.compareAndSet(current, IDLE);
+  }
+
+  /**
+   * @param taskId Task id.
+   * @return The state of the task.
+   */
+  public State getState(long taskId) {
+    AtomicReference<Run> run = runs.get(taskId);
+    return run == null ? State.IDLE : run.get().state;
+  }
+
+  /**
+   * @param taskId Task id.
+   * @return Whether a run of the task is running or finishing.
+   */
+  public boolean isRunning(long taskId) {
+    return getState(taskId) != State.IDLE;
+  }
+
+  /**
+   * @param taskId Task id.
+   * @return The execution context of the run of the task which is running or finishing, or null if it is idle.
+   */
+  public JobExecutionContext getContext(long taskId) {
+    AtomicReference<Run> run = runs.get(taskId);
+    return run == null ? null : run.get().context;
+  }
+
+  /**
+   * @return Ids of the TaskRuns which are running or finishing, only including those which have been saved.
+   */
+  public Set<Long> getRunningTaskRunIds() {
+    Set<Long> taskRunIds = new HashSet<Long>();
+    for (AtomicReference<Run> run : runs.values()) {
+      JobExecutionContext context = run.get().context;
+      if (context != null) {
+        Object taskRunId = context.getJobDetail().getJobDataMap().get(TASK_RUN_ID);
+        if (taskRunId != null) {
+          taskRunIds.add((Long) taskRunId);
+        }
+      }
+    }
+    return taskRunIds;
+  }
+
+  /**
+   * A task's state and the context of the run it applies to, replaced as a whole so both change atomically.
+   */
+  private static final class Run {
+
+    private final State state;
+    private final JobExecutionContext context;
+
+    private Run(State state, JobExecutionContext context) {
+      this.state = state;
+      this.context = context;
+    }
+
+  }
+
+}
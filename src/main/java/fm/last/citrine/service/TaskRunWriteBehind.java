@@ -0,0 +1,340 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import fm.last.citrine.dao.TaskRunDAO;
+import fm.last.citrine.model.TaskRun;
+
+/**
+ * Writes new TaskRuns and changes to their state to storage in the background, so that the threads running jobs don't
+ * wait on the database each time a TaskRun is created or changes state. Changes are written by a single thread in JDBC
+ * batches of up to batchSize TaskRuns. Only the latest state of each TaskRun is written, so changes to the same TaskRun
+ * are never written out of order, and TaskRuns waiting to be written can be read back using get(). If writing fails the
+ * changes are kept and retried after retryInterval milliseconds. close() writes any remaining changes before returning.
+ */
+public class TaskRunWriteBehind {
+
+  private static Logger log = Logger.getLogger(TaskRunWriteBehind.class);
+
+  public static final int DEFAULT_BATCH_SIZE = 100;
+
+  public static final long DEFAULT_RETRY_INTERVAL = 5000;
+
+  /**
+   * Time in milliseconds the writer thread waits for changes before checking whether it has been closed.
+   */
+  private static final long POLL_INTERVAL = 1000;
+
+  /**
+   * Number of times close() tries to write the remaining TaskRuns before giving up.
+   */
+  private static final int CLOSE_ATTEMPTS = 3;
+
+  private final TaskRunDAO taskRunDAO;
+
+  /**
+   * Latest unwritten state of each TaskRun, keyed by TaskRun id.
+   */
+  private final ConcurrentMap<Long, PendingTaskRun> pending = new ConcurrentHashMap<Long, PendingTaskRun>();
+
+  /**
+   * Ids of the TaskRuns in pending, in the order they were first changed. An id is only queued once however many times
+   * its TaskRun changes before it is written.
+   */
+  private final BlockingQueue<Long> queue = new LinkedBlockingQueue<Long>();
+
+  /**
+   * Held while writing a batch, so that once remove() returns the removed TaskRun won't be written.
+   */
+  private final Object writeLock = new Object();
+
+  private TransactionTemplate transactionTemplate;
+
+  private int batchSize = DEFAULT_BATCH_SIZE;
+
+  private long retryInterval = DEFAULT_RETRY_INTERVAL;
+
+  private Thread writer;
+
+  private volatile boolean closed = false;
+
+  /**
+   * Constructs a new instance which writes TaskRuns using the passed DAO.
+   *
+   * @param taskRunDAO TaskRun DAO.
+   */
+  public TaskRunWriteBehind(TaskRunDAO taskRunDAO) {
+    this.taskRunDAO = taskRunDAO;
+  }
+
+  /**
+   * Queues the current state of the passed TaskRun to be written. Later changes to the TaskRun are not written unless
+   * this is called again.
+   *
+   * @param taskRun A TaskRun which has already been saved or been allocated an id using TaskRunDAO.allocateId().
+   */
+  public void save(TaskRun taskRun) {
+    if (taskRun.getId() <= 0) {
+      throw new IllegalArgumentException("TaskRun has no id " + taskRun);
+    }
+    // checked and queued under the same lock close() takes, so anything queued is written by close()
+    synchronized (this) {
+      if (!closed) {
+        start();
+        if (pending.put(taskRun.getId(), new PendingTaskRun(copy(taskRun))) == null) {
+          queue.add(taskRun.getId());
+        }
+        return;
+      }
+    }
+    // nothing left to write them, so write straight away, replacing any older state close() hasn't written yet
+    synchronized (writeLock) {
+      pending.remove(taskRun.getId());
+      write(Collections.singletonList(copy(taskRun)));
+    }
+  }
+
+  /**
+   * @param taskRunId TaskRun id.
+   * @return A copy of the latest state of the TaskRun with the passed id if it has not been written yet, otherwise
+   *         null.
+   */
+  public TaskRun get(long taskRunId) {
+    PendingTaskRun pendingTaskRun = pending.get(taskRunId);
+    return pendingTaskRun == null ? null : copy(pendingTaskRun.taskRun);
+  }
+
+  /**
+   * Discards any unwritten state of the TaskRun with the passed id, for use when it is deleted. Waits for any batch
+   * being written to finish, so the TaskRun can safely be deleted once this returns.
+   *
+   * @param taskRunId TaskRun id.
+   */
+  public void remove(long taskRunId) {
+    synchronized (writeLock) {
+      pending.remove(taskRunId);
+    }
+  }
+
+  /**
+   * @return The number of TaskRuns waiting to be written.
+   */
+  public int size() {
+    return pending.size();
+  }
+
+  private synchronized void start() {
+    if (writer != null) {
+      return;
+    }
+    writer = new Thread(new Writer(), "TaskRunWriteBehind");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Writes all TaskRuns waiting to be written in the calling thread, stopping at the first batch which fails.
+   *
+   * @return Whether all TaskRuns were written.
+   */
+  public boolean flush() {
+    List<Long> ids = new ArrayList<Long>();
+    while (queue.drainTo(ids, batchSize) > 0) {
+      if (!writeBatch(ids)) {
+        return false;
+      }
+      ids.clear();
+    }
+    return true;
+  }
+
+  /**
+   * Stops the writer thread and writes all TaskRuns still waiting to be written. TaskRuns saved after this has been
+   * called are written straight away.
+   */
+  public void close() {
+    Thread thread;
+    synchronized (this) {
+      closed = true;
+      thread = writer;
+    }
+    if (thread != null) {
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    for (int attempt = 1; !flush() && attempt < CLOSE_ATTEMPTS; attempt++) {
+      try {
+        Thread.sleep(retryInterval);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    if (!pending.isEmpty()) {
+      log.error(pending.size() + " TaskRuns could not be written");
+    }
+  }
+
+  /**
+   * Writes the TaskRuns with the passed ids. If this fails their ids are queued again so they are retried.
+   *
+   * @return Whether writing succeeded.
+   */
+  private boolean writeBatch(List<Long> ids) {
+    synchronized (writeLock) {
+      return writeLockedBatch(ids);
+    }
+  }
+
+  private boolean writeLockedBatch(List<Long> ids) {
+    List<PendingTaskRun> pendingBatch = new ArrayList<PendingTaskRun>(ids.size());
+    List<TaskRun> batch = new ArrayList<TaskRun>(ids.size());
+    List<Long> batchIds = new ArrayList<Long>(ids.size());
+    for (Long id : ids) {
+      PendingTaskRun pendingTaskRun = pending.get(id);
+      if (pendingTaskRun != null) { // could have been removed
+        pendingBatch.add(pendingTaskRun);
+        batch.add(pendingTaskRun.taskRun);
+        batchIds.add(id);
+      }
+    }
+    if (batch.isEmpty()) {
+      return true;
+    }
+    try {
+      write(batch);
+    } catch (RuntimeException e) {
+      log.error("Error writing " + batch.size() + " TaskRuns, will retry", e);
+      queue.addAll(batchIds);
+      return false;
+    }
+    for (int i = 0; i < batch.size(); i++) {
+      if (!pending.remove(batchIds.get(i), pendingBatch.get(i))) {
+        queue.add(batchIds.get(i)); // changed again while being written, so write the new state too
+      }
+    }
+    return true;
+  }
+
+  private void write(final List<TaskRun> batch) {
+    if (transactionTemplate == null) {
+      taskRunDAO.saveAll(batch);
+      return;
+    }
+    transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+      @Override
+      protected void doInTransactionWithoutResult(TransactionStatus status) {
+        taskRunDAO.saveAll(batch);
+      }
+    });
+  }
+
+  private static TaskRun copy(TaskRun taskRun) {
+    return taskRun == null ? null : new TaskRun(taskRun);
+  }
+
+  /**
+   * @param transactionManager Transaction manager used to write each batch in a single transaction.
+   */
+  public void setTransactionManager(PlatformTransactionManager transactionManager) {
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * @param batchSize Maximum number of TaskRuns written at a time.
+   */
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public long getRetryInterval() {
+    return retryInterval;
+  }
+
+  /**
+   * @param retryInterval Time in milliseconds to wait before trying again when writing fails.
+   */
+  public void setRetryInterval(long retryInterval) {
+    this.retryInterval = retryInterval;
+  }
+
+  /**
+   * A state of a TaskRun waiting to be written. Deliberately has no equals() so that each save() is only considered
+   * written once that same save has been, TaskRun.equals() doesn't compare everything that is written.
+   */
+  private static class PendingTaskRun {
+
+    private final TaskRun taskRun;
+
+    private PendingTaskRun(TaskRun taskRun) {
+      this.taskRun = taskRun;
+    }
+
+  }
+
+  /**
+   * Writes queued TaskRuns until closed, writing whatever has been queued since the last batch straight away so that
+   * batches grow with the rate TaskRuns change.
+   */
+  private class Writer implements Runnable {
+
+    @Override
+    public void run() {
+      List<Long> ids = new ArrayList<Long>();
+      while (!closed) {
+        try {
+          Long id = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+          if (id == null) {
+            continue;
+          }
+          ids.add(id);
+          queue.drainTo(ids, batchSize - 1);
+          if (!writeBatch(ids)) {
+            Thread.sleep(retryInterval);
+          }
+        } catch (InterruptedException e) {
+          return;
+        } finally {
+          ids.clear();
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import fm.last.citrine.model.Task;
+
+/**
+ * A run of a Task along with the runs of its descendants which it triggers. Each descendant has a counter of the
+ * parents in the execution which it is still waiting for, which is decremented as they finish, so a descendant is run
+ * exactly once, by whichever parent finishes last, without any locking. A descendant is run if at least one of its
+ * parents finished in a way that runs children (i.e. it succeeded, or failed without stopping on error); if none did,
+ * or it is disabled, it is skipped and so are any descendants which are only reachable through it.
+ */
+public class WorkflowExecution {
+
+  private static Logger log = Logger.getLogger(WorkflowExecution.class);
+
+  private final TaskGraph taskGraph;
+
+  private final long rootTaskId;
+
+  /**
+   * The Tasks this execution can run, other than the root.
+   */
+  private final Map<Long, Join> joins;
+
+  /**
+   * Creates an execution of the passed Task and all its descendants.
+   *
+   * @param taskGraph Task graph to use for the whole execution.
+   * @param rootTaskId Id of the Task which started the execution.
+   */
+  public WorkflowExecution(TaskGraph taskGraph, long rootTaskId) {
+    this.taskGraph = taskGraph;
+    this.rootTaskId = rootTaskId;
+    Set<Long> descendants = taskGraph.getDescendantIds(rootTaskId);
+    Map<Long, Join> joins = new HashMap<Long, Join>();
+    for (Long taskId : descendants) {
+      if (taskId == rootTaskId) {
+        continue; // only possible if the tasks have a cycle, which the web interface doesn't allow
+      }
+      int parents = 0;
+      for (Long parentId : taskGraph.getParentIds(taskId)) {
+        if (parentId == rootTaskId || descendants.contains(parentId)) {
+          parents++;
+        }
+      }
+      joins.put(taskId, new Join(parents));
+    }
+    this.joins = Collections.unmodifiableMap(joins);
+  }
+
+  /**
+   * @return The Task graph used by this execution.
+   */
+  public TaskGraph getTaskGraph() {
+    return taskGraph;
+  }
+
+  /**
+   * @return Id of the Task which started the execution.
+   */
+  public long getRootTaskId() {
+    return rootTaskId;
+  }
+
+  /**
+   * @param taskId Task id.
+   * @return Whether the Task is run as part of this execution.
+   */
+  public boolean contains(long taskId) {
+    return taskId == rootTaskId || joins.containsKey(taskId);
+  }
+
+  /**
+   * Records that a Task in this execution has finished (or won't be run), and works out which of its descendants are
+   * now ready to run.
+   *
+   * @param taskId Id of the Task.
+   * @param runChildren Whether the Task finished in a way that should run its children.
+   * @return Tasks which are now ready to run, each of which is only ever returned once.
+   */
+  public List<Task> finished(long taskId, boolean runChildren) {
+    List<Task> ready = new ArrayList<Task>();
+    LinkedList<Long> skipped = new LinkedList<Long>();
+    release(taskId, runChildren, ready, skipped);
+    while (!skipped.isEmpty()) {
+      release(skipped.removeFirst(), false, ready, skipped);
+    }
+    return ready;
+  }
+
+  private void release(long taskId, boolean runChildren, List<Task> ready, List<Long> skipped) {
+    for (Long childId : taskGraph.getChildIds(taskId)) {
+      Join join = joins.get(childId);
+      if (join != null && join.arrive(runChildren)) { // this was the last parent the child was waiting for
+        Task child = taskGraph.getTask(childId);
+        if (!join.triggered) {
+          skipped.add(childId);
+        } else if (!child.isEnabled()) {
+          log.debug("Child task " + childId + " not enabled, skipping");
+          skipped.add(childId);
+        } else {
+          ready.add(child);
+        }
+      }
+    }
+  }
+
+  /**
+   * Parents a Task in the execution is waiting for.
+   */
+  private static final class Join {
+
+    private final AtomicInteger pending;
+
+    /**
+     * Whether any of the parents finished in a way that should run the Task. Always written before pending is
+     * decremented, so whoever decrements it to zero sees the writes of all the other parents.
+     */
+    private volatile boolean triggered;
+
+    private Join(int parents) {
+      pending = new AtomicInteger(parents);
+    }
+
+    /**
+     * @return True if this was the last parent being waited for.
+     */
+    private boolean arrive(boolean runChildren) {
+      if (runChildren) {
+        triggered = true;
+      }
+      return pending.decrementAndGet() == 0;
+    }
+
+  }
+
+}
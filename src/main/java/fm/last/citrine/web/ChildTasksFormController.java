@@ -36,6 +36,7 @@ import org.springframework.web.servlet.mvc.SimpleFormController;
 import org.springframework.web.servlet.view.RedirectView;
 
 import fm.last.citrine.model.Task;
+import fm.last.citrine.service.TaskGraph;
 import fm.last.citrine.service.TaskManager;
 
 /**
@@ -71,7 +72,7 @@ public class ChildTasksFormController extends SimpleFormController {
     TaskChildCandidatesDTO backingObject = null;
     if (request.getParameter(PARAM_CANCEL) == null && null != idString && !idString.equals("") && !idString.equals("0")) {
       long taskId = Long.parseLong(idString);
-      Task task = taskManager.get(taskId);
+      Task task = taskManager.getWithParentsAndChildren(taskId);
       backingObject = new TaskChildCandidatesDTO(task);
     } else {
       backingObject = new TaskChildCandidatesDTO();
@@ -83,6 +84,32 @@ public class ChildTasksFormController extends SimpleFormController {
     return backingObject;
   }
 
+  /**
+   * Rejects child Tasks which are the Task itself or one of its ancestors, as adding them would create a cycle.
+   */
+  @Override
+  protected void onBindAndValidate(HttpServletRequest request, Object command, BindException errors) {
+    if (request.getParameter(PARAM_CANCEL) != null) {
+      return;
+    }
+    TaskChildCandidatesDTO dto = ((TaskChildCandidatesDTO) command);
+    long taskId = dto.getTask().getId();
+    TaskGraph taskGraph = taskManager.getTaskGraph();
+    Set<Long> newChildTaskIds = new HashSet<Long>();
+    if (dto.getCandidateChildTaskIds() != null) {
+      newChildTaskIds.addAll(dto.getCandidateChildTaskIds());
+    }
+    if (dto.getChildTaskIds() != null) {
+      newChildTaskIds.addAll(dto.getChildTaskIds());
+    }
+    for (long childTaskId : newChildTaskIds) {
+      if (taskGraph.wouldCreateCycle(childTaskId, taskId)) {
+        errors.reject("child.cycle", new Object[] { childTaskId }, "Task " + childTaskId
+            + " cannot be a child as it is already a parent");
+      }
+    }
+  }
+
   @Override
   public ModelAndView processFormSubmission(HttpServletRequest request, HttpServletResponse response, Object command,
       BindException errors) throws Exception {
@@ -97,18 +124,18 @@ public class ChildTasksFormController extends SimpleFormController {
   public ModelAndView onSubmit(HttpServletRequest request, HttpServletResponse response, Object command,
       BindException errors) {
     TaskChildCandidatesDTO dto = ((TaskChildCandidatesDTO) command);
-    Task task = taskManager.get(dto.getTask().getId());
+    Task task = taskManager.getWithParentsAndChildren(dto.getTask().getId());
 
     Set<Task> newChildTasks = new HashSet<Task>(); // list which will replace existing child tasks
     if (dto.getCandidateChildTaskIds() != null) {
       for (long candidateTaskId : dto.getCandidateChildTaskIds()) {
-        newChildTasks.add(taskManager.get(candidateTaskId));
+        newChildTasks.add(taskManager.getWithParentsAndChildren(candidateTaskId));
       }
     }
 
     if (dto.getChildTaskIds() != null) {
       for (long candidateTaskId : dto.getChildTaskIds()) {
-        newChildTasks.add(taskManager.get(candidateTaskId));
+        newChildTasks.add(taskManager.getWithParentsAndChildren(candidateTaskId));
       }
     }
 
@@ -15,17 +15,24 @@
  */
 package fm.last.citrine.web;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
 import java.util.HashMap;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.io.IOUtils;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.multiaction.MultiActionController;
 import org.springframework.web.util.HtmlUtils;
 
+import fm.last.citrine.service.LogFileChunk;
+import fm.last.citrine.service.LogFileLayout;
 import fm.last.citrine.service.LogFileManager;
+import fm.last.citrine.service.TaskRunRegistry;
 
 /**
  * Controller that is responsible for listing log files and displaying their contents.
@@ -33,14 +40,40 @@ import fm.last.citrine.service.LogFileManager;
 public class DisplayLogsController extends MultiActionController {
 
   protected static final String PARAM_LOG_FILE = "logFile";
+  protected static final String PARAM_OFFSET = "offset";
+
+  protected static final String HEADER_OFFSET = "X-Log-Offset";
+  protected static final String HEADER_MORE = "X-Log-More";
+  protected static final String HEADER_RUNNING = "X-Log-Running";
+  protected static final String HEADER_REPLACED = "X-Log-Replaced";
 
   private LogFileManager logFileManager;
 
+  /**
+   * Used to tell whether the task run writing a log file is still running, if not set log files are always followed.
+   */
+  private TaskRunRegistry taskRunRegistry;
+
   /**
    * Number of bytes from end of log file to display.
    */
   private long tailBytes = 100000;
 
+  /**
+   * Maximum number of bytes returned by a single follow request.
+   */
+  private int followMaxBytes = 100000;
+
+  /**
+   * Maximum time in milliseconds a follow request waits for more output to be written.
+   */
+  private long followTimeout = 10000;
+
+  /**
+   * Time in milliseconds between checks for more output while a follow request is waiting.
+   */
+  private long followPollInterval = 500;
+
   /**
    * Lists all log files.
    * 
@@ -62,10 +95,19 @@ public class DisplayLogsController extends MultiActionController {
    * @throws Exception
    */
   public ModelAndView display(HttpServletRequest request, HttpServletResponse response) throws Exception {
-    String logFileName = request.getParameter(PARAM_LOG_FILE);
-    String contents = logFileManager.tail(logFileName, tailBytes);
+    String logFileName = getLogFileName(request, response);
+    if (logFileName == null) {
+      return null;
+    }
+    // checked before reading so that if it has finished everything it wrote is shown
+    boolean running = isRunning(logFileName);
+    // show the tail up to the current length, following then carries on exactly where it ends
+    LogFileChunk tail = readTail(logFileName, logFileManager.length(logFileName));
     Map<String, Object> model = new HashMap<String, Object>();
-    model.put("contents", HtmlUtils.htmlEscape(contents));
+    model.put("contents", HtmlUtils.htmlEscape(tail.getContents()));
+    model.put(PARAM_LOG_FILE, logFileName);
+    model.put(PARAM_OFFSET, tail.getNextOffset());
+    model.put("running", running);
     // task id will only be set if we activate this controller from the task runs view
     Long taskId = RequestUtils.getLongValue(request, Constants.PARAM_TASK_ID, false);
     model.put("taskId", taskId);
@@ -73,6 +115,133 @@ public class DisplayLogsController extends MultiActionController {
     return new ModelAndView("log_display", model);
   }
 
+  /**
+   * Reads the last tailBytes of a log file before the passed offset. If that isn't the whole file, the contents start
+   * at the beginning of the first complete line (unless there is no line break at all).
+   * 
+   * @param logFileName Log file name.
+   * @param offset Byte offset to read up to.
+   * @return The tail of the log file, with the offset following should continue from.
+   */
+  private LogFileChunk readTail(String logFileName, long offset) throws IOException {
+    if (offset <= 0) {
+      return new LogFileChunk("", 0, false);
+    }
+    // read one byte before the requested ones so we can tell whether they start at the beginning of a line
+    long start = Math.max(0, offset - tailBytes - 1);
+    LogFileChunk chunk = logFileManager.read(logFileName, start, (int) Math.min(offset - start, Integer.MAX_VALUE));
+    String contents = chunk.getContents();
+    if (start > 0) {
+      int lineStart = contents.indexOf('\n');
+      if (lineStart >= 0) {
+        contents = contents.substring(lineStart + 1);
+      }
+    }
+    return new LogFileChunk(contents, chunk.getNextOffset(), chunk.isMore());
+  }
+
+  /**
+   * Returns anything written to a log file since the passed byte offset as plain text, with the offset to pass to the
+   * next call in a header. If nothing has been written since the offset, waits for up to followTimeout for more output
+   * before returning, unless the task run writing the log file has finished. Further headers say whether the task run
+   * was still running when the log file was read, so clients know when to stop following, and whether the log file
+   * has been replaced since the offset was returned.
+   * 
+   * @param request
+   * @param response
+   * @return null, the response is written directly.
+   * @throws Exception
+   */
+  public ModelAndView follow(HttpServletRequest request, HttpServletResponse response) throws Exception {
+    String logFileName = getLogFileName(request, response);
+    if (logFileName == null) {
+      return null;
+    }
+    long offset = RequestUtils.getLongValue(request, PARAM_OFFSET);
+    long waitUntil = System.currentTimeMillis() + followTimeout;
+    boolean running = isRunning(logFileName);
+    while (running && logFileManager.length(logFileName) == offset && System.currentTimeMillis() < waitUntil) {
+      Thread.sleep(followPollInterval);
+      running = isRunning(logFileName);
+    }
+    LogFileChunk chunk = logFileManager.read(logFileName, offset, followMaxBytes);
+    response.setContentType("text/plain;charset=UTF-8");
+    response.setHeader("Cache-Control", "no-cache");
+    response.setHeader(HEADER_OFFSET, String.valueOf(chunk.getNextOffset()));
+    response.setHeader(HEADER_MORE, String.valueOf(chunk.isMore()));
+    response.setHeader(HEADER_RUNNING, String.valueOf(running));
+    response.setHeader(HEADER_REPLACED, String.valueOf(chunk.isReplaced()));
+    PrintWriter writer = response.getWriter();
+    writer.write(chunk.getContents());
+    writer.flush();
+    return null;
+  }
+
+  /**
+   * Returns the whole contents of a log file as plain text. Compressed log files are sent as they are stored with a
+   * gzip Content-Encoding if the client accepts it, so they don't need decompressing on the server, otherwise they
+   * are decompressed as they are sent.
+   * 
+   * @param request
+   * @param response
+   * @return null, the response is written directly.
+   * @throws Exception
+   */
+  public ModelAndView raw(HttpServletRequest request, HttpServletResponse response) throws Exception {
+    String logFileName = getLogFileName(request, response);
+    if (logFileName == null) {
+      return null;
+    }
+    if (!logFileManager.exists(logFileName)) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return null;
+    }
+    boolean sendCompressed = false;
+    if (logFileManager.isCompressed(logFileName)) {
+      String acceptEncoding = request.getHeader("Accept-Encoding");
+      sendCompressed = acceptEncoding != null && acceptEncoding.contains("gzip");
+      response.setHeader("Vary", "Accept-Encoding");
+    }
+    response.setContentType("text/plain;charset=UTF-8");
+    if (sendCompressed) {
+      response.setHeader("Content-Encoding", "gzip");
+    }
+    InputStream inputStream = logFileManager.open(logFileName, !sendCompressed);
+    try {
+      IOUtils.copyLarge(inputStream, response.getOutputStream());
+    } finally {
+      IOUtils.closeQuietly(inputStream);
+    }
+    return null;
+  }
+
+  /**
+   * @return Whether the task run writing the passed log file is running, always true if there is no task run registry
+   *         or the log file isn't named after a task run, as then there is no way of telling.
+   */
+  private boolean isRunning(String logFileName) {
+    long taskRunId = LogFileLayout.getTaskRunId(logFileName);
+    if (taskRunRegistry == null || taskRunId < 0) {
+      return true;
+    }
+    return taskRunRegistry.getRunningTaskRunIds().contains(taskRunId);
+  }
+
+  /**
+   * Gets the log file name from the request, sending a not found error if it isn't a log file name (e.g. it is a path
+   * to some other file).
+   * 
+   * @return The log file name, or null if it was invalid.
+   */
+  private String getLogFileName(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String logFileName = request.getParameter(PARAM_LOG_FILE);
+    if (!LogFileLayout.isLogFileName(logFileName)) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return null;
+    }
+    return logFileName;
+  }
+
   public long getTailBytes() {
     return tailBytes;
   }
@@ -81,8 +250,40 @@ public class DisplayLogsController extends MultiActionController {
     this.tailBytes = tailBytes;
   }
 
+  public int getFollowMaxBytes() {
+    return followMaxBytes;
+  }
+
+  public void setFollowMaxBytes(int followMaxBytes) {
+    this.followMaxBytes = followMaxBytes;
+  }
+
+  public long getFollowTimeout() {
+    return followTimeout;
+  }
+
+  public void setFollowTimeout(long followTimeout) {
+    this.followTimeout = followTimeout;
+  }
+
+  public long getFollowPollInterval() {
+    return followPollInterval;
+  }
+
+  public void setFollowPollInterval(long followPollInterval) {
+    this.followPollInterval = followPollInterval;
+  }
+
   public void setLogFileManager(LogFileManager logFileManager) {
     this.logFileManager = logFileManager;
   }
 
+  public TaskRunRegistry getTaskRunRegistry() {
+    return taskRunRegistry;
+  }
+
+  public void setTaskRunRegistry(TaskRunRegistry taskRunRegistry) {
+    this.taskRunRegistry = taskRunRegistry;
+  }
+
 }
@@ -26,7 +26,7 @@ import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.multiaction.MultiActionController;
 import org.springframework.web.util.HtmlUtils;
 
-import fm.last.citrine.model.TaskRun;
+import fm.last.citrine.model.TaskRunOutput;
 import fm.last.citrine.service.TaskRunManager;
 
 /**
@@ -68,10 +68,8 @@ public class DisplayTaskRunMessageController extends MultiActionController {
    * @throws Exception
    */
   public ModelAndView displayStack(HttpServletRequest request, HttpServletResponse response) throws Exception {
-    long taskRunId = getTaskRunId(request);
-    TaskRun taskRun = taskRunManager.get(taskRunId);
-    String message = taskRun.getStackTrace();
-    return newEscapedMessageModelAndView(message);
+    TaskRunOutput output = taskRunManager.getOutput(getTaskRunId(request));
+    return newEscapedMessageModelAndView(output == null ? null : output.getStackTrace());
   }
 
   /**
@@ -83,10 +81,8 @@ public class DisplayTaskRunMessageController extends MultiActionController {
    * @throws Exception
    */
   public ModelAndView displaySysOut(HttpServletRequest request, HttpServletResponse response) throws Exception {
-    long jobRunId = getTaskRunId(request);
-    TaskRun taskRun = taskRunManager.get(jobRunId);
-    String message = taskRun.getSysOut();
-    return newEscapedMessageModelAndView(message);
+    TaskRunOutput output = taskRunManager.getOutput(getTaskRunId(request));
+    return newEscapedMessageModelAndView(output == null ? null : output.getSysOut());
   }
 
   /**
@@ -98,10 +94,8 @@ public class DisplayTaskRunMessageController extends MultiActionController {
    * @throws Exception
    */
   public ModelAndView displaySysErr(HttpServletRequest request, HttpServletResponse response) throws Exception {
-    long taskRunId = getTaskRunId(request);
-    TaskRun taskRun = taskRunManager.get(taskRunId);
-    String message = taskRun.getSysErr();
-    return newEscapedMessageModelAndView(message);
+    TaskRunOutput output = taskRunManager.getOutput(getTaskRunId(request));
+    return newEscapedMessageModelAndView(output == null ? null : output.getSysErr());
   }
 
   public TaskRunManager getTaskRunManager() {
@@ -17,11 +17,13 @@ package fm.last.citrine.web;
 
 import static fm.last.citrine.web.Constants.PARAM_TASK_ID;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -36,6 +38,7 @@ import fm.last.citrine.model.Status;
 import fm.last.citrine.model.Task;
 import fm.last.citrine.model.TaskRun;
 import fm.last.citrine.scheduler.SchedulerManager;
+import fm.last.citrine.scheduler.TaskRunHandle;
 import fm.last.citrine.service.TaskManager;
 import fm.last.citrine.service.TaskRunManager;
 
@@ -55,6 +58,11 @@ public class TaskController extends MultiActionController {
 
   private LastRunPeriodFormatter periodFormatter = new LastRunPeriodFormatter();
 
+  /**
+   * Maximum time (in milliseconds) to wait for a TaskRun to be created when a Task is run.
+   */
+  private long runStartTimeout = 5000;
+
   /**
    * Fetches a List of tasks and adds group-related entries to the model based on the passed group name.
    * 
@@ -99,6 +107,12 @@ public class TaskController extends MultiActionController {
   private void processTasks(List<Task> tasks, Map<String, Object> model) {
     Map<Long, String> taskRunStatus = new HashMap<Long, String>();
     Map<Long, String> lastRun = new HashMap<Long, String>();
+    List<Long> taskIds = new ArrayList<Long>(tasks.size());
+    for (Task task : tasks) {
+      taskIds.add(task.getId());
+    }
+    // get the most recent run for all tasks in one go rather than querying per task
+    Map<Long, TaskRun> mostRecentTaskRuns = taskRunManager.getMostRecent(taskIds);
     for (Task task : tasks) {
 
       // limit the description text based in the gui (we could also do this via displaytag)
@@ -110,8 +124,7 @@ public class TaskController extends MultiActionController {
         }
       }
 
-      // get the most recent status for each task
-      TaskRun mostRecentTaskRun = taskRunManager.getMostRecent(task.getId());
+      TaskRun mostRecentTaskRun = mostRecentTaskRuns.get(task.getId());
       if (task.isEnabled()) {
         if (mostRecentTaskRun != null && mostRecentTaskRun.getStatus() != null) {
           taskRunStatus.put(task.getId(), mostRecentTaskRun.getStatus().toString().toLowerCase());
@@ -156,8 +169,11 @@ public class TaskController extends MultiActionController {
     long taskId = RequestUtils.getLongValue(request, PARAM_TASK_ID);
     log.debug("Received request to run task " + taskId);
     Task task = taskManager.get(taskId);
-    schedulerManager.runTaskNow(task);
-    Thread.sleep(1000); // bit of a hack, but allows TaskRun to be created so view should contain it
+    TaskRunHandle handle = schedulerManager.runTaskNow(task);
+    // wait for the TaskRun to be created so the view we redirect to will contain it
+    if (handle != null && !handle.await(runStartTimeout, TimeUnit.MILLISECONDS)) {
+      log.warn("TaskRun for task " + taskId + " not created within " + runStartTimeout + "ms");
+    }
     // total hack to have path to .do here, but unsure how else to redirect there
     return new ModelAndView(new RedirectView("task_runs.do?action=list&" + Constants.PARAM_TASK_ID + "=" + taskId + "&"
         + Constants.PARAM_SELECTED_GROUP_NAME + "=" + request.getParameter(Constants.PARAM_SELECTED_GROUP_NAME)));
@@ -196,6 +212,14 @@ public class TaskController extends MultiActionController {
     this.schedulerManager = schedulerManager;
   }
 
+  public long getRunStartTimeout() {
+    return runStartTimeout;
+  }
+
+  public void setRunStartTimeout(long runStartTimeout) {
+    this.runStartTimeout = runStartTimeout;
+  }
+
   public TaskRunManager getTaskRunManager() {
     return taskRunManager;
   }
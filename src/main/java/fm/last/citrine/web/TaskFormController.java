@@ -118,7 +118,7 @@ public class TaskFormController extends SimpleFormController {
   public ModelAndView onSubmit(HttpServletRequest request, HttpServletResponse response, Object command,
       BindException errors) {
     TaskDTO taskDTO = (TaskDTO) command;
-    Task oldTask = taskManager.get(taskDTO.getTask().getId());
+    Task oldTask = taskManager.getWithParentsAndChildren(taskDTO.getTask().getId());
     if (request.getParameter(PARAM_DELETE) != null) {
       // task from web doesn't have parent/child relationships, so retrieve it from db before deleting
       taskManager.delete(oldTask);
@@ -32,7 +32,7 @@ import org.springframework.web.servlet.mvc.multiaction.MultiActionController;
 
 import fm.last.citrine.model.Status;
 import fm.last.citrine.model.Task;
-import fm.last.citrine.model.TaskRun;
+import fm.last.citrine.model.TaskRunSummary;
 import fm.last.citrine.service.LogFileManager;
 import fm.last.citrine.service.TaskManager;
 import fm.last.citrine.service.TaskRunManager;
@@ -43,7 +43,8 @@ import fm.last.citrine.service.TaskRunManager;
 public class TaskRunController extends MultiActionController {
 
   private static Logger log = Logger.getLogger(TaskRunController.class);
-  private static final String PARAM_PAGE = "page";
+  private static final String PARAM_BEFORE = "before";
+  private static final String PARAM_AFTER = "after";
   public static final int DEFAULT_PAGE_SIZE = 20;
   private int pageSize = DEFAULT_PAGE_SIZE;
 
@@ -52,7 +53,9 @@ public class TaskRunController extends MultiActionController {
   private LogFileManager logFileManager;
 
   /**
-   * Lists all the TaskRuns for a particular Task.
+   * Lists the TaskRuns for a particular Task, a page at a time. Pages are identified by the TaskRun they start after
+   * (the "before" parameter, for going to the next page) or the TaskRun they end before (the "after" parameter, for
+   * going to the previous page) instead of by page number, so finding a page is just as quick however far back it is.
    * 
    * @param request
    * @param response
@@ -61,27 +64,53 @@ public class TaskRunController extends MultiActionController {
    */
   public ModelAndView list(HttpServletRequest request, HttpServletResponse response) throws Exception {
     long taskId = RequestUtils.getLongValue(request, PARAM_TASK_ID);
-    int currentPage = 0;
-    String pageString = request.getParameter(PARAM_PAGE);
-    if (!StringUtils.isEmpty(pageString)) {
-      currentPage = Integer.parseInt(pageString);
+    List<TaskRunSummary> taskRuns = null;
+    boolean morePages = false;
+    boolean previousPages = false;
+
+    // one more TaskRun than fits on a page is fetched to find out whether there is another page without counting
+    String afterString = request.getParameter(PARAM_AFTER);
+    if (!StringUtils.isEmpty(afterString)) {
+      taskRuns = taskRunManager.findSummariesAfter(taskId, Long.parseLong(afterString), pageSize + 1);
+      if (taskRuns.size() > pageSize) {
+        taskRuns = taskRuns.subList(1, taskRuns.size());
+        previousPages = true;
+        morePages = true;
+      } else {
+        taskRuns = null; // less than a page of more recent TaskRuns, so show the first page instead
+      }
+    }
+    if (taskRuns == null) {
+      long before = Long.MAX_VALUE;
+      String beforeString = request.getParameter(PARAM_BEFORE);
+      if (!StringUtils.isEmpty(beforeString)) {
+        before = Long.parseLong(beforeString);
+        previousPages = true;
+      }
+      taskRuns = taskRunManager.findSummariesBefore(taskId, before, pageSize + 1);
+      if (taskRuns.size() > pageSize) {
+        taskRuns = taskRuns.subList(0, pageSize);
+        morePages = true;
+      }
     }
 
-    List<TaskRun> taskRuns = taskRunManager.findByTaskId(taskId, currentPage * pageSize, pageSize);
     Map<Long, String> taskRunLogs = getTaskRunLogs(taskRuns);
     Map<String, Object> model = new HashMap<String, Object>();
     model.put("taskRuns", taskRuns);
     model.put("taskId", taskId);
     model.put("taskRunLogs", taskRunLogs);
-    model.put("page", currentPage);
+    model.put("taskRunLogUrls", getTaskRunLogUrls(taskRunLogs));
 
     Task task = taskManager.get(taskId);
     if (task != null) {
       model.put("taskName", task.getName());
     }
 
-    if (taskRuns.size() == pageSize) { // a bit crude, but will do for now, should really compare with count(*)
-      model.put("morepages", true);
+    if (previousPages && !taskRuns.isEmpty()) {
+      model.put("previousAfter", taskRuns.get(0).getId());
+    }
+    if (morePages) {
+      model.put("nextBefore", taskRuns.get(taskRuns.size() - 1).getId());
     }
 
     model.put(Constants.PARAM_SELECTED_GROUP_NAME, request.getParameter(Constants.PARAM_SELECTED_GROUP_NAME));
@@ -97,9 +126,9 @@ public class TaskRunController extends MultiActionController {
    * @param taskRuns List of TaskRuns to find log file views for.
    * @return A Map containing TaskRunId=LogFileDisplayString entries.
    */
-  private Map<Long, String> getTaskRunLogs(List<TaskRun> taskRuns) {
+  private Map<Long, String> getTaskRunLogs(List<TaskRunSummary> taskRuns) {
     Map<Long, String> taskRunLogs = new HashMap<Long, String>();
-    for (TaskRun taskRun : taskRuns) {
+    for (TaskRunSummary taskRun : taskRuns) {
       if (logFileManager.exists(taskRun.getId() + ".log")) {
         if (Status.RUNNING.equals(taskRun.getStatus())) {
           taskRunLogs.put(taskRun.getId(), "display"); // for running jobs, link to html display
@@ -111,6 +140,29 @@ public class TaskRunController extends MultiActionController {
     return taskRunLogs;
   }
 
+  /**
+   * Creates a Map where the key is the TaskRun id and the value is the URL of its raw log file, for each TaskRun which
+   * should link to the raw log file. Uncompressed log files are linked to directly under the logs folder, compressed
+   * ones are served by the logs controller which decompresses them if necessary.
+   * 
+   * @param taskRunLogs Map of TaskRun ids to the kind of log file view available for them.
+   * @return A Map containing TaskRunId=LogFileUrl entries.
+   */
+  private Map<Long, String> getTaskRunLogUrls(Map<Long, String> taskRunLogs) {
+    Map<Long, String> taskRunLogUrls = new HashMap<Long, String>();
+    for (Map.Entry<Long, String> entry : taskRunLogs.entrySet()) {
+      if ("raw".equals(entry.getValue())) {
+        String logFileName = entry.getKey() + ".log";
+        if (logFileManager.isCompressed(logFileName)) {
+          taskRunLogUrls.put(entry.getKey(), "logs.do?action=raw&logFile=" + logFileName);
+        } else {
+          taskRunLogUrls.put(entry.getKey(), "logs/" + logFileManager.getRelativePath(logFileName));
+        }
+      }
+    }
+    return taskRunLogUrls;
+  }
+
   /**
    * Deletes a particular TaskRun.
    * 
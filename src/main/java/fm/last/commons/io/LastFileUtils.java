@@ -24,8 +24,10 @@ import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.RandomAccessFile;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
 
@@ -40,6 +42,8 @@ public class LastFileUtils {
 
   private static Logger log = Logger.getLogger(LastFileUtils.class);
 
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
   /**
    * Appends the passed string to the passed file.
    * 
@@ -83,7 +87,10 @@ public class LastFileUtils {
   }
 
   /**
-   * Reads the last bytes from the end of the passed file as a String.
+   * Reads the last bytes from the end of the passed file as a UTF-8 String. If the file is larger than the requested
+   * number of bytes, the returned String starts at the beginning of the first complete line within those bytes (unless
+   * they don't contain a line break at all) and the final line break is removed. The bytes are read from the file in a
+   * single bulk read.
    * 
    * @param file File to read from.
    * @param bytes Number of bytes from end of file to read.
@@ -91,29 +98,97 @@ public class LastFileUtils {
    * @throws IOException If the file could not be opened or read.
    */
   public static String tail(File file, long bytes) throws IOException {
-    RandomAccessFile raFile = null;
-    StringBuffer tail = new StringBuffer();
+    FileInputStream inputStream = new FileInputStream(file);
     try {
-      raFile = new RandomAccessFile(file, "r");
-      long length = raFile.length();
+      FileChannel channel = inputStream.getChannel();
+      long length = channel.size();
       if (bytes >= length) {
-        return FileUtils.readFileToString(file);
-      } else {
-        raFile.seek(length - bytes);
-        tail = new StringBuffer((int) bytes);
-        String line = raFile.readLine();
-        while (line != null) {
-          tail.append(line);
-          line = raFile.readLine();
-          if (line != null) { // there is another line coming, so add line break
-            tail.append("\n");
-          }
-        }
+        ByteBuffer buffer = read(channel, 0, (int) length);
+        return new String(buffer.array(), 0, buffer.limit(), UTF8);
       }
+      // read one byte before the requested ones so we can tell whether they start at the beginning of a line
+      long position = length - bytes - 1;
+      ByteBuffer buffer = read(channel, position, (int) Math.min(bytes + 1, Integer.MAX_VALUE));
+      return toTailString(buffer.array(), buffer.limit());
     } finally {
-      LastIoUtils.closeQuietly(raFile);
+      IOUtils.closeQuietly(inputStream);
+    }
+  }
+
+  /**
+   * Reads the last bytes from the passed stream as a UTF-8 String, in the same way as tail(File, long). The whole
+   * stream is read (e.g. to tail a compressed file through a decompressing stream) but only the last bytes are kept in
+   * memory. The stream is not closed.
+   * 
+   * @param inputStream Stream to read from.
+   * @param bytes Number of bytes from end of stream to read.
+   * @return The end content of the stream as a String.
+   * @throws IOException If the stream could not be read.
+   */
+  public static String tail(InputStream inputStream, long bytes) throws IOException {
+    // ring buffer holding one byte before the requested ones, as for tail(File, long)
+    byte[] ring = new byte[(int) Math.min(bytes + 1, Integer.MAX_VALUE)];
+    int position = 0;
+    boolean wrapped = false;
+    int read;
+    while ((read = inputStream.read(ring, position, ring.length - position)) >= 0) {
+      position += read;
+      if (position == ring.length) {
+        position = 0;
+        wrapped = true;
+      }
+    }
+    if (!wrapped) {
+      return new String(ring, 0, position, UTF8);
+    }
+    byte[] array = new byte[ring.length];
+    System.arraycopy(ring, position, array, 0, ring.length - position);
+    System.arraycopy(ring, 0, array, ring.length - position, position);
+    if (array.length <= bytes) { // whole stream fits exactly
+      return new String(array, UTF8);
+    }
+    return toTailString(array, array.length);
+  }
+
+  /**
+   * Converts the tail of a file to a String, the first byte being the one before the requested ones.
+   */
+  private static String toTailString(byte[] array, int end) {
+    if (end > 1 && array[end - 1] == '\n') { // remove final line break
+      end--;
+      if (end > 1 && array[end - 1] == '\r') {
+        end--;
+      }
+    }
+    int start = 0;
+    while (start < end && array[start] != '\n') {
+      start++;
+    }
+    if (start < end) {
+      start++; // skip past line break
+    } else { // no line break at all, return whatever we have, minus any partial character at the start
+      start = 1;
+      while (start < end && (array[start] & 0xC0) == 0x80) { // UTF-8 continuation byte
+        start++;
+      }
+    }
+    return new String(array, start, end - start, UTF8);
+  }
+
+  /**
+   * Reads the requested number of bytes from the passed channel into a new buffer (fewer if the end of the channel is
+   * reached first).
+   */
+  private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        break;
+      }
     }
-    return tail.toString();
+    buffer.flip();
+    return buffer;
   }
 
   /**
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ClosedInputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+
+/**
+ * A gzip file which can be read from any offset without decompressing everything before it. The file is a single
+ * standard gzip member, so can still be read by anything that reads gzip, but the deflate stream is fully flushed after
+ * every blockSize bytes of uncompressed data so decompression can start at the beginning of any block. The compressed
+ * offset of each block is stored in an extra field ("LS") in the gzip header, which is ignored by other readers.
+ *
+ * <pre>
+ * 1f 8b 08 04 00000000 00 ff    gzip header with FEXTRA flag
+ * XLEN                          2 bytes
+ * 'L' 'S' LEN                   subfield header
+ * blockSize                     4 bytes
+ * length                        8 bytes, uncompressed length
+ * blockCount                    4 bytes
+ * offset * blockCount           8 bytes each, compressed offset of each block from the start of the file
+ * deflate data
+ * CRC32 ISIZE                   gzip trailer
+ * </pre>
+ *
+ * All numbers are little endian as for the rest of the gzip format.
+ */
+public class SeekableGzipFile {
+
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+  private static final int HEADER_LENGTH = 16;
+
+  private static final int INDEX_HEADER_LENGTH = 16;
+
+  /**
+   * Maximum number of blocks which fit in the extra field, larger files use larger blocks.
+   */
+  static final int MAX_BLOCKS = (0xFFFF - 4 - INDEX_HEADER_LENGTH) / 8;
+
+  private static final byte SUBFIELD_ID1 = 'L';
+
+  private static final byte SUBFIELD_ID2 = 'S';
+
+  private final File file;
+
+  private final int blockSize;
+
+  private final long length;
+
+  private SeekableGzipFile(File file, int blockSize, long length) {
+    this.file = file;
+    this.blockSize = blockSize;
+    this.length = length;
+  }
+
+  /**
+   * Opens a seekable gzip file.
+   *
+   * @param file File to open.
+   * @return The seekable gzip file, or null if the file isn't one (e.g. it is a gzip file written by something else).
+   * @throws IOException If an error occurs reading the file.
+   */
+  public static SeekableGzipFile open(File file) throws IOException {
+    FileInputStream inputStream = new FileInputStream(file);
+    try {
+      ByteBuffer header = read(inputStream.getChannel(), 0, HEADER_LENGTH + INDEX_HEADER_LENGTH);
+      if (header.remaining() < HEADER_LENGTH + INDEX_HEADER_LENGTH || header.get(0) != (byte) 0x1f
+          || header.get(1) != (byte) 0x8b || (header.get(3) & 0x04) == 0 || header.get(12) != SUBFIELD_ID1
+          || header.get(13) != SUBFIELD_ID2) {
+        return null;
+      }
+      int blockSize = header.getInt(16);
+      long length = header.getLong(20);
+      return new SeekableGzipFile(file, blockSize, length);
+    } finally {
+      IOUtils.closeQuietly(inputStream);
+    }
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+      // keep reading until buffer full
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * @return The uncompressed length of the file.
+   */
+  public long length() {
+    return length;
+  }
+
+  /**
+   * @return The number of bytes of uncompressed data in each block.
+   */
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Opens a stream which reads the uncompressed contents of the file from the passed offset, only decompressing from
+   * the start of the block the offset is in.
+   *
+   * @param offset Offset in the uncompressed contents to start reading from.
+   * @return A stream of the uncompressed contents, which must be closed by the caller.
+   * @throws IOException If an error occurs opening the file.
+   */
+  public InputStream read(long offset) throws IOException {
+    if (offset >= length) {
+      return new ClosedInputStream();
+    }
+    int block = (int) (offset / blockSize);
+    FileInputStream fileInputStream = new FileInputStream(file);
+    try {
+      FileChannel channel = fileInputStream.getChannel();
+      long blockOffset = read(channel, HEADER_LENGTH + INDEX_HEADER_LENGTH + 8L * block, 8).getLong();
+      channel.position(blockOffset);
+      // inflates the rest of the deflate stream, the gzip trailer after the end of it is ignored
+      InputStream inputStream = new InflaterInputStream(fileInputStream, new Inflater(true), DEFAULT_BLOCK_SIZE) {
+        @Override
+        public void close() throws IOException {
+          inf.end();
+          super.close();
+        }
+      };
+      IOUtils.skipFully(inputStream, offset - (long) block * blockSize);
+      return inputStream;
+    } catch (IOException e) {
+      IOUtils.closeQuietly(fileInputStream);
+      throw e;
+    }
+  }
+
+  /**
+   * Compresses a file into a new seekable gzip file using the default block size.
+   *
+   * @param source File to compress.
+   * @param destination File to write to.
+   * @throws IOException If an error occurs reading or writing the files.
+   */
+  public static void compress(File source, File destination) throws IOException {
+    compress(source, destination, DEFAULT_BLOCK_SIZE);
+  }
+
+  /**
+   * Compresses a file into a new seekable gzip file. The source file should not be written to while it is being
+   * compressed.
+   *
+   * @param source File to compress.
+   * @param destination File to write to.
+   * @param blockSize Number of bytes of uncompressed data in each block, this is increased if necessary so that the
+   *          offsets of all the blocks fit in the gzip header.
+   * @throws IOException If an error occurs reading or writing the files.
+   */
+  public static void compress(File source, File destination, int blockSize) throws IOException {
+    long length = source.length();
+    if ((length + blockSize - 1) / blockSize > MAX_BLOCKS) {
+      blockSize = (int) Math.min((length + MAX_BLOCKS - 1) / MAX_BLOCKS, Integer.MAX_VALUE);
+    }
+    int blockCount = (int) ((length + blockSize - 1) / blockSize);
+    long[] offsets = new long[blockCount];
+
+    InputStream inputStream = new FileInputStream(source);
+    CountingOutputStream outputStream = null;
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      outputStream = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(destination),
+          DEFAULT_BLOCK_SIZE));
+      // the index is written once the offsets are known, leave space for it
+      outputStream.write(createHeader(blockSize, length, offsets));
+
+      CRC32 crc = new CRC32();
+      byte[] block = new byte[blockSize];
+      byte[] compressed = new byte[DEFAULT_BLOCK_SIZE];
+      long total = 0;
+      for (int i = 0; i < blockCount; i++) {
+        int read = IOUtils.read(inputStream, block, 0, (int) Math.min(blockSize, length - total));
+        if (read < Math.min(blockSize, length - total)) {
+          throw new IOException(source + " was truncated while being compressed");
+        }
+        total += read;
+        crc.update(block, 0, read);
+        offsets[i] = outputStream.getByteCount();
+        deflater.setInput(block, 0, read);
+        if (i < blockCount - 1) {
+          // full flush so the next block doesn't refer back to this one and decompression can start there
+          int deflated;
+          do {
+            deflated = deflater.deflate(compressed, 0, compressed.length, Deflater.FULL_FLUSH);
+            outputStream.write(compressed, 0, deflated);
+          } while (deflated == compressed.length);
+        }
+      }
+      deflater.finish();
+      while (!deflater.finished()) {
+        outputStream.write(compressed, 0, deflater.deflate(compressed));
+      }
+      ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+      trailer.putInt((int) crc.getValue());
+      trailer.putInt((int) total);
+      outputStream.write(trailer.array());
+      outputStream.close();
+    } finally {
+      deflater.end();
+      IOUtils.closeQuietly(inputStream);
+      IOUtils.closeQuietly(outputStream);
+    }
+
+    RandomAccessFile file = new RandomAccessFile(destination, "rw");
+    try {
+      file.write(createHeader(blockSize, length, offsets));
+    } finally {
+      file.close();
+    }
+  }
+
+  private static byte[] createHeader(int blockSize, long length, long[] offsets) {
+    int indexLength = INDEX_HEADER_LENGTH + 8 * offsets.length;
+    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + indexLength).order(ByteOrder.LITTLE_ENDIAN);
+    header.put(new byte[] { 0x1f, (byte) 0x8b, 8, 0x04, 0, 0, 0, 0, 0, (byte) 0xff });
+    header.putShort((short) (4 + indexLength));
+    header.put(SUBFIELD_ID1).put(SUBFIELD_ID2).putShort((short) indexLength);
+    header.putInt(blockSize).putLong(length).putInt(offsets.length);
+    for (long offset : offsets) {
+      header.putLong(offset);
+    }
+    return header.array();
+  }
+
+}
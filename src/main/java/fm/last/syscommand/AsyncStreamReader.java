@@ -15,10 +15,7 @@
  */
 package fm.last.syscommand;
 
-import java.io.BufferedReader;
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
@@ -26,19 +23,14 @@ import org.apache.log4j.Logger;
 import fm.last.syscommand.SysCommandExecutor.OutputType;
 
 /**
- * A Thread implementation that reads asynchronously from an InputStream. Callers *must* call setRunning(false) when
- * they are done with this, otherwise it will continue to try reading from the stream indefinitely.
+ * A Thread implementation that reads asynchronously from an InputStream using a StreamDrainer. The thread blocks while
+ * no output is available and finishes as soon as the end of the stream is reached (i.e. when the process closes it).
  */
 public class AsyncStreamReader extends Thread {
 
   private static Logger log = Logger.getLogger(AsyncStreamReader.class);
-  private InputStream inputStream = null;
 
-  private OutputType outputType;
-
-  private SysExecutorObserver observer;
-
-  private boolean running = false;
+  private StreamDrainer drainer;
 
   /**
    * Constructs a new instance, no monitoring of the inputstream will occur until start() is called.
@@ -48,81 +40,20 @@ public class AsyncStreamReader extends Thread {
    * @param outputType The type of output being read.
    */
   public AsyncStreamReader(InputStream inputStream, SysExecutorObserver observer, OutputType outputType) {
-    this.inputStream = inputStream;
-    this.observer = observer;
-    this.outputType = outputType;
+    this.drainer = new StreamDrainer(inputStream, observer, outputType);
   }
 
   /**
    * Thread's run method (called via start()).
    */
   public void run() {
-    running = true;
     try {
-      readCommandOutput();
+      drainer.drain();
     } catch (Exception e) {
       log.error("Error running stream reader", e);
-    }
-    running = false;
-  }
-
-  /**
-   * The method which does the main work of reading from the input stream.
-   * 
-   * @throws IOException If an error occurs reading from the stream.
-   */
-  private void readCommandOutput() throws IOException {
-    InputStreamReader inputStreamReader = null;
-    BufferedReader bufferedReader = null;
-    try {
-      inputStreamReader = new InputStreamReader(inputStream);
-      bufferedReader = new BufferedReader(inputStreamReader);
-      String line = null;
-      while (running) {
-        while ((line = readLine(bufferedReader)) != null) {
-          if (OutputType.OUT.equals(outputType)) {
-            observer.sysOut(line);
-          } else {
-            observer.sysErr(line);
-          }
-        }
-
-        if (line == null) {
-          // no ouput from process, this happens with process streams, after a wait
-          // there might actually be some more, i.e. null does not necessarily mean stream is empty
-          try {
-            Thread.sleep(1000);
-          } catch (InterruptedException e) {
-            log.error(e);
-          }
-        }
-      }
     } finally {
-      IOUtils.closeQuietly(bufferedReader);
-      IOUtils.closeQuietly(inputStreamReader);
-    }
-  }
-
-  private String readLine(BufferedReader bufferedReader) throws IOException {
-    try {
-      return bufferedReader.readLine();
-    } catch (IOException e) {
-      // see http://code.google.com/p/citrine-scheduler/issues/detail?id=32 - ugly but no known alternative
-      if (e.getMessage().contains("Bad file descriptor")) {
-        log.warn("Nothing to read from stream, returning null");
-        return null;
-      } else {
-        throw e;
-      }
+      IOUtils.closeQuietly(drainer.getInputStream());
     }
   }
 
-  public boolean isRunning() {
-    return running;
-  }
-
-  public void setRunning(boolean running) {
-    this.running = running;
-  }
-
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.syscommand;
+
+/**
+ * SysExecutorObserver which can receive output in the raw chunks of bytes it was read in, instead of having it decoded
+ * and split into a String per line first. Observers implementing this interface will only have these methods called
+ * for output read from a process, the String based sysOut() and sysErr() methods will not be called.
+ */
+public interface ByteSysExecutorObserver extends SysExecutorObserver {
+
+  /**
+   * Process the passed bytes which were sent to System.Out. The passed array is reused once this method returns, so
+   * implementations must copy any data they want to keep.
+   *
+   * @param bytes Buffer containing the data.
+   * @param offset Offset of the data in the buffer.
+   * @param length Number of bytes of data.
+   */
+  public void sysOut(byte[] bytes, int offset, int length);
+
+  /**
+   * Process the passed bytes which were sent to System.Err. The passed array is reused once this method returns, so
+   * implementations must copy any data they want to keep.
+   *
+   * @param bytes Buffer containing the data.
+   * @param offset Offset of the data in the buffer.
+   * @param length Number of bytes of data.
+   */
+  public void sysErr(byte[] bytes, int offset, int length);
+
+}
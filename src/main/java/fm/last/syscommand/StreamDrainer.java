@@ -0,0 +1,274 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.syscommand;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import org.apache.log4j.Logger;
+
+import fm.last.syscommand.SysCommandExecutor.OutputType;
+
+/**
+ * Drains an InputStream using bulk reads into a single reusable byte buffer and passes the data on to a
+ * SysExecutorObserver. If the observer is a ByteSysExecutorObserver it receives the buffer as is, otherwise the data is
+ * split into lines (terminated by "\n", "\r" or "\r\n" as with BufferedReader.readLine()) and each line is decoded and
+ * passed to the observer as a String. Lines are split on their raw bytes, so the charset must be ASCII compatible (e.g.
+ * UTF-8 or ISO-8859-1). Instances of this class are not thread safe.
+ */
+public class StreamDrainer {
+
+  private static Logger log = Logger.getLogger(StreamDrainer.class);
+
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  private static final byte LF = '\n';
+  private static final byte CR = '\r';
+
+  private final InputStream inputStream;
+  private final SysExecutorObserver observer;
+  private final ByteSysExecutorObserver byteObserver;
+  private final OutputType outputType;
+  private final Charset charset;
+
+  private final byte[] buffer;
+
+  /**
+   * Holds the start of a line which has been read but not yet terminated.
+   */
+  private byte[] partialLine;
+  private int partialLength = 0;
+
+  /**
+   * Set if the last byte processed was a "\r", so a following "\n" is part of the same line terminator.
+   */
+  private boolean skipLF = false;
+
+  private boolean finished = false;
+
+  private long bytesRead = 0;
+
+  /**
+   * Constructs a new instance which uses the default buffer size and the platform's default charset.
+   *
+   * @param inputStream The input stream to read from.
+   * @param observer SysExecutorObserver that will receive output from standard out or err.
+   * @param outputType The type of output being read.
+   */
+  public StreamDrainer(InputStream inputStream, SysExecutorObserver observer, OutputType outputType) {
+    this(inputStream, observer, outputType, DEFAULT_BUFFER_SIZE, Charset.defaultCharset());
+  }
+
+  /**
+   * Constructs a new instance.
+   *
+   * @param inputStream The input stream to read from.
+   * @param observer SysExecutorObserver that will receive output from standard out or err.
+   * @param outputType The type of output being read.
+   * @param bufferSize Size of the buffer used for each read.
+   * @param charset Charset used to decode lines for observers which are not ByteSysExecutorObservers.
+   */
+  public StreamDrainer(InputStream inputStream, SysExecutorObserver observer, OutputType outputType, int bufferSize,
+      Charset charset) {
+    this.inputStream = inputStream;
+    this.observer = observer;
+    this.outputType = outputType;
+    this.charset = charset;
+    this.buffer = new byte[bufferSize];
+    if (observer instanceof ByteSysExecutorObserver) {
+      byteObserver = (ByteSysExecutorObserver) observer;
+    } else {
+      byteObserver = null;
+      partialLine = new byte[Math.min(bufferSize, 256)];
+    }
+  }
+
+  /**
+   * Reads from the stream until the end of the stream is reached, blocking while no output is available.
+   *
+   * @return The total number of bytes read from the stream.
+   * @throws IOException If an error occurs reading from the stream.
+   */
+  public long drain() throws IOException {
+    while (read() >= 0) {
+      // keep going until the end of the stream
+    }
+    return bytesRead;
+  }
+
+  /**
+   * Performs a single read from the stream, blocking until some output is available, and passes whatever was read on
+   * to the observer.
+   *
+   * @return The number of bytes read, or -1 if the end of the stream has been reached.
+   * @throws IOException If an error occurs reading from the stream.
+   */
+  public int read() throws IOException {
+    if (finished) {
+      return -1;
+    }
+    int count = readBuffer(buffer.length);
+    if (count < 0) {
+      finish();
+    } else if (count > 0) {
+      process(count);
+    }
+    return count;
+  }
+
+  /**
+   * Reads whatever output is currently available from the stream without blocking and passes it on to the observer.
+   * Note that a return value of 0 does not mean the end of the stream has been reached, only that no data is currently
+   * available, once the process writing to the stream has finished drain() should be called to read the remainder.
+   *
+   * @return The number of bytes read, 0 if none were available, or -1 if the end of the stream has been reached.
+   * @throws IOException If an error occurs reading from the stream.
+   */
+  public int readAvailable() throws IOException {
+    if (finished) {
+      return -1;
+    }
+    int available = inputStream.available();
+    if (available <= 0) {
+      return 0;
+    }
+    int count = readBuffer(Math.min(available, buffer.length));
+    if (count < 0) {
+      finish();
+    } else if (count > 0) {
+      process(count);
+    }
+    return count;
+  }
+
+  private int readBuffer(int length) throws IOException {
+    try {
+      return inputStream.read(buffer, 0, length);
+    } catch (IOException e) {
+      // see http://code.google.com/p/citrine-scheduler/issues/detail?id=32 - ugly but no known alternative
+      if (e.getMessage() != null && e.getMessage().contains("Bad file descriptor")) {
+        log.warn("Nothing to read from stream, treating as end of stream");
+        return -1;
+      }
+      throw e;
+    }
+  }
+
+  private void process(int count) {
+    bytesRead += count;
+    if (byteObserver != null) {
+      if (OutputType.OUT.equals(outputType)) {
+        byteObserver.sysOut(buffer, 0, count);
+      } else {
+        byteObserver.sysErr(buffer, 0, count);
+      }
+      return;
+    }
+    int lineStart = 0;
+    for (int i = 0; i < count; i++) {
+      byte b = buffer[i];
+      if (b == LF || b == CR) {
+        if (b == LF && skipLF) { // second half of a "\r\n"
+          lineStart = i + 1;
+        } else {
+          endLine(lineStart, i - lineStart);
+          lineStart = i + 1;
+        }
+        skipLF = (b == CR);
+      } else {
+        skipLF = false;
+      }
+    }
+    if (lineStart < count) {
+      appendPartial(lineStart, count - lineStart);
+    }
+  }
+
+  private void endLine(int offset, int length) {
+    if (partialLength > 0) {
+      appendPartial(offset, length);
+      emitLine(new String(partialLine, 0, partialLength, charset));
+      partialLength = 0;
+    } else {
+      emitLine(new String(buffer, offset, length, charset));
+    }
+  }
+
+  private void appendPartial(int offset, int length) {
+    if (partialLength + length > partialLine.length) {
+      byte[] larger = new byte[Math.max(partialLine.length * 2, partialLength + length)];
+      System.arraycopy(partialLine, 0, larger, 0, partialLength);
+      partialLine = larger;
+    }
+    System.arraycopy(buffer, offset, partialLine, partialLength, length);
+    partialLength += length;
+  }
+
+  private void emitLine(String line) {
+    if (OutputType.OUT.equals(outputType)) {
+      observer.sysOut(line);
+    } else {
+      observer.sysErr(line);
+    }
+  }
+
+  /**
+   * Called when the end of the stream is reached, passes on any final unterminated line.
+   */
+  private void finish() {
+    finished = true;
+    if (partialLength > 0) {
+      emitLine(new String(partialLine, 0, partialLength, charset));
+      partialLength = 0;
+    }
+  }
+
+  /**
+   * Stops reading before the end of the stream has been reached, passing on any final unterminated line to the observer
+   * and closing the stream.
+   *
+   * @throws IOException If an error occurs closing the stream.
+   */
+  public void close() throws IOException {
+    if (!finished) {
+      finish();
+    }
+    inputStream.close();
+  }
+
+  /**
+   * @return Whether the end of the stream has been reached.
+   */
+  public boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * @return The total number of bytes read from the stream so far.
+   */
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  /**
+   * @return The stream being drained.
+   */
+  public InputStream getInputStream() {
+    return inputStream;
+  }
+
+}
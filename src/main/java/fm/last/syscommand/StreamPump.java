@@ -0,0 +1,264 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.syscommand;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Services the output streams of many processes using a small, fixed number of threads, so the number of threads used
+ * for process I/O does not grow with the number of processes running. While a process is running its streams are only
+ * read when they have data available, so a pump thread never blocks on a quiet process. Once the process has finished
+ * (signalled by calling PumpedStream.finish()) the remainder of its streams is read in the same way, and the stream is
+ * closed as soon as nothing more is available. Everything the process wrote is in the pipe by the time it exits, so
+ * this only gives up on output from background processes it started which still have the stream open. If such a process
+ * keeps writing, the stream is closed once the finish timeout has passed.
+ *
+ * A single instance of this class can be shared by any number of SysCommandExecutors, its threads are started when
+ * the first stream is registered.
+ */
+public class StreamPump {
+
+  private static Logger log = Logger.getLogger(StreamPump.class);
+
+  public static final int DEFAULT_THREAD_COUNT = 2;
+
+  public static final long DEFAULT_POLL_INTERVAL = 10;
+
+  public static final long DEFAULT_FINISH_TIMEOUT = 10000;
+
+  private final Queue<PumpedStream> streams = new ConcurrentLinkedQueue<PumpedStream>();
+
+  private final List<Thread> threads = new ArrayList<Thread>();
+
+  private int threadCount = DEFAULT_THREAD_COUNT;
+
+  /**
+   * Time in milliseconds a pump thread waits when none of the streams had any data available.
+   */
+  private long pollInterval = DEFAULT_POLL_INTERVAL;
+
+  /**
+   * Time in milliseconds a stream is read for after its process has finished before it is closed.
+   */
+  private long finishTimeout = DEFAULT_FINISH_TIMEOUT;
+
+  private volatile boolean running = false;
+
+  /**
+   * Registers a stream which will be serviced by this pump until finish() is called on the returned PumpedStream and
+   * the end of the stream has been reached.
+   *
+   * @param drainer StreamDrainer for the stream.
+   * @return Handle which can be used to signal that the process has finished and to wait for its stream to be drained.
+   */
+  public PumpedStream register(StreamDrainer drainer) {
+    start();
+    PumpedStream stream = new PumpedStream(drainer, finishTimeout);
+    streams.add(stream);
+    return stream;
+  }
+
+  private synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    for (int i = 0; i < threadCount; i++) {
+      Thread thread = new Thread(new Pump(), "StreamPump-" + i);
+      thread.setDaemon(true);
+      thread.start();
+      threads.add(thread);
+    }
+    log.info("Started " + threadCount + " stream pump threads");
+  }
+
+  /**
+   * Stops all pump threads, any streams which are still registered are released without being read any further.
+   */
+  public synchronized void shutdown() {
+    running = false;
+    for (Thread thread : threads) {
+      thread.interrupt();
+    }
+    threads.clear();
+    PumpedStream stream = null;
+    while ((stream = streams.poll()) != null) {
+      stream.done.countDown();
+    }
+  }
+
+  /**
+   * @return The number of streams currently being serviced.
+   */
+  public int getStreamCount() {
+    return streams.size();
+  }
+
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  public void setThreadCount(int threadCount) {
+    this.threadCount = threadCount;
+  }
+
+  public long getPollInterval() {
+    return pollInterval;
+  }
+
+  public void setPollInterval(long pollInterval) {
+    this.pollInterval = pollInterval;
+  }
+
+  public long getFinishTimeout() {
+    return finishTimeout;
+  }
+
+  public void setFinishTimeout(long finishTimeout) {
+    this.finishTimeout = finishTimeout;
+  }
+
+  /**
+   * Services streams taken from the shared queue, putting each one back on the queue until it has been drained.
+   */
+  private class Pump implements Runnable {
+
+    @Override
+    public void run() {
+      int idle = 0;
+      while (running) {
+        PumpedStream stream = streams.poll();
+        if (stream == null || idle > streams.size()) {
+          // nothing is registered or no stream had data on the last pass, so wait a bit before trying again
+          if (stream != null) {
+            streams.add(stream);
+          }
+          idle = 0;
+          try {
+            Thread.sleep(pollInterval);
+          } catch (InterruptedException e) {
+            // shutdown() interrupts, running flag is checked by loop
+          }
+          continue;
+        }
+        int count = stream.service();
+        if (stream.done.getCount() > 0) {
+          streams.add(stream);
+        }
+        idle = count > 0 ? 0 : idle + 1;
+      }
+    }
+
+  }
+
+  /**
+   * A stream registered with a StreamPump.
+   */
+  public static class PumpedStream {
+
+    private final StreamDrainer drainer;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private final long finishTimeout;
+
+    /**
+     * Time after which the stream is closed, set before processFinished so it is visible once that is.
+     */
+    private long deadline;
+
+    private volatile boolean processFinished = false;
+
+    private PumpedStream(StreamDrainer drainer, long finishTimeout) {
+      this.drainer = drainer;
+      this.finishTimeout = finishTimeout;
+    }
+
+    /**
+     * Reads any available data from the stream. Only ever called by one pump thread at a time.
+     *
+     * @return The number of bytes read.
+     */
+    private int service() {
+      try {
+        boolean finished = processFinished; // checked before reading, so no output written before the exit is missed
+        int count = drainer.readAvailable();
+        if (count < 0) {
+          done.countDown();
+        } else if (finished && count == 0) {
+          // everything the process wrote has been read, anything still holding the stream open was started by it
+          close();
+        } else if (finished && System.currentTimeMillis() > deadline) {
+          log.warn("Stream still being written to " + finishTimeout
+              + "ms after process finished, no further output will be read from it");
+          close();
+        }
+        return count;
+      } catch (Exception e) {
+        log.error("Error reading stream, no further output will be read from it", e);
+        done.countDown();
+        return 0;
+      }
+    }
+
+    private void close() {
+      try {
+        drainer.close();
+      } catch (IOException e) {
+        log.warn("Error closing stream", e);
+      }
+      done.countDown();
+    }
+
+    /**
+     * Signals that the process writing to this stream has finished, the remaining output will be read and then the
+     * stream released.
+     */
+    public void finish() {
+      deadline = System.currentTimeMillis() + finishTimeout;
+      processFinished = true;
+    }
+
+    /**
+     * Waits for the stream to be fully drained after finish() has been called.
+     *
+     * @param timeout Maximum time to wait.
+     * @param unit Unit of the timeout.
+     * @return True if the stream was drained, false if the timeout elapsed first.
+     * @throws InterruptedException If the current thread is interrupted while waiting.
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+      return done.await(timeout, unit);
+    }
+
+    /**
+     * @return Whether the stream has been fully drained (or given up on).
+     */
+    public boolean isDone() {
+      return done.getCount() == 0;
+    }
+
+  }
+
+}
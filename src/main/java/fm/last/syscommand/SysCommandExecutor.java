@@ -22,14 +22,21 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
+import fm.last.syscommand.StreamPump.PumpedStream;
+
 /**
  * Class that executes system commands, a separate instance should be used per Process created. Typical use would
  * involve creating an instance, then optionally setting the working directory and environment variables, then calling
  * start(), then waitForProcess(), and then inspecting/using the value returned and the error and system output set on
  * the observer.
+ * 
+ * By default two threads are started per process to read its output and error streams. If a StreamPump is set, the
+ * streams are instead registered with the pump, which allows the threads used for reading output to be shared by all
+ * processes.
  */
 public class SysCommandExecutor {
 
@@ -51,6 +58,11 @@ public class SysCommandExecutor {
   private AsyncStreamReader commandOutputThread = null;
   private AsyncStreamReader commandErrorThread = null;
 
+  private StreamPump streamPump;
+
+  private PumpedStream pumpedOutput = null;
+  private PumpedStream pumpedError = null;
+
   public static final long DEFAULT_SYS_OUT_WAIT_TIME = 10000;
   public static final long DEFAULT_SYS_ERR_WAIT_TIME = 10000;
 
@@ -179,6 +191,16 @@ public class SysCommandExecutor {
    * @param processErr The process' system error stream.
    */
   private void startStreamReadThreads(InputStream processOut, InputStream processErr) {
+    if (streamPump != null) {
+      if (sysOutObserver != null) {
+        pumpedOutput = streamPump.register(new StreamDrainer(processOut, sysOutObserver, OutputType.OUT));
+      }
+      if (sysErrObserver != null) {
+        pumpedError = streamPump.register(new StreamDrainer(processErr, sysErrObserver, OutputType.ERR));
+      }
+      return;
+    }
+
     if (sysOutObserver != null) {
       commandOutputThread = new AsyncStreamReader(processOut, sysOutObserver, OutputType.OUT);
       commandOutputThread.start();
@@ -191,21 +213,40 @@ public class SysCommandExecutor {
   }
 
   /**
-   * Stops a stream reader thread.
+   * Waits for a stream reader thread to read the remainder of the stream. The reader finishes by itself once the end
+   * of the stream is reached, it can't be stopped before then.
    * 
-   * @param reader The reader to stop.
-   * @param timeout The amount of time to wait for the reader to stop.
+   * @param reader The reader to wait for.
+   * @param timeout The amount of time to wait for the stream to be read.
    */
   private void stopStreamReadThread(AsyncStreamReader reader, long timeout) {
     if (reader != null) {
-      reader.setRunning(false);
       try {
-        reader.join(timeout); // give thread a chance to continue reading process output
+        reader.join(timeout);
       } catch (InterruptedException e) {
         log.error(e);
       }
       if (reader.isAlive()) {
-        reader.interrupt();
+        log.warn("Process output not fully read after waiting " + timeout + "ms");
+      }
+    }
+  }
+
+  /**
+   * Signals to the StreamPump that the process has finished and waits for the remainder of the stream to be read.
+   * 
+   * @param stream The stream to stop.
+   * @param timeout The amount of time to wait for the stream to be drained.
+   */
+  private void stopPumpedStream(PumpedStream stream, long timeout) {
+    if (stream != null) {
+      stream.finish();
+      try {
+        if (!stream.await(timeout, TimeUnit.MILLISECONDS)) {
+          log.warn("Process output not fully read after waiting " + timeout + "ms");
+        }
+      } catch (InterruptedException e) {
+        log.error(e);
       }
     }
   }
@@ -216,6 +257,22 @@ public class SysCommandExecutor {
   public void stopStreamReadThreads() {
     stopStreamReadThread(commandOutputThread, sysOutWaitTime);
     stopStreamReadThread(commandErrorThread, sysErrWaitTime);
+    stopPumpedStream(pumpedOutput, sysOutWaitTime);
+    stopPumpedStream(pumpedError, sysErrWaitTime);
+  }
+
+  /**
+   * @return the StreamPump used to read process output, or null if separate threads are used per process.
+   */
+  public StreamPump getStreamPump() {
+    return streamPump;
+  }
+
+  /**
+   * @param streamPump the StreamPump to use to read process output, if not set two threads are started per process.
+   */
+  public void setStreamPump(StreamPump streamPump) {
+    this.streamPump = streamPump;
   }
 
   public void setWorkingDirectory(File workingDirectory) {
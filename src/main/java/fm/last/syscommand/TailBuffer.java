@@ -0,0 +1,139 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.syscommand;
+
+import java.nio.charset.Charset;
+
+/**
+ * Bounded ring buffer which keeps the last "n" bytes written to it, used to hold the tail of a process' output in
+ * memory. Text is encoded and decoded as UTF-8, the charset log files are written in. Instances of this class are
+ * thread safe.
+ */
+public class TailBuffer {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final byte[] buffer;
+
+  /**
+   * Position in the buffer the next byte will be written to.
+   */
+  private int position = 0;
+
+  private long totalBytes = 0;
+
+  /**
+   * Constructs a new buffer.
+   *
+   * @param capacity The number of bytes to keep.
+   */
+  public TailBuffer(int capacity) {
+    buffer = new byte[capacity];
+  }
+
+  /**
+   * Appends the passed bytes to the buffer, overwriting the oldest bytes if it is full.
+   *
+   * @param bytes Buffer containing the data.
+   * @param offset Offset of the data in the buffer.
+   * @param length Number of bytes of data.
+   */
+  public synchronized void append(byte[] bytes, int offset, int length) {
+    totalBytes += length;
+    if (buffer.length == 0) {
+      return;
+    }
+    if (length >= buffer.length) { // only the end of the passed bytes will fit
+      System.arraycopy(bytes, offset + length - buffer.length, buffer, 0, buffer.length);
+      position = 0;
+      return;
+    }
+    int firstPart = Math.min(length, buffer.length - position);
+    System.arraycopy(bytes, offset, buffer, position, firstPart);
+    System.arraycopy(bytes, offset + firstPart, buffer, 0, length - firstPart);
+    position = (position + length) % buffer.length;
+  }
+
+  /**
+   * Appends the passed line, followed by a line break, to the buffer. The line is encoded as UTF-8.
+   *
+   * @param line Line to append.
+   */
+  public void appendLine(String line) {
+    byte[] bytes = (line + "\n").getBytes(UTF8);
+    append(bytes, 0, bytes.length);
+  }
+
+  /**
+   * @return The bytes currently held, oldest first.
+   */
+  public synchronized byte[] toByteArray() {
+    if (totalBytes < buffer.length) {
+      byte[] bytes = new byte[position];
+      System.arraycopy(buffer, 0, bytes, 0, position);
+      return bytes;
+    }
+    byte[] bytes = new byte[buffer.length];
+    System.arraycopy(buffer, position, bytes, 0, buffer.length - position);
+    System.arraycopy(buffer, 0, bytes, buffer.length - position, position);
+    return bytes;
+  }
+
+  /**
+   * Decodes the bytes currently held as UTF-8. If older bytes have been overwritten, any partial character at the start
+   * of the buffer is skipped.
+   *
+   * @return The bytes currently held as a String.
+   */
+  @Override
+  public String toString() {
+    byte[] bytes;
+    boolean truncated;
+    synchronized (this) {
+      bytes = toByteArray();
+      truncated = isTruncated();
+    }
+    int start = 0;
+    if (truncated) {
+      while (start < bytes.length && (bytes[start] & 0xC0) == 0x80) { // UTF-8 continuation byte
+        start++;
+      }
+    }
+    return new String(bytes, start, bytes.length - start, UTF8);
+  }
+
+  /**
+   * @return Whether more bytes have been appended than the buffer can hold.
+   */
+  public synchronized boolean isTruncated() {
+    return totalBytes > buffer.length;
+  }
+
+  /**
+   * @return The total number of bytes appended to the buffer.
+   */
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * @return The maximum number of bytes held.
+   */
+  public int getCapacity() {
+    return buffer.length;
+  }
+
+}
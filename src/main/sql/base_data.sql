@@ -2,6 +2,10 @@ insert into tasks (command,                                        description,
           values ('clear_log_files 30','Cleans up Citrine log files older than N days.
 By default N is 30, this can be set as the first argument to the job.', true,    'adminJob', 'Log File Cleaner', 'admin',   0,        '0 0 3 * * ?', 0,       true,           true,        false,   true);
 
+insert into tasks (command,                                        description,                                      enabled, beanName,     name,               groupName, priority,timerSchedule,  version, errorIfRunning, stopOnError, notifyOnSuccess, notifyOnFailure) 
+          values ('compress_log_files 1','Compresses Citrine log files older than N days, they can still be viewed as before.
+By default N is 1, this can be set as the first argument to the job.', true,    'adminJob', 'Log File Compressor', 'admin',   0,        '0 0 2 * * ?', 0,       true,           true,        false,   true);
+
 insert into tasks (command,          description,                                            enabled, beanName,     name,               groupName, priority,timerSchedule,  version, errorIfRunning, stopOnError, notifyOnSuccess, notifyOnFailure) 
           values ('clear_task_runs 30', 'Cleans up Task Runs in the database older than N days.
 By default N is 30, this can be set as the first argument to the job.', true,    'adminJob', 'Task Run Cleaner', 'admin',   0,        '0 0 3 * * ?', 0,       true,           true,        false,   true); 
@@ -0,0 +1,14 @@
+-- Optionally partitions task_runs by the month task runs started in, so that the clear_task_runs admin command can drop
+-- whole months of old task runs at once instead of deleting them row by row. Partitions must be named pYYYYMM after the
+-- month they hold, followed by a catch all partition named pmax. Partitions for the coming months are split off pmax
+-- by clear_task_runs, so it should be scheduled to run at least once a month.
+--
+-- Replace 201001 and 2010-02-01 below with the month of the oldest task run (and the start of the following month),
+-- the partitions for the months between this and the current one are added the next time clear_task_runs is run.
+-- Every unique key of a partitioned table must include the partitioning column, so the primary key becomes
+-- (id, startDate), ids are still unique as they are handed out by the id generator (from the id_blocks table).
+alter table task_runs drop primary key, add primary key (id, startDate);
+alter table task_runs partition by range (to_days(startDate)) (
+  partition p201001 values less than (to_days('2010-02-01')),
+  partition pmax values less than maxvalue
+);
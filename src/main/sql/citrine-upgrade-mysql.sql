@@ -0,0 +1,19 @@
+-- Upgrades the tables of an existing citrine database to those of this version.
+
+-- sysOut, sysErr and stackTrace are moved from task_runs into task_run_outputs
+create table task_run_outputs (taskRunId bigint not null, stackTrace text, sysErr text, sysOut text, primary key (taskRunId)) engine=InnoDB;
+insert into task_run_outputs (taskRunId, stackTrace, sysErr, sysOut) select id, stackTrace, sysErr, sysOut from task_runs where stackTrace is not null or sysErr is not null or sysOut is not null;
+alter table task_runs drop column stackTrace, drop column sysErr, drop column sysOut;
+
+-- index used to page through the task runs of a task
+create index i_task_runs_taskId_id on task_runs (taskId, id);
+
+-- index used to find the oldest task runs when deleting them in chunks
+create index i_task_runs_endDate on task_runs (endDate);
+
+-- task runs always have a start date, which is needed to partition by it (see citrine-partition-task-runs-mysql.sql)
+alter table task_runs modify startDate datetime not null;
+
+-- task run ids are allocated in blocks of 100 (see TaskRun.ID_BLOCK_SIZE), starting after the highest existing id
+create table id_blocks (name varchar(255) not null, nextHi integer not null, primary key (name)) engine=InnoDB;
+insert into id_blocks (name, nextHi) select 'task_runs', coalesce(max(id), 0) div 100 + 1 from task_runs;
@@ -4,13 +4,18 @@
     <title>Log File</title>
     <script src="javascript/generic.js" language="JavaScript"></script>
     <link rel="stylesheet" href="css/generic.css" type="text/css"/>
-    <meta http-equiv="refresh" content="30">
+    <c:if test="${running}">
+      <noscript><meta http-equiv="refresh" content="30"></noscript>
+    </c:if>
   </head>
-  <body>
+  <body<c:if test="${running}"> onload="followLog(${offset})"</c:if>>
     <h2>Log File</h2>
-    <pre>
-${contents}  
-    </pre>
+    <c:url value="logs.do" var="followUrl">
+      <c:param name="action" value="follow" />
+      <c:param name="logFile" value="${logFile}" />
+    </c:url>
+    <pre id="contents" data-follow-url="<c:out value='${followUrl}' />">
+${contents}</pre>
     <c:choose>
       <c:when test='${taskId != null}'> 
         <a href="task_runs.do?taskId=${taskId}&selectedGroupName=${selectedGroupName}">&lt; Back</a>
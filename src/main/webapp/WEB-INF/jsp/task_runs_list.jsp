@@ -25,25 +25,25 @@
           <td class="outlined">${taskRun.endDate}</td>
           <td class="outlined">${taskRun.status}</td>
           <td class="outlined">
-            <c:if test="${not empty taskRun.sysOut}"> <a
+            <c:if test="${taskRun.sysOutAvailable}"> <a
                 href="javascript:showPopup('display.do?action=displaySysOut&taskRunId=${taskRun.id}','sysout',800,600)">
               SysOut</a>
             </c:if>
           </td>
           <td class="outlined">
-            <c:if test="${not empty taskRun.sysErr}"> <a
+            <c:if test="${taskRun.sysErrAvailable}"> <a
                 href="javascript:showPopup('display.do?action=displaySysErr&taskRunId=${taskRun.id}','syserr',800,600)">
               SysErr</a>
             </c:if>
           </td>
           <td class="outlined">
-            <c:if test="${not empty taskRun.stackTrace}"> <a
+            <c:if test="${taskRun.stackTraceAvailable}"> <a
                 href="javascript:showPopup('display.do?action=displayStack&taskRunId=${taskRun.id}','stack',800,600)">
               StackTrace</a>
             </c:if>
           </td>
           <td class="outlined">
-            <c:if test="${'raw' eq taskRunLogs[taskRun.id]}"> <a href="logs/${taskRun.id}.log">Log</a>
+            <c:if test="${'raw' eq taskRunLogs[taskRun.id]}"> <a href="${taskRunLogUrls[taskRun.id]}">Log</a>
             </c:if>
             <c:if test="${'display' eq taskRunLogs[taskRun.id]}"> <a
                 href="logs.do?action=display&taskId=${taskId}&logFile=${taskRun.id}.log&selectedGroupName=${selectedGroupName}">Log</a>
@@ -52,10 +52,10 @@
           <td class="outlined">
              <c:choose>
               <c:when test='${"RUNNING" == taskRun.status}'> <a
-                  href="task_runs.do?action=stop&taskId=${taskRun.taskId}&taskRunId=${taskRun.id}&page=${page}&selectedGroupName=${selectedGroupName}">Stop</a></a>
+                  href="task_runs.do?action=stop&taskId=${taskRun.taskId}&taskRunId=${taskRun.id}&before=${param.before}&after=${param.after}&selectedGroupName=${selectedGroupName}">Stop</a></a>
               </c:when>
               <c:otherwise>
-                <a href="task_runs.do?action=delete&taskId=${taskRun.taskId}&taskRunId=${taskRun.id}&page=${page}&selectedGroupName=${selectedGroupName}">Delete</a> 
+                <a href="task_runs.do?action=delete&taskId=${taskRun.taskId}&taskRunId=${taskRun.id}&before=${param.before}&after=${param.after}&selectedGroupName=${selectedGroupName}">Delete</a> 
               </c:otherwise>
             </c:choose>
           </td>
@@ -63,14 +63,14 @@
       </c:forEach>
     </table>
     <c:choose>
-      <c:when test="${page!=0}"> 
-        <a href="task_runs.do?action=list&taskId=${taskId}&page=${page-1}&selectedGroupName=${selectedGroupName}">Previous</a>
+      <c:when test="${not empty previousAfter}"> 
+        <a href="task_runs.do?action=list&taskId=${taskId}&after=${previousAfter}&selectedGroupName=${selectedGroupName}">Previous</a>
       </c:when>
       <c:otherwise>Previous</c:otherwise>
     </c:choose> |
     <c:choose>
-      <c:when test="${true eq morepages}"> 
-        <a href="task_runs.do?action=list&taskId=${taskId}&page=${page+1}&selectedGroupName=${selectedGroupName}">Next</a>
+      <c:when test="${not empty nextBefore}"> 
+        <a href="task_runs.do?action=list&taskId=${taskId}&before=${nextBefore}&selectedGroupName=${selectedGroupName}">Next</a>
       </c:when>
       <c:otherwise>Next</c:otherwise>
     </c:choose>
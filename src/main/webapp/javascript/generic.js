@@ -5,4 +5,38 @@ function showPopup(PageToOpen, WindowName, Width, Height)
    window.open(PageToOpen,WindowName,'toolbar=0,location=0,directories=0,status=0,hotkeys=0,menubar=0,scrollbars=yes,resizable=yes,width='+
                Width+',height='+Height);
    //return true;
-}
\ No newline at end of file
+}
+//appends anything written to the log file displayed in the "contents" element since the passed byte offset, then
+//keeps asking the server for more
+function followLog(offset)
+{
+   var contents = document.getElementById("contents");
+   var request = new XMLHttpRequest();
+   request.open("GET", contents.getAttribute("data-follow-url") + "&offset=" + offset, true);
+   request.onreadystatechange = function()
+   {
+      if (request.readyState != 4) {
+         return;
+      }
+      var delay = 5000; //back off if something went wrong
+      if (request.status == 200) {
+         if (request.getResponseHeader("X-Log-Replaced") == "true") {
+            var note = document.createElement("p");
+            note.appendChild(document.createTextNode("The log file has been replaced, reload the page to see it."));
+            contents.parentNode.insertBefore(note, contents.nextSibling);
+            return;
+         }
+         offset = request.getResponseHeader("X-Log-Offset");
+         if (request.responseText.length > 0) {
+            contents.appendChild(document.createTextNode(request.responseText));
+         }
+         var more = request.getResponseHeader("X-Log-More") == "true";
+         if (!more && request.getResponseHeader("X-Log-Running") == "false") {
+            return; //run has finished and everything it wrote has been shown
+         }
+         delay = more ? 0 : 1000;
+      }
+      setTimeout(function() { followLog(offset); }, delay);
+   };
+   request.send(null);
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+/**
+ * Unit test case for MonthPartition.
+ */
+public class MonthPartitionTest {
+
+  @Test
+  public void testForDate() {
+    MonthPartition partition = MonthPartition.forDate(new DateTime(2010, 3, 17, 13, 45, 0, 0));
+    assertEquals("p201003", partition.getName());
+    assertEquals(new DateTime(2010, 3, 1, 0, 0, 0, 0), partition.getStart());
+    assertEquals(new DateTime(2010, 4, 1, 0, 0, 0, 0), partition.getEnd());
+  }
+
+  @Test
+  public void testForName() {
+    assertEquals(MonthPartition.forDate(new DateTime(2010, 12, 1, 0, 0, 0, 0)), MonthPartition.forName("p201012"));
+    assertNull(MonthPartition.forName(MonthPartition.MAX_PARTITION_NAME));
+    assertNull(MonthPartition.forName("p2010"));
+    assertNull(MonthPartition.forName(null));
+  }
+
+  @Test
+  public void testNext() {
+    MonthPartition partition = MonthPartition.forName("p201012");
+    assertEquals("p201101", partition.next().getName());
+    assertTrue(partition.compareTo(partition.next()) < 0);
+  }
+
+  @Test
+  public void testDefinition() {
+    assertEquals("partition p201012 values less than (to_days('2011-01-01'))", MonthPartition.forName("p201012")
+        .getDefinition());
+  }
+
+}
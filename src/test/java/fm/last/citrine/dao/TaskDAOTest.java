@@ -174,7 +174,7 @@ public class TaskDAOTest extends BaseSpringTestCase {
     createChildParentTasks();
 
     // check that 1 has no parents and has 2,3 as children
-    Task retrieved = taskDAO.get(task1.getId());
+    Task retrieved = taskDAO.getWithParentsAndChildren(task1.getId());
     assertEquals(0, retrieved.getParentTasks().size());
     assertEquals(2, retrieved.getChildTasks().size());
     for (Task child : retrieved.getChildTasks()) {
@@ -182,21 +182,21 @@ public class TaskDAOTest extends BaseSpringTestCase {
     }
 
     // assert that 1 is parent of 2 and 4 is it's child
-    retrieved = taskDAO.get(task2.getId());
+    retrieved = taskDAO.getWithParentsAndChildren(task2.getId());
     assertEquals(1, retrieved.getParentTasks().size());
     assertEquals(task1.getId(), retrieved.getParentTasks().iterator().next().getId());
     assertEquals(1, retrieved.getChildTasks().size());
     assertEquals(task4.getId(), retrieved.getChildTasks().iterator().next().getId());
 
     // assert that 1 is parent of 3 and 4 is it's child
-    retrieved = taskDAO.get(task3.getId());
+    retrieved = taskDAO.getWithParentsAndChildren(task3.getId());
     assertEquals(1, retrieved.getParentTasks().size());
     assertEquals(task1.getId(), retrieved.getParentTasks().iterator().next().getId());
     assertEquals(1, retrieved.getChildTasks().size());
     assertEquals(task4.getId(), retrieved.getChildTasks().iterator().next().getId());
 
     // assert that 4 has no children and that 2 and 3 are its parents
-    retrieved = taskDAO.get(task4.getId());
+    retrieved = taskDAO.getWithParentsAndChildren(task4.getId());
     assertEquals(2, retrieved.getParentTasks().size());
     for (Task parent : retrieved.getParentTasks()) {
       assertTrue(task2.getId() == parent.getId() || task3.getId() == parent.getId());
@@ -213,21 +213,21 @@ public class TaskDAOTest extends BaseSpringTestCase {
     createChildParentTasks();
 
     taskDAO.delete(task3);
-    Task retrieved = taskDAO.get(task1.getId());
+    Task retrieved = taskDAO.getWithParentsAndChildren(task1.getId());
     assertEquals(1, retrieved.getChildTasks().size());
     assertEquals(task2.getId(), retrieved.getChildTasks().iterator().next().getId());
-    retrieved = taskDAO.get(task4.getId());
+    retrieved = taskDAO.getWithParentsAndChildren(task4.getId());
     assertEquals(1, retrieved.getParentTasks().size());
     assertEquals(task2.getId(), retrieved.getParentTasks().iterator().next().getId());
 
     taskDAO.delete(task1);
-    retrieved = taskDAO.get(task2.getId());
+    retrieved = taskDAO.getWithParentsAndChildren(task2.getId());
     assertEquals(0, retrieved.getParentTasks().size());
     assertEquals(1, retrieved.getChildTasks().size());
     assertEquals(task4.getId(), retrieved.getChildTasks().iterator().next().getId());
 
     taskDAO.delete(task4);
-    retrieved = taskDAO.get(task2.getId());
+    retrieved = taskDAO.getWithParentsAndChildren(task2.getId());
     assertEquals(0, retrieved.getParentTasks().size());
     assertEquals(0, retrieved.getChildTasks().size());
 
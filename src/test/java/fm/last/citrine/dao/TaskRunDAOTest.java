@@ -17,11 +17,16 @@ package fm.last.citrine.dao;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Resource;
 
@@ -34,6 +39,8 @@ import org.springframework.test.context.transaction.TransactionConfiguration;
 import fm.last.citrine.model.Status;
 import fm.last.citrine.model.TableConstants;
 import fm.last.citrine.model.TaskRun;
+import fm.last.citrine.model.TaskRunOutput;
+import fm.last.citrine.model.TaskRunSummary;
 import fm.last.test.BaseSpringTestCase;
 
 /**
@@ -49,7 +56,7 @@ public class TaskRunDAOTest extends BaseSpringTestCase {
 
   @Before
   public void cleanup() {
-    deleteFromTables(TableConstants.TABLE_TASK_RUNS);
+    deleteFromTables(TableConstants.TABLE_TASK_RUN_OUTPUTS, TableConstants.TABLE_TASK_RUNS);
   }
 
   @Test
@@ -65,8 +72,45 @@ public class TaskRunDAOTest extends BaseSpringTestCase {
     taskRun.setSysErr("err2");
     taskRunDAO.save(taskRun);
 
+    assertNull(retrieved.getSysErr()); // output is only loaded on request
+    TaskRunOutput output = taskRunDAO.getOutput(taskRun.getId());
+    assertEquals("out", output.getSysOut());
+    assertEquals("err2", output.getSysErr());
+    assertEquals("stack", output.getStackTrace());
+  }
+
+  @Test
+  public void testAllocateIdAndSaveAll() {
+    TaskRun saved = new TaskRun(Status.SUCCESS, new Date(), new Date(), null, null, null, 1);
+    taskRunDAO.save(saved);
+    TaskRun taskRun = new TaskRun(Status.RUNNING, new Date(), null, null, null, null, 1);
+    taskRun.setId(taskRunDAO.allocateId());
+    assertTrue(taskRun.getId() > saved.getId());
+    assertNull(taskRunDAO.get(taskRun.getId())); // not written until saved
+
+    taskRunDAO.saveAll(Arrays.asList(taskRun));
+    TaskRun retrieved = taskRunDAO.get(taskRun.getId());
+    assertEquals(Status.RUNNING, retrieved.getStatus());
+    assertEquals(0, retrieved.getVersion());
+    assertNull(taskRunDAO.getOutput(taskRun.getId()));
+
+    taskRun.setStatus(Status.FAILED);
+    taskRun.setEndDate(new Date());
+    taskRun.setStackTrace("stack");
+    saved.setStatus(Status.CANCELLED);
+    taskRunDAO.saveAll(Arrays.asList(taskRun, saved));
     retrieved = taskRunDAO.get(taskRun.getId());
-    assertEquals("err2", retrieved.getSysErr());
+    assertEquals(Status.FAILED, retrieved.getStatus());
+    assertNotNull(retrieved.getEndDate());
+    assertEquals("stack", taskRunDAO.getOutput(taskRun.getId()).getStackTrace());
+    assertEquals(Status.CANCELLED, taskRunDAO.get(saved.getId()).getStatus());
+
+    // updates increment the version like save() does, so a TaskRun loaded afterwards can be saved by it
+    assertEquals(1, retrieved.getVersion());
+    retrieved.setStatus(Status.SUCCESS);
+    taskRunDAO.save(retrieved);
+    assertEquals(Status.SUCCESS, taskRunDAO.get(taskRun.getId()).getStatus());
+    assertEquals(2, taskRunDAO.get(taskRun.getId()).getVersion());
   }
 
   @Test
@@ -95,6 +139,41 @@ public class TaskRunDAOTest extends BaseSpringTestCase {
     taskRunDAO.setMaxTaskRunResults(currentMaxResults); // reset back to original value
   }
 
+  @Test
+  public void testFindSummaries() {
+    TaskRun taskRun1 = new TaskRun(Status.SUCCESS, new Date(), new Date(), "out", null, null, 1);
+    TaskRun taskRun2 = new TaskRun(Status.FAILED, new Date(), new Date(), "", "err", "stack", 1);
+    TaskRun taskRun3 = new TaskRun(Status.RUNNING, new Date(), null, null, null, null, 1);
+    TaskRun otherTaskRun = new TaskRun(Status.SUCCESS, new Date(), new Date(), "out", "err", "stack", 2);
+    taskRunDAO.save(taskRun1);
+    taskRunDAO.save(taskRun2);
+    taskRunDAO.save(otherTaskRun);
+    taskRunDAO.save(taskRun3);
+
+    List<TaskRunSummary> summaries = taskRunDAO.findSummariesBefore(1, Long.MAX_VALUE, 10);
+    assertEquals(3, summaries.size());
+    assertEquals(taskRun3.getId(), summaries.get(0).getId());
+    assertEquals(Status.RUNNING, summaries.get(0).getStatus());
+    assertNull(summaries.get(0).getEndDate());
+    assertFalse(summaries.get(0).isSysOutAvailable());
+    assertEquals(taskRun2.getId(), summaries.get(1).getId());
+    assertFalse(summaries.get(1).isSysOutAvailable());
+    assertTrue(summaries.get(1).isSysErrAvailable());
+    assertTrue(summaries.get(1).isStackTraceAvailable());
+    assertEquals(taskRun1.getId(), summaries.get(2).getId());
+    assertTrue(summaries.get(2).isSysOutAvailable());
+    assertFalse(summaries.get(2).isSysErrAvailable());
+
+    summaries = taskRunDAO.findSummariesBefore(1, taskRun3.getId(), 1);
+    assertEquals(1, summaries.size());
+    assertEquals(taskRun2.getId(), summaries.get(0).getId());
+
+    summaries = taskRunDAO.findSummariesAfter(1, taskRun1.getId(), 2);
+    assertEquals(2, summaries.size());
+    assertEquals(taskRun3.getId(), summaries.get(0).getId());
+    assertEquals(taskRun2.getId(), summaries.get(1).getId());
+  }
+
   @Test
   public void testDelete() {
     TaskRun taskRun = new TaskRun(Status.SUCCESS, new Date(), new Date(), "out", "err", "stack", 1);
@@ -102,6 +181,7 @@ public class TaskRunDAOTest extends BaseSpringTestCase {
     assertEquals(1, taskRunDAO.findByTaskId(1).size());
     taskRunDAO.delete(taskRun.getId());
     assertEquals(0, taskRunDAO.findByTaskId(1).size());
+    assertNull(taskRunDAO.getOutput(taskRun.getId()));
   }
 
   @Test
@@ -117,32 +197,6 @@ public class TaskRunDAOTest extends BaseSpringTestCase {
     assertEquals(1, taskRunDAO.findByTaskId(2).size());
   }
 
-  @Test
-  public void testIsRunning() {
-    // for task id 1, put all finished status
-    TaskRun taskRun1 = new TaskRun(Status.SUCCESS, new Date(), new Date(), "out", "err", "stack", 1);
-    TaskRun taskRun2 = new TaskRun(Status.CANCELLED, new Date(), new Date(), "out", "err", "stack", 1);
-    TaskRun taskRun3 = new TaskRun(Status.FAILED, new Date(), new Date(), "out", "err", "stack", 1);
-
-    // for task id 2, put 1 run with status running
-    TaskRun taskRun4 = new TaskRun(Status.SUCCESS, new Date(), new Date(), "out", "err", "stack", 2);
-    TaskRun taskRun5 = new TaskRun(Status.RUNNING, new Date(), new Date(), "out", "err", "stack", 2);
-
-    // for task id 2, put 1 run with status initialising
-    TaskRun taskRun6 = new TaskRun(Status.INITIALISING, new Date(), new Date(), "out", "err", "stack", 3);
-
-    taskRunDAO.save(taskRun1);
-    taskRunDAO.save(taskRun2);
-    taskRunDAO.save(taskRun3);
-    taskRunDAO.save(taskRun4);
-    taskRunDAO.save(taskRun5);
-    taskRunDAO.save(taskRun6);
-
-    assertFalse(taskRunDAO.isRunning(1));
-    assertTrue(taskRunDAO.isRunning(2));
-    assertTrue(taskRunDAO.isRunning(3));
-  }
-
   @Test
   public void testInterruptRunningTasks() {
     TaskRun taskRun1 = new TaskRun(Status.SUCCESS, new Date(), new Date(), "out", "err", "stack", 1);
@@ -199,6 +253,40 @@ public class TaskRunDAOTest extends BaseSpringTestCase {
     assertEquals(taskRun1, retrieved);
   }
 
+  /**
+   * Tests getting the most recent TaskRuns for several Tasks at once.
+   */
+  @Test
+  public void testGetMostRecentTaskRuns() {
+    Calendar calendar = Calendar.getInstance();
+    Date now = new Date();
+    TaskRun taskRun1 = new TaskRun(Status.RUNNING, now, null, null, null, null, 1);
+    calendar.set(2005, 11, 27);
+    TaskRun taskRun2 = new TaskRun(Status.SUCCESS, calendar.getTime(), calendar.getTime(), "out", "err", "stack", 1);
+    TaskRun taskRun3 = new TaskRun(Status.FAILED, calendar.getTime(), calendar.getTime(), "out", "err", "stack", 2);
+    calendar.set(2006, 11, 27);
+    TaskRun taskRun4 = new TaskRun(Status.SUCCESS, calendar.getTime(), calendar.getTime(), "out", "err", "stack", 2);
+    TaskRun taskRun5 = new TaskRun(Status.SUCCESS, now, now, "out", "err", "stack", 3);
+    taskRunDAO.save(taskRun2);
+    taskRunDAO.save(taskRun1);
+    taskRunDAO.save(taskRun3);
+    taskRunDAO.save(taskRun4);
+    taskRunDAO.save(taskRun5);
+
+    Map<Long, TaskRun> mostRecent = taskRunDAO.getMostRecentTaskRuns(Arrays.asList(1L, 2L, 4L));
+    assertEquals(2, mostRecent.size());
+    assertEquals(taskRun1, mostRecent.get(1L));
+    assertEquals(taskRun4, mostRecent.get(2L));
+    assertNull(mostRecent.get(3L)); // not requested
+    assertNull(mostRecent.get(4L)); // never run
+  }
+
+  @Test
+  public void testGetMostRecentTaskRuns_None() {
+    assertEquals(0, taskRunDAO.getMostRecentTaskRuns(Collections.<Long> emptyList()).size());
+    assertEquals(0, taskRunDAO.getMostRecentTaskRuns(Arrays.asList(1L)).size());
+  }
+
   @Test
   public void testFindByTaskId_FirstAndMax() {
     TaskRun taskRun1 = new TaskRun(Status.SUCCESS, new Date(), new Date(), "out", "err", "stack", 1);
@@ -272,4 +360,41 @@ public class TaskRunDAOTest extends BaseSpringTestCase {
     assertEquals(0, retrieved.size());
   }
 
+  @Test
+  public void testDeleteBeforeChunked() {
+    DateTime now = new DateTime();
+    TaskRun taskRun1 = new TaskRun(Status.SUCCESS, now.toDate(), now.minusDays(3).toDate(), "out", "err", "stack", 1);
+    TaskRun taskRun2 = new TaskRun(Status.SUCCESS, now.toDate(), now.minusDays(2).toDate(), "out", "err", "stack", 1);
+    TaskRun taskRun3 = new TaskRun(Status.SUCCESS, now.toDate(), now.minusDays(1).toDate(), "out", "err", "stack", 1);
+    TaskRun running = new TaskRun(Status.RUNNING, now.toDate(), null, null, null, null, 1);
+    taskRunDAO.save(taskRun3);
+    taskRunDAO.save(taskRun1);
+    taskRunDAO.save(taskRun2);
+    taskRunDAO.save(running);
+
+    // oldest end dates are deleted first
+    assertEquals(Arrays.asList(taskRun1.getId(), taskRun2.getId()), taskRunDAO.deleteBefore(now, 2));
+    assertNull(taskRunDAO.get(taskRun1.getId()));
+    assertNull(taskRunDAO.getOutput(taskRun1.getId()));
+    assertEquals(Arrays.asList(taskRun3.getId()), taskRunDAO.deleteBefore(now, 2));
+    assertEquals(0, taskRunDAO.deleteBefore(now, 2).size());
+    assertEquals(1, taskRunDAO.findByTaskId(1).size());
+  }
+
+  /**
+   * Tests the partition methods do nothing when the task runs table isn't partitioned.
+   */
+  @Test
+  public void testNotPartitioned() {
+    DateTime now = new DateTime();
+    TaskRun taskRun = new TaskRun(Status.SUCCESS, now.minusMonths(3).toDate(), now.minusMonths(3).toDate(), "out",
+        "err", "stack", 1);
+    taskRunDAO.save(taskRun);
+    assertEquals(0, taskRunDAO.getPartitions().size());
+    assertEquals(0, taskRunDAO.dropPartitionsBefore(now));
+    assertEquals(0, taskRunDAO.addPartitionsUntil(now.plusMonths(2)));
+    assertEquals(0, taskRunDAO.deleteOrphanedOutputs(10));
+    assertEquals(taskRun, taskRunDAO.get(taskRun.getId()));
+  }
+
 }
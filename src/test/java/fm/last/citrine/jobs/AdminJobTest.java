@@ -16,6 +16,7 @@
 package fm.last.citrine.jobs;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Date;
 
@@ -102,4 +103,25 @@ public class AdminJobTest extends BaseSpringTestCase {
     assertEquals(0, taskRunManager.findByTaskId(taskId));
   }
 
+  @Test
+  public void testDeleteTaskRunsBeforeChunked() throws JobExecutionException {
+    DateTime runTime = new DateTime().minusDays(5);
+    int taskId = 1;
+    for (int i = 0; i < 5; i++) {
+      taskRunManager.save(new TaskRun(runTime.toDate(), runTime.toDate(), "", "", "", taskId));
+    }
+    adminJob.setPurgeChunkSize(2);
+    adminJob.setPurgePauseMillis(0);
+    try {
+      jobDetail.getJobDataMap().put(SchedulerConstants.TASK_COMMAND, AdminJob.COMMAND_CLEAR_TASK_RUNS + " 1");
+      adminJob.execute(context);
+    } finally {
+      adminJob.setPurgeChunkSize(AdminJob.DEFAULT_PURGE_CHUNK_SIZE);
+      adminJob.setPurgePauseMillis(AdminJob.DEFAULT_PURGE_PAUSE_MILLIS);
+    }
+    assertEquals(0, taskRunManager.findByTaskId(taskId).size());
+    assertTrue(jobDetail.getJobDataMap().getString(SchedulerConstants.SYS_OUT).startsWith("Deleted 5 task runs"));
+    assertTrue(jobDetail.getJobDataMap().getString(SchedulerConstants.SYS_OUT).endsWith("in 3 chunks"));
+  }
+
 }
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.jobs.syscommand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import fm.last.citrine.jobs.SystemExecJob;
+import fm.last.citrine.service.LogFileLayout;
+import fm.last.commons.test.file.TemporaryFolder;
+import fm.last.syscommand.SysCommandExecutor;
+
+/**
+ * Unit test case for the DirectFileExecutorObserver.
+ */
+public class DirectFileExecutorObserverTest {
+
+  private static final String TIMESTAMP_PATTERN = "\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2},\\d{3} ";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private DirectFileExecutorObserver observer = new DirectFileExecutorObserver();
+
+  @Before
+  public void setUp() {
+    observer.setBaseLogPath(tempFolder.getRoot().getAbsolutePath());
+    observer.setJobRunId(5);
+  }
+
+  @After
+  public void tearDown() {
+    observer.close();
+  }
+
+  private File getLogFile() {
+    return new File(tempFolder.getRoot(), "5.log");
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<String> readLines() throws IOException {
+    return FileUtils.readLines(getLogFile());
+  }
+
+  @Test
+  public void testTimestamps() throws IOException {
+    byte[] output = "first\nsec".getBytes();
+    observer.sysOut(output, 0, output.length);
+    output = "ond\nthird\n".getBytes();
+    observer.sysOut(output, 0, output.length);
+    observer.close();
+    List<String> lines = readLines();
+    assertEquals(3, lines.size());
+    assertTrue(lines.get(0), lines.get(0).matches(TIMESTAMP_PATTERN + "first"));
+    assertTrue(lines.get(1), lines.get(1).matches(TIMESTAMP_PATTERN + "second"));
+    assertTrue(lines.get(2), lines.get(2).matches(TIMESTAMP_PATTERN + "third"));
+  }
+
+  @Test
+  public void testNoTimestamps() throws IOException {
+    observer.setTimestamps(false);
+    byte[] output = "first\nsecond".getBytes();
+    observer.sysOut(output, 0, output.length);
+    observer.sysErr("third");
+    observer.close();
+    assertEquals("first\nthird\nsecond\n", FileUtils.readFileToString(getLogFile()));
+  }
+
+  @Test
+  public void testStreamsNotMixed() throws IOException {
+    byte[] output = "out 1\nout".getBytes();
+    observer.sysOut(output, 0, output.length);
+    output = "err 1\n".getBytes();
+    observer.sysErr(output, 0, output.length);
+    output = " 2\n".getBytes();
+    observer.sysOut(output, 0, output.length);
+    output = "err 2".getBytes(); // never finished
+    observer.sysErr(output, 0, output.length);
+    observer.close();
+    List<String> lines = readLines();
+    assertEquals(4, lines.size());
+    assertTrue(lines.get(0), lines.get(0).matches(TIMESTAMP_PATTERN + "out 1"));
+    assertTrue(lines.get(1), lines.get(1).matches(TIMESTAMP_PATTERN + "err 1"));
+    assertTrue(lines.get(2), lines.get(2).matches(TIMESTAMP_PATTERN + "out 2"));
+    assertTrue(lines.get(3), lines.get(3).matches(TIMESTAMP_PATTERN + "err 2"));
+  }
+
+  @Test
+  public void testLongLineNotHeldBack() throws IOException {
+    observer.setTimestamps(false);
+    observer.setBufferSize(4);
+    observer.setFlushInterval(0);
+    byte[] output = "abcdef".getBytes();
+    observer.sysOut(output, 0, output.length);
+    assertEquals("abcdef\n", FileUtils.readFileToString(getLogFile())); // written before the line is finished
+  }
+
+  @Test
+  public void testOutput() throws IOException {
+    assertNull(observer.getSysOut());
+    assertNull(observer.getSysErr());
+    observer.setTailBytes(100);
+    observer.sysOut("hello");
+    assertEquals(getLogFile().getAbsolutePath() + ":\nhello\n", observer.getSysOut());
+    assertNull(observer.getSysErr());
+  }
+
+  @Test
+  public void testOutputSeparated() throws IOException {
+    observer.setTailBytes(8);
+    byte[] output = "out 1\nout 2\n".getBytes();
+    observer.sysOut(output, 0, output.length);
+    output = "err 1\n".getBytes();
+    observer.sysErr(output, 0, output.length);
+    assertEquals(getLogFile().getAbsolutePath() + ":\n1\nout 2\n", observer.getSysOut());
+    assertEquals(getLogFile().getAbsolutePath() + ":\nerr 1\n", observer.getSysErr());
+  }
+
+  @Test
+  public void testNoTail() throws IOException {
+    observer.sysErr("hello");
+    assertEquals(getLogFile().getAbsolutePath(), observer.getSysErr());
+  }
+
+  @Test
+  public void testFlushInterval() throws Exception {
+    observer.setFlushInterval(50);
+    observer.sysOut("hello");
+    for (int i = 0; i < 100 && getLogFile().length() == 0; i++) {
+      Thread.sleep(10);
+    }
+    assertTrue(FileUtils.readFileToString(getLogFile()).endsWith("hello\n"));
+  }
+
+  @Test
+  public void testFlusherStoppedWhenClosed() {
+    DirectFileExecutorObserver other = new DirectFileExecutorObserver();
+    other.setBaseLogPath(tempFolder.getRoot().getAbsolutePath());
+    other.setJobRunId(6);
+    observer.sysOut("hello");
+    other.sysOut("hello");
+    assertTrue(DirectFileExecutorObserver.isFlusherRunning());
+    observer.close();
+    assertTrue(DirectFileExecutorObserver.isFlusherRunning()); // still used by the other observer
+    other.close();
+    assertFalse(DirectFileExecutorObserver.isFlusherRunning());
+  }
+
+  @Test
+  public void testUtf8() throws IOException {
+    observer.setTimestamps(false);
+    observer.setTailBytes(100);
+    observer.sysOut("caf\u00e9 \u2603");
+    observer.close();
+    assertEquals("caf\u00e9 \u2603\n", FileUtils.readFileToString(getLogFile(), "UTF-8"));
+    assertEquals(getLogFile().getAbsolutePath() + ":\ncaf\u00e9 \u2603\n", observer.getSysOut());
+  }
+
+  @Test
+  public void testSystemExecJob() throws Exception {
+    SystemExecJob execJob = new SystemExecJob();
+    execJob.setExecutor(new SysCommandExecutor());
+    execJob.setObserver(observer);
+    execJob.execute("echo hello");
+    // job not run via Quartz so has no TaskRun id
+    File logFile = new File(tempFolder.getRoot(), "-1.log");
+    assertEquals(logFile.getAbsolutePath(), execJob.getCommandOutput());
+    assertTrue(FileUtils.readFileToString(logFile).matches(TIMESTAMP_PATTERN + "hello\n"));
+    assertNull(execJob.getCommandError());
+  }
+
+  @Test
+  public void testShardedLogFile() throws IOException {
+    LogFileLayout logFileLayout = new LogFileLayout();
+    logFileLayout.setShardSize(2);
+    observer.setLogFileLayout(logFileLayout);
+    observer.setTimestamps(false);
+    observer.sysOut("sharded");
+    observer.close();
+    assertEquals("sharded\n", FileUtils.readFileToString(new File(tempFolder.getRoot(), "2/5.log")));
+    assertFalse(getLogFile().exists());
+  }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.notification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fm.last.citrine.model.Notification;
+import fm.last.citrine.model.Status;
+import fm.last.citrine.model.TaskRun;
+
+/**
+ * Unit test case for the AsyncNotifier.
+ */
+public class AsyncNotifierTest {
+
+  /**
+   * Maximum time to wait for notifications to be sent.
+   */
+  private static final long WAIT_MILLIS = 10000;
+
+  private final AsyncNotifier asyncNotifier = new AsyncNotifier();
+
+  private final TestNotifier notifier = new TestNotifier();
+
+  private final Notification notification = new Notification();
+
+  /**
+   * Notifier which records the notifications sent and the threads they were sent from.
+   */
+  private static class TestNotifier implements Notifier {
+
+    private final List<TaskRun> sent = Collections.synchronizedList(new ArrayList<TaskRun>());
+    private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+    private volatile int failures = 0;
+    private volatile CountDownLatch blocked = new CountDownLatch(0);
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    @Override
+    public void sendNotification(Notification notification, TaskRun taskRun, String taskName) {
+      if (Thread.currentThread().getName().startsWith("AsyncNotifier")) { // only block the notifier's threads
+        started.countDown();
+        try {
+          blocked.await(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (failures > 0) {
+        failures--;
+        throw new IllegalStateException("mail server unavailable");
+      }
+      sent.add(taskRun);
+      threads.add(Thread.currentThread());
+    }
+  }
+
+  @Before
+  public void setUp() {
+    asyncNotifier.setNotifier(notifier);
+    asyncNotifier.setRetryDelay(10);
+  }
+
+  @After
+  public void tearDown() {
+    notifier.blocked.countDown();
+    asyncNotifier.shutdown();
+  }
+
+  private TaskRun createTaskRun(long id) {
+    TaskRun taskRun = new TaskRun(Status.FAILED, new Date(), new Date(), null, null, "stack", 1);
+    taskRun.setId(id);
+    return taskRun;
+  }
+
+  private void waitForSent(int count) throws InterruptedException {
+    long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+    while (notifier.sent.size() < count && System.currentTimeMillis() < waitUntil) {
+      Thread.sleep(10);
+    }
+  }
+
+  @Test
+  public void testSentInBackground() throws InterruptedException {
+    TaskRun taskRun = createTaskRun(1);
+    asyncNotifier.sendNotification(notification, taskRun, "task");
+    taskRun.setStatus(Status.CANCELLED); // changes after sending aren't seen by the notifier
+    waitForSent(1);
+    assertEquals(1, notifier.sent.size());
+    assertNotSame(taskRun, notifier.sent.get(0));
+    assertEquals(1, notifier.sent.get(0).getId());
+    assertEquals(Status.FAILED, notifier.sent.get(0).getStatus());
+    assertNotSame(Thread.currentThread(), notifier.threads.get(0));
+  }
+
+  @Test
+  public void testRetry() throws InterruptedException {
+    notifier.failures = 2;
+    asyncNotifier.sendNotification(notification, createTaskRun(1), "task");
+    waitForSent(1);
+    assertEquals(1, notifier.sent.size());
+    assertEquals(0, notifier.failures);
+  }
+
+  @Test
+  public void testGiveUp() throws InterruptedException {
+    notifier.failures = 3;
+    asyncNotifier.setMaxAttempts(3);
+    asyncNotifier.sendNotification(notification, createTaskRun(1), "task");
+    long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+    while (notifier.failures > 0 && System.currentTimeMillis() < waitUntil) {
+      Thread.sleep(10);
+    }
+    asyncNotifier.sendNotification(notification, createTaskRun(2), "task");
+    waitForSent(1);
+    assertEquals(1, notifier.sent.size());
+    assertEquals(2, notifier.sent.get(0).getId());
+  }
+
+  @Test
+  public void testOverflowDrop() throws InterruptedException {
+    notifier.blocked = new CountDownLatch(1);
+    asyncNotifier.setQueueSize(1);
+    asyncNotifier.sendNotification(notification, createTaskRun(1), "task");
+    assertTrue(notifier.started.await(WAIT_MILLIS, TimeUnit.MILLISECONDS)); // thread now busy with the first
+    asyncNotifier.sendNotification(notification, createTaskRun(2), "task"); // queued
+    asyncNotifier.sendNotification(notification, createTaskRun(3), "task"); // dropped
+    assertEquals(1, asyncNotifier.getQueuedCount());
+    notifier.blocked.countDown();
+    waitForSent(2);
+    asyncNotifier.shutdown();
+    assertEquals(2, notifier.sent.size());
+    assertEquals(1, notifier.sent.get(0).getId());
+    assertEquals(2, notifier.sent.get(1).getId());
+  }
+
+  @Test
+  public void testOverflowCallerRuns() throws InterruptedException {
+    notifier.blocked = new CountDownLatch(1);
+    asyncNotifier.setQueueSize(1);
+    asyncNotifier.setOverflowPolicy(AsyncNotifier.OverflowPolicy.CALLER_RUNS);
+    asyncNotifier.sendNotification(notification, createTaskRun(1), "task");
+    assertTrue(notifier.started.await(WAIT_MILLIS, TimeUnit.MILLISECONDS));
+    asyncNotifier.sendNotification(notification, createTaskRun(2), "task"); // queued
+    asyncNotifier.sendNotification(notification, createTaskRun(3), "task"); // sent by this thread
+    assertEquals(1, notifier.sent.size());
+    assertEquals(3, notifier.sent.get(0).getId());
+    assertSame(Thread.currentThread(), notifier.threads.get(0));
+    notifier.blocked.countDown();
+    waitForSent(3);
+    assertEquals(3, notifier.sent.size());
+  }
+
+  @Test
+  public void testShutdownSendsQueued() {
+    asyncNotifier.sendNotification(notification, createTaskRun(1), "task");
+    asyncNotifier.shutdown();
+    assertEquals(1, notifier.sent.size());
+    asyncNotifier.sendNotification(notification, createTaskRun(2), "task"); // dropped
+    assertEquals(1, notifier.sent.size());
+  }
+
+  @Test
+  public void testShutdownNotStarted() {
+    asyncNotifier.shutdown();
+    asyncNotifier.sendNotification(notification, createTaskRun(1), "task");
+    assertEquals(0, notifier.sent.size());
+    assertSame(notifier, asyncNotifier.getNotifier());
+  }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.quartz.Job;
+import org.quartz.Scheduler;
+import org.springframework.beans.factory.BeanFactory;
+
+import fm.last.citrine.jobs.BeanJob;
+import fm.last.citrine.model.Task;
+
+/**
+ * Unit test case for the ExecutionPlan and how the SchedulerManager caches them.
+ */
+public class ExecutionPlanTest {
+
+  private BeanFactory beanFactory = mock(BeanFactory.class);
+
+  private Job singletonJob = mock(Job.class);
+
+  private Task task;
+
+  @Before
+  public void setUp() {
+    task = new Task("name", "group", "sysExecJob", true, true, "ls -l /tmp", "");
+    task.setId(1);
+    task.setVersion(3);
+    task.setErrorIfRunning(false);
+    task.getNotification().setRecipients("someone@example.com");
+    when(beanFactory.isSingleton("sysExecJob")).thenReturn(false);
+    when(beanFactory.getBean("sysExecJob")).thenReturn(mock(Job.class), mock(Job.class));
+    when(beanFactory.isSingleton("adminJob")).thenReturn(true);
+    when(beanFactory.getBean("adminJob")).thenReturn(singletonJob);
+  }
+
+  @Test
+  public void testPlan() {
+    ExecutionPlan plan = new ExecutionPlan(task, beanFactory);
+    assertEquals(1, plan.getTaskId());
+    assertEquals(3, plan.getTaskVersion());
+    assertEquals("name", plan.getTaskName());
+    assertEquals("sysExecJob", plan.getBeanName());
+    assertEquals(Arrays.asList("ls", "-l", "/tmp"), plan.getCommandLine());
+    assertTrue(plan.isStopOnError());
+    assertFalse(plan.isErrorIfRunning());
+    assertEquals("someone@example.com", plan.getNotification().getRecipients());
+
+    task.getNotification().setRecipients("someone.else@example.com"); // the plan doesn't change with the task
+    assertEquals("someone@example.com", plan.getNotification().getRecipients());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testCommandLineUnmodifiable() {
+    new ExecutionPlan(task, beanFactory).getCommandLine().add("rm");
+  }
+
+  @Test
+  public void testNoCommand() {
+    task.setCommand(null);
+    assertNull(new ExecutionPlan(task, beanFactory).getCommandLine());
+  }
+
+  @Test
+  public void testPrototypeJobCreatedEachRun() {
+    ExecutionPlan plan = new ExecutionPlan(task, beanFactory);
+    assertNotSame(plan.createJob(), plan.createJob());
+  }
+
+  @Test
+  public void testSingletonJobLookedUpOnce() {
+    task.setBeanName("adminJob");
+    ExecutionPlan plan = new ExecutionPlan(task, beanFactory);
+    assertSame(singletonJob, plan.createJob());
+    assertSame(singletonJob, plan.createJob());
+    verify(beanFactory, times(1)).getBean("adminJob");
+  }
+
+  @Test
+  public void testSchedulerManagerCachesPlan() {
+    SchedulerManager schedulerManager = new SchedulerManager(mock(Scheduler.class), BeanJob.class.getName());
+    schedulerManager.setBeanFactory(beanFactory);
+    ExecutionPlan plan = schedulerManager.getExecutionPlan(task);
+    assertSame(plan, schedulerManager.getExecutionPlan(task));
+
+    Task older = new Task("older", "group", "sysExecJob", true, true, "", "");
+    older.setId(1);
+    older.setVersion(2);
+    assertSame(plan, schedulerManager.getExecutionPlan(older)); // e.g. from a stale snapshot of the task
+
+    task.setVersion(4);
+    task.setName("newer");
+    ExecutionPlan newerPlan = schedulerManager.getExecutionPlan(task);
+    assertEquals("newer", newerPlan.getTaskName());
+    assertSame(newerPlan, schedulerManager.getExecutionPlan(task));
+
+    schedulerManager.unscheduleTask(task);
+    assertNotSame(newerPlan, schedulerManager.getExecutionPlan(task));
+  }
+
+}
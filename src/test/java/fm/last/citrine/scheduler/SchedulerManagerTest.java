@@ -37,6 +37,7 @@ import org.springframework.test.annotation.DirtiesContext;
 import fm.last.citrine.model.Status;
 import fm.last.citrine.model.Task;
 import fm.last.citrine.model.TaskRun;
+import fm.last.citrine.model.TaskRunOutput;
 import fm.last.citrine.service.TaskManager;
 import fm.last.citrine.service.TaskRunManager;
 import fm.last.test.BaseSpringTestCase;
@@ -132,9 +133,9 @@ public class SchedulerManagerTest extends BaseSpringTestCase {
     assertEquals(Status.FAILED, taskRun.getStatus());
 
     // only stack trace should be filled in
-    assertNotNull(taskRun.getStackTrace());
-    assertNull(taskRun.getSysOut());
-    assertNull(taskRun.getSysErr());
+    assertNotNull(getOutput(taskRun).getStackTrace());
+    assertNull(getOutput(taskRun).getSysOut());
+    assertNull(getOutput(taskRun).getSysErr());
   }
 
   /**
@@ -154,9 +155,9 @@ public class SchedulerManagerTest extends BaseSpringTestCase {
     assertEquals(Status.FAILED, taskRun.getStatus());
 
     // stack trace and sys err should be filled in
-    assertNotNull(taskRun.getStackTrace());
-    assertTrue(StringUtils.isEmpty(taskRun.getSysOut()));
-    assertFalse("Expected a string but got '" + taskRun.getSysErr() + "'", StringUtils.isEmpty(taskRun.getSysErr()));
+    assertNotNull(getOutput(taskRun).getStackTrace());
+    assertTrue(StringUtils.isEmpty(getOutput(taskRun).getSysOut()));
+    assertFalse("Expected a string but got '" + getOutput(taskRun).getSysErr() + "'", StringUtils.isEmpty(getOutput(taskRun).getSysErr()));
   }
 
   @Test(timeout = DEFAULT_TEST_TIMEOUT)
@@ -174,9 +175,9 @@ public class SchedulerManagerTest extends BaseSpringTestCase {
     assertEquals(Status.SUCCESS, taskRun.getStatus());
 
     // we slept so there should be no output at all
-    assertNull(taskRun.getStackTrace());
-    assertTrue(StringUtils.isEmpty(taskRun.getSysOut()));
-    assertTrue(StringUtils.isEmpty(taskRun.getSysErr()));
+    assertNull(getOutput(taskRun).getStackTrace());
+    assertTrue(StringUtils.isEmpty(getOutput(taskRun).getSysOut()));
+    assertTrue(StringUtils.isEmpty(getOutput(taskRun).getSysErr()));
   }
 
   @Test(timeout = DEFAULT_TEST_TIMEOUT)
@@ -234,9 +235,9 @@ public class SchedulerManagerTest extends BaseSpringTestCase {
     assertEquals(1, taskRuns.size());
     TaskRun taskRun = taskRuns.get(0); // most recent job run should be first in list, i.e. the one that aborted
     assertEquals(Status.SUCCESS, taskRun.getStatus());
-    assertTrue(StringUtils.isEmpty(taskRun.getStackTrace()));
-    assertTrue(StringUtils.isEmpty(taskRun.getSysOut()));
-    assertTrue(StringUtils.isEmpty(taskRun.getSysErr()));
+    assertTrue(StringUtils.isEmpty(getOutput(taskRun).getStackTrace()));
+    assertTrue(StringUtils.isEmpty(getOutput(taskRun).getSysOut()));
+    assertTrue(StringUtils.isEmpty(getOutput(taskRun).getSysErr()));
   }
 
   @Test(timeout = DEFAULT_TEST_TIMEOUT)
@@ -504,9 +505,9 @@ public class SchedulerManagerTest extends BaseSpringTestCase {
     TaskRun taskRun = taskRuns.get(0);
     assertEquals(Status.CANCELLED, taskRun.getStatus());
 
-    assertNotNull(taskRun.getStackTrace());
-    assertTrue(StringUtils.isEmpty(taskRun.getSysOut()));
-    assertTrue(StringUtils.isEmpty(taskRun.getSysErr()));
+    assertNotNull(getOutput(taskRun).getStackTrace());
+    assertTrue(StringUtils.isEmpty(getOutput(taskRun).getSysOut()));
+    assertTrue(StringUtils.isEmpty(getOutput(taskRun).getSysErr()));
   }
 
   /**
@@ -639,4 +640,18 @@ public class SchedulerManagerTest extends BaseSpringTestCase {
     assertEquals(SchedulerStatus.SHUTDOWN, schedulerManager.getStatus());
   }
 
+  /**
+   * Gets the saved output of the passed TaskRun.
+   * 
+   * @param taskRun TaskRun.
+   * @return The TaskRun's output, empty if none was saved.
+   */
+  private TaskRunOutput getOutput(TaskRun taskRun) {
+    TaskRunOutput output = taskRunManager.getOutput(taskRun.getId());
+    if (output == null) {
+      return new TaskRunOutput(taskRun.getId(), null, null, null);
+    }
+    return output;
+  }
+
 }
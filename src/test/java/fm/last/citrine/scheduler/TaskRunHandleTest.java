@@ -0,0 +1,67 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Unit test case for the TaskRunHandle.
+ */
+public class TaskRunHandleTest {
+
+  private final TaskRunHandle handle = new TaskRunHandle(1);
+
+  @Test
+  public void testNotResolved() throws InterruptedException {
+    assertFalse(handle.isResolved());
+    assertFalse(handle.await(10, TimeUnit.MILLISECONDS));
+    assertEquals(TaskRunHandle.NO_TASK_RUN, handle.getTaskRunId());
+  }
+
+  @Test
+  public void testStarted() throws InterruptedException {
+    handle.started(5);
+    assertTrue(handle.isResolved());
+    assertTrue(handle.await(10, TimeUnit.MILLISECONDS));
+    assertEquals(5, handle.getTaskRunId());
+  }
+
+  @Test
+  public void testVetoed() throws InterruptedException {
+    handle.vetoed();
+    assertTrue(handle.await(10, TimeUnit.MILLISECONDS));
+    assertEquals(TaskRunHandle.NO_TASK_RUN, handle.getTaskRunId());
+  }
+
+  @Test(timeout = 5000)
+  public void testStartedFromOtherThread() throws InterruptedException {
+    new Thread() {
+      @Override
+      public void run() {
+        handle.started(7);
+      }
+    }.start();
+    assertTrue(handle.await(5, TimeUnit.SECONDS));
+    assertEquals(7, handle.getTaskRunId());
+  }
+
+}
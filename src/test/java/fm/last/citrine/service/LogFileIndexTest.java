@@ -0,0 +1,144 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.filefilter.AgeFileFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import fm.last.commons.test.file.TemporaryFolder;
+
+/**
+ * Unit test case for the LogFileIndex.
+ */
+public class LogFileIndexTest {
+
+  /**
+   * Maximum time to wait for the index to see a change to the file system.
+   */
+  private static final long WAIT_MILLIS = 15000;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private LogFileIndex index;
+
+  @Before
+  public void setUp() throws IOException {
+    FileUtils.writeStringToFile(new File(tempFolder.getRoot(), "1.log"), "one");
+    FileUtils.writeStringToFile(new File(tempFolder.getRoot(), "2.log.gz"), "two");
+    FileUtils.writeStringToFile(new File(tempFolder.getRoot(), "other.txt"), "other");
+    index = new LogFileIndex(tempFolder.getRoot());
+    index.start();
+  }
+
+  @After
+  public void tearDown() {
+    index.close();
+  }
+
+  private void waitFor(String name, boolean present) throws InterruptedException {
+    long waitUntil = System.currentTimeMillis() + WAIT_MILLIS;
+    while (index.contains(name) != present && System.currentTimeMillis() < waitUntil) {
+      Thread.sleep(20);
+    }
+  }
+
+  @Test
+  public void testInitialScan() {
+    assertEquals(Arrays.asList("2.log.gz", "1.log"), index.getNames());
+    assertTrue(index.contains("1.log"));
+    assertFalse(index.contains("other.txt"));
+    LogFileInfo info = index.get("1.log");
+    assertEquals(3, info.getSize());
+    assertEquals(new File(tempFolder.getRoot(), "1.log"), info.getFile());
+    assertNull(index.get("3.log"));
+  }
+
+  @Test
+  public void testCreateAndDelete() throws Exception {
+    File logFile = new File(tempFolder.getRoot(), "3.log");
+    FileUtils.writeStringToFile(logFile, "three");
+    waitFor("3.log", true);
+    assertTrue(index.contains("3.log"));
+    assertEquals(3, index.size());
+
+    logFile.delete();
+    waitFor("3.log", false);
+    assertFalse(index.contains("3.log"));
+  }
+
+  @Test
+  public void testSubFolder() throws Exception {
+    File subFolder = new File(tempFolder.getRoot(), "0");
+    subFolder.mkdir();
+    FileUtils.writeStringToFile(new File(subFolder, "4.log"), "four");
+    waitFor("4.log", true);
+    assertEquals(new File(subFolder, "4.log"), index.get("4.log").getFile());
+  }
+
+  @Test
+  public void testNotStarted() {
+    index.close();
+    index = new LogFileIndex(tempFolder.getRoot());
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  public void testRemove() {
+    index.remove("1.log");
+    assertFalse(index.contains("1.log"));
+    assertEquals(1, index.size());
+  }
+
+  @Test
+  public void testFindModifiedBefore() throws IOException {
+    index.close();
+    new File(tempFolder.getRoot(), "1.log").setLastModified(System.currentTimeMillis() - 60000);
+    index = new LogFileIndex(tempFolder.getRoot());
+    index.start();
+    List<LogFileInfo> modifiedBefore = index.findModifiedBefore(System.currentTimeMillis() - 30000);
+    assertEquals(1, modifiedBefore.size());
+    assertEquals("1.log", modifiedBefore.get(0).getName());
+  }
+
+  @Test
+  public void testFindModifiedBeforeSameAsAgeFileFilter() throws IOException {
+    File logFile = new File(tempFolder.getRoot(), "1.log");
+    FileUtils.writeStringToFile(logFile, "old\n");
+    long lastModified = (System.currentTimeMillis() - 60000) / 1000 * 1000;
+    logFile.setLastModified(lastModified);
+    index = new LogFileIndex(tempFolder.getRoot());
+    index.start();
+    assertTrue(new AgeFileFilter(lastModified).accept(logFile));
+    assertEquals(1, index.findModifiedBefore(lastModified).size());
+    assertEquals(0, index.findModifiedBefore(lastModified - 1).size());
+  }
+
+}
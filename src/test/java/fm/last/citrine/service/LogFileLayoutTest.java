@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+/**
+ * Unit test case for the LogFileLayout.
+ */
+public class LogFileLayoutTest {
+
+  private LogFileLayout layout = new LogFileLayout();
+
+  @Test
+  public void testGetTaskRunId() {
+    assertEquals(808, LogFileLayout.getTaskRunId("808.log"));
+    assertEquals(808, LogFileLayout.getTaskRunId("808.log.1"));
+    assertEquals(-1, LogFileLayout.getTaskRunId("-1.log"));
+    assertEquals(-1, LogFileLayout.getTaskRunId("other.log"));
+  }
+
+  @Test
+  public void testIsLogFileName() {
+    assertTrue(LogFileLayout.isLogFileName("808.log"));
+    assertTrue(LogFileLayout.isLogFileName("808.log.1"));
+    assertTrue(LogFileLayout.isLogFileName("808.log.gz"));
+    assertFalse(LogFileLayout.isLogFileName("../../etc/passwd"));
+    assertFalse(LogFileLayout.isLogFileName("../808.log"));
+    assertFalse(LogFileLayout.isLogFileName("0/808.log"));
+    assertFalse(LogFileLayout.isLogFileName("0\\808.log"));
+    assertFalse(LogFileLayout.isLogFileName("passwd"));
+    assertFalse(LogFileLayout.isLogFileName(null));
+  }
+
+  @Test
+  public void testNotSharded() {
+    assertFalse(layout.isSharded());
+    assertNull(layout.getShard("12345.log"));
+    assertEquals("12345.log", layout.getRelativePath("12345.log"));
+    assertEquals(new File("logs", "12345.log"), layout.getFile(new File("logs"), "12345.log"));
+  }
+
+  @Test
+  public void testSharded() {
+    layout.setShardSize(1000);
+    assertTrue(layout.isSharded());
+    assertEquals("12", layout.getShard("12345.log"));
+    assertEquals("0", layout.getShard("999.log.2"));
+    assertEquals("12/12345.log", layout.getRelativePath("12345.log"));
+    assertEquals(new File("logs/12", "12345.log"), layout.getFile(new File("logs"), "12345.log"));
+  }
+
+  @Test
+  public void testShardedNoTaskRunId() {
+    layout.setShardSize(1000);
+    assertNull(layout.getShard("other.log"));
+    assertEquals("other.log", layout.getRelativePath("other.log"));
+  }
+
+}
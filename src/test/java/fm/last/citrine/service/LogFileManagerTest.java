@@ -16,18 +16,30 @@
 package fm.last.citrine.service;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.joda.time.DateTime;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import fm.last.commons.io.SeekableGzipFile;
 import fm.last.commons.test.file.ClassDataFolder;
 import fm.last.commons.test.file.TemporaryFolder;
 
@@ -74,6 +86,61 @@ public class LogFileManagerTest {
         tail);
   }
 
+  @Test
+  public void testRead() throws IOException {
+    logFileManager = new LogFileManagerImpl(tempFolder.getRoot().getAbsolutePath());
+    File logFile = tempFolder.newFile("1.log");
+    FileUtils.writeStringToFile(logFile, "first\n");
+    assertEquals(6, logFileManager.length("1.log"));
+    LogFileChunk chunk = logFileManager.read("1.log", 6, 100);
+    assertEquals("", chunk.getContents());
+    assertEquals(6, chunk.getNextOffset());
+
+    FileUtils.writeStringToFile(logFile, "first\nsecond\nthird\n");
+    chunk = logFileManager.read("1.log", 6, 100);
+    assertEquals("second\nthird\n", chunk.getContents());
+    assertEquals(19, chunk.getNextOffset());
+    assertFalse(chunk.isMore());
+
+    chunk = logFileManager.read("1.log", 6, 4);
+    assertEquals("seco", chunk.getContents());
+    assertEquals(10, chunk.getNextOffset());
+    assertTrue(chunk.isMore());
+  }
+
+  @Test
+  public void testReadPartialCharacter() throws IOException {
+    logFileManager = new LogFileManagerImpl(tempFolder.getRoot().getAbsolutePath());
+    File logFile = tempFolder.newFile("1.log");
+    FileUtils.writeStringToFile(logFile, "ab\u00e9", "UTF-8");
+    LogFileChunk chunk = logFileManager.read("1.log", 0, 3); // only first byte of the 2 byte character fits
+    assertEquals("ab", chunk.getContents());
+    assertEquals(2, chunk.getNextOffset());
+    chunk = logFileManager.read("1.log", chunk.getNextOffset(), 3);
+    assertEquals("\u00e9", chunk.getContents());
+    assertEquals(4, chunk.getNextOffset());
+  }
+
+  @Test
+  public void testReadOffsetPastEnd() throws IOException {
+    logFileManager = new LogFileManagerImpl(tempFolder.getRoot().getAbsolutePath());
+    FileUtils.writeStringToFile(tempFolder.newFile("1.log"), "new");
+    LogFileChunk chunk = logFileManager.read("1.log", 100, 10);
+    assertEquals("", chunk.getContents()); // isn't shown again from the start
+    assertTrue(chunk.isReplaced());
+    assertFalse(chunk.isMore());
+  }
+
+  @Test
+  public void testReadNonExistent() throws IOException {
+    LogFileChunk chunk = logFileManager.read("none.log", 5, 10);
+    assertEquals("", chunk.getContents());
+    assertEquals(0, chunk.getNextOffset());
+    assertTrue(chunk.isReplaced()); // was deleted
+    assertFalse(logFileManager.read("none.log", 0, 10).isReplaced()); // not written yet
+    assertEquals(0, logFileManager.length("none.log"));
+  }
+
   @Test
   public void testDeleteBefore() throws IOException, InterruptedException {
     logFileManager = new LogFileManagerImpl(tempFolder.getRoot().getAbsolutePath());
@@ -101,4 +168,233 @@ public class LogFileManagerTest {
       assertTrue(fileName.equals(logFile2.getName()) || fileName.equals(otherFile1.getName()));
     }
   }
+
+  @Test
+  public void testFindAllIndexed() {
+    LogFileManagerImpl indexedManager = new LogFileManagerImpl(dataFolder.getFolder().getAbsolutePath());
+    indexedManager.setIndexed(true);
+    try {
+      assertEquals(logFileManager.findAllLogFiles(), indexedManager.findAllLogFiles());
+      assertTrue(indexedManager.exists("808.log"));
+      assertFalse(indexedManager.exists("809.log"));
+    } finally {
+      indexedManager.close();
+    }
+  }
+
+  @Test
+  public void testDeleteBeforeIndexed() throws IOException {
+    LogFileManagerImpl indexedManager = new LogFileManagerImpl(tempFolder.getRoot().getAbsolutePath());
+    indexedManager.setIndexed(true);
+    long now = System.currentTimeMillis();
+    File logFile1 = tempFolder.newFile("1.log");
+    logFile1.setLastModified(now - 60000);
+    File otherFile1 = tempFolder.newFile("1.bla");
+    otherFile1.setLastModified(now - 60000);
+    tempFolder.newFile("2.log");
+    try {
+      indexedManager.deleteBefore(new DateTime(now - 30000));
+      assertEquals(Arrays.asList("2.log"), indexedManager.findAllLogFiles());
+      assertFalse(logFile1.exists());
+      assertTrue(otherFile1.exists());
+    } finally {
+      indexedManager.close();
+    }
+  }
+
+  private LogFileManagerImpl createShardedManager() throws IOException {
+    LogFileLayout logFileLayout = new LogFileLayout();
+    logFileLayout.setShardSize(10);
+    LogFileManagerImpl shardedManager = new LogFileManagerImpl(tempFolder.getRoot().getAbsolutePath());
+    shardedManager.setLogFileLayout(logFileLayout);
+    FileUtils.writeStringToFile(new File(tempFolder.getRoot(), "5.log"), "unsharded\n");
+    FileUtils.writeStringToFile(new File(tempFolder.getRoot(), "1/15.log"), "fifteen\n");
+    FileUtils.writeStringToFile(new File(tempFolder.getRoot(), "2/25.log"), "twenty five\n");
+    return shardedManager;
+  }
+
+  @Test
+  public void testSharded() throws IOException {
+    LogFileManagerImpl shardedManager = createShardedManager();
+    assertEquals(Arrays.asList("5.log", "25.log", "15.log"), shardedManager.findAllLogFiles());
+    assertEquals("fifteen\n", shardedManager.tail("15.log", 100));
+    assertEquals("unsharded\n", shardedManager.tail("5.log", 100));
+    assertEquals("1/15.log", shardedManager.getRelativePath("15.log"));
+    assertEquals("5.log", shardedManager.getRelativePath("5.log"));
+    assertTrue(shardedManager.exists("25.log"));
+    assertFalse(shardedManager.exists("35.log"));
+    assertEquals(12, shardedManager.length("25.log"));
+  }
+
+  @Test
+  public void testDeleteBeforeSharded() throws IOException {
+    LogFileManagerImpl shardedManager = createShardedManager();
+    long now = System.currentTimeMillis();
+    new File(tempFolder.getRoot(), "5.log").setLastModified(now - 60000);
+    new File(tempFolder.getRoot(), "1/15.log").setLastModified(now - 60000);
+    shardedManager.deleteBefore(new DateTime(now - 30000));
+    assertEquals(Arrays.asList("25.log"), shardedManager.findAllLogFiles());
+    assertFalse(new File(tempFolder.getRoot(), "1").exists()); // emptied shard deleted
+    assertTrue(new File(tempFolder.getRoot(), "2").exists());
+  }
+
+  @Test
+  public void testDeleteBeforeShardedPastNewerShard() throws IOException {
+    LogFileManagerImpl shardedManager = createShardedManager();
+    long now = System.currentTimeMillis();
+    FileUtils.writeStringToFile(new File(tempFolder.getRoot(), "3/35.log"), "thirty five\n");
+    new File(tempFolder.getRoot(), "2/25.log").setLastModified(now - 60000);
+    shardedManager.deleteBefore(new DateTime(now - 30000));
+    // nothing old enough in shard 1 doesn't stop the later shards being purged
+    assertEquals(Arrays.asList("5.log", "35.log", "15.log"), shardedManager.findAllLogFiles());
+    assertFalse(new File(tempFolder.getRoot(), "2").exists());
+  }
+
+  @Test
+  public void testDeleteBeforeShardedIndexed() throws IOException {
+    LogFileManagerImpl shardedManager = createShardedManager();
+    shardedManager.setIndexed(true);
+    long now = System.currentTimeMillis();
+    new File(tempFolder.getRoot(), "1/15.log").setLastModified(now - 60000);
+    new File(tempFolder.getRoot(), "2/25.log").setLastModified(now - 60000);
+    try {
+      assertEquals("2/25.log", shardedManager.getRelativePath("25.log"));
+      shardedManager.deleteBefore(new DateTime(now - 30000));
+      assertEquals(Arrays.asList("5.log"), shardedManager.findAllLogFiles());
+      assertFalse(new File(tempFolder.getRoot(), "1").exists());
+      assertTrue(new File(tempFolder.getRoot(), "2").exists()); // newest shard kept for new log files
+    } finally {
+      shardedManager.close();
+    }
+  }
+
+  @Test
+  public void testCompressBefore() throws IOException {
+    LogFileManagerImpl compressingManager = new LogFileManagerImpl(tempFolder.getRoot().getAbsolutePath());
+    long lastModified = (System.currentTimeMillis() - 60000) / 1000 * 1000;
+    File logFile1 = tempFolder.newFile("1.log");
+    FileUtils.writeStringToFile(logFile1, "first\nsecond\nthird\n");
+    logFile1.setLastModified(lastModified);
+    File logFile2 = tempFolder.newFile("2.log");
+    FileUtils.writeStringToFile(logFile2, "running\n");
+
+    assertEquals(1, compressingManager.compressBefore(new DateTime().minusSeconds(30)));
+    assertFalse(logFile1.exists());
+    File compressedFile = new File(tempFolder.getRoot(), "1.log.gz");
+    assertTrue(compressedFile.exists());
+    assertEquals(lastModified, compressedFile.lastModified());
+    assertEquals(Arrays.asList("2.log", "1.log.gz"), compressingManager.findAllLogFiles());
+    assertFalse(compressingManager.isCompressed("2.log"));
+
+    // still readable using the original name
+    assertTrue(compressingManager.exists("1.log"));
+    assertTrue(compressingManager.isCompressed("1.log"));
+    assertEquals(19, compressingManager.length("1.log"));
+    assertEquals("third", compressingManager.tail("1.log", 8));
+    assertEquals("first\nsecond\nthird\n", compressingManager.tail("1.log.gz", 100));
+    InputStream inputStream = compressingManager.open("1.log", true);
+    try {
+      assertEquals("first\nsecond\nthird\n", IOUtils.toString(inputStream, "UTF-8"));
+    } finally {
+      inputStream.close();
+    }
+
+    LogFileChunk chunk = compressingManager.read("1.log", 6, 4);
+    assertEquals("seco", chunk.getContents());
+    assertEquals(10, chunk.getNextOffset());
+    assertTrue(chunk.isMore());
+    chunk = compressingManager.read("1.log", 10, 100);
+    assertEquals("nd\nthird\n", chunk.getContents());
+    assertEquals(19, chunk.getNextOffset());
+    assertFalse(chunk.isMore());
+    chunk = compressingManager.read("1.log", 100, 5);
+    assertEquals("", chunk.getContents());
+    assertTrue(chunk.isReplaced());
+
+    // already compressed
+    assertEquals(0, compressingManager.compressBefore(new DateTime().minusSeconds(30)));
+  }
+
+  @Test
+  public void testCompressBeforeSkipsRunning() throws IOException {
+    LogFileManagerImpl compressingManager = new LogFileManagerImpl(tempFolder.getRoot().getAbsolutePath());
+    TaskRunRegistry taskRunRegistry = mock(TaskRunRegistry.class);
+    when(taskRunRegistry.getRunningTaskRunIds()).thenReturn(Collections.singleton(1L));
+    compressingManager.setTaskRunRegistry(taskRunRegistry);
+    File runningLogFile = tempFolder.newFile("1.log"); // a run which hasn't written anything for a while
+    FileUtils.writeStringToFile(runningLogFile, "still running\n");
+    runningLogFile.setLastModified(System.currentTimeMillis() - 60000);
+    File finishedLogFile = tempFolder.newFile("2.log");
+    FileUtils.writeStringToFile(finishedLogFile, "finished\n");
+    finishedLogFile.setLastModified(System.currentTimeMillis() - 60000);
+
+    assertEquals(1, compressingManager.compressBefore(new DateTime().minusSeconds(30)));
+    assertTrue(runningLogFile.exists());
+    assertFalse(compressingManager.isCompressed("1.log"));
+    assertTrue(compressingManager.isCompressed("2.log"));
+  }
+
+  @Test
+  public void testCompressBeforeIndexed() throws IOException {
+    LogFileManagerImpl compressingManager = new LogFileManagerImpl(tempFolder.getRoot().getAbsolutePath());
+    compressingManager.setIndexed(true);
+    File logFile = tempFolder.newFile("1.log");
+    FileUtils.writeStringToFile(logFile, "contents\n");
+    logFile.setLastModified(System.currentTimeMillis() - 60000);
+    try {
+      assertEquals(1, compressingManager.compressBefore(new DateTime().minusSeconds(30)));
+      assertEquals(Arrays.asList("1.log.gz"), compressingManager.findAllLogFiles());
+      assertTrue(compressingManager.exists("1.log"));
+      assertEquals("contents\n", compressingManager.tail("1.log", 100));
+    } finally {
+      compressingManager.close();
+    }
+  }
+
+  @Test
+  public void testPathNotAllowed() {
+    assertFalse(logFileManager.exists("../808.log"));
+    assertFalse(logFileManager.exists("../../etc/passwd"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOpenPathNotAllowed() throws IOException {
+    logFileManager.open("../808.log", true);
+  }
+
+  @Test
+  public void testTailEmptyCompressed() throws IOException {
+    assertEquals("", logFileManager.tail("808.log.gz", 100));
+    assertEquals(0, logFileManager.length("808.log.gz"));
+  }
+
+  @Test
+  public void testCompressedBlocks() throws IOException {
+    LogFileManagerImpl compressingManager = new LogFileManagerImpl(tempFolder.getRoot().getAbsolutePath());
+    compressingManager.setCompressedBlockSize(10);
+    File logFile = tempFolder.newFile("1.log");
+    FileUtils.writeStringToFile(logFile, "first line\nsecond line\nthird line\nfourth line\n");
+    logFile.setLastModified(System.currentTimeMillis() - 60000);
+    assertEquals(1, compressingManager.compressBefore(new DateTime().minusSeconds(30)));
+    assertNotNull(SeekableGzipFile.open(new File(tempFolder.getRoot(), "1.log.gz")));
+    assertEquals(46, compressingManager.length("1.log"));
+    assertEquals("fourth line", compressingManager.tail("1.log", 15));
+    assertEquals("third line\nfourth line", compressingManager.tail("1.log", 25));
+    LogFileChunk chunk = compressingManager.read("1.log", 23, 6);
+    assertEquals("third ", chunk.getContents());
+    assertEquals(29, chunk.getNextOffset());
+    assertTrue(chunk.isMore());
+  }
+
+  @Test
+  public void testReadPlainGzip() throws IOException {
+    LogFileManagerImpl compressingManager = new LogFileManagerImpl(tempFolder.getRoot().getAbsolutePath());
+    OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(tempFolder.newFile("1.log.gz")));
+    outputStream.write("first\nsecond\nthird\n".getBytes());
+    outputStream.close();
+    assertEquals(19, compressingManager.length("1.log"));
+    assertEquals("third", compressingManager.tail("1.log", 8));
+    assertEquals("second\n", compressingManager.read("1.log", 6, 7).getContents());
+  }
+
 }
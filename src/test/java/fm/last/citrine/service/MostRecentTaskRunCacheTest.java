@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import fm.last.citrine.model.Status;
+import fm.last.citrine.model.TaskRun;
+
+/**
+ * Unit test case for the MostRecentTaskRunCache.
+ */
+public class MostRecentTaskRunCacheTest {
+
+  private final MostRecentTaskRunCache cache = new MostRecentTaskRunCache();
+
+  private TaskRun createTaskRun(long id, long taskId, Status status, Date startDate) {
+    TaskRun taskRun = new TaskRun(status, startDate, null, "out", "err", "stack", taskId);
+    taskRun.setId(id);
+    return taskRun;
+  }
+
+  @Test
+  public void testEmpty() {
+    assertNull(cache.get(1));
+    assertEquals(0, cache.get(Arrays.asList(1L, 2L)).size());
+  }
+
+  @Test
+  public void testUpdateNewerReplacesOlder() {
+    DateTime now = new DateTime();
+    cache.update(createTaskRun(1, 10, Status.SUCCESS, now.minusHours(1).toDate()));
+    cache.update(createTaskRun(2, 10, Status.RUNNING, now.toDate()));
+    assertEquals(2, cache.get(10).getId());
+    assertEquals(Status.RUNNING, cache.get(10).getStatus());
+  }
+
+  @Test
+  public void testUpdateOlderIgnored() {
+    DateTime now = new DateTime();
+    cache.update(createTaskRun(2, 10, Status.RUNNING, now.toDate()));
+    cache.update(createTaskRun(1, 10, Status.SUCCESS, now.minusHours(1).toDate()));
+    assertEquals(2, cache.get(10).getId());
+  }
+
+  @Test
+  public void testUpdateSameRun() {
+    Date startDate = new Date();
+    TaskRun taskRun = createTaskRun(1, 10, Status.RUNNING, startDate);
+    cache.update(taskRun);
+    taskRun.setStatus(Status.SUCCESS);
+    taskRun.setEndDate(new Date());
+    assertEquals(Status.RUNNING, cache.get(10).getStatus()); // not changed until update called
+    cache.update(taskRun);
+    assertEquals(Status.SUCCESS, cache.get(10).getStatus());
+    assertEquals(taskRun.getEndDate(), cache.get(10).getEndDate());
+  }
+
+  @Test
+  public void testUpdateSameStartDate() {
+    Date startDate = new Date();
+    cache.update(createTaskRun(2, 10, Status.SUCCESS, startDate));
+    cache.update(createTaskRun(1, 10, Status.FAILED, startDate));
+    assertEquals(2, cache.get(10).getId());
+  }
+
+  @Test
+  public void testSummaryOnly() {
+    cache.update(createTaskRun(1, 10, Status.SUCCESS, new Date()));
+    TaskRun cached = cache.get(10);
+    assertEquals(10, cached.getTaskId());
+    assertNull(cached.getSysOut());
+    assertNull(cached.getSysErr());
+    assertNull(cached.getStackTrace());
+    cached.setStatus(Status.FAILED); // changing a returned copy must not affect the cache
+    assertEquals(Status.SUCCESS, cache.get(10).getStatus());
+  }
+
+  @Test
+  public void testLoadReplacesContents() {
+    cache.update(createTaskRun(1, 10, Status.SUCCESS, new Date()));
+    cache.load(Arrays.asList(createTaskRun(5, 20, Status.FAILED, new Date())));
+    assertNull(cache.get(10));
+    assertEquals(5, cache.get(20).getId());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testEvict() {
+    cache.update(createTaskRun(1, 10, Status.SUCCESS, new Date()));
+    assertNull(cache.evict(2));
+    assertEquals(Long.valueOf(10), cache.evict(1));
+    assertNull(cache.get(10));
+  }
+
+  @Test
+  public void testEvictAll() {
+    cache.update(createTaskRun(1, 10, Status.SUCCESS, new Date()));
+    cache.update(createTaskRun(2, 20, Status.FAILED, new Date()));
+    cache.update(createTaskRun(3, 30, Status.FAILED, new Date()));
+    assertEquals(new HashSet<Long>(Arrays.asList(10L, 30L)), cache.evictAll(Arrays.asList(1L, 3L, 4L)));
+    assertNull(cache.get(10));
+    assertEquals(2, cache.get(20).getId());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testGetMultiple() {
+    cache.update(createTaskRun(1, 10, Status.SUCCESS, new Date()));
+    cache.update(createTaskRun(2, 20, Status.FAILED, new Date()));
+    Map<Long, TaskRun> mostRecent = cache.get(Arrays.asList(10L, 30L));
+    assertEquals(1, mostRecent.size());
+    assertEquals(1, mostRecent.get(10L).getId());
+  }
+
+}
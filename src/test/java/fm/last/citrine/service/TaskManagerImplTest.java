@@ -1,6 +1,15 @@
 package fm.last.citrine.service;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -34,4 +43,45 @@ public class TaskManagerImplTest {
     verify(schedulerManager).scheduleTask(task, true);
     verify(taskDAO).save(task);
   }
+
+  @Test
+  public void testTaskGraphCachedUntilSave() {
+    Task parent = new Task("parent", "groupName", "beanName");
+    parent.setId(1);
+    Task child = new Task("child", "groupName", "beanName");
+    child.setId(2);
+    parent.addChildTask(child);
+    when(taskDAO.getTasksWithChildTasks()).thenReturn(Arrays.asList(parent, child));
+
+    TaskGraph taskGraph = taskManager.getTaskGraph();
+    assertTrue(taskGraph.hasChildren(1));
+    assertSame(taskGraph, taskManager.getTaskGraph());
+    verify(taskDAO, times(1)).getTasksWithChildTasks();
+
+    taskManager.save(child);
+    assertNotSame(taskGraph, taskManager.getTaskGraph());
+    verify(taskDAO, times(2)).getTasksWithChildTasks();
+  }
+
+  @Test
+  public void testFindCandidateChildren() {
+    Task parent = new Task("parent", "groupName", "beanName");
+    parent.setId(1);
+    Task task = new Task("task", "groupName", "beanName");
+    task.setId(2);
+    Task child = new Task("child", "groupName", "beanName");
+    child.setId(3);
+    Task candidate = new Task("candidate", "groupName", "beanName");
+    candidate.setId(4);
+    Task otherGroup = new Task("otherGroup", "otherGroupName", "beanName");
+    otherGroup.setId(5);
+    parent.addChildTask(task);
+    task.addChildTask(child);
+    when(taskDAO.getTasksWithChildTasks()).thenReturn(Arrays.asList(parent, task, child, candidate, otherGroup));
+
+    Set<Task> candidates = taskManager.findCandidateChildren(task);
+    assertEquals(1, candidates.size());
+    assertTrue(candidates.contains(candidate));
+  }
+
 }
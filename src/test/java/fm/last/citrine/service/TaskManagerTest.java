@@ -167,7 +167,7 @@ public class TaskManagerTest extends BaseSpringTestCase {
     createChildParentTasks();
 
     // check that 1 has no parents and has 2,3 as children
-    Task retrieved = taskManager.get(task1.getId());
+    Task retrieved = taskManager.getWithParentsAndChildren(task1.getId());
     assertEquals(0, retrieved.getParentTasks().size());
     assertEquals(2, retrieved.getChildTasks().size());
     for (Task child : retrieved.getChildTasks()) {
@@ -175,21 +175,21 @@ public class TaskManagerTest extends BaseSpringTestCase {
     }
 
     // assert that 1 is parent of 2 and 4 is it's child
-    retrieved = taskManager.get(task2.getId());
+    retrieved = taskManager.getWithParentsAndChildren(task2.getId());
     assertEquals(1, retrieved.getParentTasks().size());
     assertEquals(task1.getId(), retrieved.getParentTasks().iterator().next().getId());
     assertEquals(1, retrieved.getChildTasks().size());
     assertEquals(task4.getId(), retrieved.getChildTasks().iterator().next().getId());
 
     // assert that 1 is parent of 3 and 4 is it's child
-    retrieved = taskManager.get(task3.getId());
+    retrieved = taskManager.getWithParentsAndChildren(task3.getId());
     assertEquals(1, retrieved.getParentTasks().size());
     assertEquals(task1.getId(), retrieved.getParentTasks().iterator().next().getId());
     assertEquals(1, retrieved.getChildTasks().size());
     assertEquals(task4.getId(), retrieved.getChildTasks().iterator().next().getId());
 
     // assert that 4 has no children and that 2 and 3 are its parents
-    retrieved = taskManager.get(task4.getId());
+    retrieved = taskManager.getWithParentsAndChildren(task4.getId());
     assertEquals(2, retrieved.getParentTasks().size());
     for (Task parent : retrieved.getParentTasks()) {
       assertTrue(task2.getId() == parent.getId() || task3.getId() == parent.getId());
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+import static fm.last.citrine.scheduler.SchedulerConstants.TASK_ID;
+import static fm.last.citrine.scheduler.SchedulerConstants.TASK_RUN_HANDLE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+import org.quartz.Trigger;
+
+import fm.last.citrine.dao.TaskRunDAO;
+import fm.last.citrine.model.TaskRun;
+import fm.last.citrine.scheduler.NonConcurrentJobTriggerListener;
+import fm.last.citrine.scheduler.TaskRunHandle;
+
+/**
+ * Unit test case for the TaskRunManagerImpl which doesn't need a database.
+ */
+public class TaskRunManagerImplTest {
+
+  private static final long TASK_ID_VALUE = 1;
+
+  private TaskRunDAO taskRunDAO = mock(TaskRunDAO.class);
+
+  private TaskRunRegistry taskRunRegistry = new TaskRunRegistry();
+
+  private TaskRunManagerImpl taskRunManager;
+
+  private NonConcurrentJobTriggerListener triggerListener;
+
+  @Before
+  public void setUp() {
+    taskRunManager = new TaskRunManagerImpl(taskRunDAO);
+    taskRunManager.setTaskRunRegistry(taskRunRegistry);
+    triggerListener = new NonConcurrentJobTriggerListener();
+    triggerListener.setTaskRunManager(taskRunManager);
+    triggerListener.setTaskRunRegistry(taskRunRegistry);
+  }
+
+  private JobExecutionContext createContext(TaskRunHandle handle) {
+    JobDetail jobDetail = new JobDetail();
+    jobDetail.getJobDataMap().put(TASK_ID, TASK_ID_VALUE);
+    if (handle != null) {
+      jobDetail.getJobDataMap().put(TASK_RUN_HANDLE, handle);
+    }
+    JobExecutionContext context = mock(JobExecutionContext.class);
+    when(context.getJobDetail()).thenReturn(jobDetail);
+    return context;
+  }
+
+  @Test
+  public void testStartFailureDoesNotLeaveTaskRunning() {
+    TaskRunHandle handle = new TaskRunHandle(TASK_ID_VALUE);
+    JobExecutionContext context = createContext(handle);
+    doThrow(new IllegalStateException("database unavailable")).when(taskRunDAO).save(any(TaskRun.class));
+    assertFalse(triggerListener.vetoJobExecution(mock(Trigger.class), context));
+    try {
+      taskRunManager.jobToBeExecuted(context);
+      fail("Expected the save error to be rethrown");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    assertFalse(taskRunManager.isRunning(TASK_ID_VALUE));
+    assertTrue(handle.isResolved()); // no one is left waiting for the run
+    assertEquals(TaskRunHandle.NO_TASK_RUN, handle.getTaskRunId());
+
+    // the next trigger isn't vetoed and its run starts
+    doNothing().when(taskRunDAO).save(any(TaskRun.class));
+    JobExecutionContext nextContext = createContext(null);
+    assertFalse(triggerListener.vetoJobExecution(mock(Trigger.class), nextContext));
+    taskRunManager.jobToBeExecuted(nextContext);
+    assertTrue(taskRunManager.isRunning(TASK_ID_VALUE));
+  }
+
+}
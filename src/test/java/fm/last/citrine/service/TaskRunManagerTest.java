@@ -42,6 +42,7 @@ import fm.last.citrine.model.Notification;
 import fm.last.citrine.model.Status;
 import fm.last.citrine.model.Task;
 import fm.last.citrine.model.TaskRun;
+import fm.last.citrine.model.TaskRunOutput;
 import fm.last.citrine.scheduler.SchedulerConstants;
 import fm.last.test.BaseSpringTestCase;
 import fm.last.test.JavaMailSenderMock;
@@ -88,8 +89,11 @@ public class TaskRunManagerTest extends BaseSpringTestCase {
     taskRun.setSysErr("err2");
     taskRunManager.save(taskRun);
 
-    retrieved = taskRunManager.get(taskRun.getId());
-    assertEquals("err2", retrieved.getSysErr());
+    assertNull(retrieved.getSysErr()); // output is only loaded on request
+    TaskRunOutput output = taskRunManager.getOutput(taskRun.getId());
+    assertEquals("out", output.getSysOut());
+    assertEquals("err2", output.getSysErr());
+    assertEquals("stack", output.getStackTrace());
   }
 
   @Test
@@ -148,6 +152,24 @@ public class TaskRunManagerTest extends BaseSpringTestCase {
     assertEquals(Status.FAILED, taskRun.getStatus());
   }
 
+  @Test
+  public void testGetMostRecent() {
+    Date now = new Date();
+    TaskRun newer = new TaskRun(Status.SUCCESS, now, now, "out", "err", "stack", testTaskId);
+    TaskRun older = new TaskRun(Status.FAILED, new Date(now.getTime() - 60000), now, "out", "err", "stack",
+        testTaskId);
+    taskRunManager.save(newer);
+    taskRunManager.save(older);
+    assertEquals(newer.getId(), taskRunManager.getMostRecent(testTaskId).getId());
+    assertEquals(Status.SUCCESS, taskRunManager.getMostRecent(testTaskId).getStatus());
+
+    // deleting the most recent run should make the previous one the most recent
+    taskRunManager.delete(newer.getId());
+    assertEquals(older.getId(), taskRunManager.getMostRecent(testTaskId).getId());
+    taskRunManager.delete(older.getId());
+    assertNull(taskRunManager.getMostRecent(testTaskId));
+  }
+
   @Test
   public void testShutdown() {
     TaskRun taskRun = new TaskRun(Status.RUNNING, new Date(), new Date(), null, null, null, 1);
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+import static fm.last.citrine.scheduler.SchedulerConstants.TASK_RUN_ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.quartz.JobDetail;
+import org.quartz.JobExecutionContext;
+
+import fm.last.citrine.service.TaskRunRegistry.State;
+
+/**
+ * Unit test case for the TaskRunRegistry.
+ */
+public class TaskRunRegistryTest {
+
+  private final TaskRunRegistry registry = new TaskRunRegistry();
+
+  private final JobExecutionContext context = mock(JobExecutionContext.class);
+
+  private final JobExecutionContext otherContext = mock(JobExecutionContext.class);
+
+  @Test
+  public void testLifecycle() {
+    assertEquals(State.IDLE, registry.getState(1));
+    assertFalse(registry.isRunning(1));
+    assertNull(registry.getContext(1));
+
+    assertTrue(registry.tryStart(1, context));
+    assertEquals(State.RUNNING, registry.getState(1));
+    assertTrue(registry.isRunning(1));
+    assertSame(context, registry.getContext(1));
+    assertTrue(registry.tryStart(1, context)); // same run starting again is fine
+    assertFalse(registry.tryStart(1, otherContext));
+
+    assertFalse(registry.finishing(1, otherContext));
+    assertTrue(registry.finishing(1, context));
+    assertEquals(State.FINISHING, registry.getState(1));
+    assertTrue(registry.isRunning(1));
+    assertFalse(registry.tryStart(1, otherContext));
+    assertFalse(registry.stopped(1, context)); // too late to stop
+
+    assertTrue(registry.finished(1, context));
+    assertEquals(State.IDLE, registry.getState(1));
+    assertFalse(registry.finished(1, context));
+    assertTrue(registry.tryStart(1, otherContext));
+  }
+
+  @Test
+  public void testStopped() {
+    registry.tryStart(1, context);
+    assertFalse(registry.stopped(1, otherContext));
+    assertTrue(registry.stopped(1, context));
+    assertFalse(registry.isRunning(1));
+
+    // a new run can start, which the stopped run finishing can't affect
+    assertTrue(registry.tryStart(1, otherContext));
+    assertFalse(registry.finishing(1, context));
+    assertFalse(registry.finished(1, context));
+    assertSame(otherContext, registry.getContext(1));
+  }
+
+  @Test
+  public void testGetRunningTaskRunIds() {
+    JobDetail jobDetail = new JobDetail();
+    when(context.getJobDetail()).thenReturn(jobDetail);
+    registry.tryStart(1, context);
+    assertTrue(registry.getRunningTaskRunIds().isEmpty()); // not saved yet
+    jobDetail.getJobDataMap().put(TASK_RUN_ID, 808L);
+    assertEquals(Collections.singleton(808L), registry.getRunningTaskRunIds());
+    registry.finishing(1, context);
+    assertEquals(Collections.singleton(808L), registry.getRunningTaskRunIds());
+    registry.finished(1, context);
+    assertTrue(registry.getRunningTaskRunIds().isEmpty());
+  }
+
+  @Test
+  public void testConcurrentStart() throws InterruptedException {
+    final AtomicInteger started = new AtomicInteger();
+    final CountDownLatch go = new CountDownLatch(1);
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            go.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          if (registry.tryStart(1, mock(JobExecutionContext.class))) {
+            started.incrementAndGet();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    go.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(1, started.get());
+  }
+
+}
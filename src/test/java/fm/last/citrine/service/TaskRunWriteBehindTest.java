@@ -0,0 +1,233 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import fm.last.citrine.dao.TaskRunDAO;
+import fm.last.citrine.model.Status;
+import fm.last.citrine.model.TaskRun;
+
+/**
+ * Unit test case for the TaskRunWriteBehind.
+ */
+public class TaskRunWriteBehindTest {
+
+  private TaskRunDAO taskRunDAO = mock(TaskRunDAO.class);
+
+  private TaskRunWriteBehind writeBehind;
+
+  /**
+   * Copies of the TaskRuns written, in the order they were written.
+   */
+  private final List<TaskRun> written = new ArrayList<TaskRun>();
+
+  /**
+   * Released to let the DAO write, so that tests can control when the writer thread writes.
+   */
+  private CountDownLatch writeAllowed;
+
+  /**
+   * Released once the DAO has been asked to write.
+   */
+  private CountDownLatch writeStarted;
+
+  private int failures = 0;
+
+  @Before
+  public void setUp() {
+    writeAllowed = new CountDownLatch(1);
+    writeStarted = new CountDownLatch(1);
+    doAnswer(new Answer<Object>() {
+      @Override
+      @SuppressWarnings("unchecked")
+      public Object answer(InvocationOnMock invocation) throws Throwable {
+        writeStarted.countDown();
+        writeAllowed.await(10, TimeUnit.SECONDS);
+        synchronized (written) {
+          if (failures > 0) {
+            failures--;
+            throw new IllegalStateException("database unavailable");
+          }
+          for (TaskRun taskRun : (Collection<TaskRun>) invocation.getArguments()[0]) {
+            written.add(taskRun);
+          }
+        }
+        return null;
+      }
+    }).when(taskRunDAO).saveAll(anyCollectionOf(TaskRun.class));
+    writeBehind = new TaskRunWriteBehind(taskRunDAO);
+    writeBehind.setRetryInterval(10);
+  }
+
+  @After
+  public void tearDown() {
+    writeAllowed.countDown();
+    writeBehind.close();
+  }
+
+  private TaskRun createTaskRun(long id, Status status) {
+    TaskRun taskRun = new TaskRun(status, new Date(), null, null, null, null, 10);
+    taskRun.setId(id);
+    return taskRun;
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSaveUnsaved() {
+    writeBehind.save(createTaskRun(0, Status.RUNNING));
+  }
+
+  @Test
+  public void testGetPending() {
+    TaskRun taskRun = createTaskRun(1, Status.RUNNING);
+    writeBehind.save(taskRun);
+    taskRun.setStatus(Status.SUCCESS); // not seen until saved again
+    assertEquals(Status.RUNNING, writeBehind.get(1).getStatus());
+    assertNull(writeBehind.get(2));
+  }
+
+  @Test
+  public void testClose() {
+    writeBehind.save(createTaskRun(1, Status.RUNNING));
+    writeBehind.save(createTaskRun(2, Status.RUNNING));
+    writeAllowed.countDown();
+    writeBehind.close();
+    assertEquals(0, writeBehind.size());
+    assertEquals(2, written.size());
+    assertNull(writeBehind.get(1));
+  }
+
+  @Test
+  public void testLatestStateWritten() {
+    TaskRun taskRun = createTaskRun(1, Status.RUNNING);
+    writeBehind.save(taskRun);
+    taskRun.setStatus(Status.SUCCESS);
+    taskRun.setSysOut("out");
+    writeBehind.save(taskRun);
+    writeAllowed.countDown();
+    writeBehind.close();
+    TaskRun last = written.get(written.size() - 1);
+    assertEquals(Status.SUCCESS, last.getStatus());
+    assertEquals("out", last.getSysOut());
+  }
+
+  @Test
+  public void testOutputChangedWhileWriting() throws InterruptedException {
+    TaskRun taskRun = createTaskRun(1, Status.RUNNING);
+    writeBehind.save(taskRun);
+    assertTrue(writeStarted.await(10, TimeUnit.SECONDS));
+    taskRun.setSysOut("out"); // equal to the state being written as far as TaskRun.equals() is concerned
+    writeBehind.save(taskRun);
+    writeAllowed.countDown();
+    writeBehind.close();
+    assertEquals("out", written.get(written.size() - 1).getSysOut());
+  }
+
+  @Test
+  public void testSaveRacingClose() throws InterruptedException {
+    writeAllowed.countDown();
+    final int savers = 4;
+    final int savesEach = 500;
+    final CountDownLatch saving = new CountDownLatch(savers);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < savers; i++) {
+      final int first = i * savesEach + 1;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          saving.countDown();
+          for (int id = first; id < first + savesEach; id++) {
+            writeBehind.save(createTaskRun(id, Status.SUCCESS));
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    saving.await();
+    writeBehind.close();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, writeBehind.size());
+    Set<Long> writtenIds = new HashSet<Long>();
+    synchronized (written) {
+      for (TaskRun taskRun : written) {
+        writtenIds.add(taskRun.getId());
+      }
+    }
+    assertEquals(savers * savesEach, writtenIds.size());
+  }
+
+  @Test
+  public void testRemove() {
+    writeAllowed.countDown();
+    writeBehind.save(createTaskRun(1, Status.RUNNING));
+    writeBehind.remove(1);
+    int writtenBeforeRemove = written.size(); // could have been written already
+    writeBehind.close();
+    assertEquals(writtenBeforeRemove, written.size());
+    assertNull(writeBehind.get(1));
+  }
+
+  @Test
+  public void testRetry() {
+    failures = 2;
+    writeBehind.save(createTaskRun(1, Status.RUNNING));
+    writeAllowed.countDown();
+    writeBehind.close();
+    assertEquals(1, written.size());
+    assertEquals(0, writeBehind.size());
+  }
+
+  @Test
+  public void testSaveAfterClose() {
+    writeAllowed.countDown();
+    writeBehind.close();
+    writeBehind.save(createTaskRun(1, Status.SUCCESS));
+    assertEquals(1, written.size());
+    assertEquals(0, writeBehind.size());
+  }
+
+  @Test
+  public void testCloseUnused() {
+    writeBehind.close();
+    verify(taskRunDAO, never()).saveAll(anyCollectionOf(TaskRun.class));
+  }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.citrine.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fm.last.citrine.model.Task;
+
+/**
+ * Unit test case for the WorkflowExecution and the TaskGraph it uses.
+ */
+public class WorkflowExecutionTest {
+
+  private Task a;
+  private Task b;
+  private Task c;
+  private Task d;
+  private Task e;
+  private TaskGraph taskGraph;
+
+  private Task createTask(long id) {
+    Task task = new Task("task" + id, "group", "bean", true, true, "", "");
+    task.setId(id);
+    return task;
+  }
+
+  /**
+   * Creates a diamond, a -> b, a -> c, b -> d, c -> d, with e as an extra parent of d outside it.
+   */
+  @Before
+  public void setUp() {
+    a = createTask(1);
+    b = createTask(2);
+    c = createTask(3);
+    d = createTask(4);
+    e = createTask(5);
+    a.addChildTask(b);
+    a.addChildTask(c);
+    b.addChildTask(d);
+    c.addChildTask(d);
+    e.addChildTask(d);
+    taskGraph = new TaskGraph(Arrays.asList(a, b, c, d, e));
+  }
+
+  @Test
+  public void testTaskGraph() {
+    assertEquals(5, taskGraph.size());
+    assertSame(a, taskGraph.getTask(1));
+    assertNull(taskGraph.getTask(6));
+    assertEquals(Arrays.asList(2L, 3L), sorted(taskGraph.getChildIds(1)));
+    assertEquals(Arrays.asList(2L, 3L, 5L), sorted(taskGraph.getParentIds(4)));
+    assertTrue(taskGraph.hasChildren(1));
+    assertFalse(taskGraph.hasChildren(4));
+    assertFalse(taskGraph.hasChildren(6));
+    assertTrue(taskGraph.getParentIds(6).isEmpty());
+  }
+
+  @Test
+  public void testTaskGraphClosure() {
+    assertEquals(Arrays.asList(1L, 2L, 3L, 5L), sorted(taskGraph.getAncestorIds(4)));
+    assertSame(taskGraph.getAncestorIds(4), taskGraph.getAncestorIds(4));
+    assertEquals(Arrays.asList(2L, 3L, 4L), sorted(taskGraph.getDescendantIds(1)));
+    assertTrue(taskGraph.getAncestorIds(1).isEmpty());
+    assertTrue(taskGraph.getDescendantIds(6).isEmpty());
+    assertTrue(taskGraph.wouldCreateCycle(1, 4));
+    assertTrue(taskGraph.wouldCreateCycle(4, 4));
+    assertFalse(taskGraph.wouldCreateCycle(4, 1));
+    assertFalse(taskGraph.wouldCreateCycle(5, 2));
+    assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), sorted(taskGraph.getTaskIdsInGroup("group")));
+    assertTrue(taskGraph.getTaskIdsInGroup("other").isEmpty());
+  }
+
+  @Test
+  public void testContains() {
+    WorkflowExecution execution = new WorkflowExecution(taskGraph, 1);
+    assertEquals(1, execution.getRootTaskId());
+    assertSame(taskGraph, execution.getTaskGraph());
+    assertTrue(execution.contains(1));
+    assertTrue(execution.contains(4));
+    assertFalse(execution.contains(5));
+  }
+
+  @Test
+  public void testJoin() {
+    WorkflowExecution execution = new WorkflowExecution(taskGraph, 1);
+    assertEquals(Arrays.asList(2L, 3L), ids(execution.finished(1, true)));
+    assertTrue(execution.finished(2, true).isEmpty()); // d still waiting for c
+    assertEquals(Arrays.asList(d), execution.finished(3, true));
+    assertTrue(execution.finished(4, true).isEmpty());
+  }
+
+  @Test
+  public void testJoinOneParentTriggers() {
+    WorkflowExecution execution = new WorkflowExecution(taskGraph, 1);
+    execution.finished(1, true);
+    assertTrue(execution.finished(2, false).isEmpty());
+    assertEquals(Arrays.asList(d), execution.finished(3, true));
+  }
+
+  @Test
+  public void testRootDoesNotTrigger() {
+    WorkflowExecution execution = new WorkflowExecution(taskGraph, 1);
+    assertTrue(execution.finished(1, false).isEmpty()); // everything below is skipped
+  }
+
+  @Test
+  public void testDisabledChildSkipped() {
+    b.setEnabled(false);
+    c.setEnabled(false);
+    WorkflowExecution execution = new WorkflowExecution(taskGraph, 1);
+    assertTrue(execution.finished(1, true).isEmpty()); // so is d, as it can only be reached through them
+  }
+
+  @Test
+  public void testOtherRoot() {
+    WorkflowExecution execution = new WorkflowExecution(taskGraph, 5);
+    assertFalse(execution.contains(1));
+    assertEquals(Arrays.asList(d), execution.finished(5, true)); // only waits for parents in the execution
+  }
+
+  @Test
+  public void testConcurrentParents() throws InterruptedException {
+    final Task root = createTask(100);
+    final Task child = createTask(200);
+    List<Task> tasks = new ArrayList<Task>();
+    tasks.add(root);
+    tasks.add(child);
+    for (int i = 0; i < 50; i++) {
+      Task parent = createTask(i + 101);
+      root.addChildTask(parent);
+      parent.addChildTask(child);
+      tasks.add(parent);
+    }
+    final WorkflowExecution execution = new WorkflowExecution(new TaskGraph(tasks), 100);
+    final List<Task> parents = execution.finished(100, true);
+    assertEquals(50, parents.size());
+
+    final List<Task> ready = Collections.synchronizedList(new ArrayList<Task>());
+    final CountDownLatch go = new CountDownLatch(1);
+    Thread[] threads = new Thread[parents.size()];
+    for (int i = 0; i < threads.length; i++) {
+      final long parentId = parents.get(i).getId();
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            go.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          ready.addAll(execution.finished(parentId, true));
+        }
+      };
+      threads[i].start();
+    }
+    go.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(Arrays.asList(child), ready); // run exactly once, by the last parent
+  }
+
+  private static List<Long> sorted(Collection<Long> list) {
+    List<Long> sorted = new ArrayList<Long>(list);
+    Collections.sort(sorted);
+    return sorted;
+  }
+
+  private static List<Long> ids(List<Task> tasks) {
+    List<Long> ids = new ArrayList<Long>();
+    for (Task task : tasks) {
+      ids.add(task.getId());
+    }
+    Collections.sort(ids);
+    return ids;
+  }
+
+}
@@ -16,9 +16,11 @@
 package fm.last.citrine.web;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -33,6 +35,7 @@ import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.view.RedirectView;
 
 import fm.last.citrine.model.Task;
+import fm.last.citrine.service.TaskGraph;
 import fm.last.citrine.service.TaskManager;
 
 public class ChildTaskFormsControllerTest {
@@ -52,6 +55,29 @@ public class ChildTaskFormsControllerTest {
     childTasksFormController.setTaskManager(mockTaskManager);
   }
 
+  @Test
+  public void testCycleRejected() throws Exception {
+    Task parent = new Task("task100");
+    parent.setId(100);
+    Task task = new Task("task200");
+    task.setId(200);
+    Task child = new Task("task300");
+    child.setId(300);
+    parent.addChildTask(task);
+    task.addChildTask(child);
+    when(mockTaskManager.getTaskGraph()).thenReturn(new TaskGraph(Arrays.asList(parent, task, child)));
+
+    TaskChildCandidatesDTO dto = new TaskChildCandidatesDTO(task);
+    BindException bindException = new BindException(dto, "bla");
+    childTasksFormController.onBindAndValidate(mockRequest, dto, bindException);
+    assertFalse(bindException.hasErrors());
+
+    dto.getCandidateChildTaskIds().add(100L);
+    childTasksFormController.onBindAndValidate(mockRequest, dto, bindException);
+    assertEquals(1, bindException.getErrorCount());
+    assertEquals("child.cycle", bindException.getGlobalError().getCode());
+  }
+
   @Test
   public void testCancel() throws Exception {
     mockRequest.setParameter(Constants.PARAM_CANCEL, "true");
@@ -68,7 +94,7 @@ public class ChildTaskFormsControllerTest {
     long taskId = 100;
     Task task = new Task("task100");
     task.setId(taskId);
-    when(mockTaskManager.get(taskId)).thenReturn(task);
+    when(mockTaskManager.getWithParentsAndChildren(taskId)).thenReturn(task);
 
     TaskChildCandidatesDTO dto = new TaskChildCandidatesDTO();
     dto.setTask(task);
@@ -86,7 +112,7 @@ public class ChildTaskFormsControllerTest {
     long taskId = 100;
     Task task = new Task("task100");
     task.setId(taskId);
-    when(mockTaskManager.get(taskId)).thenReturn(task);
+    when(mockTaskManager.getWithParentsAndChildren(taskId)).thenReturn(task);
 
     TaskChildCandidatesDTO dto = new TaskChildCandidatesDTO();
     dto.setTask(task);
@@ -95,7 +121,7 @@ public class ChildTaskFormsControllerTest {
     long candidateTaskId = 200;
     Task candidateTask = new Task("task200");
     candidateTask.setId(candidateTaskId);
-    when(mockTaskManager.get(candidateTaskId)).thenReturn(candidateTask);
+    when(mockTaskManager.getWithParentsAndChildren(candidateTaskId)).thenReturn(candidateTask);
     Set<Long> candidateTaskIds = new HashSet<Long>();
     candidateTaskIds.add(candidateTaskId);
     dto.setCandidateChildTaskIds(candidateTaskIds);
@@ -117,7 +143,7 @@ public class ChildTaskFormsControllerTest {
     long taskId = 100;
     Task task = new Task("task100");
     task.setId(taskId);
-    when(mockTaskManager.get(taskId)).thenReturn(task);
+    when(mockTaskManager.getWithParentsAndChildren(taskId)).thenReturn(task);
 
     TaskChildCandidatesDTO dto = new TaskChildCandidatesDTO();
     dto.setTask(task);
@@ -126,7 +152,7 @@ public class ChildTaskFormsControllerTest {
     long childTaskId = 300;
     Task childTask = new Task("task300");
     childTask.setId(childTaskId);
-    when(mockTaskManager.get(childTaskId)).thenReturn(childTask);
+    when(mockTaskManager.getWithParentsAndChildren(childTaskId)).thenReturn(childTask);
     Set<Long> childTaskIds = new HashSet<Long>();
     childTaskIds.add(childTaskId);
     dto.setChildTaskIds(childTaskIds);
@@ -148,7 +174,7 @@ public class ChildTaskFormsControllerTest {
     long taskId = 100;
     Task task = new Task("task100");
     task.setId(taskId);
-    when(mockTaskManager.get(taskId)).thenReturn(task);
+    when(mockTaskManager.getWithParentsAndChildren(taskId)).thenReturn(task);
 
     TaskChildCandidatesDTO dto = new TaskChildCandidatesDTO();
     dto.setTask(task);
@@ -157,7 +183,7 @@ public class ChildTaskFormsControllerTest {
     long candidateTaskId = 200;
     Task candidateTask = new Task("task200");
     candidateTask.setId(candidateTaskId);
-    when(mockTaskManager.get(candidateTaskId)).thenReturn(candidateTask);
+    when(mockTaskManager.getWithParentsAndChildren(candidateTaskId)).thenReturn(candidateTask);
     Set<Long> candidateTaskIds = new HashSet<Long>();
     candidateTaskIds.add(candidateTaskId);
     dto.setCandidateChildTaskIds(candidateTaskIds);
@@ -165,7 +191,7 @@ public class ChildTaskFormsControllerTest {
     long childTaskId = 300;
     Task childTask = new Task("task300");
     childTask.setId(childTaskId);
-    when(mockTaskManager.get(childTaskId)).thenReturn(childTask);
+    when(mockTaskManager.getWithParentsAndChildren(childTaskId)).thenReturn(childTask);
     Set<Long> childTaskIds = new HashSet<Long>();
     childTaskIds.add(childTaskId);
     dto.setChildTaskIds(childTaskIds);
@@ -16,10 +16,17 @@
 
 package fm.last.citrine.web;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -32,7 +39,9 @@ import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.util.HtmlUtils;
 
+import fm.last.citrine.service.LogFileChunk;
 import fm.last.citrine.service.LogFileManager;
+import fm.last.citrine.service.TaskRunRegistry;
 
 public class DisplayLogsControllerTest {
 
@@ -41,6 +50,9 @@ public class DisplayLogsControllerTest {
   @Mock
   private LogFileManager mockLogFileManager;
 
+  @Mock
+  private TaskRunRegistry mockTaskRunRegistry;
+
   private final MockHttpServletRequest mockRequest = new MockHttpServletRequest();
 
   private final MockHttpServletResponse mockResponse = new MockHttpServletResponse();
@@ -49,6 +61,7 @@ public class DisplayLogsControllerTest {
   public void setUp() {
     MockitoAnnotations.initMocks(this);
     displayLogsController.setLogFileManager(mockLogFileManager);
+    displayLogsController.setTaskRunRegistry(mockTaskRunRegistry);
   }
 
   @Test
@@ -68,17 +81,186 @@ public class DisplayLogsControllerTest {
   public void testDisplay() throws Exception {
     String fileContent = "bla";
     String logFileName = "log000.log";
-    when(mockLogFileManager.tail(logFileName, displayLogsController.getTailBytes())).thenReturn(fileContent);
+    when(mockLogFileManager.length(logFileName)).thenReturn(3L);
+    when(mockLogFileManager.read(logFileName, 0, 3)).thenReturn(new LogFileChunk(fileContent, 3, false));
     mockRequest.setParameter(DisplayLogsController.PARAM_LOG_FILE, logFileName);
     ModelAndView modelAndView = displayLogsController.display(mockRequest, mockResponse);
     assertEquals("log_display", modelAndView.getViewName());
     Map<String, Object> model = modelAndView.getModel();
-    assertEquals(3, model.size());
+    assertEquals(6, model.size());
     assertEquals(fileContent, model.get("contents"));
+    assertEquals(logFileName, model.get("logFile"));
+    assertEquals(3L, model.get("offset")); // following should start after the content displayed
+    assertEquals(true, model.get("running"));
     assertEquals(null, model.get("taskId")); // didn't pass one in for this test
     assertEquals(null, model.get("selectedGroupName")); // didn't pass one in for this test
   }
 
+  @Test
+  public void testDisplayTailMeetsFollow() throws Exception {
+    String logFileName = "log000.log";
+    displayLogsController.setTailBytes(6);
+    when(mockLogFileManager.length(logFileName)).thenReturn(12L);
+    // starts one byte early to find the first complete line, reads up to the length taken as the follow offset
+    when(mockLogFileManager.read(logFileName, 5, 7)).thenReturn(new LogFileChunk("ne1\nline2", 12, false));
+    mockRequest.setParameter(DisplayLogsController.PARAM_LOG_FILE, logFileName);
+    Map<String, Object> model = displayLogsController.display(mockRequest, mockResponse).getModel();
+    assertEquals("line2", model.get("contents")); // partial line is dropped
+    assertEquals(12L, model.get("offset"));
+  }
+
+  @Test
+  public void testDisplayOffsetFromTail() throws Exception {
+    String logFileName = "log000.log";
+    when(mockLogFileManager.length(logFileName)).thenReturn(5L);
+    // last character was only partly written when the length was taken, so following starts from it
+    when(mockLogFileManager.read(logFileName, 0, 5)).thenReturn(new LogFileChunk("bla", 3, false));
+    mockRequest.setParameter(DisplayLogsController.PARAM_LOG_FILE, logFileName);
+    Map<String, Object> model = displayLogsController.display(mockRequest, mockResponse).getModel();
+    assertEquals("bla", model.get("contents"));
+    assertEquals(3L, model.get("offset"));
+  }
+
+  @Test
+  public void testFollow() throws Exception {
+    String logFileName = "log000.log";
+    when(mockLogFileManager.length(logFileName)).thenReturn(10L);
+    when(mockLogFileManager.read(logFileName, 3, displayLogsController.getFollowMaxBytes())).thenReturn(
+        new LogFileChunk("<b>new</b>", 10, false));
+    mockRequest.setParameter(DisplayLogsController.PARAM_LOG_FILE, logFileName);
+    mockRequest.setParameter(DisplayLogsController.PARAM_OFFSET, "3");
+    assertNull(displayLogsController.follow(mockRequest, mockResponse));
+    assertEquals("<b>new</b>", mockResponse.getContentAsString()); // plain text so not escaped
+    assertEquals("10", mockResponse.getHeader(DisplayLogsController.HEADER_OFFSET));
+    assertEquals("false", mockResponse.getHeader(DisplayLogsController.HEADER_MORE));
+    assertEquals("true", mockResponse.getHeader(DisplayLogsController.HEADER_RUNNING));
+    assertEquals("false", mockResponse.getHeader(DisplayLogsController.HEADER_REPLACED));
+    assertTrue(mockResponse.getContentType().startsWith("text/plain"));
+  }
+
+  @Test
+  public void testFollowFinished() throws Exception {
+    String logFileName = "5.log";
+    displayLogsController.setFollowTimeout(10000);
+    when(mockTaskRunRegistry.getRunningTaskRunIds()).thenReturn(Collections.singleton(6L)); // a different run
+    when(mockLogFileManager.length(logFileName)).thenReturn(3L);
+    when(mockLogFileManager.read(logFileName, 3, displayLogsController.getFollowMaxBytes())).thenReturn(
+        new LogFileChunk("", 3, false));
+    mockRequest.setParameter(DisplayLogsController.PARAM_LOG_FILE, logFileName);
+    mockRequest.setParameter(DisplayLogsController.PARAM_OFFSET, "3");
+    long start = System.currentTimeMillis();
+    displayLogsController.follow(mockRequest, mockResponse);
+    assertTrue(System.currentTimeMillis() - start < 5000); // doesn't wait for output which won't come
+    assertEquals("false", mockResponse.getHeader(DisplayLogsController.HEADER_RUNNING));
+  }
+
+  @Test
+  public void testFollowReplaced() throws Exception {
+    String logFileName = "log000.log";
+    displayLogsController.setFollowTimeout(100);
+    when(mockLogFileManager.length(logFileName)).thenReturn(3L);
+    when(mockLogFileManager.read(logFileName, 10, displayLogsController.getFollowMaxBytes())).thenReturn(
+        new LogFileChunk("", 10, false, true));
+    mockRequest.setParameter(DisplayLogsController.PARAM_LOG_FILE, logFileName);
+    mockRequest.setParameter(DisplayLogsController.PARAM_OFFSET, "10");
+    displayLogsController.follow(mockRequest, mockResponse);
+    assertEquals("", mockResponse.getContentAsString());
+    assertEquals("true", mockResponse.getHeader(DisplayLogsController.HEADER_REPLACED));
+  }
+
+  @Test
+  public void testDisplayFinished() throws Exception {
+    String logFileName = "5.log";
+    when(mockTaskRunRegistry.getRunningTaskRunIds()).thenReturn(Collections.singleton(6L)); // a different run
+    when(mockLogFileManager.length(logFileName)).thenReturn(3L);
+    when(mockLogFileManager.read(logFileName, 0, 3)).thenReturn(new LogFileChunk("bla", 3, false));
+    mockRequest.setParameter(DisplayLogsController.PARAM_LOG_FILE, logFileName);
+    Map<String, Object> model = displayLogsController.display(mockRequest, mockResponse).getModel();
+    assertEquals(false, model.get("running")); // so the page doesn't follow it
+  }
+
+  @Test
+  public void testFollowWaitsForOutput() throws Exception {
+    String logFileName = "log000.log";
+    displayLogsController.setFollowTimeout(100);
+    displayLogsController.setFollowPollInterval(10);
+    when(mockLogFileManager.length(logFileName)).thenReturn(3L);
+    when(mockLogFileManager.read(logFileName, 3, displayLogsController.getFollowMaxBytes())).thenReturn(
+        new LogFileChunk("", 3, false));
+    mockRequest.setParameter(DisplayLogsController.PARAM_LOG_FILE, logFileName);
+    mockRequest.setParameter(DisplayLogsController.PARAM_OFFSET, "3");
+    long start = System.currentTimeMillis();
+    displayLogsController.follow(mockRequest, mockResponse);
+    assertTrue(System.currentTimeMillis() - start >= 100);
+    assertEquals("", mockResponse.getContentAsString());
+    assertEquals("3", mockResponse.getHeader(DisplayLogsController.HEADER_OFFSET));
+  }
+
+  @Test
+  public void testRaw() throws Exception {
+    String logFileName = "log000.log";
+    when(mockLogFileManager.exists(logFileName)).thenReturn(true);
+    when(mockLogFileManager.open(logFileName, true)).thenReturn(new ByteArrayInputStream("contents".getBytes()));
+    mockRequest.setParameter(DisplayLogsController.PARAM_LOG_FILE, logFileName);
+    assertNull(displayLogsController.raw(mockRequest, mockResponse));
+    assertEquals("contents", mockResponse.getContentAsString());
+    assertNull(mockResponse.getHeader("Content-Encoding"));
+    assertTrue(mockResponse.getContentType().startsWith("text/plain"));
+  }
+
+  @Test
+  public void testRawCompressed() throws Exception {
+    String logFileName = "log000.log";
+    byte[] compressed = new byte[] { 0x1f, (byte) 0x8b, 1, 2 };
+    when(mockLogFileManager.exists(logFileName)).thenReturn(true);
+    when(mockLogFileManager.isCompressed(logFileName)).thenReturn(true);
+    when(mockLogFileManager.open(logFileName, false)).thenReturn(new ByteArrayInputStream(compressed));
+    mockRequest.setParameter(DisplayLogsController.PARAM_LOG_FILE, logFileName);
+    mockRequest.addHeader("Accept-Encoding", "gzip, deflate");
+    displayLogsController.raw(mockRequest, mockResponse);
+    assertArrayEquals(compressed, mockResponse.getContentAsByteArray());
+    assertEquals("gzip", mockResponse.getHeader("Content-Encoding"));
+  }
+
+  @Test
+  public void testRawCompressedNotAccepted() throws Exception {
+    String logFileName = "log000.log";
+    when(mockLogFileManager.exists(logFileName)).thenReturn(true);
+    when(mockLogFileManager.isCompressed(logFileName)).thenReturn(true);
+    when(mockLogFileManager.open(logFileName, true)).thenReturn(new ByteArrayInputStream("contents".getBytes()));
+    mockRequest.setParameter(DisplayLogsController.PARAM_LOG_FILE, logFileName);
+    displayLogsController.raw(mockRequest, mockResponse);
+    assertEquals("contents", mockResponse.getContentAsString());
+    assertNull(mockResponse.getHeader("Content-Encoding"));
+  }
+
+  @Test
+  public void testRawNonExistent() throws Exception {
+    mockRequest.setParameter(DisplayLogsController.PARAM_LOG_FILE, "none.log");
+    displayLogsController.raw(mockRequest, mockResponse);
+    assertEquals(404, mockResponse.getStatus());
+  }
+
+  @Test
+  public void testInvalidLogFileName() throws Exception {
+    String[] logFileNames = { "../../etc/passwd", "../secret.log", "12/808.log", "..\\808.log", "passwd", null };
+    for (String logFileName : logFileNames) {
+      MockHttpServletRequest request = new MockHttpServletRequest();
+      request.setParameter(DisplayLogsController.PARAM_LOG_FILE, logFileName);
+      request.setParameter(DisplayLogsController.PARAM_OFFSET, "0");
+      MockHttpServletResponse response = new MockHttpServletResponse();
+      assertNull(displayLogsController.raw(request, response));
+      assertEquals(404, response.getStatus());
+      response = new MockHttpServletResponse();
+      assertNull(displayLogsController.display(request, response));
+      assertEquals(404, response.getStatus());
+      response = new MockHttpServletResponse();
+      assertNull(displayLogsController.follow(request, response));
+      assertEquals(404, response.getStatus());
+    }
+    verifyZeroInteractions(mockLogFileManager);
+  }
+
   @Test
   public void setSetTailBytes() {
     displayLogsController.setTailBytes(500);
@@ -89,7 +271,8 @@ public class DisplayLogsControllerTest {
   public void escapeHtmlInDisplay() throws Exception {
     String fileContent = "<br/><b>bla</b>";
     String logFileName = "log000.log";
-    when(mockLogFileManager.tail(logFileName, displayLogsController.getTailBytes())).thenReturn(fileContent);
+    when(mockLogFileManager.length(logFileName)).thenReturn(15L);
+    when(mockLogFileManager.read(logFileName, 0, 15)).thenReturn(new LogFileChunk(fileContent, 15, false));
     mockRequest.setParameter(DisplayLogsController.PARAM_LOG_FILE, logFileName);
     ModelAndView modelAndView = displayLogsController.display(mockRequest, mockResponse);
     assertEquals("log_display", modelAndView.getViewName());
@@ -16,6 +16,7 @@
 package fm.last.citrine.web;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.when;
 
 import java.util.Map;
@@ -31,7 +32,7 @@ import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.util.HtmlUtils;
 
-import fm.last.citrine.model.TaskRun;
+import fm.last.citrine.model.TaskRunOutput;
 import fm.last.citrine.service.TaskRunManager;
 
 public class DisplayTaskRunMessageControllerTest {
@@ -45,17 +46,17 @@ public class DisplayTaskRunMessageControllerTest {
 
   private final MockHttpServletResponse mockResponse = new MockHttpServletResponse();
 
-  private final TaskRun taskRun = new TaskRun();
+  private final TaskRunOutput output = new TaskRunOutput();
 
   @Before
   public void setUp() {
     MockitoAnnotations.initMocks(this);
     displayTaskRunMessageController.setTaskRunManager(mockTaskRunManager);
-    taskRun.setId(1000);
-    taskRun.setStackTrace("strack trace");
-    taskRun.setSysOut("sys out");
-    taskRun.setSysErr("sys err");
-    when(mockTaskRunManager.get(taskRun.getId())).thenReturn(taskRun);
+    output.setTaskRunId(1000);
+    output.setStackTrace("strack trace");
+    output.setSysOut("sys out");
+    output.setSysErr("sys err");
+    when(mockTaskRunManager.getOutput(output.getTaskRunId())).thenReturn(output);
 
   }
 
@@ -76,20 +77,20 @@ public class DisplayTaskRunMessageControllerTest {
 
   @Test
   public void testDisplayStack() throws Exception {
-    mockRequest.addParameter(Constants.PARAM_TASK_RUN_ID, String.valueOf(taskRun.getId()));
+    mockRequest.addParameter(Constants.PARAM_TASK_RUN_ID, String.valueOf(output.getTaskRunId()));
     ModelAndView modelAndView = displayTaskRunMessageController.displayStack(mockRequest, mockResponse);
     assertEquals("display_task_run_message", modelAndView.getViewName());
     Map<String, Object> model = modelAndView.getModel();
     assertEquals(1, model.size());
-    assertEquals(taskRun.getStackTrace(), model.get("message"));
+    assertEquals(output.getStackTrace(), model.get("message"));
   }
 
   @Test
   public void testDisplayStackContainingHtml() throws Exception {
     String strackTrace = "<b>stack trace</b>";
-    taskRun.setStackTrace(strackTrace);
+    output.setStackTrace(strackTrace);
 
-    mockRequest.addParameter(Constants.PARAM_TASK_RUN_ID, String.valueOf(taskRun.getId()));
+    mockRequest.addParameter(Constants.PARAM_TASK_RUN_ID, String.valueOf(output.getTaskRunId()));
     ModelAndView modelAndView = displayTaskRunMessageController.displayStack(mockRequest, mockResponse);
     Map<String, Object> model = modelAndView.getModel();
     String escapedTrace = HtmlUtils.htmlEscape(strackTrace);
@@ -98,19 +99,19 @@ public class DisplayTaskRunMessageControllerTest {
 
   @Test
   public void testDisplaySysOut() throws Exception {
-    mockRequest.addParameter(Constants.PARAM_TASK_RUN_ID, String.valueOf(taskRun.getId()));
+    mockRequest.addParameter(Constants.PARAM_TASK_RUN_ID, String.valueOf(output.getTaskRunId()));
     ModelAndView modelAndView = displayTaskRunMessageController.displaySysOut(mockRequest, mockResponse);
     assertEquals("display_task_run_message", modelAndView.getViewName());
     Map<String, Object> model = modelAndView.getModel();
     assertEquals(1, model.size());
-    assertEquals(taskRun.getSysOut(), model.get("message"));
+    assertEquals(output.getSysOut(), model.get("message"));
   }
 
   @Test
   public void testDisplaySysOutContaingHtml() throws Exception {
     String sysOut = "<b>sys out</b>";
-    taskRun.setSysOut(sysOut);
-    mockRequest.addParameter(Constants.PARAM_TASK_RUN_ID, String.valueOf(taskRun.getId()));
+    output.setSysOut(sysOut);
+    mockRequest.addParameter(Constants.PARAM_TASK_RUN_ID, String.valueOf(output.getTaskRunId()));
     ModelAndView modelAndView = displayTaskRunMessageController.displaySysOut(mockRequest, mockResponse);
     Map<String, Object> model = modelAndView.getModel();
     String escapedSysOut = HtmlUtils.htmlEscape(sysOut);
@@ -119,23 +120,31 @@ public class DisplayTaskRunMessageControllerTest {
 
   @Test
   public void testDisplaySysErr() throws Exception {
-    mockRequest.addParameter(Constants.PARAM_TASK_RUN_ID, String.valueOf(taskRun.getId()));
+    mockRequest.addParameter(Constants.PARAM_TASK_RUN_ID, String.valueOf(output.getTaskRunId()));
     ModelAndView modelAndView = displayTaskRunMessageController.displaySysErr(mockRequest, mockResponse);
     assertEquals("display_task_run_message", modelAndView.getViewName());
     Map<String, Object> model = modelAndView.getModel();
     assertEquals(1, model.size());
-    assertEquals(taskRun.getSysErr(), model.get("message"));
+    assertEquals(output.getSysErr(), model.get("message"));
   }
 
   @Test
   public void testDisplaySysErrContaingHtml() throws Exception {
     String sysErr = "<b>sys err</b>";
-    taskRun.setSysErr(sysErr);
-    mockRequest.addParameter(Constants.PARAM_TASK_RUN_ID, String.valueOf(taskRun.getId()));
+    output.setSysErr(sysErr);
+    mockRequest.addParameter(Constants.PARAM_TASK_RUN_ID, String.valueOf(output.getTaskRunId()));
     ModelAndView modelAndView = displayTaskRunMessageController.displaySysErr(mockRequest, mockResponse);
     Map<String, Object> model = modelAndView.getModel();
     String escapedSysErr = HtmlUtils.htmlEscape(sysErr);
     assertEquals(escapedSysErr, model.get("message"));
   }
 
+  @Test
+  public void testDisplaySysOutNoOutput() throws Exception {
+    mockRequest.addParameter(Constants.PARAM_TASK_RUN_ID, "1001");
+    ModelAndView modelAndView = displayTaskRunMessageController.displaySysOut(mockRequest, mockResponse);
+    assertEquals("display_task_run_message", modelAndView.getViewName());
+    assertNull(modelAndView.getModel().get("message"));
+  }
+
 }
@@ -16,9 +16,12 @@
 package fm.last.citrine.web;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Mockito.when;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -31,12 +34,14 @@ import org.mockito.MockitoAnnotations;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.view.RedirectView;
 
 import fm.last.citrine.model.Status;
 import fm.last.citrine.model.Task;
 import fm.last.citrine.model.TaskRun;
 import fm.last.citrine.scheduler.SchedulerManager;
 import fm.last.citrine.scheduler.SchedulerStatus;
+import fm.last.citrine.scheduler.TaskRunHandle;
 import fm.last.citrine.service.TaskManager;
 import fm.last.citrine.service.TaskRunManager;
 
@@ -116,13 +121,44 @@ public class TaskControllerTest {
     when(mockTaskManager.getTasks()).thenReturn(tasks);
     DateTime startDate = new DateTime().minusDays(1);
     TaskRun taskRun = new TaskRun(startDate.toDate(), startDate.plusHours(2).toDate(), "", "", "", task.getId());
-    when(mockTaskRunManager.getMostRecent(task.getId())).thenReturn(taskRun);
+    when(mockTaskRunManager.getMostRecent(anyCollectionOf(Long.class))).thenReturn(
+        Collections.singletonMap(task.getId(), taskRun));
     Map<String, Object> model = getModel();
     Map<Long, String> lastRunMap = (Map<Long, String>) model.get("lastRun");
     assertEquals(1, lastRunMap.size());
     assertEquals("1 day ago", lastRunMap.get(0L));
   }
 
+  @Test
+  public void testRun() throws Exception {
+    Task task = new Task("task1");
+    task.setId(5);
+    when(mockTaskManager.get(5)).thenReturn(task);
+    TaskRunHandle handle = new TaskRunHandle(5);
+    handle.started(10);
+    when(mockSchedulerManager.runTaskNow(task)).thenReturn(handle);
+    mockRequest.addParameter(Constants.PARAM_TASK_ID, "5");
+    mockRequest.addParameter(Constants.PARAM_SELECTED_GROUP_NAME, "group");
+    long start = System.currentTimeMillis();
+    ModelAndView modelAndView = taskController.run(mockRequest, mockResponse);
+    // handle already started so there should be no waiting
+    assertTrue(System.currentTimeMillis() - start < taskController.getRunStartTimeout());
+    RedirectView view = (RedirectView) modelAndView.getView();
+    assertEquals("task_runs.do?action=list&taskId=5&selectedGroupName=group", view.getUrl());
+  }
+
+  @Test
+  public void testRunNotStarted() throws Exception {
+    Task task = new Task("task1");
+    task.setId(5);
+    when(mockTaskManager.get(5)).thenReturn(task);
+    when(mockSchedulerManager.runTaskNow(task)).thenReturn(new TaskRunHandle(5));
+    mockRequest.addParameter(Constants.PARAM_TASK_ID, "5");
+    taskController.setRunStartTimeout(10);
+    ModelAndView modelAndView = taskController.run(mockRequest, mockResponse);
+    assertTrue(modelAndView.getView() instanceof RedirectView); // still redirects once the timeout elapses
+  }
+
   private Map<String, Object> getModel() throws Exception {
     ModelAndView modelAndView = taskController.list(mockRequest, mockResponse);
     assertEquals("tasks_list", modelAndView.getViewName());
@@ -55,7 +55,7 @@ public class TaskFormControllerTest {
     Task task = new Task();
     task.setId(345);
     TaskDTO dto = new TaskDTO(task);
-    when(mockTaskManager.get(task.getId())).thenReturn(task);
+    when(mockTaskManager.getWithParentsAndChildren(task.getId())).thenReturn(task);
     BindException bindException = new BindException(dto, "bla");
     mockRequest.addParameter(Constants.PARAM_DELETE, "true");
     ModelAndView modelAndView = taskFormController.onSubmit(mockRequest, mockResponse, dto, bindException);
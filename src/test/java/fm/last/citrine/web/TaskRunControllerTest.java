@@ -16,8 +16,13 @@
 package fm.last.citrine.web;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -31,7 +36,8 @@ import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.web.servlet.ModelAndView;
 
-import fm.last.citrine.model.TaskRun;
+import fm.last.citrine.model.Status;
+import fm.last.citrine.model.TaskRunSummary;
 import fm.last.citrine.service.LogFileManager;
 import fm.last.citrine.service.TaskManager;
 import fm.last.citrine.service.TaskRunManager;
@@ -77,7 +83,7 @@ public class TaskRunControllerTest {
     assertEquals("task_runs_list", modelAndView.getViewName());
     Map<String, Object> model = modelAndView.getModel();
     assertEquals(taskId, model.get("taskId"));
-    assertEquals(0, (((List<TaskRun>) model.get("taskRuns")).size()));
+    assertEquals(0, (((List<TaskRunSummary>) model.get("taskRuns")).size()));
     assertEquals(0, (((Map<Long, String>) model.get("taskRunLogs")).size()));
     assertEquals(null, model.get("selectedGroupName"));
   }
@@ -100,11 +106,75 @@ public class TaskRunControllerTest {
     assertEquals("task_runs_list", modelAndView.getViewName());
     Map<String, Object> model = modelAndView.getModel();
     assertEquals(taskId, model.get("taskId"));
-    assertEquals(0, (((List<TaskRun>) model.get("taskRuns")).size()));
+    assertEquals(0, (((List<TaskRunSummary>) model.get("taskRuns")).size()));
     assertEquals(0, (((Map<Long, String>) model.get("taskRunLogs")).size()));
     assertEquals(null, model.get("selectedGroupName"));
   }
 
-  // TODO: test list with varying inputs
+  /**
+   * Creates summaries of TaskRuns for task 345 with ids from "from" down to "to", most recent first.
+   */
+  private List<TaskRunSummary> createSummaries(long from, long to) {
+    List<TaskRunSummary> summaries = new ArrayList<TaskRunSummary>();
+    for (long id = from; id >= to; id--) {
+      summaries.add(new TaskRunSummary(id, 345, Status.SUCCESS, new Date(), new Date(), false, false, false));
+    }
+    return summaries;
+  }
+
+  @Test
+  public void testListFirstPage() throws Exception {
+    taskRunController.setPageSize(2);
+    mockRequest.addParameter(Constants.PARAM_TASK_ID, "345");
+    when(mockTaskRunManager.findSummariesBefore(345, Long.MAX_VALUE, 3)).thenReturn(createSummaries(100, 98));
+    Map<String, Object> model = taskRunController.list(mockRequest, mockResponse).getModel();
+    List<TaskRunSummary> taskRuns = (List<TaskRunSummary>) model.get("taskRuns");
+    assertEquals(2, taskRuns.size());
+    assertEquals(100, taskRuns.get(0).getId());
+    assertEquals(99, taskRuns.get(1).getId());
+    assertFalse(model.containsKey("previousAfter"));
+    assertEquals(99L, model.get("nextBefore"));
+  }
+
+  @Test
+  public void testListNextPage() throws Exception {
+    taskRunController.setPageSize(2);
+    mockRequest.addParameter(Constants.PARAM_TASK_ID, "345");
+    mockRequest.addParameter("before", "99");
+    when(mockTaskRunManager.findSummariesBefore(345, 99, 3)).thenReturn(createSummaries(98, 97));
+    Map<String, Object> model = taskRunController.list(mockRequest, mockResponse).getModel();
+    assertEquals(2, ((List<TaskRunSummary>) model.get("taskRuns")).size());
+    assertEquals(98L, model.get("previousAfter"));
+    assertFalse(model.containsKey("nextBefore")); // last page
+  }
+
+  @Test
+  public void testListPreviousPage() throws Exception {
+    taskRunController.setPageSize(2);
+    mockRequest.addParameter(Constants.PARAM_TASK_ID, "345");
+    mockRequest.addParameter("after", "96");
+    when(mockTaskRunManager.findSummariesAfter(345, 96, 3)).thenReturn(createSummaries(99, 97));
+    Map<String, Object> model = taskRunController.list(mockRequest, mockResponse).getModel();
+    List<TaskRunSummary> taskRuns = (List<TaskRunSummary>) model.get("taskRuns");
+    assertEquals(2, taskRuns.size());
+    assertEquals(98, taskRuns.get(0).getId());
+    assertEquals(97, taskRuns.get(1).getId());
+    assertEquals(98L, model.get("previousAfter"));
+    assertEquals(97L, model.get("nextBefore"));
+  }
+
+  @Test
+  public void testListPreviousPageIsFirstPage() throws Exception {
+    taskRunController.setPageSize(2);
+    mockRequest.addParameter(Constants.PARAM_TASK_ID, "345");
+    mockRequest.addParameter("after", "98");
+    when(mockTaskRunManager.findSummariesAfter(345, 98, 3)).thenReturn(createSummaries(100, 99));
+    when(mockTaskRunManager.findSummariesBefore(345, Long.MAX_VALUE, 3)).thenReturn(createSummaries(100, 98));
+    Map<String, Object> model = taskRunController.list(mockRequest, mockResponse).getModel();
+    List<TaskRunSummary> taskRuns = (List<TaskRunSummary>) model.get("taskRuns");
+    assertEquals(100, taskRuns.get(0).getId());
+    assertFalse(model.containsKey("previousAfter"));
+    assertTrue(model.containsKey("nextBefore"));
+  }
 
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Simple comparison of the previous RandomAccessFile.readLine() based tail and LastFileUtils.tail() on a large log
+ * file. Not run as part of the test suite, run the main method by hand, e.g.
+ * 
+ * <pre>
+ * java -cp target/classes:target/test-classes:... fm.last.commons.io.LastFileUtilsTailBenchmark [megabytes] [tailBytes] [iterations]
+ * </pre>
+ */
+public class LastFileUtilsTailBenchmark {
+
+  private static final String LINE = "2010-01-01 00:00:00,000 some typical output from a chatty job which goes on a bit\n";
+
+  /**
+   * The way LastFileUtils.tail() used to read the end of a file.
+   */
+  static String readLineTail(File file, long bytes) throws IOException {
+    RandomAccessFile raFile = new RandomAccessFile(file, "r");
+    try {
+      raFile.seek(raFile.length() - bytes);
+      StringBuffer tail = new StringBuffer((int) bytes);
+      String line = raFile.readLine();
+      while (line != null) {
+        tail.append(line);
+        line = raFile.readLine();
+        if (line != null) {
+          tail.append("\n");
+        }
+      }
+      return tail.toString();
+    } finally {
+      raFile.close();
+    }
+  }
+
+  private static void time(String name, File file, int tailBytes, int iterations) throws IOException {
+    long start = System.nanoTime();
+    long result = 0;
+    for (int i = 0; i < iterations; i++) {
+      if ("readLine".equals(name)) {
+        result += readLineTail(file, tailBytes).length();
+      } else {
+        result += LastFileUtils.tail(file, tailBytes).length();
+      }
+    }
+    double millis = (System.nanoTime() - start) / 1e6 / iterations;
+    System.out.println(String.format("%-10s %8.3f ms/tail (%d)", name, millis, result));
+  }
+
+  public static void main(String[] args) throws IOException {
+    int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+    int tailBytes = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+    File file = File.createTempFile("tail-benchmark", ".log");
+    file.deleteOnExit();
+    OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024);
+    byte[] line = LINE.getBytes();
+    for (long written = 0; written < megabytes * 1024L * 1024L; written += line.length) {
+      outputStream.write(line);
+    }
+    outputStream.close();
+    for (int run = 0; run < 2; run++) { // first run is warm up
+      time("readLine", file, tailBytes, iterations);
+      time("tail", file, tailBytes, iterations);
+    }
+  }
+
+}
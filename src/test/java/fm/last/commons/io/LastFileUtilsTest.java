@@ -19,6 +19,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -98,6 +99,63 @@ public class LastFileUtilsTest {
         tail);
   }
 
+  /**
+   * Tests requesting a tail which starts part way through a line, the partial line should be skipped.
+   * 
+   * @throws IOException
+   */
+  @Test
+  public void testTailAlignedToLine() throws IOException {
+    File file = dataFolder.getFile("3805bytes.log");
+    String tail = LastFileUtils.tail(file, 200);
+    assertEquals(
+        "2008-01-14 18:25:54,757 fm.last.citrine.jobs.syscommand.RollingFileSysCommandObserver.sysOut(RollingFileSysCommandObserver.java:72) version.sh",
+        tail);
+  }
+
+  @Test
+  public void testTailUTF8() throws IOException {
+    File file = new File(tempFolder.getRoot(), "utf8.log");
+    FileUtils.writeStringToFile(file, "first line\nsecond \u00fcber line\nthird \u00e9\n", "UTF-8");
+    assertEquals("second \u00fcber line\nthird \u00e9", LastFileUtils.tail(file, 28));
+  }
+
+  @Test
+  public void testTailNoLineBreak() throws IOException {
+    File file = new File(tempFolder.getRoot(), "oneline.log");
+    FileUtils.writeStringToFile(file, "\u00e9\u00e9\u00e9abc", "UTF-8");
+    // first character is cut in half so should be dropped
+    assertEquals("\u00e9\u00e9abc", LastFileUtils.tail(file, 8));
+  }
+
+  @Test
+  public void testTailPartialLastLine() throws IOException {
+    File file = new File(tempFolder.getRoot(), "partial.log");
+    FileUtils.writeStringToFile(file, "first line\nsecond line\n", "UTF-8");
+    assertEquals("nd line", LastFileUtils.tail(file, 8));
+  }
+
+  @Test
+  public void testTailStreamMatchesFile() throws IOException {
+    File file = dataFolder.getFile("3805bytes.log");
+    for (long bytes : new long[] { 0, 1, 143, 200, 287, 3804, 3805, 50000 }) {
+      InputStream inputStream = new FileInputStream(file);
+      try {
+        assertEquals("tail of " + bytes, LastFileUtils.tail(file, bytes), LastFileUtils.tail(inputStream, bytes));
+      } finally {
+        inputStream.close();
+      }
+    }
+  }
+
+  @Test
+  public void testTailStreamUTF8() throws IOException {
+    byte[] bytes = "first line\nsecond \u00fcber line\nthird \u00e9\n".getBytes("UTF-8");
+    assertEquals("second \u00fcber line\nthird \u00e9", LastFileUtils.tail(new ByteArrayInputStream(bytes), 28));
+    bytes = "\u00e9\u00e9\u00e9abc".getBytes("UTF-8");
+    assertEquals("\u00e9\u00e9abc", LastFileUtils.tail(new ByteArrayInputStream(bytes), 8));
+  }
+
   @Test(expected = java.io.FileNotFoundException.class)
   public void testGetFile_NonExistent() throws FileNotFoundException {
     LastFileUtils.getFile("non-existent-file", this.getClass());
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import fm.last.commons.test.file.TemporaryFolder;
+
+/**
+ * Unit test case for the SeekableGzipFile.
+ */
+public class SeekableGzipFileTest {
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private File source;
+
+  private File compressed;
+
+  private String contents;
+
+  @Before
+  public void setUp() throws IOException {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      builder.append("line ").append(i).append('\n');
+    }
+    contents = builder.toString();
+    source = new File(tempFolder.getRoot(), "source.log");
+    FileUtils.writeStringToFile(source, contents);
+    compressed = new File(tempFolder.getRoot(), "source.log.gz");
+  }
+
+  private String read(InputStream inputStream) throws IOException {
+    try {
+      return IOUtils.toString(inputStream);
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  @Test
+  public void testReadableAsGzip() throws IOException {
+    SeekableGzipFile.compress(source, compressed, 100);
+    assertEquals(contents, read(new GZIPInputStream(new FileInputStream(compressed))));
+    assertTrue(compressed.length() < source.length());
+  }
+
+  @Test
+  public void testReadFromOffset() throws IOException {
+    SeekableGzipFile.compress(source, compressed, 100);
+    SeekableGzipFile seekableFile = SeekableGzipFile.open(compressed);
+    assertEquals(contents.length(), seekableFile.length());
+    assertEquals(100, seekableFile.getBlockSize());
+    for (int offset : new int[] { 0, 1, 99, 100, 101, 550, contents.length() - 1 }) {
+      assertEquals("offset " + offset, contents.substring(offset), read(seekableFile.read(offset)));
+    }
+    assertEquals("", read(seekableFile.read(contents.length())));
+  }
+
+  @Test
+  public void testSingleBlock() throws IOException {
+    SeekableGzipFile.compress(source, compressed);
+    SeekableGzipFile seekableFile = SeekableGzipFile.open(compressed);
+    assertEquals(SeekableGzipFile.DEFAULT_BLOCK_SIZE, seekableFile.getBlockSize());
+    assertEquals(contents.substring(10), read(seekableFile.read(10)));
+    assertEquals(contents, read(new GZIPInputStream(new FileInputStream(compressed))));
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    FileUtils.writeStringToFile(source, "");
+    SeekableGzipFile.compress(source, compressed);
+    SeekableGzipFile seekableFile = SeekableGzipFile.open(compressed);
+    assertEquals(0, seekableFile.length());
+    assertEquals("", read(seekableFile.read(0)));
+    assertEquals("", read(new GZIPInputStream(new FileInputStream(compressed))));
+  }
+
+  @Test
+  public void testBlockSizeIncreasedForLargeFile() throws IOException {
+    FileUtils.writeByteArrayToFile(source, new byte[SeekableGzipFile.MAX_BLOCKS * 2 + 1]);
+    SeekableGzipFile.compress(source, compressed, 1);
+    SeekableGzipFile seekableFile = SeekableGzipFile.open(compressed);
+    assertEquals(3, seekableFile.getBlockSize());
+    assertEquals(SeekableGzipFile.MAX_BLOCKS * 2 + 1, read(new GZIPInputStream(new FileInputStream(compressed)))
+        .length());
+  }
+
+  @Test
+  public void testOpenPlainGzip() throws IOException {
+    OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(compressed));
+    outputStream.write(contents.getBytes());
+    outputStream.close();
+    assertNull(SeekableGzipFile.open(compressed));
+  }
+
+  @Test
+  public void testOpenNotGzip() throws IOException {
+    assertNull(SeekableGzipFile.open(source));
+  }
+
+}
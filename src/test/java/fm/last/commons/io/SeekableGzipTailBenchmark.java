@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.commons.io;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Simple comparison of tailing a plain gzip file, which has to be decompressed from the start, with tailing a
+ * SeekableGzipFile. Not run as part of the test suite, run the main method by hand, e.g.
+ * 
+ * <pre>
+ * java -cp target/classes:target/test-classes:... fm.last.commons.io.SeekableGzipTailBenchmark [megabytes] [tailBytes] [iterations]
+ * </pre>
+ */
+public class SeekableGzipTailBenchmark {
+
+  private static final String LINE = "2010-01-01 00:00:00,000 some typical output from a chatty job which goes on a bit\n";
+
+  private static String tail(String name, File file, int tailBytes) throws IOException {
+    InputStream inputStream;
+    if ("gzip".equals(name)) {
+      inputStream = new GZIPInputStream(new FileInputStream(file), 64 * 1024);
+    } else {
+      SeekableGzipFile seekableFile = SeekableGzipFile.open(file);
+      inputStream = seekableFile.read(Math.max(0, seekableFile.length() - tailBytes - 1));
+    }
+    try {
+      return LastFileUtils.tail(inputStream, tailBytes);
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  private static void time(String name, File file, int tailBytes, int iterations) throws IOException {
+    long start = System.nanoTime();
+    long result = 0;
+    for (int i = 0; i < iterations; i++) {
+      result += tail(name, file, tailBytes).length();
+    }
+    double millis = (System.nanoTime() - start) / 1e6 / iterations;
+    System.out.println(String.format("%-10s %10.3f ms/tail (%d bytes, %d)", name, millis, file.length(), result));
+  }
+
+  public static void main(String[] args) throws IOException {
+    int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+    int tailBytes = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    File file = File.createTempFile("tail-benchmark", ".log");
+    file.deleteOnExit();
+    OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file), 1024 * 1024);
+    byte[] line = LINE.getBytes();
+    for (long written = 0; written < megabytes * 1024L * 1024L; written += line.length) {
+      outputStream.write(line);
+    }
+    outputStream.close();
+
+    File gzipFile = File.createTempFile("tail-benchmark", ".log.gz");
+    gzipFile.deleteOnExit();
+    outputStream = new GZIPOutputStream(new FileOutputStream(gzipFile), 64 * 1024);
+    InputStream inputStream = new FileInputStream(file);
+    IOUtils.copyLarge(inputStream, outputStream);
+    inputStream.close();
+    outputStream.close();
+
+    File seekableFile = File.createTempFile("tail-benchmark", ".log.gz");
+    seekableFile.deleteOnExit();
+    SeekableGzipFile.compress(file, seekableFile);
+
+    for (int run = 0; run < 2; run++) { // first run is warm up
+      time("gzip", gzipFile, tailBytes, iterations);
+      time("seekable", seekableFile, tailBytes, iterations);
+    }
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.syscommand;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import fm.last.syscommand.SysCommandExecutor.OutputType;
+
+/**
+ * Simple throughput comparison of the previous BufferedReader.readLine() based way of reading process output and the
+ * StreamDrainer (in both line and byte mode). Not run as part of the test suite, run the main method by hand, e.g.
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:... fm.last.syscommand.StreamDrainerBenchmark [megabytes] [iterations]
+ * </pre>
+ */
+public class StreamDrainerBenchmark {
+
+  private static final String LINE = "2010-01-01 00:00:00,000 some typical output from a chatty job which goes on a bit\n";
+
+  private final byte[] data;
+
+  public StreamDrainerBenchmark(int megabytes) {
+    StringBuilder builder = new StringBuilder(megabytes * 1024 * 1024);
+    while (builder.length() < megabytes * 1024 * 1024) {
+      builder.append(LINE);
+    }
+    data = builder.toString().getBytes();
+  }
+
+  /**
+   * The way AsyncStreamReader used to read output, a String per line via an InputStreamReader and BufferedReader.
+   */
+  long readLines() throws IOException {
+    CountingObserver observer = new CountingObserver();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data)));
+    String line = null;
+    while ((line = reader.readLine()) != null) {
+      observer.sysOut(line);
+    }
+    return observer.count;
+  }
+
+  long drainLines() throws IOException {
+    CountingObserver observer = new CountingObserver();
+    new StreamDrainer(new ByteArrayInputStream(data), observer, OutputType.OUT).drain();
+    return observer.count;
+  }
+
+  long drainBytes() throws IOException {
+    CountingByteObserver observer = new CountingByteObserver();
+    new StreamDrainer(new ByteArrayInputStream(data), observer, OutputType.OUT).drain();
+    return observer.count;
+  }
+
+  private void time(String name, int iterations) throws IOException {
+    long start = System.nanoTime();
+    long result = 0;
+    for (int i = 0; i < iterations; i++) {
+      if ("readLine".equals(name)) {
+        result += readLines();
+      } else if ("drainLines".equals(name)) {
+        result += drainLines();
+      } else {
+        result += drainBytes();
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    double megabytesPerSecond = ((double) data.length * iterations / (1024 * 1024)) / seconds;
+    System.out.println(String.format("%-12s %10.1f MB/s (%d)", name, megabytesPerSecond, result));
+  }
+
+  public static void main(String[] args) throws IOException {
+    int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    StreamDrainerBenchmark benchmark = new StreamDrainerBenchmark(megabytes);
+    for (String name : new String[] { "readLine", "drainLines", "drainBytes" }) {
+      benchmark.time(name, iterations); // warm up
+    }
+    System.out.println("----");
+    for (String name : new String[] { "readLine", "drainLines", "drainBytes" }) {
+      benchmark.time(name, iterations);
+    }
+  }
+
+  private static class CountingObserver extends StringBufferSysCommandObserver {
+    private long count = 0;
+
+    @Override
+    public void sysOut(String sysOut) {
+      count += sysOut.length();
+    }
+  }
+
+  private static class CountingByteObserver extends StringBufferSysCommandObserver implements
+      ByteSysExecutorObserver {
+    private long count = 0;
+
+    @Override
+    public void sysOut(byte[] bytes, int offset, int length) {
+      count += length;
+    }
+
+    @Override
+    public void sysErr(byte[] bytes, int offset, int length) {
+      count += length;
+    }
+  }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.syscommand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import fm.last.syscommand.SysCommandExecutor.OutputType;
+
+/**
+ * Unit test case for the StreamDrainer.
+ */
+public class StreamDrainerTest {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private InputStream stream(String data) {
+    return new ByteArrayInputStream(data.getBytes(UTF8));
+  }
+
+  private LineObserver drainLines(String data, int bufferSize) throws IOException {
+    LineObserver observer = new LineObserver();
+    StreamDrainer drainer = new StreamDrainer(stream(data), observer, OutputType.OUT, bufferSize, UTF8);
+    assertEquals(data.getBytes(UTF8).length, drainer.drain());
+    assertTrue(drainer.isFinished());
+    return observer;
+  }
+
+  @Test
+  public void testLines() throws IOException {
+    LineObserver observer = drainLines("one\ntwo\nthree\n", 1024);
+    assertEquals(Arrays.asList("one", "two", "three"), observer.out);
+    assertEquals(0, observer.err.size());
+  }
+
+  @Test
+  public void testLineTerminators() throws IOException {
+    LineObserver observer = drainLines("one\r\ntwo\rthree\n\nfour", 1024);
+    assertEquals(Arrays.asList("one", "two", "three", "", "four"), observer.out);
+  }
+
+  @Test
+  public void testLinesSpanningReads() throws IOException {
+    // tiny buffer so lines and "\r\n" terminators are split across reads
+    LineObserver observer = drainLines("first line\r\nsecond line which is longer\r\nthird", 3);
+    assertEquals(Arrays.asList("first line", "second line which is longer", "third"), observer.out);
+  }
+
+  @Test
+  public void testMultiByteCharacters() throws IOException {
+    LineObserver observer = drainLines("caf\u00e9\n\u00fcber\n", 2);
+    assertEquals(Arrays.asList("caf\u00e9", "\u00fcber"), observer.out);
+  }
+
+  @Test
+  public void testErr() throws IOException {
+    LineObserver observer = new LineObserver();
+    new StreamDrainer(stream("oops\n"), observer, OutputType.ERR).drain();
+    assertEquals(Arrays.asList("oops"), observer.err);
+    assertEquals(0, observer.out.size());
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    LineObserver observer = drainLines("", 16);
+    assertEquals(0, observer.out.size());
+  }
+
+  @Test
+  public void testBytes() throws IOException {
+    BytesObserver observer = new BytesObserver();
+    String data = "one\ntwo\r\nthree";
+    StreamDrainer drainer = new StreamDrainer(stream(data), observer, OutputType.ERR, 4, UTF8);
+    drainer.drain();
+    assertEquals(data, new String(observer.err.toByteArray(), UTF8));
+    assertEquals(0, observer.out.size());
+    assertEquals(0, observer.lines); // line based methods never called
+  }
+
+  @Test
+  public void testReadAfterFinished() throws IOException {
+    StreamDrainer drainer = new StreamDrainer(stream("a"), new LineObserver(), OutputType.OUT);
+    assertEquals(1, drainer.read());
+    assertEquals(-1, drainer.read());
+    assertEquals(-1, drainer.read());
+  }
+
+  private static class LineObserver extends StringBufferSysCommandObserver {
+    private List<String> out = new ArrayList<String>();
+    private List<String> err = new ArrayList<String>();
+
+    @Override
+    public void sysOut(String sysOut) {
+      out.add(sysOut);
+    }
+
+    @Override
+    public void sysErr(String sysErr) {
+      err.add(sysErr);
+    }
+  }
+
+  private static class BytesObserver extends StringBufferSysCommandObserver implements ByteSysExecutorObserver {
+    private ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private ByteArrayOutputStream err = new ByteArrayOutputStream();
+    private int lines = 0;
+
+    @Override
+    public void sysOut(byte[] bytes, int offset, int length) {
+      out.write(bytes, offset, length);
+    }
+
+    @Override
+    public void sysErr(byte[] bytes, int offset, int length) {
+      err.write(bytes, offset, length);
+    }
+
+    @Override
+    public void sysOut(String sysOut) {
+      lines++;
+    }
+
+    @Override
+    public void sysErr(String sysErr) {
+      lines++;
+    }
+  }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.syscommand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import fm.last.syscommand.StreamPump.PumpedStream;
+import fm.last.syscommand.SysCommandExecutor.OutputType;
+
+/**
+ * Unit test case for the StreamPump.
+ */
+public class StreamPumpTest {
+
+  private StreamPump pump = new StreamPump();
+
+  @After
+  public void tearDown() {
+    pump.shutdown();
+  }
+
+  @Test
+  public void testReadWhileRunning() throws Exception {
+    PipedOutputStream processOut = new PipedOutputStream();
+    StringBufferSysCommandObserver observer = new StringBufferSysCommandObserver();
+    observer.setNewLine("\n");
+    PumpedStream stream = pump.register(new StreamDrainer(new PipedInputStream(processOut), observer, OutputType.OUT));
+    processOut.write("first\n".getBytes());
+    processOut.flush();
+    for (int i = 0; i < 100 && observer.getSysOut().length() == 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals("first\n", observer.getSysOut()); // read before process finished
+    assertFalse(stream.isDone());
+
+    processOut.write("second".getBytes());
+    processOut.close();
+    stream.finish();
+    assertTrue(stream.await(5, TimeUnit.SECONDS));
+    assertEquals("first\nsecond\n", observer.getSysOut());
+    assertEquals(0, pump.getStreamCount());
+  }
+
+  @Test
+  public void testManyStreams() throws Exception {
+    pump.setThreadCount(1);
+    int streamCount = 20;
+    PipedOutputStream[] outs = new PipedOutputStream[streamCount];
+    PumpedStream[] streams = new PumpedStream[streamCount];
+    StringBufferSysCommandObserver[] observers = new StringBufferSysCommandObserver[streamCount];
+    for (int i = 0; i < streamCount; i++) {
+      outs[i] = new PipedOutputStream();
+      observers[i] = new StringBufferSysCommandObserver();
+      observers[i].setNewLine("\n");
+      streams[i] = pump.register(new StreamDrainer(new PipedInputStream(outs[i]), observers[i], OutputType.ERR));
+    }
+    for (int i = 0; i < streamCount; i++) {
+      outs[i].write(("stream " + i + "\n").getBytes());
+      outs[i].close();
+      streams[i].finish();
+    }
+    for (int i = 0; i < streamCount; i++) {
+      assertTrue(streams[i].await(5, TimeUnit.SECONDS));
+      assertEquals("stream " + i + "\n", observers[i].getSysErr());
+    }
+  }
+
+  @Test
+  public void testExecutorWithPump() throws Exception {
+    StringBufferSysCommandObserver observer = new StringBufferSysCommandObserver();
+    observer.setNewLine("\n");
+    SysCommandExecutor executor = new SysCommandExecutor(observer);
+    executor.setStreamPump(pump);
+    executor.start("echo", "hello");
+    assertEquals(0, executor.waitForProcess());
+    assertEquals("hello\n", observer.getSysOut());
+    assertEquals("", observer.getSysErr());
+  }
+
+  @Test(timeout = 20000)
+  public void testBackgroundChildDoesNotPinPump() throws Exception {
+    pump.setThreadCount(1);
+    for (int i = 0; i < 2; i++) { // a second process is only read if the pump thread wasn't left blocked by the first
+      StringBufferSysCommandObserver observer = new StringBufferSysCommandObserver();
+      observer.setNewLine("\n");
+      SysCommandExecutor executor = new SysCommandExecutor(observer);
+      executor.setStreamPump(pump);
+      long start = System.currentTimeMillis();
+      executor.start("sh", "-c", "echo started; sleep 60 &");
+      assertEquals(0, executor.waitForProcess());
+      assertTrue(System.currentTimeMillis() - start < SysCommandExecutor.DEFAULT_SYS_OUT_WAIT_TIME);
+      assertEquals("started\n", observer.getSysOut());
+    }
+    assertEquals(0, pump.getStreamCount());
+  }
+
+  @Test
+  public void testFinishTimeout() throws Exception {
+    pump.setFinishTimeout(100);
+    final PipedOutputStream processOut = new PipedOutputStream();
+    StringBufferSysCommandObserver observer = new StringBufferSysCommandObserver();
+    PumpedStream stream = pump.register(new StreamDrainer(new PipedInputStream(processOut), observer, OutputType.OUT));
+    Thread writer = new Thread() { // a background process which never stops writing
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            processOut.write("output\n".getBytes());
+            Thread.sleep(1);
+          }
+        } catch (Exception e) {
+          // stream closed by the pump
+        }
+      }
+    };
+    writer.start();
+    stream.finish();
+    assertTrue(stream.await(5, TimeUnit.SECONDS));
+    writer.join(5000);
+    assertFalse(writer.isAlive());
+  }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2010 Last.fm
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package fm.last.syscommand;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+/**
+ * Unit test case for the TailBuffer.
+ */
+public class TailBufferTest {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private TailBuffer buffer = new TailBuffer(10);
+
+  private void append(String string) {
+    byte[] bytes = string.getBytes(UTF8);
+    buffer.append(bytes, 0, bytes.length);
+  }
+
+  @Test
+  public void testNotFull() {
+    append("abc");
+    append("def");
+    assertEquals("abcdef", buffer.toString());
+    assertFalse(buffer.isTruncated());
+    assertEquals(6, buffer.getTotalBytes());
+  }
+
+  @Test
+  public void testExactlyFull() {
+    append("0123456789");
+    assertEquals("0123456789", buffer.toString());
+    assertFalse(buffer.isTruncated());
+  }
+
+  @Test
+  public void testWrap() {
+    append("0123456");
+    append("789abc");
+    assertEquals("3456789abc", buffer.toString());
+    assertTrue(buffer.isTruncated());
+    append("d");
+    assertEquals("456789abcd", buffer.toString());
+    assertEquals(14, buffer.getTotalBytes());
+  }
+
+  @Test
+  public void testLargerThanCapacity() {
+    append("ab");
+    append("0123456789abcdef");
+    assertEquals("6789abcdef", buffer.toString());
+    append("g");
+    assertEquals("789abcdefg", buffer.toString());
+  }
+
+  @Test
+  public void testPartialCharacterSkipped() {
+    append("\u00e9\u00e9\u00e9\u00e9\u00e9x"); // 11 bytes, first byte of first character will be lost
+    assertEquals("\u00e9\u00e9\u00e9\u00e9x", buffer.toString());
+  }
+
+  @Test
+  public void testAppendLine() {
+    buffer.appendLine("one");
+    buffer.appendLine("two");
+    assertEquals("one\ntwo\n", buffer.toString());
+  }
+
+  @Test
+  public void testAppendLineUtf8() {
+    buffer.appendLine("caf\u00e9");
+    assertArrayEquals("caf\u00e9\n".getBytes(UTF8), buffer.toByteArray());
+    assertEquals("caf\u00e9\n", buffer.toString());
+  }
+
+  @Test
+  public void testZeroCapacity() {
+    buffer = new TailBuffer(0);
+    append("abc");
+    assertEquals("", buffer.toString());
+    assertEquals(3, buffer.getTotalBytes());
+  }
+
+}
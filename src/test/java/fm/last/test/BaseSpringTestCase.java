@@ -57,7 +57,8 @@ public class BaseSpringTestCase {
    * Deletes all data from all the the task-related tables.
    */
   protected void cleanupTaskTables() {
-    deleteFromTables(TableConstants.TABLE_TASK_CHILD_TASK, TableConstants.TABLE_TASK_RUNS, TableConstants.TABLE_TASKS);
+    deleteFromTables(TableConstants.TABLE_TASK_CHILD_TASK, TableConstants.TABLE_TASK_RUN_OUTPUTS,
+        TableConstants.TABLE_TASK_RUNS, TableConstants.TABLE_TASKS);
   }
 
   @Test